@@ -5,15 +5,16 @@ import androidx.annotation.NonNull;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 
-import me.aap.utils.app.App;
+import me.aap.utils.concurrent.TimerWheel;
 import me.aap.utils.function.CheckedBiConsumer;
+import me.aap.utils.function.CheckedBiFunction;
 import me.aap.utils.function.CheckedFunction;
 import me.aap.utils.function.CheckedSupplier;
 import me.aap.utils.holder.BiHolder;
 import me.aap.utils.log.Log;
 
-import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static me.aap.utils.async.Completed.completed;
 import static me.aap.utils.async.Completed.completedNull;
 import static me.aap.utils.async.Completed.completedVoid;
@@ -70,6 +71,55 @@ public class Async {
 		return completedVoid();
 	}
 
+	public static <T> FutureSupplier<Void> parallelForEach(CheckedFunction<T, FutureSupplier<?>, Throwable> apply,
+																												 Iterable<T> it, int maxInFlight) {
+		return parallelForEach(apply, it.iterator(), maxInFlight);
+	}
+
+	/**
+	 * Same as {@link #forEach(CheckedFunction, Iterator)}, but up to maxInFlight futures are pending
+	 * at the same time. The next item is taken from the iterator when a pending future is completed.
+	 * On failure the pending futures are cancelled.
+	 */
+	public static <T> FutureSupplier<Void> parallelForEach(CheckedFunction<T, FutureSupplier<?>, Throwable> apply,
+																												 Iterator<T> it, int maxInFlight) {
+		return new ParallelIterator.ForEach<>(it, apply, maxInFlight).start();
+	}
+
+	public static <T, R> FutureSupplier<List<R>> parallelMap(
+			CheckedFunction<? super T, FutureSupplier<R>, Throwable> map, Iterable<T> it,
+			int maxInFlight, boolean preserveOrder) {
+		return parallelMap(map, it.iterator(), maxInFlight, preserveOrder);
+	}
+
+	/**
+	 * Map the items with up to maxInFlight pending futures.
+	 *
+	 * @param preserveOrder true to return the results in the iterator order,
+	 *                      false - in the completion order
+	 */
+	public static <T, R> FutureSupplier<List<R>> parallelMap(
+			CheckedFunction<? super T, FutureSupplier<R>, Throwable> map, Iterator<T> it,
+			int maxInFlight, boolean preserveOrder) {
+		return new ParallelIterator.Mapper<>(it, map, maxInFlight, preserveOrder).start();
+	}
+
+	public static <T, R, A> FutureSupplier<A> reduce(
+			CheckedFunction<? super T, FutureSupplier<R>, Throwable> map, Iterable<T> it, int maxInFlight,
+			A identity, CheckedBiFunction<A, ? super R, A, Throwable> reduce) {
+		return reduce(map, it.iterator(), maxInFlight, identity, reduce);
+	}
+
+	/**
+	 * Map the items with up to maxInFlight pending futures and reduce the results in the
+	 * completion order, thus the reduce function must not depend on the order.
+	 */
+	public static <T, R, A> FutureSupplier<A> reduce(
+			CheckedFunction<? super T, FutureSupplier<R>, Throwable> map, Iterator<T> it, int maxInFlight,
+			A identity, CheckedBiFunction<A, ? super R, A, Throwable> reduce) {
+		return new ParallelIterator.Reduce<>(it, map, maxInFlight, identity, reduce).start();
+	}
+
 	@SuppressWarnings({"unchecked", "rawtypes"})
 	public static FutureSupplier<?> all(FutureSupplier<?> first, FutureSupplier<?>... next) {
 		return iterate((FutureSupplier) first, Arrays.asList((FutureSupplier[]) next));
@@ -284,13 +334,13 @@ public class Async {
 	public static <T> FutureSupplier<T> schedule(CheckedSupplier<FutureSupplier<T>, Throwable> s,
 																							 long delay) {
 		Promise<T> p = new Promise<>();
-		App.get().getScheduler().schedule(() -> {
+		TimerWheel.get().schedule(() -> {
 			try {
 				s.get().thenComplete(p);
 			} catch (Throwable ex) {
 				p.completeExceptionally(ex);
 			}
-		}, delay, MILLISECONDS);
+		}, delay);
 		return p;
 	}
 }
@@ -0,0 +1,155 @@
+package me.aap.utils.async;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import me.aap.utils.function.Cancellable;
+import me.aap.utils.function.CheckedFunction;
+import me.aap.utils.function.CheckedSupplier;
+import me.aap.utils.function.Predicate;
+
+/**
+ * A stream of elements with the demand signalling. The interfaces follow the contract of
+ * java.util.concurrent.Flow, which is not available before Android 11, see {@link FlowAdapter}
+ * for the conversion. Nothing is emitted until the subscriber requests the elements with
+ * {@link Subscription#request(long)}, the signals to a subscriber are never concurrent.
+ *
+ * @author Andrey Pavlenko
+ */
+public interface AsyncPublisher<T> {
+
+	void subscribe(@NonNull Subscriber<? super T> subscriber);
+
+	/**
+	 * The function may return null to drop the element.
+	 */
+	default <R> AsyncPublisher<R> map(@NonNull CheckedFunction<? super T, ? extends R, Throwable> map) {
+		return s -> subscribe(new PublisherOps.Map<>(s, map));
+	}
+
+	default AsyncPublisher<T> filter(@NonNull Predicate<? super T> filter) {
+		return map(t -> filter.test(t) ? t : null);
+	}
+
+	/**
+	 * Request up to size elements ahead of the downstream demand.
+	 */
+	default AsyncPublisher<T> buffer(int size) {
+		return s -> subscribe(new PublisherOps.Buffer<>(s, size));
+	}
+
+	/**
+	 * Group the elements into the lists of the specified size. The last list may be shorter.
+	 */
+	default AsyncPublisher<List<T>> batch(int size) {
+		return s -> subscribe(new PublisherOps.Batch<>(s, size));
+	}
+
+	/**
+	 * Subscribe to the publishers, returned by the function, with at most concurrency active
+	 * publishers. The elements are emitted in the order of arrival.
+	 */
+	default <R> AsyncPublisher<R> flatMap(
+			@NonNull CheckedFunction<? super T, ? extends AsyncPublisher<? extends R>, Throwable> map,
+			int concurrency) {
+		return s -> subscribe(new PublisherOps.FlatMap<>(s, map, concurrency));
+	}
+
+	/**
+	 * Request all the elements and collect them into a list.
+	 */
+	default FutureSupplier<List<T>> collect() {
+		PublisherOps.Collect<T> c = new PublisherOps.Collect<>();
+		subscribe(c);
+		return c;
+	}
+
+	/**
+	 * Request the elements one by one, the next element is requested when the future, returned by
+	 * the function, is completed. Cancellation of the returned future cancels the subscription.
+	 */
+	default FutureSupplier<Void> forEach(
+			@NonNull CheckedFunction<? super T, ? extends FutureSupplier<?>, Throwable> apply) {
+		PublisherOps.ForEach<T> f = new PublisherOps.ForEach<>(apply);
+		subscribe(f);
+		return f;
+	}
+
+	static <T> AsyncPublisher<T> empty() {
+		return from(Collections.emptyList());
+	}
+
+	static <T> AsyncPublisher<T> from(@NonNull Iterable<? extends T> items) {
+		return s -> {
+			Iterator<? extends T> it = items.iterator();
+			new PublisherOps.Pull<T>(s, () -> it.hasNext() ? Completed.completed(it.next()) : null,
+					null).start();
+		};
+	}
+
+	/**
+	 * Emit the elements of the iterable, when the future is completed.
+	 */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	static <T> AsyncPublisher<T> from(@NonNull FutureSupplier<? extends Iterable<? extends T>> items) {
+		return s -> {
+			Iterator<? extends T>[] it = new Iterator[1];
+			new PublisherOps.Pull<T>(s, () -> {
+				if (it[0] != null) return it[0].hasNext() ? Completed.completed(it[0].next()) : null;
+				return items.then(i -> {
+					it[0] = i.iterator();
+					return it[0].hasNext() ? Completed.completed(it[0].next()) : Completed.completedNull();
+				});
+			}, null).start();
+		};
+	}
+
+	/**
+	 * Emit the values of the futures, returned by the generator. The stream is completed when the
+	 * generator returns null or a future, completed with null. The generator is called when the
+	 * previous future is completed and there is an outstanding demand. The publisher allows a single
+	 * subscription, because the generator is shared.
+	 *
+	 * @param onClose called once the stream is completed, failed or cancelled
+	 */
+	static <T> AsyncPublisher<T> generate(
+			@NonNull CheckedSupplier<? extends FutureSupplier<? extends T>, Throwable> generator,
+			@Nullable Runnable onClose) {
+		return new PublisherOps.Single<>(s -> new PublisherOps.Pull<T>(s, generator, onClose).start());
+	}
+
+	/**
+	 * Emit the values of the futures, produced like with {@link AsyncIterator}: the function
+	 * returns the next future, when the previous one is completed, or null at the end.
+	 */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	static <T> AsyncPublisher<T> iterate(
+			@NonNull FutureSupplier<? extends T> first,
+			@NonNull CheckedFunction<FutureSupplier<? extends T>, FutureSupplier<? extends T>, Throwable> next) {
+		FutureSupplier<? extends T>[] current = new FutureSupplier[1];
+		return generate(() -> current[0] = (current[0] == null) ? first : next.apply(current[0]), null);
+	}
+
+	interface Subscriber<T> {
+
+		void onSubscribe(@NonNull Subscription subscription);
+
+		void onNext(@NonNull T item);
+
+		void onError(@NonNull Throwable fail);
+
+		void onComplete();
+	}
+
+	interface Subscription extends Cancellable {
+
+		void request(long n);
+
+		@Override
+		boolean cancel();
+	}
+}
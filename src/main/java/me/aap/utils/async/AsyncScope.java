@@ -0,0 +1,315 @@
+package me.aap.utils.async;
+
+import static me.aap.utils.async.Completed.cancelled;
+import static me.aap.utils.async.Completed.failed;
+import static me.aap.utils.function.ResultConsumer.Cancel.isCancellation;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeoutException;
+
+import me.aap.utils.concurrent.TimerWheel;
+import me.aap.utils.function.CheckedSupplier;
+
+/**
+ * Owns a group of child futures. The tasks, started with {@link #spawn(CheckedSupplier)}, are run
+ * with the limited parallelism, the excess tasks are queued. On the first child failure or when the
+ * deadline expires, all the running and queued children are cancelled and the scope fails, when all
+ * the children are completed. Cancellation of the scope cancels the children as well. A child,
+ * cancelled on its own, does not fail the scope.
+ * <p>
+ * The scope is completed when {@link #join()} is called and all the children are completed. The
+ * children may spawn new tasks until then, e.g. to scan the subfolders.
+ *
+ * @author Andrey Pavlenko
+ */
+public class AsyncScope extends Promise<Void> {
+	private final int parallelism;
+	private final Deque<Task<?>> queue = new ArrayDeque<>();
+	private final Set<Task<?>> running = Collections.newSetFromMap(new IdentityHashMap<>());
+	private final TimerWheel.Timer deadline;
+	private int active;
+	private int children;
+	// The first failure, the scope is completed with, when all the children are completed
+	private Throwable failure;
+	private boolean joined;
+	private boolean draining;
+
+	public AsyncScope() {
+		this(Integer.MAX_VALUE, 0);
+	}
+
+	public AsyncScope(int parallelism) {
+		this(parallelism, 0);
+	}
+
+	/**
+	 * @param parallelism the maximum number of the concurrently running tasks
+	 * @param timeout     the deadline in milliseconds or 0
+	 */
+	public AsyncScope(int parallelism, long timeout) {
+		this.parallelism = Math.max(1, parallelism);
+		deadline = (timeout > 0) ? TimerWheel.get().schedule(() ->
+				fail(new TimeoutException("Scope deadline expired")), timeout) : null;
+		onCompletion((r, err) -> {
+			if (deadline != null) deadline.cancel();
+			if (err != null) cancelChildren();
+		});
+	}
+
+	/**
+	 * Run the task, when the number of the running tasks is less than the parallelism limit.
+	 * The returned future is cancelled if the scope is completed before the task is started.
+	 */
+	public <T> FutureSupplier<T> spawn(@NonNull CheckedSupplier<FutureSupplier<T>, Throwable> task) {
+		Task<T> t = new Task<>(task);
+		boolean queued;
+
+		synchronized (this) {
+			if (queued = !isClosing()) {
+				children++;
+				queue.add(t);
+			}
+		}
+
+		if (queued) drain();
+		else t.cancel();
+		return t;
+	}
+
+	/**
+	 * Add the future to the scope. The future is not counted by the parallelism limit.
+	 */
+	public <T> FutureSupplier<T> add(@NonNull FutureSupplier<T> f) {
+		Task<T> t = new Task<>(null);
+
+		synchronized (this) {
+			if (isClosing()) {
+				f.cancel();
+				t.cancel();
+				return t;
+			}
+
+			children++;
+		}
+
+		t.attach(f);
+		return t;
+	}
+
+	/**
+	 * Create a child scope, that is cancelled with this scope and fails this scope on failure.
+	 * The child scope must be joined as well.
+	 */
+	public AsyncScope child(int parallelism) {
+		AsyncScope s = new AsyncScope(parallelism);
+		add(s);
+		return s;
+	}
+
+	/**
+	 * Complete the scope, when all the children are completed.
+	 */
+	public FutureSupplier<Void> join() {
+		boolean done;
+
+		synchronized (this) {
+			joined = true;
+			done = (children == 0);
+		}
+
+		if (done) completeScope();
+		return this;
+	}
+
+	/**
+	 * Returns the number of the running children.
+	 */
+	public synchronized int getInFlight() {
+		return running.size();
+	}
+
+	/**
+	 * Returns the number of the tasks waiting for the parallelism limit.
+	 */
+	public synchronized int getQueued() {
+		return queue.size();
+	}
+
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	@NonNull
+	@Override
+	public String toString() {
+		return "AsyncScope{inFlight=" + getInFlight() + ", queued=" + getQueued() + ", done=" + isDone() + '}';
+	}
+
+	private void drain() {
+		synchronized (this) {
+			if (draining) return;
+			draining = true;
+		}
+
+		for (; ; ) {
+			Task<?> t;
+
+			synchronized (this) {
+				if ((active >= parallelism) || ((t = queue.poll()) == null)) {
+					draining = false;
+					return;
+				}
+
+				active++;
+			}
+
+			t.start();
+		}
+	}
+
+	private void childDone(Task<?> t, Throwable err) {
+		boolean done;
+
+		if ((err != null) && !isCancellation(err)) fail(err);
+
+		synchronized (this) {
+			running.remove(t);
+			if (t.limited) active--;
+			done = (--children == 0) && (joined || (failure != null));
+		}
+
+		if (t.limited) drain();
+		if (done) completeScope();
+	}
+
+	/**
+	 * Record the first failure and cancel the children. The scope is failed, when all the
+	 * children are completed.
+	 */
+	private void fail(Throwable err) {
+		boolean done;
+
+		synchronized (this) {
+			if ((failure != null) || isDone()) return;
+			failure = err;
+			done = (children == 0);
+		}
+
+		cancelChildren();
+		if (done) completeExceptionally(err);
+	}
+
+	private void completeScope() {
+		Throwable err;
+
+		synchronized (this) {
+			err = failure;
+		}
+
+		if (err != null) completeExceptionally(err);
+		else complete(null);
+	}
+
+	// Must be called under the lock
+	private boolean isClosing() {
+		return (failure != null) || isDone();
+	}
+
+	private void cancelChildren() {
+		List<Task<?>> list;
+
+		synchronized (this) {
+			list = new ArrayList<>(queue.size() + running.size());
+			list.addAll(queue);
+			list.addAll(running);
+		}
+
+		for (Task<?> t : list) {
+			t.cancel();
+		}
+	}
+
+	private final class Task<T> extends Promise<T> {
+		final CheckedSupplier<FutureSupplier<T>, Throwable> supplier;
+		final boolean limited;
+		private FutureSupplier<T> future;
+		private boolean dequeued;
+
+		Task(CheckedSupplier<FutureSupplier<T>, Throwable> supplier) {
+			this.supplier = supplier;
+			limited = (supplier != null);
+		}
+
+		void start() {
+			FutureSupplier<T> f;
+
+			boolean closing;
+
+			synchronized (AsyncScope.this) {
+				closing = AsyncScope.this.isClosing();
+			}
+
+			if (isDone() || closing) {
+				f = cancelled();
+			} else {
+				try {
+					f = supplier.get();
+				} catch (Throwable ex) {
+					f = failed(ex);
+				}
+			}
+
+			attach(f);
+		}
+
+		void attach(FutureSupplier<T> f) {
+			synchronized (AsyncScope.this) {
+				future = f;
+				dequeued = true;
+				running.add(this);
+			}
+
+			f.onCompletion((r, err) -> {
+				complete(r, err);
+				childDone(this, err);
+			});
+
+			// Cancelled before attached
+			if (isCancelled()) f.cancel();
+		}
+
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			if (!super.cancel(mayInterruptIfRunning)) return false;
+			FutureSupplier<T> f;
+			boolean removed = false;
+
+			synchronized (AsyncScope.this) {
+				f = future;
+				if (!dequeued) removed = queue.remove(this);
+			}
+
+			if (f != null) {
+				f.cancel(mayInterruptIfRunning);
+			} else if (removed) {
+				boolean done;
+
+				synchronized (AsyncScope.this) {
+					done = (--children == 0) && (joined || (failure != null));
+				}
+
+				if (done) completeScope();
+			}
+
+			return true;
+		}
+	}
+}
@@ -290,6 +290,14 @@ public abstract class CompletableSupplier<C, S> implements Completable<C>, Futur
 		}
 	}
 
+	private void supplyDone(Incomplete<S> consumers, S result, Throwable fail, int progress,
+													int total, @Nullable Executor executor) {
+		// Most of the futures have a single consumer, no need to create the iterator
+		ProgressiveResultConsumer<? super S> c = consumers.single();
+		if (c != null) supply(c, result, fail, progress, total, executor);
+		else supply(consumers, result, fail, progress, total, executor);
+	}
+
 	private boolean supply(S result, Throwable fail, int progress, int total) {
 		for (Object st = STATE.get(this); ; st = STATE.get(this)) {
 			if (!(st instanceof Incomplete)) return false;
@@ -311,7 +319,7 @@ public abstract class CompletableSupplier<C, S> implements Completable<C>, Futur
 
 				if (!STATE.compareAndSet(this, st, r)) continue;
 
-				supply(current, result, fail, progress, total, getExecutor());
+				supplyDone(current, result, fail, progress, total, getExecutor());
 				return true;
 			} else {
 				Progress<S> p = new Progress<>(result, fail, progress, total);
@@ -340,7 +348,7 @@ public abstract class CompletableSupplier<C, S> implements Completable<C>, Futur
 				}
 
 				if (STATE.compareAndSet(this, current, r)) {
-					supply(current, p.result, p.fail, p.progress, p.total, executor);
+					supplyDone(current, p.result, p.fail, p.progress, p.total, executor);
 					return;
 				}
 			} else {
@@ -437,6 +445,22 @@ public abstract class CompletableSupplier<C, S> implements Completable<C>, Futur
 			this.processing = processing;
 		}
 
+		/**
+		 * Returns the consumer, if there is exactly one, or null.
+		 */
+		@Nullable
+		ProgressiveResultConsumer<? super T> single() {
+			ProgressiveResultConsumer<? super T> c = null;
+
+			for (Incomplete<T> i = this; i != null; i = i.next) {
+				if (i.consumer == null) continue;
+				if (c != null) return null;
+				c = i.consumer;
+			}
+
+			return c;
+		}
+
 		@NonNull
 		@Override
 		public Iterator<ProgressiveResultConsumer<? super T>> iterator() {
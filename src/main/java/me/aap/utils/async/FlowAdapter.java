@@ -0,0 +1,96 @@
+package me.aap.utils.async;
+
+import android.os.Build;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.RequiresApi;
+
+import java.util.concurrent.Flow;
+
+/**
+ * Conversion between {@link AsyncPublisher} and {@link Flow.Publisher}.
+ *
+ * @author Andrey Pavlenko
+ */
+@RequiresApi(Build.VERSION_CODES.R)
+public final class FlowAdapter {
+
+	private FlowAdapter() {
+	}
+
+	public static <T> Flow.Publisher<T> toFlow(@NonNull AsyncPublisher<T> publisher) {
+		return s -> publisher.subscribe(new AsyncPublisher.Subscriber<T>() {
+			@Override
+			public void onSubscribe(@NonNull AsyncPublisher.Subscription subscription) {
+				s.onSubscribe(new Flow.Subscription() {
+					@Override
+					public void request(long n) {
+						subscription.request(n);
+					}
+
+					@Override
+					public void cancel() {
+						subscription.cancel();
+					}
+				});
+			}
+
+			@Override
+			public void onNext(@NonNull T item) {
+				s.onNext(item);
+			}
+
+			@Override
+			public void onError(@NonNull Throwable fail) {
+				s.onError(fail);
+			}
+
+			@Override
+			public void onComplete() {
+				s.onComplete();
+			}
+		});
+	}
+
+	public static <T> AsyncPublisher<T> fromFlow(@NonNull Flow.Publisher<T> publisher) {
+		return s -> publisher.subscribe(new Flow.Subscriber<T>() {
+			@Override
+			public void onSubscribe(Flow.Subscription subscription) {
+				s.onSubscribe(new AsyncPublisher.Subscription() {
+					private boolean cancelled;
+
+					@Override
+					public void request(long n) {
+						subscription.request(n);
+					}
+
+					@Override
+					public boolean cancel() {
+						synchronized (this) {
+							if (cancelled) return false;
+							cancelled = true;
+						}
+
+						subscription.cancel();
+						return true;
+					}
+				});
+			}
+
+			@Override
+			public void onNext(T item) {
+				s.onNext(item);
+			}
+
+			@Override
+			public void onError(Throwable fail) {
+				s.onError(fail);
+			}
+
+			@Override
+			public void onComplete() {
+				s.onComplete();
+			}
+		});
+	}
+}
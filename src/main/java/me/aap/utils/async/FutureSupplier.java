@@ -1,6 +1,5 @@
 package me.aap.utils.async;
 
-import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static me.aap.utils.async.Completed.completed;
 import static me.aap.utils.async.Completed.failed;
 import static me.aap.utils.concurrent.ConcurrentUtils.isMainThread;
@@ -19,6 +18,7 @@ import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 import me.aap.utils.BuildConfig;
 import me.aap.utils.app.App;
 import me.aap.utils.concurrent.HandlerExecutor;
+import me.aap.utils.concurrent.TimerWheel;
 import me.aap.utils.function.Cancellable;
 import me.aap.utils.function.CheckedBiConsumer;
 import me.aap.utils.function.CheckedFunction;
@@ -209,7 +209,7 @@ public interface FutureSupplier<T> extends Future<T>, CheckedSupplier<T, Throwab
 		if (isDone()) return this;
 		var trace = BuildConfig.FUTURE_TRACE ? new TimeoutException() : null;
 		var p = new Promise<T>();
-		var t = App.get().getScheduler().schedule(() -> {
+		var t = TimerWheel.get().schedule(() -> {
 			if (p.isDone()) return;
 			if (BuildConfig.FUTURE_TRACE) Log.d(trace, "FutureSupplier timed out");
 
@@ -218,10 +218,10 @@ public interface FutureSupplier<T> extends Future<T>, CheckedSupplier<T, Throwab
 			} catch (Throwable ex) {
 				p.completeExceptionally(ex);
 			}
-		}, millis, MILLISECONDS);
+		}, millis);
 
 		onCompletion((r, err) -> {
-			t.cancel(false);
+			t.cancel();
 			p.complete(r, err);
 		});
 
@@ -306,10 +306,7 @@ public interface FutureSupplier<T> extends Future<T>, CheckedSupplier<T, Throwab
 			}
 		}
 
-		return ProxySupplier.create(this, map, ex -> {
-			if (isCancellation(ex)) FutureSupplier.this.cancel();
-			throw ex;
-		});
+		return MapStage.chain(this, map);
 	}
 
 	default <R> FutureSupplier<R> mapIfNotNull(
@@ -409,29 +406,7 @@ public interface FutureSupplier<T> extends Future<T>, CheckedSupplier<T, Throwab
 			}
 		}
 
-		var p = new Promise<R>() {
-			@Override
-			public boolean cancel(boolean mayInterruptIfRunning) {
-				return super.cancel(mayInterruptIfRunning) ||
-						FutureSupplier.this.cancel(mayInterruptIfRunning);
-			}
-		};
-
-		onCompletion((result, fail) -> {
-			if (fail == null) {
-				try {
-					then.apply(result).onCompletion(p::complete);
-				} catch (Throwable ex) {
-					p.completeExceptionally(ex);
-				}
-			} else if (isCancellation(fail)) {
-				p.cancel();
-			} else {
-				p.completeExceptionally(fail);
-			}
-		});
-
-		return p;
+		return ThenStage.chain(this, then, null);
 	}
 
 	default <R> FutureSupplier<R> then(
@@ -446,27 +421,7 @@ public interface FutureSupplier<T> extends Future<T>, CheckedSupplier<T, Throwab
 			}
 		}
 
-		var p = new Promise<R>() {
-			@Override
-			public boolean cancel(boolean mayInterruptIfRunning) {
-				return super.cancel(mayInterruptIfRunning) ||
-						FutureSupplier.this.cancel(mayInterruptIfRunning);
-			}
-		};
-
-		onCompletion((result, fail) -> {
-			try {
-				if (fail == null) {
-					onSuccess.apply(result).onCompletion(p::complete);
-				} else {
-					onFailure.apply(getFailure()).onCompletion(p::complete);
-				}
-			} catch (Throwable ex) {
-				p.completeExceptionally(ex);
-			}
-		});
-
-		return p;
+		return ThenStage.chain(this, onSuccess, onFailure);
 	}
 
 	default <R> FutureSupplier<R> thenIgnoreResult(
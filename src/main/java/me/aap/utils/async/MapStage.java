@@ -0,0 +1,52 @@
+package me.aap.utils.async;
+
+import static me.aap.utils.async.CompletableSupplier.Cancelled.CANCELLED;
+import static me.aap.utils.function.ResultConsumer.Cancel.isCancellation;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.CancellationException;
+
+import me.aap.utils.BuildConfig;
+import me.aap.utils.function.CheckedFunction;
+
+/**
+ * The result of {@link FutureSupplier#map(CheckedFunction)}. Propagates the cancellation to the
+ * source without the failure handling lambda.
+ *
+ * @author Andrey Pavlenko
+ */
+final class MapStage<T, R> extends ProxySupplier<T, R> {
+	private final FutureSupplier<T> source;
+	private final CheckedFunction<? super T, ? extends R, Throwable> map;
+
+	private MapStage(FutureSupplier<T> source, CheckedFunction<? super T, ? extends R, Throwable> map) {
+		this.source = source;
+		this.map = map;
+	}
+
+	static <T, R> FutureSupplier<R> chain(FutureSupplier<T> source,
+																				 CheckedFunction<? super T, ? extends R, Throwable> map) {
+		MapStage<T, R> s = new MapStage<>(source, map);
+		source.addConsumer(s);
+		return s;
+	}
+
+	@Override
+	public R map(T value) throws Throwable {
+		return map.apply(value);
+	}
+
+	@Override
+	public boolean completeExceptionally(@NonNull Throwable fail) {
+		if (isCancellation(fail)) source.cancel();
+		return super.completeExceptionally(fail);
+	}
+
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		boolean cancelled = super.completeExceptionally(BuildConfig.D ? new CancellationException() : CANCELLED.fail);
+		source.cancel();
+		return cancelled;
+	}
+}
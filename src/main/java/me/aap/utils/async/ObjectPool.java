@@ -5,12 +5,18 @@ import static me.aap.utils.async.Completed.failed;
 
 import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 import me.aap.utils.BuildConfig;
+import me.aap.utils.app.App;
 import me.aap.utils.concurrent.ConcurrentQueueBase;
 import me.aap.utils.function.Consumer;
+import me.aap.utils.function.Predicate;
 import me.aap.utils.holder.Holder;
 import me.aap.utils.log.Log;
 
@@ -89,6 +95,21 @@ public abstract class ObjectPool<T> implements AutoCloseable {
 		return promise;
 	}
 
+	/**
+	 * Same as {@link #getObject()}, but fails with {@link TimeoutException} if no object becomes
+	 * available within the specified time. A non-positive timeout means no limit.
+	 */
+	public FutureSupplier<PooledObject<T>> getObject(long timeout, TimeUnit unit) {
+		FutureSupplier<PooledObject<T>> f = getObject();
+		if (f.isDone() || (timeout <= 0)) return f;
+
+		ObjectPromise<T> p = (ObjectPromise<T>) f;
+		ScheduledFuture<?> t = getScheduler().schedule(() ->
+				p.completeExceptionally(new TimeoutException("Object pool wait timeout")), timeout, unit);
+		p.onCompletion((r, err) -> t.cancel(false));
+		return p;
+	}
+
 	public boolean isClosed() {
 		return closed != null;
 	}
@@ -121,6 +142,30 @@ public abstract class ObjectPool<T> implements AutoCloseable {
 		promiseQueue.clear(p -> p.completeExceptionally(closed));
 	}
 
+	/**
+	 * Destroy the idle objects, matching the predicate.
+	 *
+	 * @return the number of destroyed objects
+	 */
+	protected int evictIdle(Predicate<? super T> predicate) {
+		int n = 0;
+
+		for (T obj : objectQueue) {
+			if (predicate.test(obj) && objectQueue.remove(obj)) {
+				destroyObject(obj);
+				counter.decrementAndGet();
+				n++;
+			}
+		}
+
+		if (n != 0) processQueue();
+		return n;
+	}
+
+	protected ScheduledExecutorService getScheduler() {
+		return App.get().getScheduler();
+	}
+
 	protected abstract FutureSupplier<T> createObject();
 
 	protected boolean validateObject(T obj, boolean releasing) {
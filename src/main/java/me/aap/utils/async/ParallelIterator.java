@@ -0,0 +1,205 @@
+package me.aap.utils.async;
+
+import static me.aap.utils.function.ResultConsumer.Cancel.isCancellation;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import me.aap.utils.function.CheckedBiFunction;
+import me.aap.utils.function.CheckedFunction;
+
+/**
+ * Applies the function to the iterator items with at most maxInFlight pending futures. The next
+ * item is taken from the iterator only when a slot is released, so the iterator may be lazy and
+ * unbounded. The iteration is stopped when the function returns null. The results are passed to
+ * {@link #accept(int, Object)} sequentially. On the first failure the pending futures are
+ * cancelled and the iteration is stopped.
+ *
+ * @author Andrey Pavlenko
+ */
+abstract class ParallelIterator<T, R, A> extends Promise<A> {
+	private final Iterator<T> it;
+	private final CheckedFunction<? super T, FutureSupplier<R>, Throwable> map;
+	private final int maxInFlight;
+	private final Set<FutureSupplier<R>> running = Collections.newSetFromMap(new IdentityHashMap<>());
+	private int index;
+	private boolean exhausted;
+	private boolean pulling;
+
+	ParallelIterator(Iterator<T> it, CheckedFunction<? super T, FutureSupplier<R>, Throwable> map,
+									 int maxInFlight) {
+		this.it = it;
+		this.map = map;
+		this.maxInFlight = Math.max(1, maxInFlight);
+		onFailure(err -> cancelRunning());
+	}
+
+	/**
+	 * Called under the lock in the completion order.
+	 *
+	 * @param index the item position in the iterator
+	 */
+	abstract void accept(int index, R result) throws Throwable;
+
+	abstract A result();
+
+	ParallelIterator<T, R, A> start() {
+		pull();
+		return this;
+	}
+
+	private void pull() {
+		synchronized (this) {
+			if (pulling) return;
+			pulling = true;
+		}
+
+		for (; ; ) {
+			boolean stop;
+			boolean finish;
+
+			synchronized (this) {
+				stop = isDone() || exhausted || (running.size() >= maxInFlight);
+				finish = stop && exhausted && running.isEmpty();
+				if (stop) pulling = false;
+			}
+
+			if (stop) {
+				if (finish) complete(result());
+				return;
+			}
+
+			FutureSupplier<R> f;
+
+			try {
+				// Only the pulling thread accesses the iterator
+				f = it.hasNext() ? map.apply(it.next()) : null;
+			} catch (Throwable ex) {
+				synchronized (this) {
+					pulling = false;
+				}
+				completeExceptionally(ex);
+				return;
+			}
+
+			if (f == null) {
+				synchronized (this) {
+					exhausted = true;
+				}
+				continue;
+			}
+
+			int idx;
+
+			synchronized (this) {
+				idx = index++;
+				running.add(f);
+			}
+
+			f.onCompletion((r, err) -> done(f, idx, r, err));
+		}
+	}
+
+	private void done(FutureSupplier<R> f, int idx, R result, Throwable err) {
+		if (err != null) {
+			if (isCancellation(err)) cancel();
+			else completeExceptionally(err);
+			return;
+		}
+
+		synchronized (this) {
+			running.remove(f);
+
+			try {
+				if (!isDone()) accept(idx, result);
+			} catch (Throwable ex) {
+				err = ex;
+			}
+		}
+
+		if (err != null) completeExceptionally(err);
+		else pull();
+	}
+
+	private void cancelRunning() {
+		List<FutureSupplier<R>> list;
+
+		synchronized (this) {
+			list = new ArrayList<>(running);
+			running.clear();
+		}
+
+		for (FutureSupplier<R> f : list) {
+			f.cancel();
+		}
+	}
+
+	static final class Mapper<T, R> extends ParallelIterator<T, R, List<R>> {
+		private final List<R> results = new ArrayList<>();
+		private final boolean preserveOrder;
+
+		Mapper(Iterator<T> it, CheckedFunction<? super T, FutureSupplier<R>, Throwable> map,
+				int maxInFlight, boolean preserveOrder) {
+			super(it, map, maxInFlight);
+			this.preserveOrder = preserveOrder;
+		}
+
+		@Override
+		void accept(int index, R result) {
+			if (preserveOrder) {
+				while (results.size() <= index) results.add(null);
+				results.set(index, result);
+			} else {
+				results.add(result);
+			}
+		}
+
+		@Override
+		synchronized List<R> result() {
+			return results;
+		}
+	}
+
+	static final class ForEach<T> extends ParallelIterator<T, Object, Void> {
+
+		@SuppressWarnings({"unchecked", "rawtypes"})
+		ForEach(Iterator<T> it, CheckedFunction<T, FutureSupplier<?>, Throwable> apply, int maxInFlight) {
+			super(it, (CheckedFunction) apply, maxInFlight);
+		}
+
+		@Override
+		void accept(int index, Object result) {
+		}
+
+		@Override
+		Void result() {
+			return null;
+		}
+	}
+
+	static final class Reduce<T, R, A> extends ParallelIterator<T, R, A> {
+		private final CheckedBiFunction<A, ? super R, A, Throwable> reduce;
+		private A acc;
+
+		Reduce(Iterator<T> it, CheckedFunction<? super T, FutureSupplier<R>, Throwable> map,
+					 int maxInFlight, A identity, CheckedBiFunction<A, ? super R, A, Throwable> reduce) {
+			super(it, map, maxInFlight);
+			this.reduce = reduce;
+			acc = identity;
+		}
+
+		@Override
+		void accept(int index, R result) throws Throwable {
+			acc = reduce.apply(acc, result);
+		}
+
+		@Override
+		synchronized A result() {
+			return acc;
+		}
+	}
+}
@@ -0,0 +1,730 @@
+package me.aap.utils.async;
+
+import static me.aap.utils.function.ResultConsumer.Cancel.isCancellation;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import me.aap.utils.async.AsyncPublisher.Subscriber;
+import me.aap.utils.async.AsyncPublisher.Subscription;
+import me.aap.utils.function.CheckedFunction;
+import me.aap.utils.function.CheckedSupplier;
+
+/**
+ * The {@link AsyncPublisher} sources and operators.
+ *
+ * @author Andrey Pavlenko
+ */
+final class PublisherOps {
+
+	private PublisherOps() {
+	}
+
+	static long addDemand(long demand, long n) {
+		long d = demand + n;
+		return (d < 0) ? Long.MAX_VALUE : d;
+	}
+
+	/**
+	 * Serializes the signals to the subscriber. The signals are emitted by {@link #emit()} in a drain
+	 * loop, that is entered by one thread at a time. If drain is requested while the loop is running,
+	 * the loop is repeated by the running thread instead of the recursion.
+	 */
+	abstract static class Serial<T> implements Subscription {
+		final Subscriber<? super T> subscriber;
+		private long demand;
+		private Throwable failure;
+		private boolean done;
+		private boolean draining;
+		private boolean missed;
+
+		Serial(Subscriber<? super T> subscriber) {
+			this.subscriber = subscriber;
+		}
+
+		/**
+		 * Emit the next signal, if possible. Called by a single thread at a time.
+		 *
+		 * @return false if there is nothing to emit at the moment
+		 */
+		abstract boolean emit() throws Throwable;
+
+		/**
+		 * Release the resources, when the stream is completed, failed or cancelled.
+		 */
+		abstract void release();
+
+		@Override
+		public void request(long n) {
+			if (n <= 0) {
+				fail(new IllegalArgumentException("Non-positive request: " + n));
+				return;
+			}
+
+			synchronized (this) {
+				if (done) return;
+				demand = addDemand(demand, n);
+			}
+
+			drain();
+		}
+
+		@Override
+		public boolean cancel() {
+			synchronized (this) {
+				if (done) return false;
+				done = true;
+			}
+
+			release();
+			return true;
+		}
+
+		final synchronized boolean isDone() {
+			return done;
+		}
+
+		final synchronized boolean hasDemand() {
+			return demand > 0;
+		}
+
+		final void next(T item) {
+			synchronized (this) {
+				if (done) return;
+				if (demand != Long.MAX_VALUE) demand--;
+			}
+
+			subscriber.onNext(item);
+		}
+
+		final void complete() {
+			synchronized (this) {
+				if (done) return;
+				done = true;
+			}
+
+			release();
+			subscriber.onComplete();
+		}
+
+		final void fail(Throwable fail) {
+			synchronized (this) {
+				if (done || (failure != null)) return;
+				failure = fail;
+			}
+
+			drain();
+		}
+
+		final void drain() {
+			synchronized (this) {
+				if (draining) {
+					missed = true;
+					return;
+				}
+
+				draining = true;
+			}
+
+			for (; ; ) {
+				Throwable err;
+
+				synchronized (this) {
+					if ((err = failure) != null) {
+						failure = null;
+						if (done) err = null;
+						else done = true;
+					}
+				}
+
+				if (err != null) {
+					release();
+					subscriber.onError(err);
+					continue;
+				}
+
+				boolean progress;
+
+				try {
+					progress = !isDone() && emit();
+				} catch (Throwable ex) {
+					fail(ex);
+					continue;
+				}
+
+				if (!progress) {
+					synchronized (this) {
+						if (!missed) {
+							draining = false;
+							return;
+						}
+
+						missed = false;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Requests the futures from the generator one by one and emits the values.
+	 */
+	static final class Pull<T> extends Serial<T> {
+		private final CheckedSupplier<? extends FutureSupplier<? extends T>, Throwable> generator;
+		@Nullable
+		private final Runnable onClose;
+		private FutureSupplier<? extends T> pending;
+
+		Pull(Subscriber<? super T> subscriber,
+				 CheckedSupplier<? extends FutureSupplier<? extends T>, Throwable> generator,
+				 @Nullable Runnable onClose) {
+			super(subscriber);
+			this.generator = generator;
+			this.onClose = onClose;
+		}
+
+		void start() {
+			subscriber.onSubscribe(this);
+		}
+
+		@Override
+		boolean emit() throws Throwable {
+			FutureSupplier<? extends T> f;
+
+			synchronized (this) {
+				f = pending;
+			}
+
+			if (f == null) {
+				if (!hasDemand()) return false;
+				f = generator.get();
+
+				if (f == null) {
+					complete();
+					return false;
+				}
+
+				if (!f.isDone()) {
+					synchronized (this) {
+						if (isDone()) {
+							f.cancel();
+							return false;
+						}
+
+						pending = f;
+					}
+
+					f.onCompletion((r, err) -> drain());
+					return false;
+				}
+			} else if (f.isDone()) {
+				synchronized (this) {
+					pending = null;
+				}
+			} else {
+				return false;
+			}
+
+			if (f.isFailed()) {
+				fail(f.getFailure());
+			} else {
+				T v = f.peek();
+				if (v == null) complete();
+				else next(v);
+			}
+
+			return true;
+		}
+
+		@Override
+		void release() {
+			FutureSupplier<? extends T> p;
+
+			synchronized (this) {
+				p = pending;
+				pending = null;
+			}
+
+			if (p != null) p.cancel();
+			if (onClose != null) onClose.run();
+		}
+	}
+
+	static final class Single<T> implements AsyncPublisher<T> {
+		private final AsyncPublisher<T> publisher;
+		private final AtomicBoolean subscribed = new AtomicBoolean();
+
+		Single(AsyncPublisher<T> publisher) {
+			this.publisher = publisher;
+		}
+
+		@Override
+		public void subscribe(@NonNull Subscriber<? super T> subscriber) {
+			if (subscribed.compareAndSet(false, true)) {
+				publisher.subscribe(subscriber);
+			} else {
+				subscriber.onSubscribe(new Subscription() {
+					@Override
+					public void request(long n) {
+					}
+
+					@Override
+					public boolean cancel() {
+						return false;
+					}
+				});
+				subscriber.onError(new IllegalStateException("Publisher allows a single subscription"));
+			}
+		}
+	}
+
+	static final class Map<T, R> implements Subscriber<T>, Subscription {
+		private final Subscriber<? super R> downstream;
+		private final CheckedFunction<? super T, ? extends R, Throwable> map;
+		private Subscription upstream;
+		private boolean done;
+
+		Map(Subscriber<? super R> downstream, CheckedFunction<? super T, ? extends R, Throwable> map) {
+			this.downstream = downstream;
+			this.map = map;
+		}
+
+		@Override
+		public void onSubscribe(@NonNull Subscription subscription) {
+			upstream = subscription;
+			downstream.onSubscribe(this);
+		}
+
+		@Override
+		public void onNext(@NonNull T item) {
+			if (done) return;
+			R r;
+
+			try {
+				r = map.apply(item);
+			} catch (Throwable ex) {
+				upstream.cancel();
+				onError(ex);
+				return;
+			}
+
+			if (r == null) upstream.request(1);
+			else downstream.onNext(r);
+		}
+
+		@Override
+		public void onError(@NonNull Throwable fail) {
+			if (done) return;
+			done = true;
+			downstream.onError(fail);
+		}
+
+		@Override
+		public void onComplete() {
+			if (done) return;
+			done = true;
+			downstream.onComplete();
+		}
+
+		@Override
+		public void request(long n) {
+			upstream.request(n);
+		}
+
+		@Override
+		public boolean cancel() {
+			return upstream.cancel();
+		}
+	}
+
+	static final class Batch<T> implements Subscriber<T>, Subscription {
+		private final Subscriber<? super List<T>> downstream;
+		private final int size;
+		private Subscription upstream;
+		private List<T> batch;
+
+		Batch(Subscriber<? super List<T>> downstream, int size) {
+			this.downstream = downstream;
+			this.size = Math.max(1, size);
+			batch = new ArrayList<>(this.size);
+		}
+
+		@Override
+		public void onSubscribe(@NonNull Subscription subscription) {
+			upstream = subscription;
+			downstream.onSubscribe(this);
+		}
+
+		@Override
+		public void onNext(@NonNull T item) {
+			batch.add(item);
+			if (batch.size() < size) return;
+			List<T> b = batch;
+			batch = new ArrayList<>(size);
+			downstream.onNext(b);
+		}
+
+		@Override
+		public void onError(@NonNull Throwable fail) {
+			batch = null;
+			downstream.onError(fail);
+		}
+
+		@Override
+		public void onComplete() {
+			List<T> b = batch;
+			batch = null;
+			if ((b != null) && !b.isEmpty()) downstream.onNext(b);
+			downstream.onComplete();
+		}
+
+		@Override
+		public void request(long n) {
+			upstream.request(((n > 0) && (n > Long.MAX_VALUE / size)) ? Long.MAX_VALUE : n * size);
+		}
+
+		@Override
+		public boolean cancel() {
+			return upstream.cancel();
+		}
+	}
+
+	static final class Buffer<T> extends Serial<T> implements Subscriber<T> {
+		private final ArrayDeque<T> queue;
+		private final int size;
+		private Subscription upstream;
+		private boolean upstreamDone;
+		private int consumed;
+
+		Buffer(Subscriber<? super T> downstream, int size) {
+			super(downstream);
+			this.size = Math.max(1, size);
+			queue = new ArrayDeque<>(this.size);
+		}
+
+		@Override
+		public void onSubscribe(@NonNull Subscription subscription) {
+			upstream = subscription;
+			subscriber.onSubscribe(this);
+			subscription.request(size);
+		}
+
+		@Override
+		public void onNext(@NonNull T item) {
+			synchronized (this) {
+				queue.add(item);
+			}
+
+			drain();
+		}
+
+		@Override
+		public void onError(@NonNull Throwable fail) {
+			fail(fail);
+		}
+
+		@Override
+		public void onComplete() {
+			synchronized (this) {
+				upstreamDone = true;
+			}
+
+			drain();
+		}
+
+		@Override
+		boolean emit() {
+			T item;
+			boolean completed;
+
+			synchronized (this) {
+				if (queue.isEmpty()) {
+					item = null;
+					completed = upstreamDone;
+				} else if (hasDemand()) {
+					item = queue.poll();
+					completed = false;
+				} else {
+					return false;
+				}
+			}
+
+			if (item == null) {
+				if (completed) complete();
+				return false;
+			}
+
+			next(item);
+
+			// Replenish by the half of the buffer to reduce the number of requests
+			if (++consumed >= (size + 1) / 2) {
+				int n = consumed;
+				consumed = 0;
+				upstream.request(n);
+			}
+
+			return true;
+		}
+
+		@Override
+		void release() {
+			synchronized (this) {
+				queue.clear();
+			}
+
+			upstream.cancel();
+		}
+	}
+
+	static final class FlatMap<T, R> extends Serial<R> implements Subscriber<T> {
+		private final CheckedFunction<? super T, ? extends AsyncPublisher<? extends R>, Throwable> map;
+		private final int concurrency;
+		private final Set<Inner> active = Collections.newSetFromMap(new IdentityHashMap<>());
+		private final ArrayDeque<Inner> ready = new ArrayDeque<>();
+		private Subscription upstream;
+		private boolean upstreamDone;
+		private int replenish;
+
+		FlatMap(Subscriber<? super R> downstream,
+						CheckedFunction<? super T, ? extends AsyncPublisher<? extends R>, Throwable> map,
+						int concurrency) {
+			super(downstream);
+			this.map = map;
+			this.concurrency = Math.max(1, concurrency);
+		}
+
+		@Override
+		public void onSubscribe(@NonNull Subscription subscription) {
+			upstream = subscription;
+			subscriber.onSubscribe(this);
+			subscription.request(concurrency);
+		}
+
+		@Override
+		public void onNext(@NonNull T item) {
+			AsyncPublisher<? extends R> p;
+
+			try {
+				p = map.apply(item);
+			} catch (Throwable ex) {
+				fail(ex);
+				return;
+			}
+
+			if (p == null) {
+				synchronized (this) {
+					replenish++;
+				}
+
+				drain();
+				return;
+			}
+
+			Inner in = new Inner();
+
+			synchronized (this) {
+				if (isDone()) return;
+				active.add(in);
+			}
+
+			p.subscribe(in);
+		}
+
+		@Override
+		public void onError(@NonNull Throwable fail) {
+			fail(fail);
+		}
+
+		@Override
+		public void onComplete() {
+			synchronized (this) {
+				upstreamDone = true;
+			}
+
+			drain();
+		}
+
+		@Override
+		boolean emit() {
+			Inner in;
+			R item;
+			int n;
+			boolean completed;
+
+			synchronized (this) {
+				n = replenish;
+				replenish = 0;
+				in = ready.peek();
+
+				if ((in == null) || !hasDemand()) {
+					in = null;
+					item = null;
+				} else {
+					ready.poll();
+					item = in.item;
+					in.item = null;
+					if (in.completed && active.remove(in)) n++;
+				}
+
+				if ((in == null) && (n == 0)) {
+					completed = upstreamDone && active.isEmpty() && ready.isEmpty();
+				} else {
+					completed = false;
+				}
+			}
+
+			if ((in == null) && (n == 0)) {
+				if (completed) complete();
+				return false;
+			}
+
+			if (in != null) {
+				next(item);
+				if (!in.completed) in.subscription.request(1);
+			}
+
+			if (n != 0) upstream.request(n);
+			return true;
+		}
+
+		@Override
+		void release() {
+			List<Inner> list;
+
+			synchronized (this) {
+				list = new ArrayList<>(active);
+				active.clear();
+				ready.clear();
+			}
+
+			upstream.cancel();
+
+			for (Inner in : list) {
+				Subscription s = in.subscription;
+				if (s != null) s.cancel();
+			}
+		}
+
+		private final class Inner implements Subscriber<R> {
+			volatile Subscription subscription;
+			volatile boolean completed;
+			R item;
+
+			@Override
+			public void onSubscribe(@NonNull Subscription subscription) {
+				this.subscription = subscription;
+				if (isDone()) subscription.cancel();
+				else subscription.request(1);
+			}
+
+			@Override
+			public void onNext(@NonNull R item) {
+				synchronized (FlatMap.this) {
+					this.item = item;
+					ready.add(this);
+				}
+
+				drain();
+			}
+
+			@Override
+			public void onError(@NonNull Throwable fail) {
+				fail(fail);
+			}
+
+			@Override
+			public void onComplete() {
+				synchronized (FlatMap.this) {
+					completed = true;
+					if ((item == null) && active.remove(this)) replenish++;
+				}
+
+				drain();
+			}
+		}
+	}
+
+	static final class Collect<T> extends Promise<List<T>> implements Subscriber<T> {
+		private final List<T> list = new ArrayList<>();
+
+		@Override
+		public void onSubscribe(@NonNull Subscription subscription) {
+			onFailure(err -> subscription.cancel());
+			subscription.request(Long.MAX_VALUE);
+		}
+
+		@Override
+		public void onNext(@NonNull T item) {
+			list.add(item);
+		}
+
+		@Override
+		public void onError(@NonNull Throwable fail) {
+			if (isCancellation(fail)) cancel();
+			else completeExceptionally(fail);
+		}
+
+		@Override
+		public void onComplete() {
+			complete(list);
+		}
+	}
+
+	static final class ForEach<T> extends Promise<Void> implements Subscriber<T> {
+		private final CheckedFunction<? super T, ? extends FutureSupplier<?>, Throwable> apply;
+		private Subscription subscription;
+
+		ForEach(CheckedFunction<? super T, ? extends FutureSupplier<?>, Throwable> apply) {
+			this.apply = apply;
+		}
+
+		@Override
+		public void onSubscribe(@NonNull Subscription subscription) {
+			this.subscription = subscription;
+			onFailure(err -> subscription.cancel());
+			subscription.request(1);
+		}
+
+		@Override
+		public void onNext(@NonNull T item) {
+			FutureSupplier<?> f;
+
+			try {
+				f = apply.apply(item);
+			} catch (Throwable ex) {
+				completeExceptionally(ex);
+				return;
+			}
+
+			if (f == null) {
+				subscription.request(1);
+				return;
+			}
+
+			f.onCompletion((r, err) -> {
+				if (err == null) subscription.request(1);
+				else if (isCancellation(err)) cancel();
+				else completeExceptionally(err);
+			});
+		}
+
+		@Override
+		public void onError(@NonNull Throwable fail) {
+			if (isCancellation(fail)) cancel();
+			else completeExceptionally(fail);
+		}
+
+		@Override
+		public void onComplete() {
+			complete(null);
+		}
+	}
+}
@@ -0,0 +1,73 @@
+package me.aap.utils.async;
+
+import static me.aap.utils.function.ProgressiveResultConsumer.PROGRESS_DONE;
+import static me.aap.utils.function.ResultConsumer.Cancel.isCancellation;
+
+import androidx.annotation.Nullable;
+
+import me.aap.utils.function.CheckedFunction;
+import me.aap.utils.function.ProgressiveResultConsumer;
+
+/**
+ * The result of {@link FutureSupplier#then(CheckedFunction)}. The stage is the consumer of both,
+ * the source and the future returned by the function, so a continuation costs a single object
+ * instead of a promise, a completion lambda and a method reference.
+ *
+ * @author Andrey Pavlenko
+ */
+final class ThenStage<T, R> extends Promise<R> implements ProgressiveResultConsumer<Object> {
+	private final FutureSupplier<T> source;
+	private final CheckedFunction<? super T, FutureSupplier<R>, Throwable> onSuccess;
+	@Nullable
+	private final CheckedFunction<Throwable, FutureSupplier<R>, Throwable> onFailure;
+	private boolean chained;
+
+	private ThenStage(FutureSupplier<T> source,
+											CheckedFunction<? super T, FutureSupplier<R>, Throwable> onSuccess,
+											@Nullable CheckedFunction<Throwable, FutureSupplier<R>, Throwable> onFailure) {
+		this.source = source;
+		this.onSuccess = onSuccess;
+		this.onFailure = onFailure;
+	}
+
+	static <T, R> FutureSupplier<R> chain(FutureSupplier<T> source,
+																				 CheckedFunction<? super T, FutureSupplier<R>, Throwable> onSuccess,
+																				 @Nullable CheckedFunction<Throwable, FutureSupplier<R>, Throwable> onFailure) {
+		ThenStage<T, R> s = new ThenStage<>(source, onSuccess, onFailure);
+		source.addConsumer(s);
+		return s;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public void accept(Object result, Throwable fail, int progress, int total) {
+		if (progress != PROGRESS_DONE) return;
+
+		if (chained) {
+			complete((R) result, fail);
+			return;
+		}
+
+		// The source is completed only once, so no need to synchronize
+		chained = true;
+
+		try {
+			if (fail == null) {
+				onSuccess.apply((T) result).addConsumer(this);
+			} else if (onFailure != null) {
+				onFailure.apply(fail).addConsumer(this);
+			} else if (isCancellation(fail)) {
+				cancel();
+			} else {
+				completeExceptionally(fail);
+			}
+		} catch (Throwable ex) {
+			completeExceptionally(ex);
+		}
+	}
+
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		return super.cancel(mayInterruptIfRunning) || source.cancel(mayInterruptIfRunning);
+	}
+}
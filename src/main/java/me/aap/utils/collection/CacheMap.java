@@ -16,13 +16,14 @@ import java.util.Map.Entry;
 import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 
 import me.aap.utils.app.App;
+import me.aap.utils.concurrent.TimerWheel;
 import me.aap.utils.function.BiConsumer;
 import me.aap.utils.function.BiFunction;
+import me.aap.utils.function.Cancellable;
 import me.aap.utils.function.Function;
 import me.aap.utils.log.Log;
 
@@ -33,23 +34,29 @@ import me.aap.utils.log.Log;
 public class CacheMap<K, V> implements Closeable {
 	private final ConcurrentHashMap<K, Value<V>> map = new ConcurrentHashMap<>();
 	private final int timeToLive;
-	private final ScheduledFuture<?> timer;
+	@Nullable
 	private final ScheduledExecutorService scheduler;
+	private volatile Cancellable timer;
+	private volatile boolean closed;
 
 	public CacheMap(int timeToLive) {
 		this(timeToLive, null);
 	}
 
+	/**
+	 * @param scheduler the scheduler to run the cleanup on, shut down on close. If null, the cleanup
+	 *                  is triggered by {@link TimerWheel} and run by the application executor.
+	 */
 	public CacheMap(int timeToLive, @Nullable ScheduledExecutorService scheduler) {
-		if (scheduler == null) {
-			App a = App.get();
-			this.scheduler = scheduler = (a != null) ? a.getScheduler() : Executors.newScheduledThreadPool(1);
+		this.timeToLive = timeToLive;
+		this.scheduler = scheduler;
+
+		if (scheduler != null) {
+			ScheduledFuture<?> f = scheduler.scheduleWithFixedDelay(this::cleanup, timeToLive, timeToLive, SECONDS);
+			timer = () -> f.cancel(false);
 		} else {
-			this.scheduler = scheduler;
+			scheduleCleanup();
 		}
-
-		this.timeToLive = timeToLive;
-		timer = scheduler.scheduleWithFixedDelay(this::cleanup, timeToLive, timeToLive, SECONDS);
 	}
 
 	public int size() {
@@ -356,7 +363,8 @@ public class CacheMap<K, V> implements Closeable {
 
 	@Override
 	public void close() {
-		timer.cancel(false);
+		closed = true;
+		timer.cancel();
 		if (scheduler != null) scheduler.shutdownNow();
 		clear();
 	}
@@ -366,7 +374,7 @@ public class CacheMap<K, V> implements Closeable {
 	}
 
 	private void checkClosed() {
-		if (timer.isDone()) throw new IllegalStateException("CacheMap is closed");
+		if (closed) throw new IllegalStateException("CacheMap is closed");
 	}
 
 	private Value<V> wrap(V v) {
@@ -382,6 +390,21 @@ public class CacheMap<K, V> implements Closeable {
 		return v.ref;
 	}
 
+	private void scheduleCleanup() {
+		timer = TimerWheel.get().schedule(() -> {
+			App a = App.get();
+			if (a != null) a.getExecutor().execute(this::cleanupAndSchedule);
+			else cleanupAndSchedule();
+		}, timeToLive * 1000L);
+		if (closed) timer.cancel();
+	}
+
+	private void cleanupAndSchedule() {
+		if (closed) return;
+		cleanup(true);
+		scheduleCleanup();
+	}
+
 	private void cleanup() {
 		cleanup(true);
 	}
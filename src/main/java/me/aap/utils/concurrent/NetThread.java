@@ -159,6 +159,27 @@ public class NetThread extends PooledThread {
 		return (t instanceof NetThread) && (((NetThread) t).sslWriteBuffer == bb);
 	}
 
+	/**
+	 * Returns true if the buffer is one of the current thread's buffers.
+	 */
+	public static boolean isLocalBuffer(ByteBuffer bb) {
+		Thread t = Thread.currentThread();
+		if (!(t instanceof NetThread)) return false;
+		NetThread nt = (NetThread) t;
+		return (nt.readBuffer == bb) || (nt.writeBuffer == bb) || (nt.sslReadBuffer == bb) ||
+				(nt.sslWriteBuffer == bb);
+	}
+
+	/**
+	 * Returns true if the array contains one of the current thread's buffers.
+	 */
+	public static boolean hasLocalBuffer(ByteBuffer[] a) {
+		for (ByteBuffer bb : a) {
+			if (isLocalBuffer(bb)) return true;
+		}
+		return false;
+	}
+
 	public static void assertReadBuffer(ByteBuffer bb) {
 		if (BuildConfig.D) assertSame(((NetThread) Thread.currentThread()).readBuffer, bb);
 	}
@@ -0,0 +1,321 @@
+package me.aap.utils.concurrent;
+
+import androidx.annotation.Keep;
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+
+import me.aap.utils.function.Cancellable;
+import me.aap.utils.log.Log;
+
+/**
+ * A low overhead timer service for the timeouts and delayed tasks, that do not require a precise
+ * timing. The timers are distributed between the shards by the scheduling thread. Each shard has
+ * a lock-free queue of the new timers and a hierarchical timing wheel, that is driven by the
+ * shard's daemon thread with the coarse tick resolution. The wheel has 4 levels of 64 slots,
+ * the timers are moved to the lower levels when the higher level slot is reached. The cancelled
+ * timers release the task immediately and are removed from the wheel when their slot is processed.
+ * Between the ticks, the thread sleeps until the next non-empty slot.
+ * <p>
+ * The tasks are run by the shard's thread, so they must not block.
+ *
+ * @author Andrey Pavlenko
+ */
+public final class TimerWheel {
+	public static final int DEFAULT_TICK = 10;
+	private static final int WHEEL_BITS = 6;
+	private static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+	private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+	private static final int LEVELS = 4;
+	private static final long MAX_DELTA = (1L << (WHEEL_BITS * LEVELS)) - 1;
+	private final Shard[] shards;
+	private final int tick;
+	private final long start = now();
+	private final AtomicInteger pending = new AtomicInteger();
+	private volatile long tickLag;
+	private volatile long maxTickLag;
+	private volatile boolean closed;
+
+	public TimerWheel(String name, int shards, int tick) {
+		this.tick = Math.max(1, tick);
+		this.shards = new Shard[Math.max(1, shards)];
+		for (int i = 0; i < this.shards.length; i++) {
+			this.shards[i] = new Shard(name + '-' + i);
+		}
+	}
+
+	/**
+	 * Returns the shared instance with the default tick and one shard per two processors, up to 4.
+	 */
+	public static TimerWheel get() {
+		return Default.instance;
+	}
+
+	/**
+	 * Run the task after the specified delay in milliseconds. The task is run on the next tick
+	 * after the delay expires.
+	 */
+	public Timer schedule(@NonNull Runnable task, long delay) {
+		if (closed) throw new IllegalStateException("TimerWheel is closed");
+		Timer t = new Timer(this, task, now() + Math.max(0, delay));
+		pending.incrementAndGet();
+		Shard[] s = shards;
+		s[(s.length == 1) ? 0 : (int) (Thread.currentThread().getId() % s.length)].addTimer(t);
+		return t;
+	}
+
+	/**
+	 * Returns the number of the scheduled timers, that are neither run nor cancelled.
+	 */
+	public int getPendingTimers() {
+		return pending.get();
+	}
+
+	/**
+	 * Returns the delay of the last processed tick in milliseconds, i.e. the time elapsed since
+	 * the first unprocessed tick was due.
+	 */
+	public long getTickLag() {
+		return tickLag;
+	}
+
+	/**
+	 * Returns the maximum delay of a processed tick in milliseconds.
+	 */
+	public long getMaxTickLag() {
+		return maxTickLag;
+	}
+
+	public int getTick() {
+		return tick;
+	}
+
+	/**
+	 * Stop the threads. The pending timers are discarded.
+	 */
+	public void close() {
+		closed = true;
+		for (Shard s : shards) LockSupport.unpark(s.thread);
+	}
+
+	@NonNull
+	@Override
+	public String toString() {
+		return "TimerWheel{pending=" + getPendingTimers() + ", tickLag=" + getTickLag() +
+				", maxTickLag=" + getMaxTickLag() + '}';
+	}
+
+	private static long now() {
+		return System.nanoTime() / 1000000;
+	}
+
+	private final class Shard extends ConcurrentQueueBase<Timer, Timer> implements Runnable {
+		private final Timer[][] wheel = new Timer[LEVELS][WHEEL_SIZE];
+		private final Thread thread;
+		private int size;
+		private long current;
+		// The time, when the parked thread wakes up, or 0, if not parked
+		@Keep
+		volatile long wakeup;
+
+		Shard(String name) {
+			thread = new Thread(this, name);
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		void addTimer(Timer t) {
+			offerNode(t);
+			if (t.deadline - start < wakeup) LockSupport.unpark(thread);
+		}
+
+		@Override
+		public void run() {
+			current = (now() - start) / tick;
+
+			while (!closed) {
+				long now = now() - start;
+				long target = now / tick;
+
+				if (size == 0) {
+					// Nothing to advance, just move the clock
+					current = Math.max(current, target);
+				} else if (current < target) {
+					long lag = now - (current + 1) * tick;
+					tickLag = lag;
+					if (lag > maxTickLag) maxTickLag = lag;
+					while (current < target) advance();
+				}
+
+				for (Timer t = pollNode(); t != null; t = pollNode()) {
+					insert(t);
+				}
+
+				if (size != 0) {
+					long w = wakeup = nextTick() * tick;
+					long delay = w - (now() - start);
+					if ((delay > 0) && isEmpty() && !closed) LockSupport.parkNanos(this, delay * 1000000L);
+				} else {
+					wakeup = Long.MAX_VALUE;
+					if (isEmpty() && !closed) LockSupport.park(this);
+				}
+
+				wakeup = 0;
+			}
+
+			clear(Timer::cancel);
+
+			for (Timer[] level : wheel) {
+				for (Timer t : level) {
+					for (; t != null; t = t.nextInSlot) t.cancel();
+				}
+			}
+		}
+
+		private void advance() {
+			long c = ++current;
+
+			for (int l = LEVELS - 1; l > 0; l--) {
+				if ((c & ((1L << (WHEEL_BITS * l)) - 1)) == 0) {
+					int slot = (int) ((c >>> (WHEEL_BITS * l)) & WHEEL_MASK);
+					Timer t = wheel[l][slot];
+					wheel[l][slot] = null;
+
+					while (t != null) {
+						Timer next = t.nextInSlot;
+						size--;
+						insert(t);
+						t = next;
+					}
+				}
+			}
+
+			int slot = (int) (c & WHEEL_MASK);
+			Timer t = wheel[0][slot];
+			wheel[0][slot] = null;
+
+			while (t != null) {
+				Timer next = t.nextInSlot;
+				size--;
+				insert(t);
+				t = next;
+			}
+		}
+
+		/**
+		 * Returns the next tick, that has timers in the slot or moves the timers to the lower levels.
+		 */
+		private long nextTick() {
+			long next = Long.MAX_VALUE;
+
+			for (int l = 0; l < LEVELS; l++) {
+				int shift = WHEEL_BITS * l;
+				long c = current >>> shift;
+
+				for (int i = 1; i <= WHEEL_SIZE; i++) {
+					long t = (c + i) << shift;
+					if (t >= next) break;
+					if (wheel[l][(int) ((c + i) & WHEEL_MASK)] == null) continue;
+					next = t;
+					break;
+				}
+			}
+
+			return next;
+		}
+
+		private void insert(Timer t) {
+			t.nextInSlot = null;
+			if (t.task == null) return;
+
+			long deadline = (t.deadline - start + tick - 1) / tick;
+			long delta = deadline - current;
+
+			if (delta <= 0) {
+				t.run();
+				return;
+			}
+
+			// Too far - will be reinserted when the slot is reached
+			if (delta > MAX_DELTA) deadline = current + (delta = MAX_DELTA);
+
+			int level = 0;
+			while ((delta >>> (WHEEL_BITS * (level + 1))) != 0) level++;
+
+			int slot = (int) ((deadline >>> (WHEEL_BITS * level)) & WHEEL_MASK);
+			t.nextInSlot = wheel[level][slot];
+			wheel[level][slot] = t;
+			size++;
+		}
+	}
+
+	private static final AtomicReferenceFieldUpdater<Timer, Runnable> TASK =
+			AtomicReferenceFieldUpdater.newUpdater(Timer.class, Runnable.class, "task");
+	private static final AtomicReferenceFieldUpdater<Timer, Timer> NEXT =
+			AtomicReferenceFieldUpdater.newUpdater(Timer.class, Timer.class, "next");
+
+	public static final class Timer implements ConcurrentQueueBase.Node<Timer>, Cancellable {
+		private final TimerWheel wheel;
+		final long deadline;
+		@Keep
+		volatile Runnable task;
+		Timer nextInSlot;
+		@Keep
+		volatile Timer next;
+
+		Timer(TimerWheel wheel, Runnable task, long deadline) {
+			this.wheel = wheel;
+			this.task = task;
+			this.deadline = deadline;
+		}
+
+		/**
+		 * Returns true, if the timer is cancelled by this call and the task will not be run.
+		 */
+		@Override
+		public boolean cancel() {
+			if (TASK.getAndSet(this, null) == null) return false;
+			wheel.pending.decrementAndGet();
+			return true;
+		}
+
+		public boolean isDone() {
+			return task == null;
+		}
+
+		void run() {
+			Runnable t = TASK.getAndSet(this, null);
+			if (t == null) return;
+			wheel.pending.decrementAndGet();
+
+			try {
+				t.run();
+			} catch (Throwable ex) {
+				Log.e(ex, "Timer task failed: ", t);
+			}
+		}
+
+		@Override
+		public Timer getValue() {
+			return this;
+		}
+
+		@Override
+		public Timer getNext() {
+			return next;
+		}
+
+		@Override
+		public boolean compareAndSetNext(ConcurrentQueueBase.Node<Timer> expect,
+																		 ConcurrentQueueBase.Node<Timer> update) {
+			return NEXT.compareAndSet(this, (Timer) expect, (Timer) update);
+		}
+	}
+
+	private static final class Default {
+		static final TimerWheel instance = new TimerWheel("TimerWheel",
+				Math.min(4, Math.max(1, Runtime.getRuntime().availableProcessors() / 2)), DEFAULT_TICK);
+	}
+}
@@ -0,0 +1,252 @@
+package me.aap.utils.io;
+
+import static me.aap.utils.function.ProgressiveResultConsumer.PROGRESS_UNKNOWN;
+import static me.aap.utils.function.ProgressiveResultConsumer.progressShift;
+
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Executor;
+
+import me.aap.utils.async.FutureSupplier;
+import me.aap.utils.async.Promise;
+
+/**
+ * Copies an input stream to an output stream with several buffers in flight: the next buffers
+ * are read while the previous ones are being written, so the read and write latencies overlap.
+ * The reads and writes are issued one at a time and the buffers are written in the order of
+ * reading. The progress is reported in bytes, shifted by
+ * {@link me.aap.utils.function.ProgressiveResultConsumer#progressShift(long)} if the total length
+ * exceeds the int range. The copying is stopped on cancellation. The streams are closed when the
+ * copying is completed, failed or cancelled.
+ *
+ * @author Andrey Pavlenko
+ */
+public class AsyncCopy extends Promise<Void> {
+	public static final int DEFAULT_BUFFERS = 4;
+	private static final long FILE_CHUNK = 1024 * 1024;
+	private final AsyncInputStream in;
+	private final AsyncOutputStream out;
+	private final int bufferLen;
+	private final long total;
+	private final int shift;
+	private final Deque<ByteBuffer> free;
+	private final Deque<ByteBuffer> filled;
+	private boolean reading;
+	private boolean writing;
+	private boolean eos;
+	private boolean pumping;
+	private boolean again;
+	private long copied;
+
+	private AsyncCopy(AsyncInputStream in, AsyncOutputStream out, int bufferLen, int buffers,
+										long total) {
+		this.in = in;
+		this.out = out;
+		this.bufferLen = bufferLen;
+		this.total = total;
+		shift = progressShift(total);
+		buffers = Math.max(1, buffers);
+		free = new ArrayDeque<>(buffers);
+		filled = new ArrayDeque<>(buffers);
+		for (int i = 0; i < buffers; i++) free.add(ByteBuffer.allocate(bufferLen));
+	}
+
+	/**
+	 * @param bufferLen the length of each buffer
+	 * @param buffers   the number of buffers in flight
+	 * @param total     the number of bytes to copy, used to report the progress, or -1 if unknown
+	 */
+	public static AsyncCopy copy(AsyncInputStream in, AsyncOutputStream out, int bufferLen,
+															 int buffers, long total) {
+		AsyncCopy c = new AsyncCopy(in, out, bufferLen, buffers, total);
+		c.onCompletion((r, f) -> IoUtils.close(in, out));
+		c.pump();
+		return c;
+	}
+
+	/**
+	 * Copy the local file with the file channel transfer. The file is copied by chunks, the progress
+	 * is reported and the cancellation is checked after each chunk.
+	 *
+	 * @param exec the executor to copy the file on or null to copy on the current thread
+	 */
+	public static FutureSupplier<Void> copy(File src, File dst, @Nullable Executor exec) {
+		Promise<Void> p = new Promise<>();
+
+		if (exec == null) {
+			copy(src, dst, p);
+		} else {
+			try {
+				exec.execute(() -> copy(src, dst, p));
+			} catch (Throwable ex) {
+				p.completeExceptionally(ex);
+			}
+		}
+
+		return p;
+	}
+
+	private static void copy(File src, File dst, Promise<Void> p) {
+		if (p.isDone()) return;
+
+		try {
+			File dir = dst.getParentFile();
+			if (dir != null) FileUtils.mkdirs(dir);
+
+			try (FileInputStream in = new FileInputStream(src);
+					 FileOutputStream out = new FileOutputStream(dst);
+					 FileChannel source = in.getChannel();
+					 FileChannel destination = out.getChannel()) {
+				long total = source.size();
+				int shift = progressShift(total);
+
+				for (long pos = 0; pos < total; ) {
+					// Cancelled
+					if (p.isDone()) return;
+					long n = source.transferTo(pos, Math.min(FILE_CHUNK, total - pos), destination);
+					if (n <= 0) break;
+					pos += n;
+					p.setProgress(null, (int) (pos >>> shift), (int) (total >>> shift));
+				}
+			}
+
+			p.complete(null);
+		} catch (Throwable ex) {
+			p.completeExceptionally(ex);
+		}
+	}
+
+	public synchronized long getCopied() {
+		return copied;
+	}
+
+	/**
+	 * Issue the next read and write. The synchronously completed reads and writes call this
+	 * method recursively, so the recursive calls are turned into the loop iterations.
+	 */
+	private void pump() {
+		synchronized (this) {
+			if (pumping) {
+				again = true;
+				return;
+			}
+
+			pumping = true;
+		}
+
+		for (; ; ) {
+			ByteBuffer read = null;
+			ByteBuffer write = null;
+
+			synchronized (this) {
+				again = false;
+
+				if (isDone()) {
+					pumping = false;
+					return;
+				}
+
+				if (!reading && !eos && !free.isEmpty()) {
+					reading = true;
+					read = free.poll();
+				}
+
+				if (!writing && !filled.isEmpty()) {
+					writing = true;
+					write = filled.poll();
+				}
+
+				if (eos && !writing && !reading && filled.isEmpty()) {
+					pumping = false;
+					out.endOfStream();
+					complete(null);
+					return;
+				}
+			}
+
+			if (read != null) read(read);
+			if (write != null) write(write, write.remaining());
+
+			synchronized (this) {
+				if (!again) {
+					pumping = false;
+					return;
+				}
+			}
+		}
+	}
+
+	private void read(ByteBuffer buf) {
+		buf.clear();
+
+		in.read(() -> buf).onCompletion((r, err) -> {
+			if (err != null) {
+				completeExceptionally(err);
+				return;
+			}
+
+			ByteBuffer data;
+
+			if (!r.hasRemaining()) {
+				data = null;
+			} else if (r == buf) {
+				data = buf;
+			} else if (r.remaining() <= buf.capacity()) {
+				// The stream could reuse its own buffer on the next read
+				buf.clear();
+				buf.put(r).flip();
+				data = buf;
+			} else {
+				data = ByteBuffer.allocate(r.remaining()).put(r);
+				data.flip();
+			}
+
+			synchronized (this) {
+				reading = false;
+
+				if (data == null) {
+					eos = true;
+					free.add(buf);
+				} else {
+					filled.add(data);
+					if (data != buf) free.add(buf);
+				}
+			}
+
+			pump();
+		});
+	}
+
+	private void write(ByteBuffer buf, int len) {
+		out.write(buf).onCompletion((r, err) -> {
+			if (err != null) {
+				completeExceptionally(err);
+				return;
+			}
+
+			if (buf.hasRemaining()) {
+				write(buf, len);
+				return;
+			}
+
+			long c;
+
+			synchronized (this) {
+				writing = false;
+				c = copied += len;
+				if (buf.capacity() == bufferLen) free.add(buf);
+			}
+
+			if (total > 0) setProgress(null, (int) (c >>> shift), (int) (total >>> shift));
+			else setProgress(null, PROGRESS_UNKNOWN, PROGRESS_UNKNOWN);
+			pump();
+		});
+	}
+}
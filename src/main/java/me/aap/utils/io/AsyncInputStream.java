@@ -9,6 +9,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
 
+import me.aap.utils.async.AsyncPublisher;
 import me.aap.utils.async.Completed;
 import me.aap.utils.async.FutureSupplier;
 import me.aap.utils.log.Log;
@@ -48,6 +49,15 @@ public interface AsyncInputStream extends Closeable {
 		return true;
 	}
 
+	/**
+	 * Publish the buffers, read from this stream. The stream is closed, when the publisher is
+	 * completed, failed or cancelled. The publisher allows a single subscription.
+	 */
+	default AsyncPublisher<ByteBuffer> asPublisher(int bufferLen) {
+		return AsyncPublisher.generate(() -> read(() -> ByteBuffer.allocate(bufferLen))
+				.map(b -> b.hasRemaining() ? b : null), this::close);
+	}
+
 	static AsyncInputStream from(FutureSupplier<AsyncInputStream> f) {
 		if (f.isDone() && !f.isFailed()) return f.getOrThrow();
 
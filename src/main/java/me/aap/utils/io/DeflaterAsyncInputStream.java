@@ -0,0 +1,197 @@
+package me.aap.utils.io;
+
+import static me.aap.utils.async.Completed.completed;
+import static me.aap.utils.async.Completed.failed;
+
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import me.aap.utils.async.FutureSupplier;
+import me.aap.utils.net.ByteBufferSupplier;
+
+/**
+ * Compresses a stream in gzip or zlib (HTTP deflate) format. The data is read from the underlying
+ * stream on demand, so the compressed stream could be sent while the source is being read.
+ * The counterpart of {@link InflaterAsyncInputStream}.
+ *
+ * @author Andrey Pavlenko
+ */
+public class DeflaterAsyncInputStream implements AsyncInputStream {
+	private static final int BUFFER_LEN = 8192;
+	private static final byte[] GZIP_HEADER = {0x1F, (byte) 0x8B, 8, 0, 0, 0, 0, 0, 0, (byte) 0xFF};
+	private final AsyncInputStream in;
+	private final Deflater deflater;
+	private final CRC32 crc;
+	// The gzip header or trailer
+	private ByteBuffer pending;
+	// The data, that has not been passed to the deflater yet
+	private ByteBuffer input = IoUtils.emptyByteBuffer();
+	private byte[] inArray;
+	private byte[] outArray;
+	private boolean eos;
+	private boolean trailer;
+
+	private DeflaterAsyncInputStream(AsyncInputStream in, boolean gzip, int level) {
+		this.in = in;
+		deflater = new Deflater(level, gzip);
+
+		if (gzip) {
+			crc = new CRC32();
+			pending = ByteBuffer.wrap(GZIP_HEADER);
+		} else {
+			crc = null;
+			pending = IoUtils.emptyByteBuffer();
+		}
+	}
+
+	public static DeflaterAsyncInputStream gzip(AsyncInputStream in) {
+		return gzip(in, Deflater.DEFAULT_COMPRESSION);
+	}
+
+	public static DeflaterAsyncInputStream gzip(AsyncInputStream in, int level) {
+		return new DeflaterAsyncInputStream(in, true, level);
+	}
+
+	public static DeflaterAsyncInputStream deflate(AsyncInputStream in) {
+		return deflate(in, Deflater.DEFAULT_COMPRESSION);
+	}
+
+	public static DeflaterAsyncInputStream deflate(AsyncInputStream in, int level) {
+		return new DeflaterAsyncInputStream(in, false, level);
+	}
+
+	@Override
+	public FutureSupplier<ByteBuffer> read(ByteBufferSupplier dst) {
+		ByteBuffer d = dst.getByteBuffer();
+
+		if (!d.hasRemaining()) {
+			d.limit(d.position());
+			return completed(d);
+		}
+
+		return read(d, d.position());
+	}
+
+	private FutureSupplier<ByteBuffer> read(ByteBuffer dst, int pos) {
+		try {
+			for (; ; ) {
+				ByteBuffer p = pending;
+
+				if (p.hasRemaining()) {
+					int n = Math.min(p.remaining(), dst.limit() - pos);
+					ByteBuffer d = dst.duplicate();
+					d.position(pos);
+					int limit = p.limit();
+					p.limit(p.position() + n);
+					d.put(p);
+					p.limit(limit);
+					return result(dst, pos, n);
+				}
+
+				Deflater def = deflater;
+
+				if (def.finished()) {
+					if ((crc == null) || trailer) return result(dst, pos, 0);
+					trailer = true;
+					pending = trailer();
+					continue;
+				}
+
+				if (def.needsInput() && !eos) {
+					if (!input.hasRemaining()) return fill().then(v -> read(dst, pos));
+					setInput(input);
+				}
+
+				int n = deflate(dst, pos);
+				if (n > 0) return result(dst, pos, n);
+			}
+		} catch (Throwable ex) {
+			return failed(ex);
+		}
+	}
+
+	private int deflate(ByteBuffer dst, int pos) {
+		Deflater def = deflater;
+		int len = dst.limit() - pos;
+
+		if (dst.hasArray()) {
+			return def.deflate(dst.array(), dst.arrayOffset() + pos, len);
+		}
+
+		byte[] a = outArray;
+		if (a == null) outArray = a = new byte[BUFFER_LEN];
+		int n = def.deflate(a, 0, Math.min(a.length, len));
+		ByteBuffer d = dst.duplicate();
+		d.position(pos);
+		d.put(a, 0, n);
+		return n;
+	}
+
+	/**
+	 * Read the next portion of the data. The deflater is finished on end of stream.
+	 */
+	private FutureSupplier<Void> fill() {
+		byte[] a = inArray;
+		if (a == null) inArray = a = new byte[BUFFER_LEN];
+		ByteBuffer buf = ByteBuffer.wrap(a);
+
+		return in.read(() -> buf).map(r -> {
+			if (r.hasRemaining()) {
+				input = r;
+			} else {
+				eos = true;
+				deflater.finish();
+			}
+
+			return null;
+		});
+	}
+
+	private void setInput(ByteBuffer src) {
+		int n = src.remaining();
+		byte[] a;
+		int off;
+
+		if (src.hasArray()) {
+			a = src.array();
+			off = src.arrayOffset() + src.position();
+			src.position(src.limit());
+		} else {
+			a = inArray;
+			if (a == null) inArray = a = new byte[BUFFER_LEN];
+			off = 0;
+			n = Math.min(n, a.length);
+			src.get(a, 0, n);
+		}
+
+		deflater.setInput(a, off, n);
+		if (crc != null) crc.update(a, off, n);
+	}
+
+	private ByteBuffer trailer() {
+		ByteBuffer b = ByteBuffer.allocate(8);
+		int c = (int) crc.getValue();
+		int s = (int) deflater.getBytesRead();
+		b.put((byte) c).put((byte) (c >> 8)).put((byte) (c >> 16)).put((byte) (c >> 24));
+		b.put((byte) s).put((byte) (s >> 8)).put((byte) (s >> 16)).put((byte) (s >> 24));
+		b.flip();
+		return b;
+	}
+
+	private static FutureSupplier<ByteBuffer> result(ByteBuffer dst, int pos, int n) {
+		dst.position(pos).limit(pos + n);
+		return completed(dst);
+	}
+
+	@Override
+	public boolean hasRemaining() {
+		return !deflater.finished() || pending.hasRemaining() || ((crc != null) && !trailer);
+	}
+
+	@Override
+	public void close() {
+		deflater.end();
+		in.close();
+	}
+}
@@ -8,7 +8,10 @@ import java.util.zip.InflaterOutputStream;
 
 /**
  * @author Andrey Pavlenko
+ * @deprecated Use {@link InflaterAsyncInputStream}, that inflates the buffers without copying
+ * and supports concatenated gzip members.
  */
+@Deprecated
 public class GunzipOutputStream extends InflaterOutputStream {
 	private static final int FOOTER_SIZE = 8; // CRC32 + ISIZE
 	private final CRC32 _crc32;
@@ -0,0 +1,431 @@
+package me.aap.utils.io;
+
+import static me.aap.utils.async.Completed.completed;
+import static me.aap.utils.async.Completed.failed;
+
+import android.annotation.SuppressLint;
+
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import me.aap.utils.async.FutureSupplier;
+import me.aap.utils.net.ByteBufferPool;
+import me.aap.utils.net.ByteBufferPool.PooledBuffer;
+import me.aap.utils.net.ByteBufferSupplier;
+
+/**
+ * Decompresses a gzip or zlib (HTTP deflate) encoded stream. The compressed data is read from
+ * the underlying stream on demand into a pooled buffer and inflated directly to the destination
+ * buffer. If the platform supports {@code Inflater.setInput(ByteBuffer)}, no intermediate copies
+ * are made, otherwise the direct buffers are copied through small reusable arrays.
+ * <p>
+ * Concatenated gzip members are decoded as a single stream, the CRC and the size of each member
+ * are verified. The data following the last member, that does not start with the gzip magic, is
+ * ignored as by {@link java.util.zip.GZIPInputStream}.
+ *
+ * @author Andrey Pavlenko
+ */
+public class InflaterAsyncInputStream implements AsyncInputStream {
+	private static final boolean BUFFER_API = hasBufferApi();
+	private static final int BUFFER_LEN = 8192;
+	private static final int NEED_INPUT = -1;
+	private static final int HEADER = 0;
+	private static final int DATA = 1;
+	private static final int TRAILER = 2;
+	private static final int NEXT = 3;
+	private static final int DRAIN = 4;
+	private static final int EOS = 5;
+	private static final int FHCRC = 2;
+	private static final int FEXTRA = 4;
+	private static final int FNAME = 8;
+	private static final int FCOMMENT = 16;
+	@Nullable
+	private final AsyncInputStream in;
+	private final Inflater inflater;
+	@Nullable
+	private final CRC32 crc;
+	// Received, but not consumed data. Either the own buffer or the buffer returned by the stream.
+	private ByteBuffer input;
+	@Nullable
+	private PooledBuffer own;
+	@Nullable
+	private byte[] inArray;
+	@Nullable
+	private byte[] outArray;
+	private int state;
+
+	private InflaterAsyncInputStream(@Nullable AsyncInputStream in, ByteBuffer input, boolean gzip) {
+		this.in = in;
+		this.input = input;
+		inflater = new Inflater(gzip);
+		crc = gzip ? new CRC32() : null;
+		state = gzip ? HEADER : DATA;
+	}
+
+	public static InflaterAsyncInputStream gzip(AsyncInputStream in) {
+		return new InflaterAsyncInputStream(in, IoUtils.emptyByteBuffer(), true);
+	}
+
+	public static InflaterAsyncInputStream deflate(AsyncInputStream in) {
+		return new InflaterAsyncInputStream(in, IoUtils.emptyByteBuffer(), false);
+	}
+
+	/**
+	 * Inflate the remaining bytes of the buffer.
+	 *
+	 * @param gzip   gzip or zlib format
+	 * @param maxLen the maximum length of the inflated data
+	 * @throws IOException if the data is corrupted, truncated or the inflated length exceeds maxLen
+	 */
+	public static ByteBuffer inflate(ByteBuffer src, boolean gzip, int maxLen) throws IOException {
+		InflaterAsyncInputStream s = new InflaterAsyncInputStream(null, src.duplicate(), gzip);
+
+		try {
+			int len = (int) Math.min(Math.max(src.remaining() * 3L, 64), maxLen);
+			ByteBuffer out = ByteBuffer.allocate(len);
+
+			for (ByteBuffer dst = out; ; dst = out) {
+				if (!out.hasRemaining()) {
+					if (out.capacity() == maxLen) {
+						// Check if there is more data
+						dst = ByteBuffer.allocate(1);
+					} else {
+						len = (int) Math.min(out.capacity() * 2L, maxLen);
+						ByteBuffer b = ByteBuffer.allocate(len);
+						out.flip();
+						dst = out = b.put(out);
+					}
+				}
+
+				int n = s.decode(dst, dst.position());
+
+				if (n == NEED_INPUT) {
+					s.endOfInput();
+				} else if (n == 0) {
+					if (s.state == EOS) break;
+				} else if (dst != out) {
+					throw new IOException("Inflated data is too large");
+				} else {
+					out.position(out.position() + n);
+				}
+			}
+
+			out.flip();
+			return out;
+		} catch (DataFormatException ex) {
+			throw new IOException(ex);
+		} finally {
+			s.close();
+		}
+	}
+
+	@Override
+	public FutureSupplier<ByteBuffer> read(ByteBufferSupplier dst) {
+		ByteBuffer d = dst.getByteBuffer();
+
+		if (!d.hasRemaining()) {
+			d.limit(d.position());
+			return completed(d);
+		}
+
+		return read(d, d.position());
+	}
+
+	private FutureSupplier<ByteBuffer> read(ByteBuffer dst, int pos) {
+		try {
+			for (; ; ) {
+				int n = decode(dst, pos);
+
+				if (n == NEED_INPUT) {
+					return fill().then(more -> {
+						if (!more) endOfInput();
+						return read(dst, pos);
+					});
+				}
+
+				if ((n > 0) || (state == EOS)) {
+					dst.position(pos).limit(pos + n);
+					return completed(dst);
+				}
+			}
+		} catch (Throwable ex) {
+			return failed(ex);
+		}
+	}
+
+	/**
+	 * Returns the number of bytes inflated to the destination buffer, 0 if the state is changed
+	 * or the end of stream is reached, or NEED_INPUT if more input is required.
+	 */
+	private int decode(ByteBuffer dst, int pos) throws IOException, DataFormatException {
+		ByteBuffer b = input;
+
+		switch (state) {
+			case HEADER:
+				int len = headerLength(b);
+				if (len == -1) return NEED_INPUT;
+				b.position(b.position() + len);
+				state = DATA;
+				return 0;
+			case DATA:
+				if (inflater.finished()) {
+					state = (crc != null) ? TRAILER : DRAIN;
+					return 0;
+				}
+
+				if (inflater.needsInput() && !b.hasRemaining()) return NEED_INPUT;
+				int n = inflate(b, dst, pos);
+				if ((n == 0) && inflater.needsDictionary()) {
+					throw new IOException("Inflater dictionary is not supported");
+				}
+				return n;
+			case TRAILER:
+				if (b.remaining() < 8) return NEED_INPUT;
+				verifyTrailer(b);
+				inflater.reset();
+				crc.reset();
+				state = NEXT;
+				return 0;
+			case NEXT:
+				if (!b.hasRemaining()) return NEED_INPUT;
+				state = ((b.get(b.position()) & 0xFF) == 0x1F) ? HEADER : DRAIN;
+				return 0;
+			case DRAIN:
+				b.position(b.limit());
+				return NEED_INPUT;
+			default:
+				return 0;
+		}
+	}
+
+	/**
+	 * Called when the underlying stream is ended. The end of stream is only expected between the
+	 * gzip members or after the zlib stream.
+	 */
+	private void endOfInput() throws IOException {
+		switch (state) {
+			case HEADER:
+				throw new IOException("Unexpected end of gzip header");
+			case DATA:
+				throw new IOException("Unexpected end of compressed stream");
+			case TRAILER:
+				throw new IOException("Unexpected end of gzip trailer");
+			default:
+				state = EOS;
+		}
+	}
+
+	@SuppressLint("NewApi")
+	private int inflate(ByteBuffer src, ByteBuffer dst, int pos) throws DataFormatException {
+		Inflater inf = inflater;
+		int start = src.position();
+		int avail = src.remaining();
+
+		if (BUFFER_API) {
+			inf.setInput(src);
+		} else if (src.hasArray()) {
+			inf.setInput(src.array(), src.arrayOffset() + start, avail);
+		} else {
+			byte[] a = inArray;
+			if (a == null) inArray = a = new byte[BUFFER_LEN];
+			avail = Math.min(avail, a.length);
+			src.get(a, 0, avail);
+			inf.setInput(a, 0, avail);
+		}
+
+		int n;
+
+		if (dst.hasArray()) {
+			n = inf.inflate(dst.array(), dst.arrayOffset() + pos, dst.limit() - pos);
+			if (crc != null) crc.update(dst.array(), dst.arrayOffset() + pos, n);
+		} else if (BUFFER_API) {
+			ByteBuffer d = dst.duplicate();
+			d.position(pos);
+			n = inf.inflate(d);
+
+			if (crc != null) {
+				d.flip().position(pos);
+				crc.update(d);
+			}
+		} else {
+			byte[] a = outArray;
+			if (a == null) outArray = a = new byte[BUFFER_LEN];
+			n = inf.inflate(a, 0, Math.min(a.length, dst.limit() - pos));
+			if (crc != null) crc.update(a, 0, n);
+			ByteBuffer d = dst.duplicate();
+			d.position(pos);
+			d.put(a, 0, n);
+		}
+
+		src.position(start + avail - inf.getRemaining());
+		return n;
+	}
+
+	private void verifyTrailer(ByteBuffer b) throws IOException {
+		int off = b.position();
+		ByteOrder order = b.order();
+		b.order(ByteOrder.LITTLE_ENDIAN);
+		long expectedCrc = b.getInt(off) & 0xFFFFFFFFL;
+		long expectedSize = b.getInt(off + 4) & 0xFFFFFFFFL;
+		b.order(order).position(off + 8);
+
+		if (expectedCrc != crc.getValue()) {
+			throw new IOException("Gzip CRC mismatch: expected 0x" + Long.toHexString(expectedCrc)
+					+ ", got 0x" + Long.toHexString(crc.getValue()));
+		}
+
+		long size = inflater.getBytesWritten() & 0xFFFFFFFFL;
+		if (expectedSize != size) {
+			throw new IOException("Gzip size mismatch: expected " + expectedSize + ", got " + size);
+		}
+	}
+
+	/**
+	 * Read more data from the underlying stream. The not consumed input is retained. Returns false
+	 * on end of stream.
+	 */
+	private FutureSupplier<Boolean> fill() {
+		if (in == null) return completed(false);
+
+		PooledBuffer own = this.own;
+		ByteBuffer b = (own == null) ? null : own.getByteBuffer();
+
+		if (b == input) {
+			b.compact();
+		} else {
+			int len = input.remaining();
+			if ((b == null) || (b.capacity() <= len)) b = allocate(Math.max(BUFFER_LEN, len * 2));
+			b.clear();
+			b.put(input);
+		}
+
+		if (!b.hasRemaining()) b = grow(b.capacity() * 2);
+
+		ByteBuffer buf = b;
+		int start = buf.position();
+		input = buf;
+
+		return in.read(() -> buf).map(r -> {
+			int n = r.remaining();
+
+			if (r == buf) {
+				buf.limit(start + n).position(0);
+			} else if (start == 0) {
+				buf.limit(0);
+				input = r;
+			} else {
+				buf.limit(buf.capacity()).position(start);
+				ByteBuffer nb = (n > (buf.capacity() - start)) ? grow(start + n) : buf;
+				nb.limit(start + n).position(start);
+				nb.put(r).position(0);
+				input = nb;
+			}
+
+			return n != 0;
+		});
+	}
+
+	private ByteBuffer allocate(int capacity) {
+		PooledBuffer old = own;
+		own = ByteBufferPool.get().allocate(capacity);
+		if (old != null) old.release();
+		return own.getByteBuffer();
+	}
+
+	/**
+	 * Allocate a larger buffer and copy the data, preceding the position, to it.
+	 */
+	private ByteBuffer grow(int capacity) {
+		PooledBuffer old = own;
+		ByteBuffer ob = old.getByteBuffer();
+		PooledBuffer nb = ByteBufferPool.get().allocate(capacity);
+		ByteBuffer b = nb.getByteBuffer();
+		ob.flip();
+		b.put(ob);
+		old.release();
+		own = nb;
+		return b;
+	}
+
+	/**
+	 * Returns the gzip header length or -1 if the input does not contain the whole header.
+	 */
+	private static int headerLength(ByteBuffer b) throws IOException {
+		int off = b.position();
+		int end = b.limit();
+		if ((end - off) < 10) {
+			if (((end - off) > 0) && ((b.get(off) & 0xFF) != 0x1F)) {
+				throw new IOException("Not in GZIP format");
+			}
+			return -1;
+		}
+
+		if (((b.get(off) & 0xFF) != 0x1F) || ((b.get(off + 1) & 0xFF) != 0x8B)) {
+			throw new IOException("Not in GZIP format");
+		}
+		if (b.get(off + 2) != 8) throw new IOException("Unsupported compression method");
+
+		int flags = b.get(off + 3) & 0xFF;
+		int i = off + 10;
+
+		if ((flags & FEXTRA) != 0) {
+			if ((end - i) < 2) return -1;
+			i += 2 + ((b.get(i) & 0xFF) | ((b.get(i + 1) & 0xFF) << 8));
+			if (i > end) return -1;
+		}
+		if ((flags & FNAME) != 0) {
+			for (; ; i++) {
+				if (i == end) return -1;
+				if (b.get(i) == 0) break;
+			}
+			i++;
+		}
+		if ((flags & FCOMMENT) != 0) {
+			for (; ; i++) {
+				if (i == end) return -1;
+				if (b.get(i) == 0) break;
+			}
+			i++;
+		}
+		if ((flags & FHCRC) != 0) {
+			i += 2;
+			if (i > end) return -1;
+		}
+
+		return i - off;
+	}
+
+	private static boolean hasBufferApi() {
+		try {
+			Inflater.class.getMethod("setInput", ByteBuffer.class);
+			Inflater.class.getMethod("inflate", ByteBuffer.class);
+			return true;
+		} catch (Throwable ex) {
+			return false;
+		}
+	}
+
+	@Override
+	public boolean hasRemaining() {
+		return state != EOS;
+	}
+
+	@Override
+	public void close() {
+		inflater.end();
+		if (in != null) in.close();
+		PooledBuffer own = this.own;
+
+		if (own != null) {
+			this.own = null;
+			input = IoUtils.emptyByteBuffer();
+			own.release();
+		}
+	}
+}
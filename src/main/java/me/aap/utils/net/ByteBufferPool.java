@@ -0,0 +1,252 @@
+package me.aap.utils.net;
+
+import androidx.annotation.Keep;
+import androidx.annotation.NonNull;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+import me.aap.utils.BuildConfig;
+import me.aap.utils.log.Log;
+
+/**
+ * Size-classed pool of direct byte buffers. The buffers are reference counted - a buffer is
+ * returned to the pool when the last reference is released. In debug builds the buffers, that
+ * are garbage collected without being released, are reported as leaks.
+ *
+ * @author Andrey Pavlenko
+ */
+public final class ByteBufferPool {
+	private static final ByteBufferPool instance = new ByteBufferPool(1024, 128 * 1024, 4 * 1024 * 1024);
+	private static final AtomicLongFieldUpdater<ByteBufferPool> HITS =
+			AtomicLongFieldUpdater.newUpdater(ByteBufferPool.class, "hits");
+	private static final AtomicLongFieldUpdater<ByteBufferPool> MISSES =
+			AtomicLongFieldUpdater.newUpdater(ByteBufferPool.class, "misses");
+	private static final AtomicLongFieldUpdater<ByteBufferPool> OUTSTANDING =
+			AtomicLongFieldUpdater.newUpdater(ByteBufferPool.class, "bytesOutstanding");
+	private static final AtomicLongFieldUpdater<ByteBufferPool> LEAKS =
+			AtomicLongFieldUpdater.newUpdater(ByteBufferPool.class, "leaks");
+	private static final AtomicIntegerFieldUpdater<SizeClass> CACHED =
+			AtomicIntegerFieldUpdater.newUpdater(SizeClass.class, "cached");
+	private static final AtomicIntegerFieldUpdater<PooledBuffer> REF_COUNT =
+			AtomicIntegerFieldUpdater.newUpdater(PooledBuffer.class, "refCount");
+	private final int minShift;
+	private final int maxSize;
+	private final SizeClass[] classes;
+	private final ReferenceQueue<PooledBuffer> leakQueue;
+	private final Set<LeakRef> leakRefs;
+	@Keep
+	volatile long hits;
+	@Keep
+	volatile long misses;
+	@Keep
+	volatile long bytesOutstanding;
+	@Keep
+	volatile long leaks;
+
+	/**
+	 * @param minSize       the smallest size class, rounded up to a power of two
+	 * @param maxSize       the largest size class, rounded up to a power of two. Larger buffers are not pooled.
+	 * @param maxClassBytes the maximum number of bytes cached in each size class
+	 */
+	public ByteBufferPool(int minSize, int maxSize, int maxClassBytes) {
+		minShift = shift(minSize);
+		int maxShift = Math.max(shift(maxSize), minShift);
+		this.maxSize = 1 << maxShift;
+		classes = new SizeClass[maxShift - minShift + 1];
+
+		for (int i = 0; i < classes.length; i++) {
+			int size = 1 << (minShift + i);
+			classes[i] = new SizeClass(size, Math.max(maxClassBytes / size, 1));
+		}
+
+		if (BuildConfig.D) {
+			leakQueue = new ReferenceQueue<>();
+			leakRefs = ConcurrentHashMap.newKeySet();
+		} else {
+			leakQueue = null;
+			leakRefs = null;
+		}
+	}
+
+	public static ByteBufferPool get() {
+		return instance;
+	}
+
+	/**
+	 * Returns a cleared buffer with the limit set to the requested capacity and
+	 * the reference count set to 1.
+	 */
+	public PooledBuffer allocate(int capacity) {
+		if (BuildConfig.D) checkLeaks();
+		PooledBuffer b;
+
+		if (capacity > maxSize) {
+			MISSES.incrementAndGet(this);
+			b = new PooledBuffer(null, capacity);
+		} else {
+			SizeClass c = classes[Math.max(shift(capacity) - minShift, 0)];
+			b = c.free.poll();
+
+			if (b != null) {
+				CACHED.decrementAndGet(c);
+				HITS.incrementAndGet(this);
+			} else {
+				MISSES.incrementAndGet(this);
+				b = new PooledBuffer(c, c.size);
+			}
+		}
+
+		b.refCount = 1;
+		b.buf.clear().limit(capacity);
+		OUTSTANDING.addAndGet(this, b.buf.capacity());
+		if (BuildConfig.D) b.leakRef = new LeakRef(b, leakQueue, leakRefs);
+		return b;
+	}
+
+	/**
+	 * Copy the remaining bytes of the specified buffer to a pooled buffer.
+	 */
+	public PooledBuffer copyOf(ByteBuffer src) {
+		PooledBuffer b = allocate(src.remaining());
+		int pos = src.position();
+		b.buf.put(src).flip();
+		src.position(pos);
+		return b;
+	}
+
+	public long getHits() {
+		return hits;
+	}
+
+	public long getMisses() {
+		return misses;
+	}
+
+	public long getBytesOutstanding() {
+		return bytesOutstanding;
+	}
+
+	public long getLeaks() {
+		return leaks;
+	}
+
+	@NonNull
+	@Override
+	public String toString() {
+		return "ByteBufferPool{hits=" + hits + ", misses=" + misses +
+				", bytesOutstanding=" + bytesOutstanding + ", leaks=" + leaks + '}';
+	}
+
+	private void recycle(PooledBuffer b) {
+		OUTSTANDING.addAndGet(this, -b.buf.capacity());
+
+		if (BuildConfig.D) {
+			LeakRef ref = b.leakRef;
+			b.leakRef = null;
+			leakRefs.remove(ref);
+			ref.clear();
+		}
+
+		SizeClass c = b.sizeClass;
+		if (c == null) return;
+
+		if (CACHED.incrementAndGet(c) <= c.maxCached) {
+			c.free.offer(b);
+		} else {
+			CACHED.decrementAndGet(c);
+		}
+	}
+
+	private void checkLeaks() {
+		for (LeakRef ref = (LeakRef) leakQueue.poll(); ref != null; ref = (LeakRef) leakQueue.poll()) {
+			if (!leakRefs.remove(ref)) continue;
+			LEAKS.incrementAndGet(this);
+			OUTSTANDING.addAndGet(this, -ref.capacity);
+			Log.e(ref.allocated, "ByteBuffer leak detected - the buffer of size ", ref.capacity,
+					" has not been released");
+		}
+	}
+
+	private static int shift(int size) {
+		return (size <= 1) ? 0 : 32 - Integer.numberOfLeadingZeros(size - 1);
+	}
+
+	private static final class SizeClass {
+		final ConcurrentLinkedQueue<PooledBuffer> free = new ConcurrentLinkedQueue<>();
+		final int size;
+		final int maxCached;
+		@Keep
+		volatile int cached;
+
+		SizeClass(int size, int maxCached) {
+			this.size = size;
+			this.maxCached = maxCached;
+		}
+	}
+
+	private static final class LeakRef extends WeakReference<PooledBuffer> {
+		final Throwable allocated = new Throwable("Allocated at");
+		final int capacity;
+
+		LeakRef(PooledBuffer b, ReferenceQueue<PooledBuffer> q, Set<LeakRef> refs) {
+			super(b, q);
+			capacity = b.buf.capacity();
+			refs.add(this);
+		}
+	}
+
+	/**
+	 * A reference counted pooled buffer. The buffer must not be accessed after the last reference is released.
+	 */
+	public final class PooledBuffer implements ByteBufferSupplier {
+		final SizeClass sizeClass;
+		final ByteBuffer buf;
+		@Keep
+		volatile int refCount;
+		LeakRef leakRef;
+
+		PooledBuffer(SizeClass sizeClass, int capacity) {
+			this.sizeClass = sizeClass;
+			buf = ByteBuffer.allocateDirect(capacity);
+		}
+
+		@Override
+		public ByteBuffer getByteBuffer() {
+			assert refCount > 0;
+			return buf;
+		}
+
+		@Override
+		public ByteBufferSupplier retainByteBuffer(ByteBuffer bb) {
+			assert bb == buf;
+			return this;
+		}
+
+		public PooledBuffer retain() {
+			for (int c = refCount; ; c = refCount) {
+				if (c <= 0) throw new IllegalStateException("Buffer is released");
+				if (REF_COUNT.compareAndSet(this, c, c + 1)) return this;
+			}
+		}
+
+		@Override
+		public void release() {
+			int c = REF_COUNT.decrementAndGet(this);
+			if (c == 0) recycle(this);
+			else if (c < 0) throw new IllegalStateException("Buffer is already released");
+		}
+
+		@NonNull
+		@Override
+		public String toString() {
+			return "PooledBuffer{" + buf + ", refCount=" + refCount + '}';
+		}
+	}
+}
@@ -19,6 +19,7 @@ import me.aap.utils.function.BiFunction;
 import me.aap.utils.function.Consumer;
 import me.aap.utils.function.Supplier;
 import me.aap.utils.net.NetServer.ConnectionHandler;
+import me.aap.utils.security.SslSessionCache;
 
 /**
  * @author Andrey Pavlenko
@@ -66,6 +67,31 @@ public interface NetHandler extends Closeable {
 		public Executor executor;
 		public ScheduledExecutorService scheduler;
 		public int inactivityTimeout;
+		/**
+		 * Number of selector threads (event loops). Each loop has its own selector, task queue and
+		 * inactivity sweeper. Accepted and connected channels are distributed between the loops.
+		 * A value <= 0 means one loop per available processor.
+		 */
+		public int selectors = 1;
+		/**
+		 * Assign new channels to the loop with the least number of channels instead of round-robin.
+		 */
+		public boolean leastLoaded;
+		/**
+		 * Perform the channel I/O operations and invoke the completion callbacks directly on the
+		 * selector thread instead of dispatching them to the executor. The callbacks must not block,
+		 * the channels with the {@link ChannelOpts#blocking} option are still handled by the executor.
+		 */
+		public boolean inlineIo;
+		/**
+		 * The maximum number of bytes, gathered from the queued writes of a channel into a single
+		 * vectored write. Each write is completed as soon as all its bytes are flushed.
+		 */
+		public int writeGatherBytes = 256 * 1024;
+		/**
+		 * The maximum number of buffers in a single vectored write. A value <= 1 disables gathering.
+		 */
+		public int writeGatherBuffers = 64;
 
 		Executor getExecutor() {
 			return (executor == null) ? executor = new NetThreadPool(Runtime.getRuntime().availableProcessors()) : executor;
@@ -74,6 +100,10 @@ public interface NetHandler extends Closeable {
 		ScheduledExecutorService getScheduler() {
 			return (scheduler == null) ? scheduler = Executors.newScheduledThreadPool(1) : scheduler;
 		}
+
+		int getSelectors() {
+			return (selectors > 0) ? selectors : Runtime.getRuntime().availableProcessors();
+		}
 	}
 
 	class ChannelOpts {
@@ -85,6 +115,11 @@ public interface NetHandler extends Closeable {
 		public int readTimeout;
 		public int writeTimeout;
 		public int sendTimeout;
+		/**
+		 * The channel handlers may block, so the I/O completions are dispatched to the executor
+		 * even if {@link Opts#inlineIo} is enabled.
+		 */
+		public boolean blocking;
 
 		SocketAddress getAddress() {
 			if (address == null) {
@@ -99,6 +134,18 @@ public interface NetHandler extends Closeable {
 		public ConnectionHandler handler;
 		public int backlog;
 		public Supplier<SSLEngine> sslEngine;
+		/**
+		 * The maximum number of the cached TLS sessions, 0 means no limit and a negative value - the
+		 * platform default. Applies to the default server SSL engines only. If this or
+		 * {@link #sslSessionTtl} is set, the server gets its own session cache instead of the shared
+		 * {@link SslSessionCache#getServerCache()}.
+		 */
+		public int sslSessionCacheSize = -1;
+		/**
+		 * The cached TLS sessions time to live in seconds, 0 means no limit and a negative value - the
+		 * platform default. Applies to the default server SSL engines only.
+		 */
+		public int sslSessionTtl = -1;
 	}
 
 	class ConnectOpts extends ChannelOpts {
@@ -5,8 +5,6 @@ import static java.nio.channels.SelectionKey.OP_CONNECT;
 import static java.nio.channels.SelectionKey.OP_READ;
 import static java.nio.channels.SelectionKey.OP_WRITE;
 import static java.util.Objects.requireNonNull;
-import static java.util.concurrent.TimeUnit.MILLISECONDS;
-import static java.util.concurrent.TimeUnit.SECONDS;
 import static me.aap.utils.async.Completed.failed;
 import static me.aap.utils.misc.Assert.assertEquals;
 
@@ -28,6 +26,7 @@ import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -36,12 +35,12 @@ import java.util.Set;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 import javax.annotation.Nonnull;
+import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLEngine;
 
 import me.aap.utils.BuildConfig;
@@ -52,6 +51,7 @@ import me.aap.utils.async.RunnablePromise;
 import me.aap.utils.concurrent.ConcurrentQueueBase;
 import me.aap.utils.concurrent.ConcurrentQueueBase.Node;
 import me.aap.utils.concurrent.ConcurrentUtils;
+import me.aap.utils.concurrent.NetThread;
 import me.aap.utils.concurrent.PooledThread;
 import me.aap.utils.function.ProgressiveResultConsumer.Completion;
 import me.aap.utils.function.Supplier;
@@ -59,36 +59,49 @@ import me.aap.utils.io.IoUtils;
 import me.aap.utils.io.RandomAccessChannel;
 import me.aap.utils.log.Log;
 import me.aap.utils.security.SecurityUtils;
+import me.aap.utils.security.SslSessionCache;
 
 /**
  * @author Andrey Pavlenko
  */
-class SelectorHandler implements NetHandler, Runnable {
+class SelectorHandler implements NetHandler {
+	private static final int TIMER_TICK = 100;
+	private static final int TIMER_WHEEL_SIZE = 512;
+	private static final AtomicIntegerFieldUpdater<SelectorHandler> NEXT_LOOP =
+			AtomicIntegerFieldUpdater.newUpdater(SelectorHandler.class, "nextLoop");
+	private static final AtomicIntegerFieldUpdater<EventLoop> LOAD =
+			AtomicIntegerFieldUpdater.newUpdater(EventLoop.class, "load");
 	private final Executor executor;
 	private final ScheduledExecutorService scheduler;
 	private final int inactivityTimeout;
-	private final Selector selector;
-	private final ScheduledFuture<?> inactiveChannelCleaner;
-	private final Thread selectorThread;
-	private final ConcurrentLinkedQueue<Runnable> queue = new ConcurrentLinkedQueue<>();
+	private final boolean leastLoaded;
+	private final boolean inlineIo;
+	private final int writeGatherBytes;
+	private final int writeGatherBuffers;
+	private final EventLoop[] loops;
+	@Keep
+	volatile int nextLoop;
 
 	SelectorHandler(Opts opts) throws IOException {
 		executor = opts.getExecutor();
 		scheduler = opts.getScheduler();
-		selector = Selector.open();
+		inactivityTimeout = (opts.inactivityTimeout > 0) ? opts.inactivityTimeout * 1000 : 0;
+		leastLoaded = opts.leastLoaded;
+		inlineIo = opts.inlineIo;
+		writeGatherBytes = opts.writeGatherBytes;
+		writeGatherBuffers = opts.writeGatherBuffers;
 
-		if (opts.inactivityTimeout > 0) {
-			inactivityTimeout = opts.inactivityTimeout * 1000;
-			inactiveChannelCleaner = scheduler.scheduleWithFixedDelay(this::cleanInactive,
-					inactivityTimeout, inactivityTimeout, MILLISECONDS);
-		} else {
-			inactivityTimeout = 0;
-			inactiveChannelCleaner = null;
-		}
+		int n = opts.getSelectors();
+		loops = new EventLoop[n];
 
-		selectorThread = new PooledThread(this, "SelectorHandler");
-		selectorThread.setDaemon(true);
-		selectorThread.start();
+		try {
+			for (int i = 0; i < n; i++) {
+				loops[i] = new EventLoop((n == 1) ? "SelectorHandler" : "SelectorHandler-" + i);
+			}
+		} catch (IOException ex) {
+			close();
+			throw ex;
+		}
 	}
 
 	@Override
@@ -96,34 +109,6 @@ class SelectorHandler implements NetHandler, Runnable {
 		close();
 	}
 
-	@Override
-	public void run() {
-		while (selector.isOpen()) {
-			try {
-				selector.select();
-
-				for (Runnable run = queue.poll(); run != null; run = queue.poll()) {
-					run.run();
-				}
-
-				Set<SelectionKey> keys = selector.selectedKeys();
-
-				for (Iterator<SelectionKey> it = keys.iterator(); it.hasNext(); ) {
-					SelectionKey k = it.next();
-					it.remove();
-
-					if (k.isValid()) {
-						Selectable select = (Selectable) k.attachment();
-						if (select != null) select.select();
-					}
-				}
-			} catch (Throwable ex) {
-				if (!selector.isOpen()) break;
-				Log.e(ex, "Selector failed");
-			}
-		}
-	}
-
 	@Override
 	public FutureSupplier<NetServer> bind(BindOpts opts) {
 		try {
@@ -137,10 +122,11 @@ class SelectorHandler implements NetHandler, Runnable {
 				channel.socket().bind(opts.getAddress(), opts.backlog);
 			}
 
+			EventLoop acceptor = nextLoop();
 			RunnablePromise<NetServer> p = new RunnablePromise<NetServer>() {
 				@Override
 				protected NetServer runTask() throws ClosedChannelException {
-					channel.register(selector, OP_ACCEPT, server);
+					channel.register(acceptor.selector, OP_ACCEPT, server);
 					return server;
 				}
 
@@ -151,7 +137,7 @@ class SelectorHandler implements NetHandler, Runnable {
 				}
 			};
 
-			selectorRun(p);
+			acceptor.selectorRun(p);
 			return p;
 		} catch (Throwable ex) {
 			return failed(ex);
@@ -201,36 +187,23 @@ class SelectorHandler implements NetHandler, Runnable {
 			}
 
 			ch.connect(addr);
-			startTimer(p, o.connectTimeout, Timer.CONNECT);
+			EventLoop loop = nextLoop();
 
-			selectorRun(() -> {
+			if ((o.connectTimeout > 0) && !p.isDone()) {
+				Timer t = loop.startTimer(p, o.connectTimeout, Timer.CONNECT);
+				p.thenRun(t::cancel);
+			}
+
+			loop.selectorRun(() -> {
 				try {
-					SelectionKey key = ch.register(selector, OP_CONNECT);
+					SelectionKey key = ch.register(loop.selector, OP_CONNECT);
+					boolean inline = isInline(o);
 					SelectableNetChannel nc = ((o.readTimeout | o.writeTimeout | o.sendTimeout) == 0)
-							? new SelectableNetChannel(key)
-							: new SelectableNetChannelWitTimeout(key, o.readTimeout, o.writeTimeout, o.sendTimeout);
-
-					key.attach((Selectable) () -> {
-						try {
-							assertEquals(OP_CONNECT, key.interestOps());
-							if (!key.isConnectable() || !ch.finishConnect()) return;
-							key.attach(nc);
-							key.interestOps(0);
-
-							getExecutor().execute(() -> {
-								if (o.ssl) {
-									if (o.host == null) o.host = ((InetSocketAddress) addr).getHostString();
-									if (o.sslEngine == null) o.sslEngine = SecurityUtils::createClientSslEngine;
-									SslChannel.create(nc, o.sslEngine.apply(o.host, o.port)).onCompletionSupply(p);
-								} else {
-									p.complete(nc);
-								}
-							});
-						} catch (CancelledKeyException ignore) {
-						} catch (Throwable ex) {
-							getExecutor().execute(() -> p.completeExceptionally(ex));
-						}
-					});
+							? new SelectableNetChannel(loop, key, inline)
+							: new SelectableNetChannelWitTimeout(loop, key, inline, o.readTimeout, o.writeTimeout,
+							o.sendTimeout);
+
+					key.attach(new Connector(o, addr, ch, key, nc, inline, p));
 				} catch (Throwable ex) {
 					getExecutor().execute(() -> p.completeExceptionally(ex));
 				}
@@ -240,31 +213,77 @@ class SelectorHandler implements NetHandler, Runnable {
 		}
 	}
 
-	@Override
-	public void close() {
-		if (!selector.isOpen()) return;
-		selectorRun(this::doClose);
-		if (!selector.isOpen()) queue.clear();
-	}
+	/**
+	 * The attachment of a connecting key. Closing the loop fails the pending connection.
+	 */
+	private final class Connector implements Selectable, Closeable {
+		private final ConnectOpts o;
+		private final SocketAddress addr;
+		private final SocketChannel ch;
+		private final SelectionKey key;
+		private final SelectableNetChannel nc;
+		private final boolean inline;
+		private final Promise<NetChannel> p;
+
+		Connector(ConnectOpts o, SocketAddress addr, SocketChannel ch, SelectionKey key,
+							SelectableNetChannel nc, boolean inline, Promise<NetChannel> p) {
+			this.o = o;
+			this.addr = addr;
+			this.ch = ch;
+			this.key = key;
+			this.nc = nc;
+			this.inline = inline;
+			this.p = p;
+		}
 
-	private void doClose() {
-		for (SelectionKey k : selector.keys()) {
+		@Override
+		public void select() {
 			try {
-				Object a = k.attachment();
-				if (a instanceof Closeable) ((Closeable) a).close();
-				else k.channel().close();
-			} catch (Throwable ignore) {
+				assertEquals(OP_CONNECT, key.interestOps());
+				if (!key.isConnectable() || !ch.finishConnect()) return;
+				key.attach(nc);
+				key.interestOps(0);
+
+				if (inline && !o.ssl) {
+					p.complete(nc);
+					return;
+				}
+
+				getExecutor().execute(() -> {
+					if (o.ssl) {
+						// The client sessions are cached by host and port
+						if (o.host == null) o.host = ((InetSocketAddress) addr).getHostString();
+						if (o.port == 0) o.port = ((InetSocketAddress) addr).getPort();
+						if (o.sslEngine == null) o.sslEngine = SecurityUtils::createClientSslEngine;
+						SslChannel.create(nc, o.sslEngine.apply(o.host, o.port)).onCompletionSupply(p);
+					} else {
+						p.complete(nc);
+					}
+				});
+			} catch (CancelledKeyException ignore) {
+			} catch (Throwable ex) {
+				getExecutor().execute(() -> p.completeExceptionally(ex));
 			}
 		}
 
-		IoUtils.close(selector);
-		if (inactiveChannelCleaner != null) inactiveChannelCleaner.cancel(false);
-		queue.clear();
+		@Override
+		public void close() {
+			IoUtils.close(ch);
+			if (!p.isDone()) getExecutor().execute(() -> p.completeExceptionally(new ClosedChannelException()));
+		}
+	}
+
+	@Override
+	public void close() {
+		for (EventLoop l : loops) {
+			if (l != null) l.close();
+		}
 	}
 
 	@Override
 	public boolean isOpen() {
-		return selector.isOpen();
+		EventLoop l = loops[0];
+		return (l != null) && l.selector.isOpen();
 	}
 
 	@Override
@@ -282,8 +301,211 @@ class SelectorHandler implements NetHandler, Runnable {
 		return inactivityTimeout;
 	}
 
-	private void cleanInactive() {
-		selectorRun(() -> {
+	private boolean isInline(ChannelOpts o) {
+		return inlineIo && !o.blocking;
+	}
+
+	/**
+	 * Select the loop for a new channel - either round-robin or the one with the least number of channels.
+	 */
+	private EventLoop nextLoop() {
+		EventLoop[] loops = this.loops;
+		if (loops.length == 1) return loops[0];
+
+		if (leastLoaded) {
+			EventLoop loop = loops[0];
+			int load = loop.load;
+
+			for (int i = 1; (i < loops.length) && (load != 0); i++) {
+				EventLoop l = loops[i];
+				int ll = l.load;
+
+				if (ll < load) {
+					loop = l;
+					load = ll;
+				}
+			}
+
+			// Account the new channel until the loop recalculates its load
+			LOAD.incrementAndGet(loop);
+			return loop;
+		}
+
+		return loops[(NEXT_LOOP.getAndIncrement(this) & Integer.MAX_VALUE) % loops.length];
+	}
+
+	/**
+	 * Each loop has a hashed timing wheel for the connect/read/write/send timeouts. The timers
+	 * are added to the loop's lock-free queue and moved to the wheel by the selector thread, the
+	 * cancelled timers are removed from the wheel when their slot is processed.
+	 */
+	private final class EventLoop extends ConcurrentQueueBase<Timer, Timer> implements Runnable {
+		final Selector selector;
+		private final Thread selectorThread;
+		private final ConcurrentLinkedQueue<Runnable> queue = new ConcurrentLinkedQueue<>();
+		private final Timer[] wheel = new Timer[TIMER_WHEEL_SIZE];
+		private int wheelTimers;
+		private long tick;
+		private long nextClean;
+		@Keep
+		volatile int load;
+		@Keep
+		volatile boolean idle;
+
+		EventLoop(String name) throws IOException {
+			selector = Selector.open();
+			long now = now();
+			tick = now / TIMER_TICK;
+			nextClean = now + inactivityTimeout;
+
+			// The inline I/O mode requires the thread local buffers
+			selectorThread = inlineIo ? new NetThread(this, name) : new PooledThread(this, name);
+			selectorThread.setDaemon(true);
+			selectorThread.start();
+		}
+
+		@Override
+		public void run() {
+			while (selector.isOpen()) {
+				try {
+					select();
+
+					for (Runnable run = queue.poll(); run != null; run = queue.poll()) {
+						run.run();
+					}
+
+					Set<SelectionKey> keys = selector.selectedKeys();
+
+					for (Iterator<SelectionKey> it = keys.iterator(); it.hasNext(); ) {
+						SelectionKey k = it.next();
+						it.remove();
+
+						if (k.isValid()) {
+							Selectable select = (Selectable) k.attachment();
+							if (select != null) select.select();
+						}
+					}
+
+					runTimers();
+					load = selector.keys().size();
+				} catch (Throwable ex) {
+					if (!selector.isOpen()) break;
+					Log.e(ex, "Selector failed");
+				}
+			}
+		}
+
+		private void select() throws IOException {
+			long timeout = 0;
+			long now = now();
+
+			if (wheelTimers != 0) timeout = Math.max((tick + 1) * TIMER_TICK - now, 1);
+			if (inactivityTimeout != 0) {
+				long t = Math.max(nextClean - now, 1);
+				if ((timeout == 0) || (t < timeout)) timeout = t;
+			}
+
+			// Wake up the selector if a timer is added while the wheel is not ticking
+			idle = (wheelTimers == 0);
+
+			try {
+				if (idle && !isEmpty()) selector.selectNow();
+				else if (timeout != 0) selector.select(timeout);
+				else selector.select();
+			} finally {
+				idle = false;
+			}
+		}
+
+		Timer startTimer(Completable<?> task, int timeout, byte type) {
+			Timer t = new Timer(task, type, now() + timeout * 1000L);
+			offerNode(t);
+			if (idle) selector.wakeup();
+			return t;
+		}
+
+		private void runTimers() {
+			long now = now();
+			long current = now / TIMER_TICK;
+
+			if (wheelTimers == 0) {
+				tick = current;
+			} else {
+				while (tick < current) {
+					int slot = (int) (++tick & (TIMER_WHEEL_SIZE - 1));
+
+					for (Timer t = wheel[slot], prev = null; t != null; ) {
+						Timer next = t.nextInSlot;
+
+						if (t.task == null) {
+							remove(slot, prev, t);
+						} else if (t.rounds > 0) {
+							t.rounds--;
+							prev = t;
+						} else {
+							remove(slot, prev, t);
+							t.run();
+						}
+
+						t = next;
+					}
+				}
+			}
+
+			for (Timer t = pollNode(); t != null; t = pollNode()) {
+				if (t.task == null) continue;
+				long target = Math.max((t.deadline + TIMER_TICK - 1) / TIMER_TICK, tick + 1);
+				int slot = (int) (target & (TIMER_WHEEL_SIZE - 1));
+				t.rounds = (target - tick - 1) / TIMER_WHEEL_SIZE;
+				t.nextInSlot = wheel[slot];
+				wheel[slot] = t;
+				wheelTimers++;
+			}
+
+			if ((inactivityTimeout != 0) && (now >= nextClean)) {
+				nextClean = now + inactivityTimeout;
+				cleanInactive();
+			}
+		}
+
+		private void remove(int slot, Timer prev, Timer t) {
+			if (prev == null) wheel[slot] = t.nextInSlot;
+			else prev.nextInSlot = t.nextInSlot;
+			t.nextInSlot = null;
+			wheelTimers--;
+		}
+
+		void close() {
+			if (!selector.isOpen()) return;
+			selectorRun(this::doClose);
+		}
+
+		private void doClose() {
+			for (SelectionKey k : selector.keys()) {
+				try {
+					Object a = k.attachment();
+					if (a instanceof Closeable) ((Closeable) a).close();
+					else k.channel().close();
+				} catch (Throwable ignore) {
+				}
+			}
+
+			IoUtils.close(selector);
+			runClosed();
+
+			// Fail the tasks, guarded by the pending timers, otherwise they would never complete
+			ClosedChannelException closed = new ClosedChannelException();
+			clear(t -> t.fail(closed));
+
+			for (Timer t : wheel) {
+				for (; t != null; t = t.nextInSlot) t.fail(closed);
+			}
+
+			Arrays.fill(wheel, null);
+			wheelTimers = 0;
+		}
+
+		private void cleanInactive() {
 			Set<SelectionKey> keys = selector.keys();
 			if (keys.isEmpty()) return;
 
@@ -297,7 +519,35 @@ class SelectorHandler implements NetHandler, Runnable {
 				} catch (Throwable ignore) {
 				}
 			}
-		});
+		}
+
+		boolean isSelectorThread() {
+			return Thread.currentThread() == selectorThread;
+		}
+
+		void selectorRun(Runnable run) {
+			if (isSelectorThread()) {
+				run.run();
+			} else {
+				queue.add(run);
+				selector.wakeup();
+				if (!selector.isOpen()) runClosed();
+			}
+		}
+
+		/**
+		 * Run the tasks, queued after the loop is closed. They fail on the closed selector and
+		 * complete the corresponding promises.
+		 */
+		private void runClosed() {
+			for (Runnable run = queue.poll(); run != null; run = queue.poll()) {
+				try {
+					run.run();
+				} catch (Throwable ex) {
+					Log.d(ex, "Task failed on closed selector");
+				}
+			}
+		}
 	}
 
 	@SuppressWarnings({"unchecked", "rawtypes"})
@@ -318,81 +568,80 @@ class SelectorHandler implements NetHandler, Runnable {
 		return -1;
 	}
 
-	private boolean isSelectorThread() {
-		return Thread.currentThread() == selectorThread;
+	private static long now() {
+		return System.nanoTime() / 1000000;
 	}
 
-	private void selectorRun(Runnable run) {
-		if (isSelectorThread()) {
-			run.run();
-		} else {
-			queue.add(run);
-			selector.wakeup();
-		}
-	}
+	private static final AtomicReferenceFieldUpdater<Timer, Timer> TIMER_NEXT =
+			AtomicReferenceFieldUpdater.newUpdater(Timer.class, Timer.class, "next");
 
-	private void startTimer(Promise<?> task, int timeout, byte type) {
-		if ((timeout > 0) && !task.isDone()) {
-			Timer t = new Timer(task, type);
-			ScheduledFuture<?> f = t.future = getScheduler().schedule(t, timeout, SECONDS);
-			task.thenRun(t::cancel);
-			if ((t.future == null) && task.isDone()) f.cancel(false);
-		}
-	}
-
-	private static final class Timer implements Runnable {
+	private final class Timer implements Node<Timer> {
 		static final byte CONNECT = 0;
 		static final byte READ = 1;
 		static final byte WRITE = 2;
 		static final byte SEND = 3;
-		private Completable<?> task;
+		volatile Completable<?> task;
 		private final byte type;
-		ScheduledFuture<?> future;
+		final long deadline;
+		long rounds;
+		Timer nextInSlot;
+		@Keep
+		volatile Timer next;
 
-		Timer(Completable<?> task, byte type) {
+		Timer(Completable<?> task, byte type, long deadline) {
 			this.task = task;
 			this.type = type;
+			this.deadline = deadline;
 		}
 
-		@Override
-		public void run() {
-			ScheduledFuture<?> f = future;
+		void run() {
 			Completable<?> t = task;
-
-			if (f != null) {
-				f.cancel(false);
-				future = null;
+			if (t == null) return;
+			task = null;
+			String msg;
+
+			switch (type) {
+				case CONNECT:
+					msg = "Connect timeout";
+					break;
+				case READ:
+					msg = "Read timeout";
+					break;
+				case WRITE:
+					msg = "Write timeout";
+					break;
+				default:
+					msg = "Send timeout";
 			}
 
-			if (t != null) {
-				task = null;
-				String msg;
-
-				switch (type) {
-					case CONNECT:
-						msg = "Connect timeout";
-						break;
-					case READ:
-						msg = "Read timeout";
-						break;
-					case WRITE:
-						msg = "Write timeout";
-						break;
-					default:
-						msg = "Send timeout";
-				}
-				t.completeExceptionally(new TimeoutException(msg));
-			}
+			// Called by the selector thread - do not run the consumers here
+			getExecutor().execute(() -> t.completeExceptionally(new TimeoutException(msg)));
 		}
 
 		void cancel() {
-			ScheduledFuture<?> f = future;
 			task = null;
+		}
 
-			if (f != null) {
-				f.cancel(false);
-				future = null;
-			}
+		void fail(Throwable ex) {
+			Completable<?> t = task;
+			if (t == null) return;
+			task = null;
+			getExecutor().execute(() -> t.completeExceptionally(ex));
+		}
+
+		@Override
+		public Timer getValue() {
+			return this;
+		}
+
+		@Override
+		public Timer getNext() {
+			return next;
+		}
+
+		@Override
+		public boolean compareAndSetNext(Node<Timer> expect, Node<Timer> update) {
+			return TIMER_NEXT.compareAndSet(this, (Timer) expect, (Timer) update);
 		}
 	}
 
@@ -409,6 +658,7 @@ class SelectorHandler implements NetHandler, Runnable {
 		private final int writeTimeout;
 		private final int sendTimeout;
 		private final boolean hasTimeout;
+		private final boolean inline;
 
 		public SelectableNetServer(ServerSocketChannel channel, BindOpts o) {
 			this.channel = channel;
@@ -418,9 +668,21 @@ class SelectorHandler implements NetHandler, Runnable {
 			writeTimeout = o.writeTimeout;
 			sendTimeout = o.sendTimeout;
 			hasTimeout = ((readTimeout | writeTimeout | sendTimeout) != 0);
+			inline = isInline(o);
 
 			if (o.ssl) {
-				ssl = (o.sslEngine != null) ? o.sslEngine : SecurityUtils::createServerSslEngine;
+				if (o.sslEngine != null) {
+					ssl = o.sslEngine;
+				} else if ((o.sslSessionCacheSize >= 0) || (o.sslSessionTtl >= 0)) {
+					// The session context is shared by all the engines of the SSLContext
+					SSLContext ctx = SecurityUtils.createServerSslContext();
+					SslSessionCache cache = SslSessionCache.get(ctx.getServerSessionContext());
+					if (o.sslSessionCacheSize >= 0) cache.setSize(o.sslSessionCacheSize);
+					if (o.sslSessionTtl >= 0) cache.setTtl(o.sslSessionTtl);
+					ssl = () -> SecurityUtils.createServerSslEngine(ctx);
+				} else {
+					ssl = SecurityUtils::createServerSslEngine;
+				}
 			} else {
 				ssl = null;
 			}
@@ -443,7 +705,6 @@ class SelectorHandler implements NetHandler, Runnable {
 
 		@Override
 		public void select() {
-			SelectableNetChannel nc;
 			SocketChannel ch = null;
 
 			try {
@@ -452,17 +713,34 @@ class SelectorHandler implements NetHandler, Runnable {
 
 				ch.configureBlocking(false);
 				setOpts(ch, opts);
+			} catch (Throwable ex) {
+				IoUtils.close(ch);
+				Log.e(ex, "Failed to accept a connection");
+				return;
+			}
+
+			EventLoop loop = nextLoop();
+			SocketChannel sc = ch;
+			loop.selectorRun(() -> register(loop, sc));
+		}
+
+		private void register(EventLoop loop, SocketChannel ch) {
+			SelectableNetChannel nc;
 
-				SelectionKey key = ch.register(selector, 0);
+			try {
+				SelectionKey key = ch.register(loop.selector, 0);
 				nc = hasTimeout
-						? new SelectableNetChannelWitTimeout(key, readTimeout, writeTimeout, sendTimeout)
-						: new SelectableNetChannel(key);
+						? new SelectableNetChannelWitTimeout(loop, key, inline, readTimeout, writeTimeout, sendTimeout)
+						: new SelectableNetChannel(loop, key, inline);
 				key.attach(nc);
-			} catch (CancelledKeyException ignore) {
-				return;
 			} catch (Throwable ex) {
 				IoUtils.close(ch);
-				Log.e(ex, "Failed to accept a connection");
+				if (!(ex instanceof CancelledKeyException)) Log.e(ex, "Failed to register a connection");
+				return;
+			}
+
+			if (inline && (ssl == null)) {
+				acceptConnection(nc);
 				return;
 			}
 
@@ -524,7 +802,9 @@ class SelectorHandler implements NetHandler, Runnable {
 	private class SelectableNetChannel
 			extends ConcurrentQueueBase<ByteBufferArraySupplier, WritePromise>
 			implements NetChannel, Selectable {
+		private final EventLoop loop;
 		private final SelectionKey key;
+		private final boolean inline;
 		@Keep
 		volatile ReadPromise reader;
 		@Keep
@@ -532,8 +812,10 @@ class SelectorHandler implements NetHandler, Runnable {
 		private long lastActive;
 		private CloseListener closeListener;
 
-		public SelectableNetChannel(SelectionKey key) {
+		public SelectableNetChannel(EventLoop loop, SelectionKey key, boolean inline) {
+			this.loop = loop;
 			this.key = key;
+			this.inline = inline;
 		}
 
 		@Override
@@ -542,17 +824,21 @@ class SelectorHandler implements NetHandler, Runnable {
 
 			try {
 				assertEquals(0, key.interestOps() & (OP_ACCEPT | OP_CONNECT));
-				int ready = key.readyOps();
 				int interest = key.interestOps();
+				int ops = key.readyOps() & interest & (OP_READ | OP_WRITE);
+				if (ops == 0) return;
 
-				if (((ready & OP_READ) != 0) && ((interest & OP_READ) != 0)) {
-					key.interestOps(interest &= ~OP_READ);
-					getExecutor().execute(this::doRead);
+				// Reset the interest before the inline operations, that may set it again
+				key.interestOps(interest & ~ops);
+
+				if ((ops & OP_READ) != 0) {
+					if (inline) doRead();
+					else getExecutor().execute(this::doRead);
 				}
 
-				if (((ready & OP_WRITE) != 0) && ((interest & OP_WRITE) != 0)) {
-					key.interestOps(interest & ~OP_WRITE);
-					if (WRITING.compareAndSet(this, 0, 1)) getExecutor().execute(this::doWrite);
+				if (((ops & OP_WRITE) != 0) && WRITING.compareAndSet(this, 0, 1)) {
+					if (inline) doWrite();
+					else getExecutor().execute(this::doWrite);
 				}
 			} catch (CancelledKeyException ignore) {
 			} catch (Throwable ex) {
@@ -659,6 +945,15 @@ class SelectorHandler implements NetHandler, Runnable {
 						if (isEmpty() || !WRITING.compareAndSet(this, 0, 1)) return;
 					}
 
+					if (p.isDone() && !p.started) {
+						// Released, cancelled or timed out before being written
+						assert p == peekNode();
+						poll();
+						p.release();
+						continue;
+					}
+
+					p.started = true;
 					ByteBufferArraySupplier bs = p.supplier;
 
 					if (bs == null) {
@@ -694,6 +989,12 @@ class SelectorHandler implements NetHandler, Runnable {
 
 					assert getBufferOffset(buf) == 0;
 
+					if ((writeGatherBuffers > 1) && (p.getNext() != null) && (p.getSendChannel() == null)
+							&& !NetThread.hasLocalBuffer(buf)) {
+						if (gatherWrite(ch, p, buf)) continue;
+						return;
+					}
+
 					for (int off = 0; ; ) {
 						long i = ch.write(buf, off, buf.length - off);
 
@@ -731,6 +1032,102 @@ class SelectorHandler implements NetHandler, Runnable {
 			}
 		}
 
+		/**
+		 * Gather the buffers of the queued writes, starting from the specified one, into a single
+		 * vectored write. Returns false if the channel is not ready for writing.
+		 */
+		private boolean gatherWrite(SocketChannel ch, WritePromise first, ByteBuffer[] firstBuf)
+				throws IOException {
+			WritePromise[] promises = new WritePromise[8];
+			ByteBuffer[][] arrays = new ByteBuffer[8][];
+			int n = 0;
+			int nbufs = 0;
+			long bytes = 0;
+
+			for (WritePromise p = first; ; ) {
+				ByteBuffer[] a;
+
+				if (p == first) {
+					a = firstBuf;
+				} else {
+					ByteBufferArraySupplier s = p.supplier;
+					if (s == null) break;
+
+					if (p.isDone()) {
+						// Released, cancelled or timed out before being written.
+						// The promise is removed from the queue, when it reaches the head.
+						p.releaseBufSupplier();
+						p = p.getNext();
+						if ((p == null) || (p.getSendChannel() != null)) break;
+						continue;
+					}
+
+					a = s.getByteBufferArray();
+					if (a.length == 0) break;
+				}
+
+				if (n == promises.length) {
+					promises = Arrays.copyOf(promises, n << 1);
+					arrays = Arrays.copyOf(arrays, n << 1);
+				}
+
+				promises[n] = p;
+				arrays[n++] = a;
+				nbufs += a.length;
+				for (ByteBuffer b : a) bytes += b.remaining();
+
+				// The thread local buffers can not be shared with the next write
+				if ((bytes >= writeGatherBytes) || (nbufs >= writeGatherBuffers) || NetThread.hasLocalBuffer(a)) break;
+				p = p.getNext();
+				if ((p == null) || (p.getSendChannel() != null)) break;
+			}
+
+			ByteBuffer[] buf;
+
+			if (n == 1) {
+				buf = firstBuf;
+			} else {
+				buf = new ByteBuffer[nbufs];
+
+				for (int i = 0, off = 0; i < n; off += arrays[i].length, i++) {
+					System.arraycopy(arrays[i], 0, buf, off, arrays[i].length);
+				}
+			}
+
+			for (int off = 0, idx = 0, start = 0; ; ) {
+				long i = ch.write(buf, off, nbufs - off);
+				while ((off < nbufs) && !buf[off].hasRemaining()) off++;
+
+				// Complete the flushed writes
+				for (; (idx < n) && (start + arrays[idx].length <= off); start += arrays[idx++].length) {
+					WritePromise p = promises[idx];
+					p.releaseBuf(arrays[idx], arrays[idx].length);
+					p.releaseBufSupplier();
+					if (peekNode() == p) poll();
+					p.complete(null);
+				}
+
+				if ((idx == n) || !isOpen()) return true;
+				if (i != 0) continue;
+
+				WritePromise p = promises[idx];
+				int o = off - start;
+				if (o != 0) {
+					p.started = true;
+					p.releaseBuf(arrays[idx], o);
+				}
+				p.retainBuf(arrays[idx], o);
+
+				for (int j = idx + 1; j < n; j++) {
+					if (!promises[j].isDone()) promises[j].retainBuf(arrays[j], 0);
+				}
+
+				writing = 0;
+				setInterest(p, OP_WRITE);
+				return false;
+			}
+		}
+
 		private boolean send(WritePromise p, RandomAccessChannel ch) throws IOException {
 			long off = p.getSendChannelOff();
 			long len = p.getSendChannelLen();
@@ -753,8 +1150,15 @@ class SelectorHandler implements NetHandler, Runnable {
 			}
 		}
 
+		private void startTimer(ChannelPromise<?> p, int timeout, byte type) {
+			if ((timeout > 0) && !p.isDone()) {
+				Timer t = p.timer = loop.startTimer(p, timeout, type);
+				if (p.isDone()) t.cancel();
+			}
+		}
+
 		private void setInterest(Completable<?> p, int interest) {
-			selectorRun(() -> {
+			loop.selectorRun(() -> {
 				try {
 					if (key.isValid()) key.interestOps(key.interestOps() | interest);
 				} catch (Throwable ex) {
@@ -818,12 +1222,12 @@ class SelectorHandler implements NetHandler, Runnable {
 			CloseListener listener = closeListener;
 
 			if (listener != null) {
-				if (isSelectorThread()) getExecutor().execute(() -> listener.channelClosed(this));
+				if (loop.isSelectorThread()) getExecutor().execute(() -> listener.channelClosed(this));
 				else listener.channelClosed(this);
 			}
 
 			// Wake up selector to remove the cancelled key
-			selector.wakeup();
+			loop.selector.wakeup();
 		}
 
 		@Nonnull
@@ -842,8 +1246,9 @@ class SelectorHandler implements NetHandler, Runnable {
 		private final int writeTimeout;
 		private final int sendTimeout;
 
-		SelectableNetChannelWitTimeout(SelectionKey key, int readTimeout, int writeTimeout, int sendTimeout) {
-			super(key);
+		SelectableNetChannelWitTimeout(EventLoop loop, SelectionKey key, boolean inline, int readTimeout,
+																	 int writeTimeout, int sendTimeout) {
+			super(loop, key, inline);
 			this.readTimeout = readTimeout;
 			this.writeTimeout = writeTimeout;
 			this.sendTimeout = sendTimeout;
@@ -866,23 +1271,36 @@ class SelectorHandler implements NetHandler, Runnable {
 	}
 
 	private static abstract class ChannelPromise<T> extends Promise<T> {
+		Timer timer;
 
 		abstract void release();
 
+		private void cancelTimer() {
+			Timer t = timer;
+
+			if (t != null) {
+				timer = null;
+				t.cancel();
+			}
+		}
+
 		@Override
 		public boolean cancel(boolean mayInterruptIfRunning) {
+			cancelTimer();
 			release();
 			return super.cancel(mayInterruptIfRunning);
 		}
 
 		@Override
 		public boolean complete(@Nullable T value) {
+			cancelTimer();
 			release();
 			return super.complete(value);
 		}
 
 		@Override
 		public boolean completeExceptionally(@NonNull Throwable ex) {
+			cancelTimer();
 			release();
 			return super.completeExceptionally(ex);
 		}
@@ -915,6 +1333,8 @@ class SelectorHandler implements NetHandler, Runnable {
 		private static final AtomicReferenceFieldUpdater NEXT = AtomicReferenceFieldUpdater.newUpdater(WritePromise.class, WritePromise.class, "next");
 		private volatile WritePromise next;
 		ByteBufferArraySupplier supplier;
+		// Some data has been written, the write can not be skipped
+		boolean started;
 
 		WritePromise(ByteBufferArraySupplier supplier) {
 			this.supplier = supplier;
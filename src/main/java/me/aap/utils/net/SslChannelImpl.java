@@ -7,6 +7,7 @@ import java.io.IOException;
 import java.nio.BufferOverflowException;
 import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
@@ -21,14 +22,16 @@ import me.aap.utils.async.FutureSupplier;
 import me.aap.utils.async.Promise;
 import me.aap.utils.concurrent.ConcurrentQueueBase;
 import me.aap.utils.function.ProgressiveResultConsumer.Completion;
-import me.aap.utils.io.IoUtils;
 import me.aap.utils.log.Log;
+import me.aap.utils.net.ByteBufferPool.PooledBuffer;
+import me.aap.utils.security.SslSessionCache;
 
 import static me.aap.utils.async.Completed.failed;
 import static me.aap.utils.concurrent.NetThread.assertSslReadBuffer;
 import static me.aap.utils.concurrent.NetThread.assertSslWriteBuffer;
 import static me.aap.utils.concurrent.NetThread.getSslReadBuffer;
 import static me.aap.utils.concurrent.NetThread.getSslWriteBuffer;
+import static me.aap.utils.concurrent.NetThread.hasLocalBuffer;
 import static me.aap.utils.io.IoUtils.copyOfRange;
 import static me.aap.utils.io.IoUtils.emptyByteBufferArray;
 
@@ -38,13 +41,18 @@ import static me.aap.utils.io.IoUtils.emptyByteBufferArray;
 class SslChannelImpl extends ConcurrentQueueBase<SslChannelImpl.Write, SslChannelImpl.Write> implements SslChannel {
 	private static final AtomicIntegerFieldUpdater<SslChannelImpl> READ_STATE = AtomicIntegerFieldUpdater.newUpdater(SslChannelImpl.class, "readState");
 	private static final ByteBuffer[] EMPTY_BUF_ARRAY = new ByteBuffer[0];
+	private static final int WRITE_BATCH_PACKETS = 4;
 	private final ByteBuffer[] writeBufArray = new ByteBuffer[1];
 	private final NetChannel channel;
 	private final SSLEngine engine;
 	private ByteBuffer tmpBuf;
+	private PooledBuffer tmpBufRef;
 	private ByteBuffer retainedReadBuf;
+	private PooledBuffer retainedReadBufRef;
 	private ByteBuffer retainedWriteBuf;
-	// 0 - idle, 1 - reading, 2 - supplying
+	private PooledBuffer retainedWriteBufRef;
+	private SSLException unwrapFailure;
+	// 0 - idle, 1 - reading, 2 - supplying, 3 - closed
 	private volatile int readState;
 
 	SslChannelImpl(NetChannel channel, SSLEngine engine) {
@@ -86,8 +94,8 @@ class SslChannelImpl extends ConcurrentQueueBase<SslChannelImpl.Write, SslChanne
 
 	private void read(Read r) {
 		for (int s = READ_STATE.get(this); ; s = READ_STATE.get(this)) {
-			if (s == 1) {
-				IOException err = new IOException("Read pending");
+			if ((s == 1) || (s == 3)) {
+				IOException err = (s == 1) ? new IOException("Read pending") : SelectorHandler.ChannelClosed.get();
 				if (r.consumer != null) r.consumer.accept(null, err);
 				r.completeExceptionally(err);
 				return;
@@ -121,6 +129,7 @@ class SslChannelImpl extends ConcurrentQueueBase<SslChannelImpl.Write, SslChanne
 	public void close() {
 		Log.d("Closing channel: ", this);
 		getChannel().close();
+		if (READ_STATE.compareAndSet(this, 0, 3)) releaseReadBuffers();
 	}
 
 	@Override
@@ -134,6 +143,48 @@ class SslChannelImpl extends ConcurrentQueueBase<SslChannelImpl.Write, SslChanne
 		return "SslChannel: " + getChannel();
 	}
 
+	private void releaseTmpBuffer() {
+		PooledBuffer ref = tmpBufRef;
+		tmpBuf = null;
+
+		if (ref != null) {
+			tmpBufRef = null;
+			ref.release();
+		}
+	}
+
+	private void releaseRetainedReadBuffer() {
+		PooledBuffer ref = retainedReadBufRef;
+		retainedReadBuf = null;
+
+		if (ref != null) {
+			retainedReadBufRef = null;
+			ref.release();
+		}
+	}
+
+	private void releaseRetainedWriteBuffer() {
+		PooledBuffer ref = retainedWriteBufRef;
+		retainedWriteBuf = null;
+
+		if (ref != null) {
+			retainedWriteBufRef = null;
+			ref.release();
+		}
+	}
+
+	// Called when the channel is closed and no read is in progress
+	private void releaseReadBuffers() {
+		releaseTmpBuffer();
+		releaseRetainedReadBuffer();
+	}
+
+	private static long remaining(ByteBuffer[] buf) {
+		long n = 0;
+		for (ByteBuffer b : buf) n += b.remaining();
+		return n;
+	}
+
 	private static int getBufferOffset(ByteBuffer[] buf) {
 		for (int i = 0; i < buf.length; i++) {
 			if (buf[i].hasRemaining()) {
@@ -210,7 +261,8 @@ class SslChannelImpl extends ConcurrentQueueBase<SslChannelImpl.Write, SslChanne
 
 			assert retainedReadBuf == null;
 			assertSslReadBuffer(bb);
-			retainedReadBuf = IoUtils.copyOf(bb);
+			retainedReadBufRef = ByteBufferPool.get().copyOf(bb);
+			retainedReadBuf = retainedReadBufRef.getByteBuffer();
 			// Log.d("Retaining SSL read buffer ", retainedReadBuf, ". Channel: ", SslChannelImpl.this);
 			return this;
 		}
@@ -224,7 +276,8 @@ class SslChannelImpl extends ConcurrentQueueBase<SslChannelImpl.Write, SslChanne
 
 			assert retainedWriteBuf == null;
 			assertSslWriteBuffer(bb[0]);
-			retainedWriteBuf = IoUtils.copyOf(bb[0]);
+			retainedWriteBufRef = ByteBufferPool.get().copyOf(bb[0]);
+			retainedWriteBuf = retainedWriteBufRef.getByteBuffer();
 			// Log.d("Retaining SSL write buffer: ", retainedWriteBuf, ". Channel: ", SslChannelImpl.this);
 			return this;
 		}
@@ -234,7 +287,7 @@ class SslChannelImpl extends ConcurrentQueueBase<SslChannelImpl.Write, SslChanne
 			assert !bb.hasRemaining();
 			if (bb == retainedReadBuf) {
 				// Log.d("Releasing retained SSL read buffer ", bb, ". Channel: ", SslChannelImpl.this);
-				retainedReadBuf = null;
+				releaseRetainedReadBuffer();
 			} else if (BuildConfig.D) {
 				assertSslReadBuffer(bb);
 			}
@@ -249,7 +302,7 @@ class SslChannelImpl extends ConcurrentQueueBase<SslChannelImpl.Write, SslChanne
 			if (bb[0] == retainedWriteBuf) {
 				assert !bb[0].hasRemaining();
 				// Log.d("Releasing retained SSL write buffer ", bb[0], ". Channel: ", SslChannelImpl.this);
-				retainedWriteBuf = null;
+				releaseRetainedWriteBuffer();
 			} else if (BuildConfig.D) {
 				assertSslWriteBuffer(bb[0]);
 			}
@@ -269,7 +322,9 @@ class SslChannelImpl extends ConcurrentQueueBase<SslChannelImpl.Write, SslChanne
 	}
 
 	private final class Handshake extends SslPromise<SslChannelImpl> {
-		private final ByteBuffer unwrapBuf = ByteBuffer.allocate(engine.getSession().getApplicationBufferSize());
+		private final PooledBuffer unwrapBufRef =
+				ByteBufferPool.get().allocate(engine.getSession().getApplicationBufferSize());
+		private final ByteBuffer unwrapBuf = unwrapBufRef.getByteBuffer();
 
 		Handshake() {
 		}
@@ -277,9 +332,20 @@ class SslChannelImpl extends ConcurrentQueueBase<SslChannelImpl.Write, SslChanne
 		@Override
 		public boolean complete(@Nullable SslChannelImpl value) {
 			assert unwrapBuf.position() == 0;
-			assert unwrapBuf.limit() == unwrapBuf.capacity();
 			assert retainedWriteBuf == null;
-			return super.complete(value);
+			if (!super.complete(value)) return false;
+			unwrapBufRef.release();
+			SslSessionCache.handshakeCompleted(engine.getSession());
+			return true;
+		}
+
+		@Override
+		public boolean completeExceptionally(@NonNull Throwable ex) {
+			if (!super.completeExceptionally(ex)) return false;
+			unwrapBufRef.release();
+			releaseRetainedWriteBuffer();
+			releaseReadBuffers();
+			return true;
 		}
 
 		void handshake() {
@@ -412,7 +478,9 @@ class SslChannelImpl extends ConcurrentQueueBase<SslChannelImpl.Write, SslChanne
 		}
 
 		void unwrap() {
-			if (tmpBuf != null) {
+			if (unwrapFailure != null) {
+				done(null, unwrapFailure);
+			} else if (tmpBuf != null) {
 				assert tmpBuf.hasRemaining();
 				ByteBuffer dst = bbs.getByteBuffer();
 				int limit = tmpBuf.limit();
@@ -423,7 +491,8 @@ class SslChannelImpl extends ConcurrentQueueBase<SslChannelImpl.Write, SslChanne
 
 				if (!tmpBuf.hasRemaining()) {
 					Log.d("Releasing temporary buffer " + tmpBuf, ". Channel: ", SslChannelImpl.this);
-					tmpBuf = null;
+					releaseTmpBuffer();
+					if ((retainedReadBuf != null) && dst.hasRemaining()) unwrapRetained(dst);
 				}
 
 				dst.flip();
@@ -482,22 +551,38 @@ class SslChannelImpl extends ConcurrentQueueBase<SslChannelImpl.Write, SslChanne
 			}
 		}
 
+		// Unwrap the retained records directly to the remaining space of the destination buffer.
+		// The failure is reported by the next read, since the destination already contains data.
+		private void unwrapRetained(ByteBuffer dst) {
+			ByteBuffer src = retainedReadBuf;
+
+			try {
+				unwrap(src, dst);
+			} catch (SSLException ex) {
+				Log.e(ex, "Failed to unwrap from ", src, ". Channel: ", SslChannelImpl.this);
+				unwrapFailure = ex;
+			}
+
+			if (!src.hasRemaining()) releaseByteBuffer(src);
+		}
+
 		private void unwrapToTmpBuffer(ByteBuffer src) {
 			assert src.hasRemaining();
 			SSLEngineResult result;
 
 			try {
 				assert tmpBuf == null;
-				tmpBuf = ByteBuffer.allocate(engine.getSession().getApplicationBufferSize());
+				tmpBufRef = ByteBufferPool.get().allocate(engine.getSession().getApplicationBufferSize());
+				tmpBuf = tmpBufRef.getByteBuffer();
 				Log.d("Unwrapping to temporary buffer " + tmpBuf, ". Channel: ", SslChannelImpl.this);
 				result = unwrap(src, tmpBuf);
 				if (result.getStatus() != SSLEngineResult.Status.OK) {
 					Log.d("Releasing temporary buffer " + tmpBuf, ". Channel: ", SslChannelImpl.this);
-					tmpBuf = null;
+					releaseTmpBuffer();
 				}
 			} catch (SSLException ex) {
 				Log.e(ex, "Failed to unwrap from ", src, ". Channel: ", SslChannelImpl.this);
-				tmpBuf = null;
+				releaseTmpBuffer();
 				releaseByteBuffer(src);
 				done(null, ex);
 				return;
@@ -557,6 +642,7 @@ class SslChannelImpl extends ConcurrentQueueBase<SslChannelImpl.Write, SslChanne
 			} finally {
 				assert readState == 2;
 				readState = 0;
+				if (!isOpen() && READ_STATE.compareAndSet(SslChannelImpl.this, 0, 3)) releaseReadBuffers();
 			}
 		}
 	}
@@ -567,6 +653,8 @@ class SslChannelImpl extends ConcurrentQueueBase<SslChannelImpl.Write, SslChanne
 
 	final class Write extends SslPromise<Void> implements ConcurrentQueueBase.Node<Write> {
 		private ByteBufferArraySupplier bbs;
+		private ByteBuffer[] batch;
+		// 0 - queued, 1 - writing, 2 - wrapped, 3 - wrapped along with the previous write
 		volatile int state;
 		volatile Write next;
 
@@ -574,15 +662,34 @@ class SslChannelImpl extends ConcurrentQueueBase<SslChannelImpl.Write, SslChanne
 			this.bbs = bbs;
 		}
 
+		@Override
+		public ByteBuffer[] getByteBufferArray() {
+			if ((retainedWriteBuf != null) || (getNext() == null)) return super.getByteBufferArray();
+
+			// More writes are queued - wrap them to a pooled buffer, large enough for several packets.
+			// The buffer is retained until written, thus no copying is required on partial writes.
+			int size = WRITE_BATCH_PACKETS * engine.getSession().getPacketBufferSize();
+			retainedWriteBufRef = ByteBufferPool.get().allocate(size);
+			retainedWriteBuf = retainedWriteBufRef.getByteBuffer();
+			ByteBuffer[] a = wrapTo(retainedWriteBuf);
+			if (a.length == 0) releaseRetainedWriteBuffer();
+			return a;
+		}
+
 		void wrap() {
 			if (STATE.compareAndSet(this, 0, 1)) write();
 		}
 
 		private void write() {
 			getChannel().write(this, (v, err) -> {
-				if (err != null) completeExceptionally(err);
-				else if (state == 2) done(null);
-				else write();
+				if (err != null) {
+					releaseRetainedWriteBuffer();
+					done(err);
+				} else if (state == 2) {
+					done(null);
+				} else {
+					write();
+				}
 			});
 		}
 
@@ -590,14 +697,20 @@ class SslChannelImpl extends ConcurrentQueueBase<SslChannelImpl.Write, SslChanne
 		ByteBuffer[] wrapTo(ByteBuffer dst) {
 			assert peekNode() == this;
 			ByteBuffer[] src = bbs.getByteBufferArray();
+			Write last = ((dst == retainedWriteBuf) && !hasLocalBuffer(src)) ? gather(src, dst) : this;
+			ByteBuffer[] all = (last == this) ? src : concat(src, last);
 			SSLEngineResult result;
 
 			try {
 				assert getBufferOffset(src) != -1;
 				assert dst.hasRemaining();
-				result = wrap(src, dst);
-				if (result.getStatus() != SSLEngineResult.Status.OK) bbs.releaseByteBufferArray(src);
+				result = wrap(all, dst);
+				if (result.getStatus() != SSLEngineResult.Status.OK) {
+					settle(false, last);
+					bbs.releaseByteBufferArray(src);
+				}
 			} catch (SSLException ex) {
+				settle(false, last);
 				bbs.releaseByteBufferArray(src);
 				done(ex);
 				return EMPTY_BUF_ARRAY;
@@ -610,6 +723,7 @@ class SslChannelImpl extends ConcurrentQueueBase<SslChannelImpl.Write, SslChanne
 					dst.flip();
 					assert dst.hasRemaining();
 					int i = getBufferOffset(src);
+					settle(i == -1, last);
 
 					if (i == -1) {
 						state = 2;
@@ -636,6 +750,72 @@ class SslChannelImpl extends ConcurrentQueueBase<SslChannelImpl.Write, SslChanne
 			}
 		}
 
+		/**
+		 * Gather the following queued writes, that could be wrapped to the destination buffer along
+		 * with this one. The small writes are combined into the same TLS records. The gathered writes
+		 * are marked with the state 3 and returns the last one.
+		 */
+		private Write gather(ByteBuffer[] src, ByteBuffer dst) {
+			long max = dst.remaining() - engine.getSession().getPacketBufferSize();
+			long bytes = remaining(src);
+			Write last = this;
+
+			for (Write w = getNext(); (w != null) && (bytes < max); w = w.getNext()) {
+				if (!STATE.compareAndSet(w, 0, 3)) break;
+				ByteBuffer[] a = w.bbs.getByteBufferArray();
+				w.batch = a;
+				last = w;
+				bytes += remaining(a);
+				// The thread local buffers can not be shared with the next write
+				if (hasLocalBuffer(a)) break;
+			}
+
+			return last;
+		}
+
+		private ByteBuffer[] concat(ByteBuffer[] src, Write last) {
+			int len = src.length;
+
+			for (Write w = this; w != last; ) {
+				w = w.getNext();
+				len += w.batch.length;
+			}
+
+			ByteBuffer[] all = Arrays.copyOf(src, len);
+			int off = src.length;
+
+			for (Write w = this; w != last; off += w.batch.length) {
+				w = w.getNext();
+				System.arraycopy(w.batch, 0, all, off, w.batch.length);
+			}
+
+			return all;
+		}
+
+		/**
+		 * The completely wrapped writes keep the state 3 and are completed along with this one.
+		 * The rest are retained and returned to the state 0.
+		 */
+		private void settle(boolean consumed, Write last) {
+			for (Write w = this; w != last; ) {
+				w = w.getNext();
+				ByteBuffer[] a = w.batch;
+				w.batch = null;
+				int i = getBufferOffset(a);
+
+				if (i == -1) {
+					if (a.length != 0) w.bbs.releaseByteBufferArray(a);
+					if (consumed) continue;
+				} else {
+					consumed = false;
+					if (i != 0) w.bbs.releaseByteBufferArray(a, i);
+					w.bbs = w.bbs.retainByteBufferArray(a, i);
+				}
+
+				w.state = 0;
+			}
+		}
+
 		private void done(Throwable fail) {
 			if (fail != null) {
 				if (!completeExceptionally(fail)) return;
@@ -646,10 +826,18 @@ class SslChannelImpl extends ConcurrentQueueBase<SslChannelImpl.Write, SslChanne
 
 			bbs.release();
 
-			Write next = getNext();
 			Write w = pollNode();
 			assert w == this;
-			if (next != null) next.wrap();
+
+			for (w = peekNode(); (w != null) && (w.state == 3); w = peekNode()) {
+				pollNode();
+				w.bbs.release();
+				if (fail != null) w.completeExceptionally(fail);
+				else w.complete(null);
+			}
+
+			// The next write could be added after this one, but before it has been polled
+			if (w != null) w.wrap();
 		}
 
 		@Override
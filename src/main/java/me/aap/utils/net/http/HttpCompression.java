@@ -0,0 +1,267 @@
+package me.aap.utils.net.http;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import me.aap.utils.async.Async;
+import me.aap.utils.async.FutureSupplier;
+import me.aap.utils.io.AsyncInputStream;
+import me.aap.utils.io.DeflaterAsyncInputStream;
+import me.aap.utils.io.MemOutputStream;
+import me.aap.utils.net.ByteBufferArraySupplier;
+import me.aap.utils.net.ByteBufferSupplier;
+import me.aap.utils.net.NetChannel;
+
+/**
+ * Server side response compression: content coding negotiation, streaming gzip/deflate
+ * compression with chunked transfer encoding and a cache of compressed bodies.
+ *
+ * @author Andrey Pavlenko
+ */
+public final class HttpCompression {
+	public static final String GZIP = "gzip";
+	public static final String DEFLATE = "deflate";
+	/**
+	 * The responses, shorter than this, are not worth compressing.
+	 */
+	public static final int MIN_LENGTH = 1024;
+	private static final int CHUNK_LEN = 16 * 1024;
+	private static final byte[] CRLF = {'\r', '\n'};
+	private static final byte[] LAST_CHUNK = "0\r\n\r\n".getBytes(US_ASCII);
+
+	private HttpCompression() {
+	}
+
+	/**
+	 * Select the content coding, acceptable by the client.
+	 *
+	 * @return gzip, deflate or null if the response should not be compressed
+	 */
+	@Nullable
+	public static String negotiate(HttpRequest req) {
+		return negotiate(req.getHeader(HttpHeader.ACCEPT_ENCODING));
+	}
+
+	@Nullable
+	public static String negotiate(@Nullable CharSequence acceptEncoding) {
+		if (acceptEncoding == null) return null;
+		float gzip = -1;
+		float deflate = -1;
+		float any = -1;
+
+		for (String c : acceptEncoding.toString().split(",")) {
+			int idx = c.indexOf(';');
+			String name = ((idx == -1) ? c : c.substring(0, idx)).trim();
+			float q = 1;
+
+			if (idx != -1) {
+				String p = c.substring(idx + 1).trim();
+
+				if (p.startsWith("q=")) {
+					try {
+						q = Float.parseFloat(p.substring(2).trim());
+					} catch (NumberFormatException ex) {
+						q = 0;
+					}
+				}
+			}
+
+			if (name.equalsIgnoreCase(GZIP) || name.equalsIgnoreCase("x-gzip")) gzip = q;
+			else if (name.equalsIgnoreCase(DEFLATE)) deflate = q;
+			else if (name.equals("*")) any = q;
+		}
+
+		if (gzip < 0) gzip = any;
+		if (deflate < 0) deflate = any;
+		if ((gzip > 0) && (gzip >= deflate)) return GZIP;
+		if (deflate > 0) return DEFLATE;
+		return null;
+	}
+
+	/**
+	 * Returns true for the text based media types. The images, audio, video and archives are
+	 * already compressed and are not worth compressing.
+	 */
+	public static boolean isCompressible(@Nullable CharSequence contentType) {
+		if (contentType == null) return false;
+		String t = contentType.toString();
+		int idx = t.indexOf(';');
+		if (idx != -1) t = t.substring(0, idx);
+		t = t.trim().toLowerCase(Locale.ROOT);
+		if (t.startsWith("text/") || t.endsWith("+xml") || t.endsWith("+json")) return true;
+
+		switch (t) {
+			case "application/json":
+			case "application/javascript":
+			case "application/x-javascript":
+			case "application/ecmascript":
+			case "application/xml":
+			case "application/x-subrip":
+			case "application/x-mpegurl":
+			case "application/vnd.apple.mpegurl":
+			case "image/x-icon":
+			case "image/bmp":
+				return true;
+			default:
+				return false;
+		}
+	}
+
+	/**
+	 * Returns the compressing stream for the content coding, returned by {@link #negotiate}.
+	 */
+	public static AsyncInputStream compress(AsyncInputStream in, String contentEncoding) {
+		return GZIP.equals(contentEncoding) ? DeflaterAsyncInputStream.gzip(in)
+				: DeflaterAsyncInputStream.deflate(in);
+	}
+
+	/**
+	 * Returns the compressing stream for the content coding, returned by {@link #negotiate}.
+	 * The stream must be closed or finished to write the remaining data.
+	 */
+	public static DeflaterOutputStream compress(OutputStream out, String contentEncoding)
+			throws IOException {
+		return GZIP.equals(contentEncoding) ? new GZIPOutputStream(out) : new DeflaterOutputStream(out);
+	}
+
+	/**
+	 * Write the header, followed by the body in chunked transfer encoding. The header must
+	 * contain the {@link HttpHeader#TRANSFER_ENCODING} header. The body is closed when written or
+	 * on failure.
+	 */
+	public static FutureSupplier<Void> writeChunked(NetChannel channel,
+																									ByteBufferArraySupplier header,
+																									AsyncInputStream body) {
+		ByteBuffer buf = ByteBuffer.allocate(CHUNK_LEN);
+		boolean[] eos = new boolean[1];
+
+		return channel.write(header).then(h -> Async.iterate(() -> {
+			if (eos[0]) return null;
+			buf.clear();
+
+			return body.read(() -> buf).then(data -> {
+				int len = data.remaining();
+
+				if (len == 0) {
+					eos[0] = true;
+					return channel.write(ByteBuffer.wrap(LAST_CHUNK));
+				}
+
+				ByteBuffer size = ByteBuffer.wrap((Integer.toHexString(len) + "\r\n").getBytes(US_ASCII));
+				return channel.write(size, data, ByteBuffer.wrap(CRLF));
+			});
+		})).onCompletion((r, f) -> body.close());
+	}
+
+	/**
+	 * A cache of compressed bodies, bounded by the total length of the bodies. The keys should
+	 * identify both the content and the coding, e.g. consist of the resource id, the ETag and the
+	 * content coding.
+	 */
+	public static final class Cache {
+		private final Map<String, ByteBuffer> map = new LinkedHashMap<>(16, 0.75f, true);
+		private final int maxSize;
+		private final int maxEntryLen;
+		private int size;
+
+		/**
+		 * @param maxSize     the maximum total length of the cached bodies
+		 * @param maxEntryLen the maximum length of a single body
+		 */
+		public Cache(int maxSize, int maxEntryLen) {
+			this.maxSize = maxSize;
+			this.maxEntryLen = Math.min(maxEntryLen, maxSize);
+		}
+
+		public int getMaxEntryLen() {
+			return maxEntryLen;
+		}
+
+		@Nullable
+		public synchronized ByteBuffer get(String key) {
+			ByteBuffer b = map.get(key);
+			return (b == null) ? null : b.duplicate();
+		}
+
+		public synchronized void put(String key, ByteBuffer body) {
+			int len = body.remaining();
+			if (len > maxEntryLen) return;
+			ByteBuffer prev = map.put(key, body.asReadOnlyBuffer());
+			if (prev != null) size -= prev.remaining();
+			size += len;
+
+			for (Iterator<ByteBuffer> it = map.values().iterator(); (size > maxSize) && it.hasNext(); ) {
+				size -= it.next().remaining();
+				it.remove();
+			}
+		}
+
+		public synchronized void remove(String key) {
+			ByteBuffer b = map.remove(key);
+			if (b != null) size -= b.remaining();
+		}
+
+		public synchronized void clear() {
+			map.clear();
+			size = 0;
+		}
+
+		/**
+		 * Returns a stream, that passes through the data of the specified stream and caches it,
+		 * when the end of stream is reached, if the length does not exceed the maximum entry length.
+		 */
+		public AsyncInputStream cache(String key, AsyncInputStream in) {
+			return new AsyncInputStream() {
+				MemOutputStream copy = new MemOutputStream(Math.min(maxEntryLen, CHUNK_LEN), maxEntryLen);
+
+				@Override
+				public FutureSupplier<ByteBuffer> read(ByteBufferSupplier dst) {
+					return in.read(dst).map(b -> {
+						MemOutputStream c = copy;
+						if (c == null) return b;
+
+						if (!b.hasRemaining()) {
+							copy = null;
+							put(key, c.getByteBuffer());
+						} else if ((c.getCount() + b.remaining()) > maxEntryLen) {
+							copy = null;
+						} else {
+							c.write(b.duplicate());
+						}
+
+						return b;
+					});
+				}
+
+				@Override
+				public boolean hasRemaining() {
+					return in.hasRemaining();
+				}
+
+				@Override
+				public void close() {
+					copy = null;
+					in.close();
+				}
+			};
+		}
+
+		@NonNull
+		@Override
+		public synchronized String toString() {
+			return "Cache{entries=" + map.size() + ", size=" + size + '}';
+		}
+	}
+}
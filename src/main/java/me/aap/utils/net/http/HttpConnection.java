@@ -1,16 +1,18 @@
 package me.aap.utils.net.http;
 
 import static me.aap.utils.async.Completed.completedVoid;
-import static me.aap.utils.async.Completed.failed;
 import static me.aap.utils.net.http.HttpHeader.ACCEPT_ENCODING;
 import static me.aap.utils.net.http.HttpHeader.CONNECTION;
 import static me.aap.utils.net.http.HttpHeader.IF_NONE_MATCH;
+import static me.aap.utils.net.http.HttpHeader.IF_RANGE;
+import static me.aap.utils.net.http.HttpHeader.RANGE;
 import static me.aap.utils.net.http.HttpHeader.USER_AGENT;
 import static me.aap.utils.net.http.HttpStatusCode.FOUND;
 import static me.aap.utils.net.http.HttpStatusCode.MOVED_PERMANENTLY;
 import static me.aap.utils.net.http.HttpStatusCode.PERMANENT_REDIRECT;
 import static me.aap.utils.net.http.HttpStatusCode.TEMPORARY_REDIRECT;
 
+import androidx.annotation.Keep;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
@@ -29,11 +31,13 @@ import java.util.concurrent.ConcurrentLinkedDeque;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 import me.aap.utils.app.App;
 import me.aap.utils.app.NetApp;
 import me.aap.utils.async.FutureSupplier;
-import me.aap.utils.collection.CacheMap;
+import me.aap.utils.async.ObjectPool.PooledObject;
 import me.aap.utils.collection.CollectionUtils;
 import me.aap.utils.function.BiFunction;
 import me.aap.utils.function.Consumer;
@@ -49,10 +53,11 @@ import me.aap.utils.text.SharedTextBuilder;
  * @author Andrey Pavlenko
  */
 public class HttpConnection extends HttpResponseEncoder implements HttpResponseHandler, Closeable {
-	private static final CacheMap<ConnectionId, FutureSupplier<HttpConnection>> cache = new CacheMap<>(30);
 	private static final Map<URL, URL> permRedirects = new ConcurrentHashMap<>();
 	private final NetChannel channel;
 	private final Deque<BiFunction<HttpResponse, Throwable, FutureSupplier<?>>> receiveQueue = new ConcurrentLinkedDeque<>();
+	private volatile boolean closing;
+	long idleSince;
 
 	public HttpConnection(NetChannel channel) {
 		this.channel = channel;
@@ -73,10 +78,37 @@ public class HttpConnection extends HttpResponseEncoder implements HttpResponseH
 		public String acceptEncoding = HttpHeader.ACCEPT_ENCODING.getDefaultValue();
 		@Nullable
 		public String ifNonMatch;
+		/**
+		 * The Range header value, e.g. bytes=0-1023.
+		 */
+		@Nullable
+		public String range;
+		/**
+		 * The If-Range validator, sent with the Range header.
+		 */
+		@Nullable
+		public String ifRange;
 		public boolean keepAlive = true;
 		public int maxRedirects = 10;
 		public int maxReconnects = 10;
 		public int responseTimeout;
+		/**
+		 * The maximum number of keep-alive connections per host.
+		 */
+		public int maxConnections = 6;
+		/**
+		 * Idle keep-alive connections are closed after this number of seconds.
+		 */
+		public int idleTimeout = 30;
+		/**
+		 * The maximum number of seconds to wait for a pooled connection, 0 means no limit.
+		 */
+		public int connectionWaitTimeout = 30;
+		/**
+		 * If greater than 1 and all the pooled connections are busy, GET and HEAD requests are
+		 * pipelined to the least loaded connection with less than this number of pending requests.
+		 */
+		public int maxPipelined;
 
 		public void url(String url) {
 			try {
@@ -100,29 +132,11 @@ public class HttpConnection extends HttpResponseEncoder implements HttpResponseH
 	public static void connect(Opts o, BiFunction<HttpResponse, Throwable, FutureSupplier<?>> consumer) {
 		if (!checkRedirect(o, consumer)) return;
 		ConnectionId id = new ConnectionId(o.url);
-		FutureSupplier<HttpConnection> f;
 		o.port = id.port;
 		o.host = id.host;
 		o.ssl = id.ssl;
+		if ((o.responseTimeout != 0) && (o.connectTimeout == 0)) o.connectTimeout = o.responseTimeout;
 
-		if (o.keepAlive) {
-			f = cache.compute(id, (k, v) -> {
-				if ((v != null) && !v.isFailed()) {
-					HttpConnection c = v.peek();
-					if ((c == null) || c.isOpen()) return v;
-				}
-
-				return connect(o);
-			});
-		} else {
-			f = connect(o);
-		}
-
-		assert f != null;
-		f.onCompletion((c, err) -> sendRequest(c, o, err, consumer));
-	}
-
-	private static FutureSupplier<HttpConnection> connect(Opts o) {
 		NetHandler handler = o.handler;
 
 		if (handler == null) {
@@ -131,12 +145,38 @@ public class HttpConnection extends HttpResponseEncoder implements HttpResponseH
 			if (app instanceof NetApp) {
 				handler = ((NetApp) app).getNetHandler();
 			} else {
-				return failed(new IOException("Unable to create connection without handler"));
+				consumer.apply(null, new IOException("Unable to create connection without handler"));
+				return;
 			}
 		}
 
-		if ((o.responseTimeout != 0) && (o.connectTimeout == 0)) o.connectTimeout = o.responseTimeout;
+		if (!o.keepAlive) {
+			connect(handler, o).onCompletion((c, err) -> sendRequest(c, null, o, err, consumer));
+			return;
+		}
+
+		HttpConnectionPool pool = HttpConnectionPool.get(id, handler, o);
+
+		if ((o.maxPipelined > 1) && ((o.method == HttpMethod.GET) || (o.method == HttpMethod.HEAD))) {
+			HttpConnection c = pool.pipeline(o.maxPipelined);
+
+			if (c != null) {
+				sendRequest(c, null, o, null, consumer);
+				return;
+			}
+		}
+
+		pool.getObject(o.connectionWaitTimeout, TimeUnit.SECONDS).onCompletion((po, err) -> {
+			if (err != null) {
+				if (Log.isLoggableD()) Log.e(err, "Connection failed: ", o.url);
+				sendRequest(null, null, o, err, consumer);
+			} else {
+				sendRequest(po.get(), po, o, null, consumer);
+			}
+		});
+	}
 
+	private static FutureSupplier<HttpConnection> connect(NetHandler handler, Opts o) {
 		if (Log.isLoggableD()) {
 			return handler.connect(o).onFailure(err -> Log.e(err, "Connection failed: ", o.url))
 					.map(HttpConnection::new);
@@ -145,21 +185,28 @@ public class HttpConnection extends HttpResponseEncoder implements HttpResponseH
 		}
 	}
 
-	private static void sendRequest(HttpConnection c, Opts o, Throwable err,
-																	BiFunction<HttpResponse, Throwable, FutureSupplier<?>> consumer) {
+	private static void sendRequest(HttpConnection c, PooledObject<HttpConnection> pooled, Opts o,
+																	Throwable err, BiFunction<HttpResponse, Throwable, FutureSupplier<?>> consumer) {
 		if (err != null) {
 			consumer.apply(null, err);
-		} else if (consumer instanceof Req) {
-			Req req = (Req) consumer;
-			c.sendRequest(req, req);
+			return;
+		}
+
+		Req req;
+
+		if (consumer instanceof Req) {
+			req = (Req) consumer;
 		} else {
-			Req req = new Req(o, consumer);
+			req = new Req(o, consumer);
 			if (o.responseTimeout != 0) {
 				req.timer = c.getChannel().getHandler().getScheduler()
 						.schedule(req, o.responseTimeout, TimeUnit.SECONDS);
 			}
-			c.sendRequest(req, req);
 		}
+
+		req.conn = c;
+		req.pooled = pooled;
+		c.sendRequest(req, req);
 	}
 
 	public void sendRequest(Function<HttpRequestBuilder, ByteBuffer[]> builder,
@@ -176,6 +223,7 @@ public class HttpConnection extends HttpResponseEncoder implements HttpResponseH
 
 		if (c != null) {
 			try {
+				if (resp.isConnectionClose()) closing = true;
 				FutureSupplier<?> f = c.apply(resp, null);
 
 				if (resp.isConnectionClose()) {
@@ -202,12 +250,24 @@ public class HttpConnection extends HttpResponseEncoder implements HttpResponseH
 		return getChannel().isOpen();
 	}
 
+	/**
+	 * The number of requests, waiting for response.
+	 */
+	public int getPendingRequests() {
+		return receiveQueue.size();
+	}
+
+	boolean isReusable() {
+		return !closing && isOpen();
+	}
+
 	@Override
 	public void close() {
 		close(new ConnectionClosedException());
 	}
 
-	private void close(Throwable cause) {
+	void close(Throwable cause) {
+		closing = true;
 		getChannel().close();
 
 		while (!receiveQueue.isEmpty()) {
@@ -264,7 +324,7 @@ public class HttpConnection extends HttpResponseEncoder implements HttpResponseH
 		return true;
 	}
 
-	private static final class ConnectionId {
+	static final class ConnectionId {
 		final int port;
 		final String host;
 		final boolean ssl;
@@ -298,9 +358,19 @@ public class HttpConnection extends HttpResponseEncoder implements HttpResponseH
 
 	private static final class Req implements Function<HttpRequestBuilder, ByteBuffer[]>,
 			BiFunction<HttpResponse, Throwable, FutureSupplier<?>>, Runnable {
+		@SuppressWarnings("rawtypes")
+		private static final AtomicReferenceFieldUpdater<Req, PooledObject> POOLED =
+				AtomicReferenceFieldUpdater.newUpdater(Req.class, PooledObject.class, "pooled");
+		private static final AtomicIntegerFieldUpdater<Req> DONE =
+				AtomicIntegerFieldUpdater.newUpdater(Req.class, "done");
 		private final Opts o;
 		private final BiFunction<HttpResponse, Throwable, FutureSupplier<?>> consumer;
 		private ScheduledFuture<?> timer;
+		volatile HttpConnection conn;
+		@Keep
+		volatile PooledObject<HttpConnection> pooled;
+		@Keep
+		volatile int done;
 
 		public Req(Opts o, BiFunction<HttpResponse, Throwable, FutureSupplier<?>> consumer) {
 			this.o = o;
@@ -340,6 +410,10 @@ public class HttpConnection extends HttpResponseEncoder implements HttpResponseH
 				if (o.ifNonMatch != null) {
 					b.addHeader(IF_NONE_MATCH, o.ifNonMatch);
 				}
+				if (o.range != null) {
+					b.addHeader(RANGE, o.range);
+					if (o.ifRange != null) b.addHeader(IF_RANGE, o.ifRange);
+				}
 				if (o.keepAlive) {
 					if (o.version == HttpVersion.HTTP_1_0) b.addHeader(CONNECTION, "Keep-Alive");
 				} else if (o.version == HttpVersion.HTTP_1_1) {
@@ -352,7 +426,13 @@ public class HttpConnection extends HttpResponseEncoder implements HttpResponseH
 
 		@Override
 		public FutureSupplier<?> apply(HttpResponse resp, Throwable err) {
+			// The pooled connection is released when the response is consumed
+			@SuppressWarnings("unchecked") PooledObject<HttpConnection> pooled = POOLED.getAndSet(this, null);
+
 			if (err != null) {
+				if (pooled != null) pooled.release();
+				if (done != 0) return completedVoid();
+
 				if ((o.maxReconnects > 0) && (err instanceof IOException)) {
 					Log.d("Trying to reconnect(", o.maxReconnects, "): ", o.url);
 					o.maxReconnects--;
@@ -360,10 +440,27 @@ public class HttpConnection extends HttpResponseEncoder implements HttpResponseH
 					return completedVoid();
 				}
 
-				cancelTimer();
-				return consumer.apply(null, err);
+				return complete(null, err);
 			}
 
+			FutureSupplier<?> f;
+
+			try {
+				f = handle(resp);
+			} catch (Throwable ex) {
+				if (pooled != null) {
+					resp.getConnection().closing = true;
+					pooled.release();
+				}
+				throw ex;
+			}
+
+			if (pooled != null) f.onCompletion((r, fail) -> pooled.release());
+			return f;
+		}
+
+		private FutureSupplier<?> handle(HttpResponse resp) {
+			if (done != 0) return resp.skipPayload();
 			int status = resp.getStatusCode();
 
 			switch (status) {
@@ -379,9 +476,10 @@ public class HttpConnection extends HttpResponseEncoder implements HttpResponseH
 
 							if (resp.isConnectionClose()) {
 								redirect(loc, status, o.maxRedirects--);
+								return completedVoid();
 							} else {
 								return resp.skipPayload().onCompletion((v, fail) -> {
-									if (fail != null) consumer.apply(null, fail);
+									if (fail != null) complete(null, fail);
 									else redirect(loc, status, o.maxRedirects--);
 								});
 							}
@@ -393,8 +491,13 @@ public class HttpConnection extends HttpResponseEncoder implements HttpResponseH
 					}
 			}
 
+			return complete(resp, null);
+		}
+
+		private FutureSupplier<?> complete(HttpResponse resp, Throwable err) {
 			cancelTimer();
-			return consumer.apply(resp, null);
+			if (!DONE.compareAndSet(this, 0, 1)) return (resp == null) ? completedVoid() : resp.skipPayload();
+			return consumer.apply(resp, err);
 		}
 
 		private void redirect(String location, int status, int n) {
@@ -416,8 +519,7 @@ public class HttpConnection extends HttpResponseEncoder implements HttpResponseH
 				o.url = (cached == null) ? u : cached;
 				connect(o, this);
 			} catch (MalformedURLException ex) {
-				cancelTimer();
-				consumer.apply(null, ex);
+				complete(null, ex);
 			}
 		}
 
@@ -428,7 +530,10 @@ public class HttpConnection extends HttpResponseEncoder implements HttpResponseH
 
 			if (t != null) {
 				timer = null;
-				apply(null, new TimeoutException("Request timeout: " + o.url));
+				HttpConnection c = conn;
+				complete(null, new TimeoutException("Request timeout: " + o.url));
+				// The response may still be received, the connection can not be reused
+				if (c != null) c.close(new ConnectionClosedException("Request timeout"));
 			}
 		}
 
@@ -1,23 +1,38 @@
 package me.aap.utils.net.http;
 
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import androidx.annotation.Nullable;
 
 import me.aap.utils.net.NetChannel;
 import me.aap.utils.net.NetServer;
 
 /**
+ * Dispatches the requests to the handlers, registered by path patterns. See {@link HttpRouter}
+ * for the pattern syntax.
+ *
  * @author Andrey Pavlenko
  */
 public class HttpConnectionHandler extends HttpRequestEncoder implements NetServer.ConnectionHandler {
-	private final Map<CharSequence, HttpRequestHandler.Provider> handlers = new ConcurrentHashMap<>();
+	private final HttpRouter<HttpRequestHandler.Provider> router = new HttpRouter<>();
 
 	public HttpRequestHandler.Provider addHandler(String path, HttpRequestHandler.Provider provider) {
-		return handlers.put(path, provider);
+		return router.add(null, path, provider);
+	}
+
+	public HttpRequestHandler.Provider addHandler(@Nullable HttpMethod method, String path,
+																								HttpRequestHandler.Provider provider) {
+		return router.add(method, path, provider);
 	}
 
 	public HttpRequestHandler.Provider removeHandler(String path) {
-		return handlers.remove(path);
+		return router.remove(null, path);
+	}
+
+	public HttpRequestHandler.Provider removeHandler(@Nullable HttpMethod method, String path) {
+		return router.remove(method, path);
+	}
+
+	public HttpRouter<HttpRequestHandler.Provider> getRouter() {
+		return router;
 	}
 
 	@Override
@@ -27,7 +42,7 @@ public class HttpConnectionHandler extends HttpRequestEncoder implements NetServ
 
 	@Override
 	protected HttpRequestHandler getHandler(CharSequence path, HttpMethod method, HttpVersion version) {
-		HttpRequestHandler.Provider p = handlers.get(path);
-		return (p != null) ? p.getHandler(path, method, version) : null;
+		HttpRouter.Match<HttpRequestHandler.Provider> m = router.find(path, method);
+		return (m != null) ? m.getValue().getHandler(path, method, version, m) : null;
 	}
 }
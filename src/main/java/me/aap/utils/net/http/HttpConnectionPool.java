@@ -0,0 +1,197 @@
+package me.aap.utils.net.http;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import androidx.annotation.Keep;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+import me.aap.utils.async.FutureSupplier;
+import me.aap.utils.async.ObjectPool;
+import me.aap.utils.log.Log;
+import me.aap.utils.net.NetHandler;
+import me.aap.utils.net.NetHandler.ConnectOpts;
+
+/**
+ * Keep-alive connections to a single host, used by {@link HttpConnection#connect(HttpConnection.Opts, me.aap.utils.function.BiFunction)}.
+ * The pool is created by the first request to the host and uses the connection options,
+ * the maximum number of connections and the idle timeout of that request.
+ *
+ * @author Andrey Pavlenko
+ */
+public final class HttpConnectionPool extends ObjectPool<HttpConnection> {
+	private static final Map<HttpConnection.ConnectionId, HttpConnectionPool> pools = new ConcurrentHashMap<>();
+	private static final AtomicIntegerFieldUpdater<HttpConnectionPool> SWEEP =
+			AtomicIntegerFieldUpdater.newUpdater(HttpConnectionPool.class, "sweep");
+	private final HttpConnection.ConnectionId id;
+	private final NetHandler handler;
+	private final ConnectOpts opts;
+	private final long idleTimeout;
+	private final Set<HttpConnection> connections = Collections.newSetFromMap(new ConcurrentHashMap<>());
+	@Keep
+	@SuppressWarnings("unused")
+	private volatile int sweep;
+
+	private HttpConnectionPool(HttpConnection.ConnectionId id, NetHandler handler, HttpConnection.Opts o) {
+		super(Math.max(o.maxConnections, 1));
+		this.id = id;
+		this.handler = handler;
+		this.idleTimeout = o.idleTimeout * 1000L;
+		opts = new ConnectOpts();
+		opts.opt = o.opt;
+		opts.host = o.host;
+		opts.port = o.port;
+		opts.ssl = o.ssl;
+		opts.readTimeout = o.readTimeout;
+		opts.writeTimeout = o.writeTimeout;
+		opts.sendTimeout = o.sendTimeout;
+		opts.blocking = o.blocking;
+		opts.bindAddress = o.bindAddress;
+		opts.bindHost = o.bindHost;
+		opts.bindPort = o.bindPort;
+		opts.connectTimeout = o.connectTimeout;
+		opts.sslEngine = o.sslEngine;
+	}
+
+	static HttpConnectionPool get(HttpConnection.ConnectionId id, NetHandler handler, HttpConnection.Opts o) {
+		HttpConnectionPool pool = pools.get(id);
+		if ((pool != null) && (pool.handler == handler) && !pool.isClosed()) return pool;
+		HttpConnectionPool[] replaced = new HttpConnectionPool[1];
+		pool = pools.compute(id, (k, v) -> {
+			if ((v != null) && (v.handler == handler) && !v.isClosed()) return v;
+			replaced[0] = v;
+			return new HttpConnectionPool(k, handler, o);
+		});
+		// The pool of a different handler is replaced, close its connections
+		if (replaced[0] != null) replaced[0].close();
+		return pool;
+	}
+
+	/**
+	 * All the active pools.
+	 */
+	public static Collection<HttpConnectionPool> getPools() {
+		return Collections.unmodifiableCollection(pools.values());
+	}
+
+	/**
+	 * Close all the pools and the idle connections.
+	 */
+	public static void closeAll() {
+		for (HttpConnectionPool p : pools.values()) {
+			pools.remove(p.id, p);
+			p.close();
+		}
+	}
+
+	public String getHost() {
+		return id.host;
+	}
+
+	public int getPort() {
+		return id.port;
+	}
+
+	public boolean isSsl() {
+		return id.ssl;
+	}
+
+	/**
+	 * The number of connections, acquired by the requests.
+	 */
+	public int getBusyLength() {
+		return Math.max(getLength() - getIdleLength(), 0);
+	}
+
+	/**
+	 * Find the least loaded busy connection, that is able to accept a pipelined request.
+	 * Returns null if there is an idle connection or the pool may create a new one.
+	 */
+	@Nullable
+	HttpConnection pipeline(int maxPipelined) {
+		if ((getIdleLength() != 0) || (getLength() < getMaxLength())) return null;
+		HttpConnection conn = null;
+		int min = maxPipelined;
+
+		for (HttpConnection c : connections) {
+			if (!c.isReusable()) continue;
+			int pending = c.getPendingRequests();
+
+			if (pending < min) {
+				min = pending;
+				conn = c;
+			}
+		}
+
+		return conn;
+	}
+
+	@Override
+	protected FutureSupplier<HttpConnection> createObject() {
+		return handler.connect(opts).map(ch -> {
+			HttpConnection c = new HttpConnection(ch);
+			connections.add(c);
+			return c;
+		});
+	}
+
+	@Override
+	protected boolean validateObject(HttpConnection c, boolean releasing) {
+		if (!c.isReusable()) return false;
+		long now = System.currentTimeMillis();
+
+		if (releasing) {
+			c.idleSince = now;
+			scheduleSweep();
+			return true;
+		}
+
+		return (now - c.idleSince) < idleTimeout;
+	}
+
+	@Override
+	protected void destroyObject(HttpConnection c) {
+		connections.remove(c);
+		c.close();
+	}
+
+	@Override
+	protected ScheduledExecutorService getScheduler() {
+		return handler.getScheduler();
+	}
+
+	private void scheduleSweep() {
+		if (!SWEEP.compareAndSet(this, 0, 1)) return;
+
+		try {
+			getScheduler().schedule(this::sweep, idleTimeout, MILLISECONDS);
+		} catch (Throwable ex) {
+			Log.d(ex, "Failed to schedule idle connections eviction");
+			sweep = 0;
+		}
+	}
+
+	private void sweep() {
+		sweep = 0;
+		long now = System.currentTimeMillis();
+		evictIdle(c -> !c.isReusable() || ((now - c.idleSince) >= idleTimeout));
+
+		if (getLength() != 0) scheduleSweep();
+		else pools.remove(id, this);
+	}
+
+	@NonNull
+	@Override
+	public String toString() {
+		return "HttpConnectionPool{" + id + ", idle=" + getIdleLength() + ", busy=" + getBusyLength() +
+				", waiting=" + getQueueLength() + '}';
+	}
+}
@@ -0,0 +1,48 @@
+package me.aap.utils.net.http;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * HTTP date (RFC 7231 IMF-fixdate) formatting and parsing.
+ *
+ * @author Andrey Pavlenko
+ */
+public final class HttpDate {
+	private static final ThreadLocal<SimpleDateFormat> format = new ThreadLocal<SimpleDateFormat>() {
+		@Override
+		protected SimpleDateFormat initialValue() {
+			SimpleDateFormat f = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US);
+			f.setTimeZone(TimeZone.getTimeZone("GMT"));
+			return f;
+		}
+	};
+
+	private HttpDate() {
+	}
+
+	@NonNull
+	public static String format(long time) {
+		return format.get().format(new Date(time));
+	}
+
+	/**
+	 * Returns the time in milliseconds or -1 if the date is invalid.
+	 */
+	public static long parse(@Nullable CharSequence date) {
+		if (date == null) return -1;
+
+		try {
+			Date d = format.get().parse(date.toString().trim());
+			return (d == null) ? -1 : d.getTime();
+		} catch (ParseException ex) {
+			return -1;
+		}
+	}
+}
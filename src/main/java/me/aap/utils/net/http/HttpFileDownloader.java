@@ -2,10 +2,14 @@ package me.aap.utils.net.http;
 
 import static me.aap.utils.async.Completed.completedVoid;
 import static me.aap.utils.async.Completed.failed;
+import static me.aap.utils.net.http.HttpHeader.CONTENT_RANGE;
+import static me.aap.utils.net.http.HttpHeader.LAST_MODIFIED;
 import static me.aap.utils.net.http.HttpHeader.USER_AGENT;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -13,19 +17,28 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.InflaterInputStream;
 
+import me.aap.utils.async.Async;
 import me.aap.utils.async.FutureSupplier;
 import me.aap.utils.async.Promise;
 import me.aap.utils.function.IntSupplier;
 import me.aap.utils.function.LongSupplier;
 import me.aap.utils.function.Supplier;
+import me.aap.utils.io.AsyncInputStream;
 import me.aap.utils.io.FileUtils;
 import me.aap.utils.io.IoUtils;
 import me.aap.utils.log.Log;
+import me.aap.utils.net.NetHandler;
 import me.aap.utils.pref.BasicPreferenceStore;
 import me.aap.utils.pref.PreferenceStore;
 import me.aap.utils.pref.PreferenceStore.Pref;
@@ -42,8 +55,29 @@ public class HttpFileDownloader {
 	public static final Pref<IntSupplier> RESP_TIMEOUT = Pref.i("RESP_TIMEOUT", 10);
 	public static final Pref<LongSupplier> TIMESTAMP = Pref.l("TIMESTAMP", 0);
 	public static final Pref<IntSupplier> MAX_AGE = Pref.i("MAX_AGE", 0);
+	/**
+	 * The segment map of an incomplete download: the total length followed by the current position
+	 * and the end of each segment.
+	 */
+	public static final Pref<Supplier<String>> SEGMENTS = Pref.s("SEGMENTS");
+	/**
+	 * The strong ETag or Last-Modified of the incomplete download, sent in If-Range on resume.
+	 */
+	public static final Pref<Supplier<String>> SEGMENTS_VALIDATOR = Pref.s("SEGMENTS_VALIDATOR");
+	private static final int SEGMENT_BUF_LEN = 64 * 1024;
+	private static final long SEGMENT_SAVE_INTERVAL = 1024 * 1024;
+	private static final long MAX_SEGMENT_RETRY_DELAY = 30000;
+	// The downloads in progress by the destination path. The downloads of the same file are
+	// serialized, because they share the incomplete file.
+	private static final Map<String, FutureSupplier<Status>> active = new HashMap<>();
 	private StatusListener statusListener;
 	private boolean returnExistingOnFail;
+	private NetHandler netHandler;
+	private boolean resumable = true;
+	private int segments = 1;
+	private long minSegmentLength = 1024 * 1024;
+	private int segmentRetries = 3;
+	private long segmentRetryDelay = 1000;
 
 	public void setStatusListener(StatusListener statusListener) {
 		this.statusListener = statusListener;
@@ -53,6 +87,51 @@ public class HttpFileDownloader {
 		this.returnExistingOnFail = returnExistingOnFail;
 	}
 
+	/**
+	 * The handler for the connections. If not set, the handler of the application is used.
+	 */
+	public void setNetHandler(NetHandler netHandler) {
+		this.netHandler = netHandler;
+	}
+
+	/**
+	 * If true, which is the default, a failed download keeps the incomplete file and its validator
+	 * in the preference store. The next download requests the missing bytes with Range and If-Range
+	 * and starts from the beginning only if the file has been changed on the server. If false,
+	 * the incomplete file is deleted on failure, also for the segmented downloads.
+	 */
+	public void setResumable(boolean resumable) {
+		this.resumable = resumable;
+	}
+
+	/**
+	 * If greater than 1 and the server supports byte ranges, the file is split into up to this
+	 * number of segments, downloaded in parallel. The progress of each segment is saved in the
+	 * preference store, so an interrupted download is resumed on the next call.
+	 */
+	public void setSegments(int segments) {
+		this.segments = segments;
+	}
+
+	public void setMinSegmentLength(long minSegmentLength) {
+		this.minSegmentLength = minSegmentLength;
+	}
+
+	/**
+	 * The number of times a failed segment is requested again before the download fails.
+	 */
+	public void setSegmentRetries(int segmentRetries) {
+		this.segmentRetries = segmentRetries;
+	}
+
+	/**
+	 * The delay in milliseconds before the first retry of a failed segment. The delay is doubled
+	 * on each subsequent retry of the same segment.
+	 */
+	public void setSegmentRetryDelay(long segmentRetryDelay) {
+		this.segmentRetryDelay = segmentRetryDelay;
+	}
+
 	public FutureSupplier<Status> download(String src, File dst) {
 		return download(src, dst, new BasicPreferenceStore());
 	}
@@ -65,9 +144,38 @@ public class HttpFileDownloader {
 		}
 	}
 
+	/**
+	 * If the same file is being downloaded, the download is started when the previous one is
+	 * completed.
+	 */
 	public FutureSupplier<Status> download(URL src, File dst, PreferenceStore prefs) {
-		boolean exist = dst.isFile();
+		String key = dst.getAbsolutePath();
 		Promise<Status> p = new Promise<>();
+		FutureSupplier<Status> prev;
+
+		synchronized (active) {
+			prev = active.put(key, p);
+		}
+
+		p.onCompletion((r, err) -> {
+			synchronized (active) {
+				if (active.get(key) == p) active.remove(key);
+			}
+		});
+
+		if (prev == null) {
+			download(src, dst, prefs, p);
+		} else {
+			Log.d("Waiting for the download of ", dst, " to complete");
+			prev.onCompletion((r, err) -> download(src, dst, prefs, p));
+		}
+
+		return p;
+	}
+
+	private void download(URL src, File dst, PreferenceStore prefs, Promise<Status> p) {
+		if (p.isDone()) return;
+		boolean exist = dst.isFile();
 		StatusListener listener = statusListener;
 		Log.d("Downloading ", src, " to ", dst);
 
@@ -83,24 +191,33 @@ public class HttpFileDownloader {
 				Log.d("File age is less than ", age, ". Returning existing file: ", dst);
 				if (listener != null) listener.onSuccess(status);
 				p.complete(status);
-				return p;
+				return;
 			}
 		}
 
 		if (!exist) {
 			File dir = dst.getParentFile();
-			if (dir == null) return failed(new IOException("Unable to create file: " + dst));
+
+			if (dir == null) {
+				p.completeExceptionally(new IOException("Unable to create file: " + dst));
+				return;
+			}
+
 			try {
 				FileUtils.mkdirs(dir);
 			} catch (IOException ex) {
-				return failed(ex);
+				p.completeExceptionally(ex);
+				return;
 			}
 		}
 
-		var o = new HttpConnection.Opts();
-		o.url = src;
-		o.responseTimeout = prefs.getIntPref(RESP_TIMEOUT);
-		o.userAgent = prefs.getStringPref(AGENT);
+		var o = createOpts(src, prefs);
+
+		if (resumable || (segments > 1)) {
+			downloadResumable(o, dst, prefs, exist, p, listener);
+			return;
+		}
+
 		if (exist) o.ifNonMatch = prefs.getStringPref(ETAG);
 		HttpConnection.connect(o, (resp, err) -> {
 			if (err != null) {
@@ -108,16 +225,7 @@ public class HttpFileDownloader {
 				return p;
 			}
 
-			var enc = resp.getContentEncoding();
-			if (enc == null) {
-				var path = o.url.getPath();
-				if ((path != null) && (path.endsWith(".gzip") || path.endsWith(".gz"))) enc = "gzip";
-			}
-			var status = new DownloadStatus(src, dst, resp.getContentLength());
-			status.setEtag(resp.getEtag());
-			status.setCharset(resp.getCharset());
-			status.setEncoding(enc);
-			Log.d("Response received:\n", resp);
+			var status = createStatus(src, dst, resp, resp.getContentLength());
 
 			if (resp.getStatusCode() == HttpStatusCode.NOT_MODIFIED) {
 				Log.d("File not modified: ", src, ". Returning existing file: ", dst);
@@ -134,32 +242,182 @@ public class HttpFileDownloader {
 			}
 
 			File incomplete = (tmp == null) ? new File(dst.getAbsolutePath() + ".incomplete") : tmp;
-			return writePayload(resp, incomplete, status, listener).onCompletion((v, fail) -> {
-				if (fail != null) {
-					completeExceptionally(p, fail, status, listener);
-					//noinspection ResultOfMethodCallIgnored
-					incomplete.delete();
-				} else if (incomplete.renameTo(dst)) {
-					try (PreferenceStore.Edit edit = prefs.editPreferenceStore()) {
-						edit.setStringPref(ETAG, status.getEtag());
-						edit.setStringPref(CHARSET, status.getCharacterEncoding());
-						edit.setStringPref(ENCODING, status.getContentEncoding());
-						edit.setLongPref(TIMESTAMP, System.currentTimeMillis());
+			return downloadFull(resp, incomplete, prefs, status, p, listener);
+		});
+	}
+
+	private HttpConnection.Opts createOpts(URL src, PreferenceStore prefs) {
+		var o = new HttpConnection.Opts();
+		o.url = src;
+		o.handler = netHandler;
+		o.responseTimeout = prefs.getIntPref(RESP_TIMEOUT);
+		o.userAgent = prefs.getStringPref(AGENT);
+		return o;
+	}
+
+	private DownloadStatus createStatus(URL src, File dst, HttpResponse resp, long len) {
+		var enc = resp.getContentEncoding();
+		if (enc == null) {
+			var path = src.getPath();
+			if ((path != null) && (path.endsWith(".gzip") || path.endsWith(".gz"))) enc = "gzip";
+		}
+		var status = new DownloadStatus(src, dst, len);
+		status.setEtag(resp.getEtag());
+		status.setCharset(resp.getCharset());
+		status.setEncoding(enc);
+		Log.d("Response received:\n", resp);
+		return status;
+	}
+
+	private FutureSupplier<?> downloadFull(HttpResponse resp, File incomplete, PreferenceStore prefs,
+																				 DownloadStatus status, Promise<Status> p,
+																				 StatusListener listener) {
+		return writePayload(resp, incomplete, status, listener).onCompletion((v, fail) -> {
+			if (fail != null) {
+				completeExceptionally(p, fail, status, listener);
+				//noinspection ResultOfMethodCallIgnored
+				incomplete.delete();
+			} else {
+				complete(p, incomplete, prefs, status, listener);
+			}
+		});
+	}
+
+	private void complete(Promise<Status> p, File incomplete, PreferenceStore prefs,
+												DownloadStatus status, StatusListener listener) {
+		File dst = status.getLocalFile();
+
+		if (incomplete.renameTo(dst)) {
+			try (PreferenceStore.Edit edit = prefs.editPreferenceStore()) {
+				edit.setStringPref(ETAG, status.getEtag());
+				edit.setStringPref(CHARSET, status.getCharacterEncoding());
+				edit.setStringPref(ENCODING, status.getContentEncoding());
+				edit.setLongPref(TIMESTAMP, System.currentTimeMillis());
+			}
+
+			Log.d("Downloaded ", status.getUrl(), " to ", dst);
+			if (listener != null) listener.onSuccess(status);
+			p.complete(status);
+		} else {
+			completeExceptionally(p, new IOException("Failed to rename file " + incomplete + " to " + dst),
+					status, listener);
+			//noinspection ResultOfMethodCallIgnored
+			incomplete.delete();
+		}
+	}
+
+	private void downloadResumable(HttpConnection.Opts o, File dst, PreferenceStore prefs, boolean exist,
+																 Promise<Status> p, StatusListener listener) {
+		URL src = o.url;
+		File incomplete = new File(dst.getAbsolutePath() + ".incomplete");
+		Segments saved = (resumable && incomplete.isFile()) ? Segments.load(prefs) : null;
+		o.maxConnections = Math.max(o.maxConnections, segments);
+
+		if (saved != null) {
+			o.range = "bytes=" + saved.pos[saved.next(0)] + '-';
+			o.ifRange = saved.validator;
+			Log.d("Resuming download ", src, ": ", saved);
+		} else {
+			Segments.remove(prefs);
+			if (segments > 1) o.range = "bytes=0-";
+			if (exist) o.ifNonMatch = prefs.getStringPref(ETAG);
+		}
+
+		HttpConnection.connect(o, (resp, err) -> {
+			if (err != null) {
+				completeExceptionally(p, err, new DownloadStatus(src, dst, 0), listener);
+				return p;
+			}
+
+			int code = resp.getStatusCode();
+
+			if (code == HttpStatusCode.NOT_MODIFIED) {
+				var status = createStatus(src, dst, resp, resp.getContentLength());
+				Log.d("File not modified: ", src, ". Returning existing file: ", dst);
+				if (listener != null) listener.onSuccess(status);
+				p.complete(status);
+				return completedVoid();
+			}
+
+			Segments segs = null;
+
+			if (code == HttpStatusCode.PARTIAL) {
+				long[] range = parseContentRange(resp.getHeader(CONTENT_RANGE));
+
+				if ((range != null) && (range[2] >= 0)) {
+					if ((saved != null) && (saved.length == range[2]) && (saved.pos[saved.next(0)] == range[0])) {
+						segs = saved;
+					} else if (range[0] == 0) {
+						segs = Segments.split(range[2], segments, minSegmentLength, validator(resp));
 					}
+				}
 
-					Log.d("Downloaded ", src, " to ", dst);
-					if (listener != null) listener.onSuccess(status);
-					p.complete(status);
-				} else {
-					completeExceptionally(p, new IOException("Failed to rename file " + incomplete + " to " + dst),
-							status, listener);
+				if ((segs == null) && ((range == null) || (range[0] != 0))) {
+					resp.getConnection().close();
+					Segments.remove(prefs);
 					//noinspection ResultOfMethodCallIgnored
 					incomplete.delete();
+
+					if (saved != null) {
+						Log.d("Unexpected partial response, restarting download: ", src);
+						downloadResumable(createOpts(src, prefs), dst, prefs, exist, p, listener);
+					} else {
+						completeExceptionally(p, new IOException("Invalid Content-Range: "
+								+ resp.getHeader(CONTENT_RANGE)), new DownloadStatus(src, dst, 0), listener);
+					}
+
+					return completedVoid();
 				}
-			});
+			} else if (code == HttpStatusCode.OK) {
+				// Either the first request or the validator has changed
+				long len = resp.getContentLength();
+				String validator = validator(resp);
+				if ((len > 0) && (validator != null)) segs = Segments.split(len, 1, len, validator);
+			}
+
+			if (segs == null) {
+				Log.d("Unable to resume, downloading sequentially: ", src);
+				Segments.remove(prefs);
+				var status = createStatus(src, dst, resp, resp.getContentLength());
+				return downloadFull(resp, incomplete, prefs, status, p, listener);
+			}
+
+			var status = createStatus(src, dst, resp, segs.length);
+			return new SegmentedDownload(o, incomplete, prefs, segs, status, p, listener).start(resp);
 		});
+	}
 
-		return p;
+	/**
+	 * Returns the strong ETag or Last-Modified of the response, that may be used in If-Range.
+	 */
+	@Nullable
+	private static String validator(HttpResponse resp) {
+		CharSequence v = resp.getEtag();
+		if ((v != null) && (v.length() > 2) && (v.charAt(0) != 'W')) return v.toString();
+		v = resp.getHeader(LAST_MODIFIED);
+		return (v == null) ? null : v.toString();
+	}
+
+	/**
+	 * Returns start, end and total length or null. The length is -1 if unknown.
+	 */
+	static long[] parseContentRange(CharSequence value) {
+		if (value == null) return null;
+		String v = value.toString().trim();
+		if (!v.startsWith("bytes ")) return null;
+		int dash = v.indexOf('-', 6);
+		int slash = v.indexOf('/', dash + 1);
+		if ((dash == -1) || (slash == -1)) return null;
+
+		try {
+			long start = Long.parseLong(v.substring(6, dash).trim());
+			long end = Long.parseLong(v.substring(dash + 1, slash).trim());
+			String total = v.substring(slash + 1).trim();
+			long len = total.equals("*") ? -1 : Long.parseLong(total);
+			return ((end < start) || ((len >= 0) && (end >= len))) ? null : new long[]{start, end, len};
+		} catch (NumberFormatException ex) {
+			return null;
+		}
 	}
 
 	private void completeExceptionally(Promise<Status> p, Throwable err, DownloadStatus status, StatusListener listener) {
@@ -212,6 +470,282 @@ public class HttpFileDownloader {
 		}
 	}
 
+	private final class SegmentedDownload {
+		private final HttpConnection.Opts opts;
+		private final File incomplete;
+		private final PreferenceStore prefs;
+		private final Segments segs;
+		private final DownloadStatus status;
+		private final Promise<Status> promise;
+		private final StatusListener listener;
+		private final boolean resumable;
+		private final int maxRetries;
+		private final long retryDelay;
+		private final int[] retries;
+		private FileChannel channel;
+		private int pending;
+		private volatile Throwable failure;
+
+		SegmentedDownload(HttpConnection.Opts opts, File incomplete, PreferenceStore prefs, Segments segs,
+											DownloadStatus status, Promise<Status> promise, StatusListener listener) {
+			this.opts = opts;
+			this.incomplete = incomplete;
+			this.prefs = prefs;
+			this.segs = segs;
+			this.status = status;
+			this.promise = promise;
+			this.listener = listener;
+			resumable = HttpFileDownloader.this.resumable;
+			maxRetries = segmentRetries;
+			retryDelay = segmentRetryDelay;
+			retries = new int[segs.pos.length];
+			Arrays.fill(retries, maxRetries);
+		}
+
+		FutureSupplier<?> start(HttpResponse resp) {
+			try {
+				channel = new RandomAccessFile(incomplete, "rw").getChannel();
+				if (channel.size() > segs.length) channel.truncate(segs.length);
+			} catch (IOException ex) {
+				IoUtils.close(channel);
+				resp.getConnection().close();
+				completeExceptionally(promise, ex, status, listener);
+				return completedVoid();
+			}
+
+			int first = segs.next(0);
+			status.bytesDownloaded = segs.downloaded();
+			save();
+			Log.d("Downloading ", segs.pos.length, " segments of ", status.getUrl());
+
+			synchronized (this) {
+				for (int i = first; i < segs.pos.length; i = segs.next(i + 1)) pending++;
+			}
+
+			for (int i = segs.next(first + 1); i < segs.pos.length; i = segs.next(i + 1)) {
+				request(i);
+			}
+
+			return read(resp, first);
+		}
+
+		private void request(int seg) {
+			var o = createOpts(opts.url, prefs);
+			o.maxConnections = opts.maxConnections;
+			o.range = "bytes=" + segs.pos[seg] + '-' + (segs.end[seg] - 1);
+			o.ifRange = segs.validator;
+
+			HttpConnection.connect(o, (resp, err) -> {
+				if (err != null) {
+					segmentCompleted(seg, err);
+					return completedVoid();
+				}
+
+				long[] range = (resp.getStatusCode() == HttpStatusCode.PARTIAL)
+						? parseContentRange(resp.getHeader(CONTENT_RANGE)) : null;
+
+				if ((range == null) || (range[0] != segs.pos[seg]) || (range[2] != segs.length)) {
+					resp.getConnection().close();
+					retries[seg] = 0;
+					segmentCompleted(seg, new IOException("Unexpected response to range request: "
+							+ resp.getStatusCode() + ' ' + resp.getReason()));
+					return completedVoid();
+				}
+
+				return read(resp, seg);
+			});
+		}
+
+		private FutureSupplier<?> read(HttpResponse resp, int seg) {
+			AsyncInputStream in = resp.getPayloadStream(false);
+			ByteBuffer buf = ByteBuffer.allocate(SEGMENT_BUF_LEN);
+			long[] saved = {segs.pos[seg]};
+
+			return Async.iterate(() -> {
+				if (failure != null) throw new IOException("Download failed");
+				long remain = segs.end[seg] - segs.pos[seg];
+				if (remain == 0) return null;
+
+				buf.clear();
+				if (remain < buf.capacity()) buf.limit((int) remain);
+
+				return in.read(buf).map(b -> {
+					if (!b.hasRemaining()) throw new EOFException("Unexpected end of segment " + seg);
+					write(seg, b);
+
+					if ((segs.pos[seg] - saved[0]) >= SEGMENT_SAVE_INTERVAL) {
+						saved[0] = segs.pos[seg];
+						save();
+					}
+
+					return b;
+				});
+			}).onCompletion((r, fail) -> {
+				in.close();
+				segmentCompleted(seg, fail);
+			});
+		}
+
+		private void save() {
+			if (resumable) segs.save(prefs);
+		}
+
+		private void write(int seg, ByteBuffer b) throws IOException {
+			int n = b.remaining();
+			for (long pos = segs.pos[seg]; b.hasRemaining(); ) {
+				pos += channel.write(b, pos);
+			}
+			segs.advance(seg, n);
+
+			synchronized (status) {
+				status.bytesDownloaded += n;
+				if (listener != null) listener.onProgress(status);
+			}
+		}
+
+		private void segmentCompleted(int seg, @Nullable Throwable fail) {
+			if (fail != null) {
+				if ((failure == null) && (retries[seg]-- > 0)) {
+					// Exponential backoff: the delay is doubled on each retry of the segment
+					int attempt = maxRetries - retries[seg] - 1;
+					long delay = Math.min(retryDelay << Math.min(attempt, 16), MAX_SEGMENT_RETRY_DELAY);
+					Log.d(fail, "Segment ", seg, " failed, retrying from ", segs.pos[seg], " in ", delay, "ms");
+					Async.schedule(() -> {
+						if (failure == null) request(seg);
+						else segmentCompleted(seg, fail);
+						return completedVoid();
+					}, delay);
+					return;
+				}
+			}
+
+			boolean done;
+
+			synchronized (this) {
+				if ((fail != null) && (failure == null)) failure = fail;
+				done = (--pending == 0);
+			}
+
+			if (!done) return;
+			IoUtils.close(channel);
+
+			if (failure != null) {
+				save();
+
+				if (!resumable || (segs.validator == null)) {
+					//noinspection ResultOfMethodCallIgnored
+					incomplete.delete();
+				}
+
+				completeExceptionally(promise, failure, status, listener);
+			} else {
+				Segments.remove(prefs);
+				complete(promise, incomplete, prefs, status, listener);
+			}
+		}
+	}
+
+	private static final class Segments {
+		final long length;
+		final String validator;
+		final long[] pos;
+		final long[] end;
+
+		Segments(long length, String validator, long[] pos, long[] end) {
+			this.length = length;
+			this.validator = validator;
+			this.pos = pos;
+			this.end = end;
+		}
+
+		static Segments split(long length, int max, long minLength, String validator) {
+			int n = (int) Math.max(1, Math.min(max, length / Math.max(minLength, 1)));
+			long len = (length + n - 1) / n;
+			long[] pos = new long[n];
+			long[] end = new long[n];
+
+			for (int i = 0; i < n; i++) {
+				pos[i] = i * len;
+				end[i] = Math.min(length, pos[i] + len);
+			}
+
+			return new Segments(length, validator, pos, end);
+		}
+
+		@Nullable
+		static Segments load(PreferenceStore prefs) {
+			String validator = prefs.getStringPref(SEGMENTS_VALIDATOR);
+			String map = prefs.getStringPref(SEGMENTS);
+			if ((validator == null) || (map == null)) return null;
+
+			try {
+				String[] values = map.split(",");
+				int n = (values.length - 1) / 2;
+				if ((n == 0) || (values.length != (n * 2 + 1))) return null;
+				long length = Long.parseLong(values[0]);
+				long[] pos = new long[n];
+				long[] end = new long[n];
+
+				for (int i = 0; i < n; i++) {
+					pos[i] = Long.parseLong(values[i * 2 + 1]);
+					end[i] = Long.parseLong(values[i * 2 + 2]);
+					if ((pos[i] > end[i]) || (end[i] > length)) return null;
+				}
+
+				Segments s = new Segments(length, validator, pos, end);
+				return (s.next(0) == n) ? null : s;
+			} catch (NumberFormatException ex) {
+				Log.e(ex, "Invalid segment map: ", map);
+				return null;
+			}
+		}
+
+		static void remove(PreferenceStore prefs) {
+			try (PreferenceStore.Edit edit = prefs.editPreferenceStore()) {
+				edit.removePref(SEGMENTS);
+				edit.removePref(SEGMENTS_VALIDATOR);
+			}
+		}
+
+		/**
+		 * Save the segment map, if the download can be resumed.
+		 */
+		synchronized void save(PreferenceStore prefs) {
+			if (validator == null) return;
+			StringBuilder sb = new StringBuilder().append(length);
+			for (int i = 0; i < pos.length; i++) sb.append(',').append(pos[i]).append(',').append(end[i]);
+
+			try (PreferenceStore.Edit edit = prefs.editPreferenceStore()) {
+				edit.setStringPref(SEGMENTS_VALIDATOR, validator);
+				edit.setStringPref(SEGMENTS, sb.toString());
+			}
+		}
+
+		synchronized void advance(int seg, int n) {
+			pos[seg] += n;
+		}
+
+		/**
+		 * Returns the index of the first incomplete segment, starting from i.
+		 */
+		synchronized int next(int i) {
+			for (; (i < pos.length) && (pos[i] == end[i]); i++) ;
+			return i;
+		}
+
+		synchronized long downloaded() {
+			long n = length;
+			for (int i = 0; i < pos.length; i++) n -= end[i] - pos[i];
+			return n;
+		}
+
+		@NonNull
+		@Override
+		public synchronized String toString() {
+			return "Segments{length=" + length + ", validator=" + validator + ", downloaded=" + downloaded() + '}';
+		}
+	}
+
 	public interface Status extends VirtualFile.Info {
 
 		URL getUrl();
@@ -22,10 +22,15 @@ public enum HttpHeader {
 	CONTENT_TYPE("Content-Type"),
 	ETAG("ETag"),
 	HOST("Host"),
+	IF_MODIFIED_SINCE("If-Modified-Since"),
 	IF_NONE_MATCH("If-None-Match"),
+	IF_RANGE("If-Range"),
+	LAST_MODIFIED("Last-Modified"),
 	LOCATION("Location"),
+	RANGE("Range"),
 	TRANSFER_ENCODING("Transfer-Encoding", "chunked"),
 	USER_AGENT("User-Agent", getAgent()),
+	VARY("Vary", "Accept-Encoding"),
 	;
 	private final String name;
 	private final String value;
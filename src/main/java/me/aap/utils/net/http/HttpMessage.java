@@ -13,7 +13,6 @@ import me.aap.utils.async.FutureSupplier;
 import me.aap.utils.function.BiFunction;
 import me.aap.utils.io.AsyncInputStream;
 import me.aap.utils.io.AsyncOutputStream;
-import me.aap.utils.io.AsyncPipe;
 import me.aap.utils.io.IoUtils;
 import me.aap.utils.io.MemOutputStream;
 import me.aap.utils.net.NetChannel;
@@ -36,6 +35,18 @@ public interface HttpMessage {
 	@NonNull
 	CharSequence getHeaders();
 
+	/**
+	 * Returns the value of the first header with the specified name, the name is compared
+	 * ignoring case.
+	 */
+	@Nullable
+	CharSequence getHeader(CharSequence name);
+
+	@Nullable
+	default CharSequence getHeader(HttpHeader header) {
+		return getHeader(header.getName());
+	}
+
 	@Nullable
 	CharSequence getContentType();
 
@@ -82,11 +93,26 @@ public interface HttpMessage {
 
 	FutureSupplier<?> writePayload(AsyncOutputStream out);
 
+	/**
+	 * Returns the raw (not decoded) payload stream.
+	 */
 	default AsyncInputStream readPayload() {
-		AsyncPipe pipe = new AsyncPipe(true);
-		writePayload(pipe).onFailure(pipe::close);
-		return pipe;
+		return getPayloadStream(false);
+	}
+
+	default AsyncInputStream getPayloadStream() {
+		return getPayloadStream(true);
 	}
 
+	/**
+	 * Returns the payload stream. The payload is read from the channel when the stream is read,
+	 * so only a single read buffer is held in memory regardless of the payload length. The stream
+	 * must be read to the end before the next message can be received from the channel, closing
+	 * an incomplete stream closes the channel.
+	 *
+	 * @param decode decode the content encoding (gzip or deflate)
+	 */
+	AsyncInputStream getPayloadStream(boolean decode);
+
 	FutureSupplier<?> skipPayload();
 }
@@ -1,6 +1,7 @@
 package me.aap.utils.net.http;
 
 import static java.nio.charset.StandardCharsets.US_ASCII;
+import static me.aap.utils.async.Completed.completed;
 import static me.aap.utils.async.Completed.completedNull;
 import static me.aap.utils.async.Completed.completedVoid;
 import static me.aap.utils.async.Completed.failed;
@@ -17,18 +18,17 @@ import androidx.annotation.Nullable;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.InflaterInputStream;
+import java.util.Arrays;
 
 import me.aap.utils.BuildConfig;
 import me.aap.utils.async.FutureSupplier;
 import me.aap.utils.async.Promise;
 import me.aap.utils.function.BiFunction;
 import me.aap.utils.function.ProgressiveResultConsumer.Completion;
+import me.aap.utils.io.AsyncInputStream;
 import me.aap.utils.io.AsyncOutputStream;
-import me.aap.utils.io.ByteBufferInputStream;
+import me.aap.utils.io.InflaterAsyncInputStream;
 import me.aap.utils.io.IoUtils;
-import me.aap.utils.io.MemOutputStream;
 import me.aap.utils.net.ByteBufferSupplier;
 import me.aap.utils.net.http.HttpError.PayloadTooLarge;
 import me.aap.utils.text.TextUtils;
@@ -48,7 +48,9 @@ abstract class HttpMessageBase implements HttpMessage {
 	int contentTypeStart = -1;
 	int contentEncodingStart = -1;
 	int transferEncodingStart = -1;
-
+	// Pairs of the header line offset, relative to headerStart, and the header name length
+	int[] headerIndex;
+	int headerCount;
 
 	HttpMessageBase(HttpVersion version, ByteBuffer buf, int headerStart) {
 		this.version = version;
@@ -213,6 +215,36 @@ abstract class HttpMessageBase implements HttpMessage {
 		return p;
 	}
 
+	@Override
+	public AsyncInputStream getPayloadStream(boolean decode) {
+		checkReleased();
+		long len = getContentLength();
+		CharSequence enc = decode ? getContentEncoding() : null;
+		PayloadStream stream;
+
+		if (len <= 0) {
+			CharSequence te = getTransferEncoding();
+			if (te == null) return new PayloadStream(emptyByteBuffer(), 0, false);
+
+			if (!TextUtils.equals("chunked", te)) {
+				return AsyncInputStream.from(failed(new IOException("Unsupported transfer encoding: " + te)));
+			}
+
+			ByteBuffer buf = this.buf;
+			stream = new PayloadStream(IoUtils.copyOf(buf), 0, true);
+			buf.position(buf.limit());
+		} else {
+			stream = new PayloadStream(copyOfRange(buf, headerEnd, payloadEnd), len, false);
+		}
+
+		releaseBuf();
+		if (enc == null) return stream;
+		if (TextUtils.equals("gzip", enc)) return InflaterAsyncInputStream.gzip(stream);
+		if (TextUtils.equals("deflate", enc)) return InflaterAsyncInputStream.deflate(stream);
+		stream.close();
+		return AsyncInputStream.from(failed(new IOException("Unsupported content encoding: " + enc)));
+	}
+
 	@Override
 	public FutureSupplier<?> skipPayload() {
 		checkReleased();
@@ -268,28 +300,57 @@ abstract class HttpMessageBase implements HttpMessage {
 
 	static ByteBuffer decode(ByteBuffer payload, CharSequence enc, int max) throws IOException {
 		if (TextUtils.equals("gzip", enc)) {
-			try (GZIPInputStream in = new GZIPInputStream(new ByteBufferInputStream(payload))) {
-				MemOutputStream out = new MemOutputStream(payload.remaining() * 3, max);
-				out.readFrom(in);
-				return ByteBuffer.wrap(out.getBuffer(), 0, out.getCount());
-			}
+			return InflaterAsyncInputStream.inflate(payload, true, max);
 		} else if (TextUtils.equals("deflate", enc)) {
-			try (InflaterInputStream in = new InflaterInputStream(new ByteBufferInputStream(payload))) {
-				MemOutputStream out = new MemOutputStream(payload.remaining() * 3, max);
-				out.readFrom(in);
-				return ByteBuffer.wrap(out.getBuffer(), 0, out.getCount());
-			}
+			return InflaterAsyncInputStream.inflate(payload, false, max);
 		} else {
 			throw new IOException("Unsupported content encoding: " + enc);
 		}
 	}
 
+	@Nullable
+	@Override
+	public CharSequence getHeader(CharSequence name) {
+		checkReleased();
+		int[] idx = headerIndex;
+		int len = name.length();
+
+		for (int i = 0, n = headerCount << 1; i < n; i += 2) {
+			if (idx[i + 1] != len) continue;
+			int start = headerStart + idx[i];
+			if (!HttpUtils.equalsIgnoreCase(buf, start, name)) continue;
+
+			for (start += len + 1; start < headerEnd; start++) {
+				byte c = buf.get(start);
+				if ((c != ' ') && (c != '\t')) break;
+			}
+
+			int end = HttpUtils.indexOfEol(buf, start, headerEnd);
+			return new AsciiSeq(buf, start, ((end == -1) ? headerEnd : end) - start);
+		}
+
+		return null;
+	}
+
+	void indexHeader(ByteBuffer buf, int lineStart, int lineEnd) {
+		int colon = HttpUtils.indexOf(buf, lineStart, lineEnd, (byte) ':');
+		if (colon <= lineStart) return;
+
+		int[] idx = headerIndex;
+		int n = headerCount << 1;
+		if (idx == null) headerIndex = idx = new int[16];
+		else if (n == idx.length) headerIndex = idx = Arrays.copyOf(idx, n << 1);
+		idx[n] = lineStart - headerStart;
+		idx[n + 1] = colon - lineStart;
+		headerCount++;
+	}
+
 	@Nullable
 	CharSequence getHeaderValue(int valueStart) {
 		checkReleased();
 		if (valueStart == -1) return null;
 		int start = headerStart + valueStart;
-		int end = HttpUtils.indexOfChar(buf, start, headerEnd, "\r\n");
+		int end = HttpUtils.indexOfEol(buf, start, headerEnd);
 		return new AsciiSeq(buf, start, end - start);
 	}
 
@@ -601,6 +662,201 @@ abstract class HttpMessageBase implements HttpMessage {
 		}
 	}
 
+	/**
+	 * Reads a fixed length or chunked payload on demand. Chunk data is read directly to the
+	 * destination buffer, chunk headers - to the thread local read buffer.
+	 */
+	private final class PayloadStream implements AsyncInputStream, ByteBufferSupplier, Completion<ByteBuffer> {
+		private final boolean chunked;
+		// Remaining bytes of the payload or of the current chunk
+		private long remain;
+		// Received, but not consumed data
+		private ByteBuffer pending;
+		private Promise<ByteBuffer> reader;
+		private ByteBuffer dst;
+		private ByteBuffer direct;
+		private int dstPos;
+		private volatile boolean eos;
+		private volatile boolean closed;
+
+		PayloadStream(ByteBuffer pending, long remain, boolean chunked) {
+			this.pending = pending;
+			this.remain = remain;
+			this.chunked = chunked;
+			eos = (remain == 0) && !chunked;
+		}
+
+		@Override
+		public FutureSupplier<ByteBuffer> read(ByteBufferSupplier dst) {
+			if (reader != null) return failed(new IOException("Read pending"));
+			if (closed) return failed(new IOException("Stream closed"));
+
+			ByteBuffer d = dst.getByteBuffer();
+
+			if (eos || !d.hasRemaining()) {
+				d.limit(d.position());
+				return completed(d);
+			}
+
+			Promise<ByteBuffer> p = new Promise<>();
+			this.dst = d;
+			dstPos = d.position();
+			reader = p;
+			proceed();
+			return p;
+		}
+
+		private void proceed() {
+			try {
+				for (ByteBuffer in = pending; ; ) {
+					if (remain > 0) {
+						if (in.hasRemaining()) {
+							int n = (int) Math.min(Math.min(in.remaining(), dst.remaining()), remain);
+							int limit = in.limit();
+							in.limit(in.position() + n);
+							dst.put(in);
+							in.limit(limit);
+							remain -= n;
+							done(null);
+						} else {
+							direct = dst.slice();
+							if (direct.remaining() > remain) direct.limit((int) remain);
+							getChannel().read(this, this);
+						}
+
+						return;
+					}
+
+					if (!chunked) {
+						eos = true;
+						done(null);
+						return;
+					}
+
+					int pos = in.position();
+					int idx = HttpUtils.indexOfChar(in, pos, in.limit(), '\n');
+
+					if (idx == -1) {
+						readNext();
+						return;
+					}
+
+					if ((idx - pos) <= 1) { // End of chunk
+						in.position(idx + 1);
+						continue;
+					}
+
+					long len = HttpUtils.parseHexLong(in, pos, idx);
+
+					if (len == 0) {
+						idx = HttpUtils.indexOfChar(in, idx + 1, in.limit(), '\n');
+
+						if (idx == -1) {
+							readNext();
+							return;
+						}
+
+						in.position(idx + 1);
+						assert !buf.hasRemaining();
+						if (in.hasRemaining()) buf = in;
+						pending = emptyByteBuffer();
+						eos = true;
+						done(null);
+						return;
+					}
+
+					if (len < 0) throw new IOException("Invalid chunk length");
+					in.position(idx + 1);
+					remain = len;
+				}
+			} catch (Throwable ex) {
+				done(ex);
+			}
+		}
+
+		private void readNext() {
+			direct = null;
+			getChannel().read(this, this);
+		}
+
+		private void done(Throwable fail) {
+			Promise<ByteBuffer> p = reader;
+			ByteBuffer d = dst;
+			reader = null;
+			dst = direct = null;
+
+			if (fail != null) {
+				p.completeExceptionally(fail);
+			} else {
+				d.limit(d.position()).position(dstPos);
+				p.complete(d);
+			}
+		}
+
+		@Override
+		public void onCompletion(ByteBuffer result, Throwable fail) {
+			if (fail != null) {
+				done(new IOException("Failed to read payload", fail));
+				return;
+			}
+
+			int n = result.remaining();
+
+			if (n == 0) {
+				done(new IOException("Unexpected end of stream"));
+				return;
+			}
+
+			if (direct != null) {
+				if (result == direct) {
+					remain -= n;
+					dst.position(dst.position() + n);
+					done(null);
+					return;
+				}
+
+				direct = null;
+			}
+
+			// The result is the thread local buffer, copy the remaining data
+			ByteBuffer in = pending;
+
+			if (in.hasRemaining()) {
+				ByteBuffer b = ByteBuffer.allocate(in.remaining() + n);
+				b.put(in).put(result).flip();
+				pending = b;
+			} else {
+				pending = IoUtils.copyOf(result);
+			}
+
+			proceed();
+		}
+
+		@Override
+		public ByteBuffer getByteBuffer() {
+			ByteBuffer d = direct;
+			return (d != null) ? d : getReadBuffer();
+		}
+
+		@Override
+		public int available() {
+			return chunked ? 0 : (int) Math.min(pending.remaining(), remain);
+		}
+
+		@Override
+		public boolean hasRemaining() {
+			return !eos;
+		}
+
+		@Override
+		public void close() {
+			if (closed) return;
+			closed = true;
+			// The rest of the payload can not be skipped without reading
+			if (!eos && (chunked || (remain != 0))) getChannel().close();
+		}
+	}
+
 	private final class SkipPayloadPromise extends Promise<Void> implements Completion<ByteBuffer>, ByteBufferSupplier {
 		private long remaining;
 
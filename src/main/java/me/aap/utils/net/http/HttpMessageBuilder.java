@@ -16,8 +16,9 @@ import me.aap.utils.concurrent.NetThread;
 import me.aap.utils.function.CheckedConsumer;
 import me.aap.utils.function.Function;
 import me.aap.utils.io.ByteBufferOutputStream;
-import me.aap.utils.io.IoUtils;
 import me.aap.utils.net.ByteBufferArraySupplier;
+import me.aap.utils.net.ByteBufferPool;
+import me.aap.utils.net.ByteBufferPool.PooledBuffer;
 
 /**
  * @author Andrey Pavlenko
@@ -62,6 +63,7 @@ class HttpMessageBuilder implements HttpRequestBuilder, HttpResponseBuilder {
 	static ByteBufferArraySupplier supplier(Function<? super HttpMessageBuilder, ByteBuffer[]> builder) {
 		return new ByteBufferArraySupplier() {
 			ByteBuffer[] array;
+			PooledBuffer retained;
 			boolean responseBuf;
 
 			@Override
@@ -85,7 +87,8 @@ class HttpMessageBuilder implements HttpRequestBuilder, HttpResponseBuilder {
 				if (responseBuf) {
 					if (fromIndex == 0) {
 						if (BuildConfig.D) NetThread.assertWriteBuffer(array[0]);
-						array[0] = IoUtils.copyOf(array[0]);
+						retained = ByteBufferPool.get().copyOf(array[0]);
+						array[0] = retained.getByteBuffer();
 					}
 
 					responseBuf = false;
@@ -98,6 +101,12 @@ class HttpMessageBuilder implements HttpRequestBuilder, HttpResponseBuilder {
 			@Override
 			public void release() {
 				array = emptyByteBufferArray();
+				PooledBuffer r = retained;
+
+				if (r != null) {
+					retained = null;
+					r.release();
+				}
 			}
 		};
 	}
@@ -7,11 +7,12 @@ import me.aap.utils.async.FutureSupplier;
 import me.aap.utils.concurrent.NetThread;
 import me.aap.utils.function.Function;
 import me.aap.utils.log.Log;
+import me.aap.utils.net.ByteBufferPool;
+import me.aap.utils.net.ByteBufferPool.PooledBuffer;
 import me.aap.utils.net.ByteBufferSupplier;
 import me.aap.utils.net.NetChannel;
 
 import static java.nio.charset.StandardCharsets.US_ASCII;
-import static me.aap.utils.io.IoUtils.copyOfRange;
 import static me.aap.utils.io.IoUtils.emptyByteBuffer;
 
 /**
@@ -159,6 +160,26 @@ abstract class HttpMessageEncoder<M extends HttpMessage> implements ByteBufferSu
 		return value;
 	}
 
+	/**
+	 * Returns the start of the next header line, the bitwise complement of the body start if the
+	 * line is the empty line, terminating the headers, or Integer.MIN_VALUE if the line is incomplete.
+	 *
+	 * @param i the position in the line to search the line feed from
+	 */
+	static int nextHeaderLine(ByteBuffer buf, int lineStart, int i, int end) {
+		byte c = buf.get(lineStart);
+
+		if (c == '\n') {
+			return ~(lineStart + 1);
+		} else if (c == '\r') {
+			if (++lineStart == end) return Integer.MIN_VALUE;
+			if (buf.get(lineStart) == '\n') return ~(lineStart + 1);
+		}
+
+		i = HttpUtils.indexOf(buf, Math.max(i, lineStart), end, (byte) '\n');
+		return (i == -1) ? Integer.MIN_VALUE : i + 1;
+	}
+
 	static int headerPrefixMatch(byte[] header, ByteBuffer buf, int start, int end) {
 		for (int h = 0; (start < end) && (h < header.length); start++, h += 2) {
 			byte c = buf.get(start);
@@ -201,15 +222,33 @@ abstract class HttpMessageEncoder<M extends HttpMessage> implements ByteBufferSu
 	}
 
 	ByteBufferSupplier retainBuf(ByteBuffer buf, int start, int end) {
-		ByteBuffer b = copyOfRange(buf, start, end);
-		// Log.d("Retaining buffer: ", b);
-
-		return () -> {
-			b.position(0);
-			ByteBuffer bb = NetThread.getReadBuffer();
-			if (bb.remaining() < b.remaining()) bb = ByteBuffer.allocate(getMaxLen());
-			bb.put(b);
-			return bb;
+		ByteBuffer d = buf.duplicate();
+		d.limit(end).position(start);
+		PooledBuffer ref = ByteBufferPool.get().copyOf(d);
+		// Log.d("Retaining buffer: ", ref);
+
+		return new ByteBufferSupplier() {
+			PooledBuffer retained = ref;
+
+			@Override
+			public ByteBuffer getByteBuffer() {
+				ByteBuffer b = retained.getByteBuffer();
+				b.position(0);
+				ByteBuffer bb = NetThread.getReadBuffer();
+				if (bb.remaining() < b.remaining()) bb = ByteBuffer.allocate(getMaxLen());
+				bb.put(b);
+				return bb;
+			}
+
+			@Override
+			public void release() {
+				PooledBuffer r = retained;
+
+				if (r != null) {
+					retained = null;
+					r.release();
+				}
+			}
 		};
 	}
 
@@ -269,10 +308,12 @@ abstract class HttpMessageEncoder<M extends HttpMessage> implements ByteBufferSu
 
 			result.onCompletion((r, err) -> {
 				if (err != null) {
+					if (bbs != null) bbs.release();
 					onFailure(channel, err);
 				} else if (bbs != null) {
 					assert (m.buf == bb) || !m.buf.hasRemaining();
 					ByteBuffer b = bbs.getByteBuffer();
+					bbs.release();
 					b.position(0).limit(remain);
 					read(channel, b, null);
 				} else if (channel.isOpen()) {
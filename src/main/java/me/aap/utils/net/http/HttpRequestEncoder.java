@@ -86,11 +86,11 @@ public abstract class HttpRequestEncoder extends HttpMessageEncoder<HttpRequest>
 		}
 
 		if (uriEnd == 0) {
-			for (; off < end; off++) {
-				if (buf.get(off) == ' ') {
-					uriEnd = off++;
-					break;
-				}
+			int idx = HttpUtils.indexOf(buf, off, end, (byte) ' ');
+
+			if (idx != -1) {
+				uriEnd = idx;
+				off = idx + 1;
 			}
 		}
 
@@ -202,39 +202,19 @@ public abstract class HttpRequestEncoder extends HttpMessageEncoder<HttpRequest>
 					break;
 			}
 
-			for (; i < end; i++) {
-				if (buf.get(i) != '\n') continue;
-
-				if (i < (end - 1)) {
-					if (buf.get(i + 1) != '\n') {
-						if (buf.get(i + 1) == '\r') {
-							if (i < (end - 2)) {
-								if (buf.get(i += 2) != '\n') {
-									off = i;
-									continue loop;
-								}
-							} else {
-								off = i;
-								break loop;
-							}
-						} else {
-							off = ++i;
-							continue loop;
-						}
-					} else {
-						i++;
-					}
-				} else {
-					off = i;
-					break loop;
-				}
+			int next = nextHeaderLine(buf, off, i, end);
+			if (next == Integer.MIN_VALUE) break;
 
-				buf.position(i + 1);
+			if (next < 0) {
+				buf.position(~next);
 				return handleResult(channel, buf, req, handler::handleRequest, readNext);
 			}
+
+			req.indexHeader(buf, off, next);
+			i = off = next;
 		}
 
-		if ((start == 0) && (off == getMaxLen())) {
+		if ((start == 0) && (end == getMaxLen())) {
 			onError(channel, PayloadTooLarge.instance);
 		} else {
 			req.uriStart -= start;
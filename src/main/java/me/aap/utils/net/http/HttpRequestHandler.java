@@ -15,5 +15,15 @@ public interface HttpRequestHandler {
 	interface Provider {
 		@Nullable
 		HttpRequestHandler getHandler(CharSequence path, HttpMethod method, HttpVersion version);
+
+		/**
+		 * Called by {@link HttpConnectionHandler} with the matched route. The path parameters
+		 * are only valid within this call.
+		 */
+		@Nullable
+		default HttpRequestHandler getHandler(CharSequence path, HttpMethod method, HttpVersion version,
+																					HttpRouter.Match<?> route) {
+			return getHandler(path, method, version);
+		}
 	}
 }
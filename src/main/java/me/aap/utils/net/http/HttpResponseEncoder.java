@@ -180,39 +180,19 @@ public abstract class HttpResponseEncoder extends HttpMessageEncoder<HttpRespons
 					break;
 			}
 
-			for (; i < end; i++) {
-				if (buf.get(i) != '\n') continue;
-
-				if (i < (end - 1)) {
-					if (buf.get(i + 1) != '\n') {
-						if (buf.get(i + 1) == '\r') {
-							if (i < (end - 2)) {
-								if (buf.get(i += 2) != '\n') {
-									off = i;
-									continue loop;
-								}
-							} else {
-								off = i;
-								break loop;
-							}
-						} else {
-							off = ++i;
-							continue loop;
-						}
-					} else {
-						i++;
-					}
-				} else {
-					off = i;
-					break loop;
-				}
+			int next = nextHeaderLine(buf, off, i, end);
+			if (next == Integer.MIN_VALUE) break;
 
-				buf.position(i + 1);
+			if (next < 0) {
+				buf.position(~next);
 				return handleResult(channel, buf, resp, handler::handleResponse, readNext);
 			}
+
+			resp.indexHeader(buf, off, next);
+			i = off = next;
 		}
 
-		if ((start == 0) && (off == getMaxLen())) {
+		if ((start == 0) && (end == getMaxLen())) {
 			onMessageTooLong(channel);
 		} else {
 			resp.reasonStart -= start;
@@ -271,7 +251,7 @@ public abstract class HttpResponseEncoder extends HttpMessageEncoder<HttpRespons
 		@NonNull
 		@Override
 		public CharSequence getReason() {
-			int end = HttpUtils.indexOfChar(buf, reasonStart, headerStart, "\r\n");
+			int end = HttpUtils.indexOfEol(buf, reasonStart, headerStart);
 			return new AsciiSeq(buf, reasonStart, end - reasonStart);
 		}
 
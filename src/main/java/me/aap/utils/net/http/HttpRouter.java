@@ -0,0 +1,386 @@
+package me.aap.utils.net.http;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Radix tree router. A route pattern consists of literal characters, named parameters
+ * <code>{name}</code>, each matching a non-empty path segment, and an optional trailing wildcard
+ * <code>*</code> or <code>*name</code>, matching the rest of the path. Literals take precedence
+ * over parameters and parameters over wildcards.
+ * <p>
+ * The tree is compiled by the first lookup after modification, the subsequent lookups are lock
+ * free. The lookups match the path characters directly and do not allocate for the routes without
+ * parameters.
+ *
+ * @author Andrey Pavlenko
+ */
+public class HttpRouter<T> {
+	private static final int ANY = HttpMethod.values().length;
+	private final Map<String, Route<T>> routes = new LinkedHashMap<>();
+	private volatile Tree<T> tree;
+
+	/**
+	 * Add a route.
+	 *
+	 * @param method the request method or null to match any method
+	 * @return the value of the replaced route with the same method and pattern
+	 */
+	@Nullable
+	public synchronized T add(@Nullable HttpMethod method, @NonNull String pattern, @NonNull T value) {
+		Route<T> prev = routes.put(key(method, pattern), new Route<>(method, pattern, value));
+		tree = null;
+		return (prev == null) ? null : prev.value;
+	}
+
+	@Nullable
+	public synchronized T remove(@Nullable HttpMethod method, @NonNull String pattern) {
+		Route<T> r = routes.remove(key(method, pattern));
+		if (r == null) return null;
+		tree = null;
+		return r.value;
+	}
+
+	public synchronized int size() {
+		return routes.size();
+	}
+
+	/**
+	 * Find the route, matching the path and the method. The parameters of the returned match
+	 * refer to the path characters and, thus, are valid as long as the path is not modified.
+	 *
+	 * @param method the request method or null to match the routes of any method only
+	 */
+	@Nullable
+	public Match<T> find(@NonNull CharSequence path, @Nullable HttpMethod method) {
+		Tree<T> t = tree;
+		if (t == null) t = compile();
+		int[] params = (t.maxParams == 0) ? null : new int[t.maxParams << 1];
+		int m = (method == null) ? ANY : method.ordinal();
+		Route<T> r = find(t.root, path, 0, path.length(), m, params, 0);
+		if (r == null) return null;
+		return (r.match != null) ? r.match : new Match<>(r, path, params);
+	}
+
+	private static <T> Route<T> find(Node<T> n, CharSequence path, int i, int end, int m,
+																	 int[] params, int p) {
+		if (i == end) {
+			Route<T> r = n.route(m);
+			if (r != null) return r;
+		} else {
+			Node<T> child = n.child(path.charAt(i));
+
+			if (child != null) {
+				char[] prefix = child.prefix;
+				int len = prefix.length;
+
+				if ((end - i) >= len) {
+					int j = 1;
+					for (; (j < len) && (path.charAt(i + j) == prefix[j]); j++) ;
+
+					if (j == len) {
+						Route<T> r = find(child, path, i + len, end, m, params, p);
+						if (r != null) return r;
+					}
+				}
+			}
+
+			Node<T> param = n.param;
+
+			if (param != null) {
+				int j = i;
+				for (; (j < end) && (path.charAt(j) != '/'); j++) ;
+
+				if (j != i) {
+					Route<T> r = find(param, path, j, end, m, params, p + 2);
+
+					if (r != null) {
+						params[p] = i;
+						params[p + 1] = j;
+						return r;
+					}
+				}
+			}
+		}
+
+		Route<T> r = n.wildcard(m);
+
+		if (r != null) {
+			params[p] = i;
+			params[p + 1] = end;
+			return r;
+		}
+
+		return null;
+	}
+
+	private synchronized Tree<T> compile() {
+		Tree<T> t = tree;
+		if (t != null) return t;
+		Node<T> root = new Node<>(new char[0]);
+		int maxParams = 0;
+
+		for (Route<T> r : routes.values()) {
+			maxParams = Math.max(maxParams, r.names.length);
+			Node<T> n = root;
+			String pattern = r.pattern;
+			int idx = (r.method == null) ? ANY : r.method.ordinal();
+
+			for (int i = 0, len = pattern.length(); ; ) {
+				if (i == len) {
+					n.routes = set(n.routes, idx, r);
+					break;
+				}
+
+				char c = pattern.charAt(i);
+
+				if (c == '{') {
+					if (n.param == null) n.param = new Node<>(new char[0]);
+					n = n.param;
+					i = pattern.indexOf('}', i) + 1;
+				} else if (c == '*') {
+					n.wildcard = set(n.wildcard, idx, r);
+					break;
+				} else {
+					int end = i + 1;
+					for (; (end < len) && "{*".indexOf(pattern.charAt(end)) == -1; end++) ;
+					n = insert(n, pattern, i, end);
+					i = end;
+				}
+			}
+		}
+
+		return tree = new Tree<>(root, maxParams);
+	}
+
+	private static <T> Node<T> insert(Node<T> n, String s, int off, int end) {
+		while (off < end) {
+			Node<T> child = n.child(s.charAt(off));
+
+			if (child == null) {
+				child = new Node<>(s.substring(off, end).toCharArray());
+				n.addChild(child);
+				return child;
+			}
+
+			char[] prefix = child.prefix;
+			int common = 1;
+			for (; (common < prefix.length) && ((off + common) < end)
+					&& (prefix[common] == s.charAt(off + common)); common++) ;
+			if (common < prefix.length) child.split(common);
+			off += common;
+			n = child;
+		}
+
+		return n;
+	}
+
+	private static String key(@Nullable HttpMethod method, String pattern) {
+		return (method == null) ? ' ' + pattern : method.name() + ' ' + pattern;
+	}
+
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private static <T> Route<T>[] set(Route<T>[] routes, int idx, Route<T> r) {
+		if (routes == null) routes = new Route[ANY + 1];
+		routes[idx] = r;
+		return routes;
+	}
+
+	public static final class Match<T> {
+		private final Route<T> route;
+		private final CharSequence path;
+		private final int[] params;
+
+		Match(Route<T> route, CharSequence path, int[] params) {
+			this.route = route;
+			this.path = path;
+			this.params = params;
+		}
+
+		@NonNull
+		public T getValue() {
+			return route.value;
+		}
+
+		@Nullable
+		public HttpMethod getMethod() {
+			return route.method;
+		}
+
+		@NonNull
+		public String getPattern() {
+			return route.pattern;
+		}
+
+		public int getParamCount() {
+			return route.names.length;
+		}
+
+		/**
+		 * Returns the parameter name. The wildcard name is "*" if not specified in the pattern.
+		 */
+		@NonNull
+		public String getParamName(int i) {
+			return route.names[i];
+		}
+
+		@NonNull
+		public CharSequence getParam(int i) {
+			if (i >= route.names.length) throw new IndexOutOfBoundsException();
+			i <<= 1;
+			return path.subSequence(params[i], params[i + 1]);
+		}
+
+		@Nullable
+		public CharSequence getParam(String name) {
+			String[] names = route.names;
+
+			for (int i = 0; i < names.length; i++) {
+				if (names[i].equals(name)) return getParam(i);
+			}
+
+			return null;
+		}
+
+		@NonNull
+		@Override
+		public String toString() {
+			return route.toString();
+		}
+	}
+
+	private static final class Route<T> {
+		private static final String[] NO_NAMES = new String[0];
+		final HttpMethod method;
+		final String pattern;
+		final T value;
+		final String[] names;
+		final Match<T> match;
+
+		Route(HttpMethod method, String pattern, T value) {
+			this.method = method;
+			this.pattern = pattern;
+			this.value = value;
+			names = parse(pattern);
+			match = (names.length == 0) ? new Match<>(this, "", null) : null;
+		}
+
+		private static String[] parse(String pattern) {
+			List<String> names = null;
+
+			for (int i = 0, len = pattern.length(); i < len; i++) {
+				char c = pattern.charAt(i);
+
+				if (c == '{') {
+					int end = pattern.indexOf('}', i);
+					if (end == -1) throw new IllegalArgumentException("Unclosed parameter: " + pattern);
+					if (end == i + 1) throw new IllegalArgumentException("Empty parameter name: " + pattern);
+					if ((end + 1 < len) && (pattern.charAt(end + 1) != '/')) {
+						throw new IllegalArgumentException("Parameter must be followed by '/': " + pattern);
+					}
+					if (names == null) names = new ArrayList<>();
+					names.add(pattern.substring(i + 1, end));
+					i = end;
+				} else if (c == '*') {
+					String name = pattern.substring(i + 1);
+					if ((name.indexOf('{') != -1) || (name.indexOf('*') != -1) || (name.indexOf('/') != -1)) {
+						throw new IllegalArgumentException("Wildcard must be at the end: " + pattern);
+					}
+					if (names == null) names = new ArrayList<>();
+					names.add(name.isEmpty() ? "*" : name);
+					break;
+				}
+			}
+
+			return (names == null) ? NO_NAMES : names.toArray(new String[0]);
+		}
+
+		@NonNull
+		@Override
+		public String toString() {
+			return (method == null) ? pattern : method + " " + pattern;
+		}
+	}
+
+	private static final class Tree<T> {
+		final Node<T> root;
+		final int maxParams;
+
+		Tree(Node<T> root, int maxParams) {
+			this.root = root;
+			this.maxParams = maxParams;
+		}
+	}
+
+	private static final class Node<T> {
+		private static final char[] NO_CHARS = new char[0];
+		char[] prefix;
+		char[] first = NO_CHARS;
+		Node<T>[] children;
+		Node<T> param;
+		Route<T>[] routes;
+		Route<T>[] wildcard;
+
+		Node(char[] prefix) {
+			this.prefix = prefix;
+		}
+
+		@Nullable
+		Node<T> child(char c) {
+			char[] first = this.first;
+
+			for (int i = 0; i < first.length; i++) {
+				if (first[i] == c) return children[i];
+			}
+
+			return null;
+		}
+
+		@SuppressWarnings({"unchecked", "rawtypes"})
+		void addChild(Node<T> child) {
+			int n = first.length;
+			first = Arrays.copyOf(first, n + 1);
+			first[n] = child.prefix[0];
+			children = (children == null) ? new Node[1] : Arrays.copyOf(children, n + 1);
+			children[n] = child;
+		}
+
+		@SuppressWarnings({"unchecked", "rawtypes"})
+		void split(int at) {
+			Node<T> tail = new Node<>(Arrays.copyOfRange(prefix, at, prefix.length));
+			tail.first = first;
+			tail.children = children;
+			tail.param = param;
+			tail.routes = routes;
+			tail.wildcard = wildcard;
+			prefix = Arrays.copyOf(prefix, at);
+			first = new char[]{tail.prefix[0]};
+			children = new Node[]{tail};
+			param = null;
+			routes = null;
+			wildcard = null;
+		}
+
+		@Nullable
+		Route<T> route(int m) {
+			Route<T>[] r = routes;
+			if (r == null) return null;
+			Route<T> route = r[m];
+			return (route != null) ? route : r[ANY];
+		}
+
+		@Nullable
+		Route<T> wildcard(int m) {
+			Route<T>[] r = wildcard;
+			if (r == null) return null;
+			Route<T> route = r[m];
+			return (route != null) ? route : r[ANY];
+		}
+	}
+}
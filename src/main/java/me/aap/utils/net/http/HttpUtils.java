@@ -1,6 +1,7 @@
 package me.aap.utils.net.http;
 
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 
 import me.aap.utils.net.http.HttpMessageBase.AsciiSeq;
 
@@ -8,6 +9,10 @@ import me.aap.utils.net.http.HttpMessageBase.AsciiSeq;
  * @author Andrey Pavlenko
  */
 class HttpUtils {
+	private static final long ONES = 0x0101010101010101L;
+	private static final long LOW7 = 0x7F7F7F7F7F7F7F7FL;
+	private static final long CR = '\r' * ONES;
+	private static final long LF = '\n' * ONES;
 
 	static long parseLong(ByteBuffer bytes, int start, int end, String endChars, long invalid) {
 		if ((start < 0) || (start >= end)) return invalid;
@@ -64,6 +69,21 @@ class HttpUtils {
 		return true;
 	}
 
+	/**
+	 * Compare the ASCII bytes, starting at the specified position, with the sequence ignoring case.
+	 */
+	static boolean equalsIgnoreCase(ByteBuffer bytes, int start, CharSequence seq) {
+		for (int i = 0, len = seq.length(); i < len; i++, start++) {
+			int a = bytes.get(start);
+			int b = seq.charAt(i);
+			if (a == b) continue;
+			a |= 0x20;
+			if ((a != (b | 0x20)) || (a < 'a') || (a > 'z')) return false;
+		}
+
+		return true;
+	}
+
 	static int indexOfChar(ByteBuffer bytes, int start, int end, CharSequence chars) {
 		for (int len = chars.length(); start < end; start++) {
 			char c = (char) bytes.get(start);
@@ -75,12 +95,64 @@ class HttpUtils {
 	}
 
 	static int indexOfChar(ByteBuffer bytes, int start, int end, char c) {
+		if (c < 0x80) return indexOf(bytes, start, end, (byte) c);
+
 		for (; start < end; start++) {
 			if (c == ((char) bytes.get(start))) return start;
 		}
 		return -1;
 	}
 
+	/**
+	 * Returns the index of the byte or -1. The bytes are compared eight at a time, using the SWAR
+	 * zero byte detection over the words, read with {@link ByteBuffer#getLong(int)}.
+	 */
+	static int indexOf(ByteBuffer bytes, int start, int end, byte b) {
+		long pattern = (b & 0xFFL) * ONES;
+		boolean be = bytes.order() == ByteOrder.BIG_ENDIAN;
+
+		for (int last = end - 8; start <= last; start += 8) {
+			long m = zeroBytes(bytes.getLong(start) ^ pattern);
+			if (m != 0) return start + firstByte(m, be);
+		}
+
+		for (; start < end; start++) {
+			if (bytes.get(start) == b) return start;
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the index of CR or LF or -1.
+	 */
+	static int indexOfEol(ByteBuffer bytes, int start, int end) {
+		boolean be = bytes.order() == ByteOrder.BIG_ENDIAN;
+
+		for (int last = end - 8; start <= last; start += 8) {
+			long w = bytes.getLong(start);
+			long m = zeroBytes(w ^ CR) | zeroBytes(w ^ LF);
+			if (m != 0) return start + firstByte(m, be);
+		}
+
+		for (; start < end; start++) {
+			byte c = bytes.get(start);
+			if ((c == '\r') || (c == '\n')) return start;
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns a word with the high bit set in each zero byte of w. Unlike the shorter
+	 * (w - 0x01..) & ~w & 0x80.. form, it does not report false positives after a zero byte.
+	 */
+	private static long zeroBytes(long w) {
+		return ~(((w & LOW7) + LOW7) | w | LOW7);
+	}
+
+	private static int firstByte(long mask, boolean bigEndian) {
+		return (bigEndian ? Long.numberOfLeadingZeros(mask) : Long.numberOfTrailingZeros(mask)) >>> 3;
+	}
+
 	private static class HexTable {
 		static final long[] table = {
 				-1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1,
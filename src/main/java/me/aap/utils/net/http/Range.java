@@ -2,6 +2,7 @@ package me.aap.utils.net.http;
 
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import java.nio.ByteBuffer;
 
@@ -14,6 +15,7 @@ import static me.aap.utils.misc.Assert.assertTrue;
 public class Range {
 	private final long start;
 	private long end;
+	private Range next;
 	private static final Range invalid = new Range(-1, -1) {
 
 		@Override
@@ -31,25 +33,57 @@ public class Range {
 		this.end = end;
 	}
 
+	/**
+	 * Parse the comma separated list of ranges. The ranges are linked in the order of appearance,
+	 * see {@link #getNext()}.
+	 */
 	static Range parse(ByteBuffer bytes, int off, int end) {
 		if (!HttpUtils.starts(bytes, off, end, "bytes=")) return invalid;
 
-		int idx = HttpUtils.indexOfChar(bytes, off += 6, end, "-\n\r");
-		if ((idx == -1) || (bytes.get(idx) != '-')) return invalid;
+		int lineEnd = HttpUtils.indexOfChar(bytes, off += 6, end, "\n\r");
+		if (lineEnd != -1) end = lineEnd;
+		Range first = null;
+		Range last = null;
+
+		for (; ; ) {
+			for (; (off < end) && (bytes.get(off) <= ' '); off++) {
+				// Skip leading spaces
+			}
+
+			int specEnd = HttpUtils.indexOfChar(bytes, off, end, ',');
+			if (specEnd == -1) specEnd = end;
+			Range r = parseSpec(bytes, off, specEnd);
+			if (r == invalid) return invalid;
+
+			if (first == null) first = r;
+			else last.next = r;
+			last = r;
+
+			if (specEnd == end) return first;
+			off = specEnd + 1;
+		}
+	}
+
+	private static Range parseSpec(ByteBuffer bytes, int off, int end) {
+		for (; (end > off) && (bytes.get(end - 1) <= ' '); end--) {
+			// Skip trailing spaces
+		}
+
+		int idx = HttpUtils.indexOfChar(bytes, off, end, '-');
+		if (idx == -1) return invalid;
 
 		if (idx == off) {
-			long rangeEnd = HttpUtils.parseLong(bytes, off, end, "\n\r", MIN_VALUE);
+			long rangeEnd = HttpUtils.parseLong(bytes, off, end, "", MIN_VALUE);
 			assertTrue(rangeEnd < 0);
 			return (rangeEnd == MIN_VALUE) ? invalid : new Range(0, rangeEnd);
 		}
 
 		long rangeEnd = 0;
-		long rangeStart = HttpUtils.parseLong(bytes, off, idx, "-\n\r", MIN_VALUE);
+		long rangeStart = HttpUtils.parseLong(bytes, off, idx, "-", MIN_VALUE);
 		if (rangeStart == MIN_VALUE) return invalid;
 
-
-		if ((++idx < end) && (bytes.get(idx) > ' ')) {
-			rangeEnd = HttpUtils.parseLong(bytes, idx, end, "\n\r", MIN_VALUE);
+		if (++idx < end) {
+			rangeEnd = HttpUtils.parseLong(bytes, idx, end, "", MIN_VALUE);
 			if (rangeEnd == MIN_VALUE) return invalid;
 		}
 
@@ -76,6 +110,14 @@ public class Range {
 		return (start < length) && (end < length) && (start <= end);
 	}
 
+	/**
+	 * Returns the next range of a multi-range request or null.
+	 */
+	@Nullable
+	public Range getNext() {
+		return next;
+	}
+
 	public long getLength() {
 		return getEnd() - getStart() + 1;
 	}
@@ -1,8 +1,11 @@
 package me.aap.utils.net.http;
 
+import androidx.annotation.Nullable;
+
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 
+import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.util.Map;
 
@@ -11,6 +14,7 @@ import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 
 import me.aap.utils.async.FutureSupplier;
+import me.aap.utils.io.MemOutputStream;
 import me.aap.utils.log.Log;
 import me.aap.utils.net.NetChannel;
 import me.aap.utils.net.http.HttpError.BadRequest;
@@ -19,7 +23,9 @@ import me.aap.utils.net.http.HttpError.ServerError;
 import static me.aap.utils.async.Completed.completedVoid;
 import static me.aap.utils.async.Completed.failed;
 import static me.aap.utils.net.http.HttpHeader.ACCEPT_RANGES;
+import static me.aap.utils.net.http.HttpHeader.CONTENT_ENCODING;
 import static me.aap.utils.net.http.HttpHeader.CONTENT_TYPE;
+import static me.aap.utils.net.http.HttpHeader.VARY;
 import static me.aap.utils.xml.XmlUtils.findChild;
 import static me.aap.utils.xml.XmlUtils.nodeToString;
 import static me.aap.utils.xml.XmlUtils.readXml;
@@ -58,11 +64,13 @@ public class SoapHandler implements HttpRequestHandler {
 		}
 
 		HttpVersion version = req.getVersion();
-		return req.getPayload((payload, err) -> handleMessage(channel, version, payload, err));
+		String enc = HttpCompression.negotiate(req);
+		return req.getPayload((payload, err) -> handleMessage(channel, version, enc, payload, err));
 	}
 
 	private FutureSupplier<Void> handleMessage(NetChannel channel, HttpVersion version,
-																						 ByteBuffer payload, Throwable err) {
+																						 @Nullable String enc, ByteBuffer payload,
+																						 Throwable err) {
 		if (err != null) {
 			Log.e(err, "Failed to get payload");
 			channel.close();
@@ -105,14 +113,16 @@ public class SoapHandler implements HttpRequestHandler {
 		}
 
 		try {
-			return handleMessage(channel, version, doc, body);
+			return handleMessage(channel, version, enc, doc, body);
 		} catch (Exception ex) {
 			Log.e(ex, "Failed to handle message");
 			return ServerError.instance.write(channel);
 		}
 	}
 
-	private FutureSupplier<Void> handleMessage(NetChannel channel, HttpVersion version, Document reqDoc, Element reqBody) throws Exception {
+	private FutureSupplier<Void> handleMessage(NetChannel channel, HttpVersion version,
+																						 @Nullable String enc, Document reqDoc,
+																						 Element reqBody) throws Exception {
 		Document respDoc = docBuilder.newDocument();
 		Element envelope = respDoc.createElementNS(SOAP_NS, "s:Envelope");
 		Element respBody = respDoc.createElementNS(SOAP_NS, "s:Body");
@@ -143,7 +153,22 @@ public class SoapHandler implements HttpRequestHandler {
 			b.addHeader(CONTENT_TYPE, "text/xml; charset=\"utf-8\"");
 
 			try {
-				ByteBuffer[] resp = b.build(os -> writeXml(respDoc, os));
+				MemOutputStream xml = new MemOutputStream();
+				writeXml(respDoc, xml);
+				// The short responses are not worth compressing
+				String e = ((enc != null) && (xml.getCount() >= HttpCompression.MIN_LENGTH)) ? enc : null;
+				if (enc != null) b.addHeader(VARY);
+				if (e != null) b.addHeader(CONTENT_ENCODING, e);
+
+				ByteBuffer[] resp = b.build(os -> {
+					if (e == null) {
+						os.write(xml.getBuffer(), 0, xml.getCount());
+					} else {
+						try (OutputStream c = HttpCompression.compress(os, e)) {
+							c.write(xml.getBuffer(), 0, xml.getCount());
+						}
+					}
+				});
 				maxLen = Math.max(maxLen, resp[resp.length - 1].remaining());
 //				Log.d("Sending response:\n", new String(resp.array(), resp.arrayOffset(), resp.remaining(), UTF_8));
 				channel.write(resp);
@@ -32,9 +32,11 @@ import java.security.cert.Certificate;
 import java.security.cert.X509Certificate;
 import java.util.Date;
 
+import javax.net.ssl.KeyManager;
 import javax.net.ssl.KeyManagerFactory;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLSessionContext;
 import javax.net.ssl.TrustManager;
 import javax.net.ssl.X509TrustManager;
 
@@ -318,8 +320,12 @@ public class SecurityUtils {
 	}
 
 	public static SSLEngine createServerSslEngine() {
+		return createServerSslEngine(ServerContextHolder.context);
+	}
+
+	public static SSLEngine createServerSslEngine(SSLContext context) {
 		try {
-			SSLEngine eng = ServerContextHolder.context.createSSLEngine();
+			SSLEngine eng = context.createSSLEngine();
 			eng.setUseClientMode(false);
 			return eng;
 		} catch (Exception ex) {
@@ -327,6 +333,28 @@ public class SecurityUtils {
 		}
 	}
 
+	static SSLSessionContext getClientSessionContext() {
+		return ClientContextHolder.context.getClientSessionContext();
+	}
+
+	static SSLSessionContext getServerSessionContext() {
+		return ServerContextHolder.context.getServerSessionContext();
+	}
+
+	/**
+	 * Create a new server context with the same keys as the context of
+	 * {@link #createServerSslEngine()}, but with a separate session cache.
+	 */
+	public static SSLContext createServerSslContext() {
+		try {
+			SSLContext ctx = SSLContext.getInstance("TLS");
+			ctx.init(ServerContextHolder.keyManagers, new TrustManager[]{InsecureTrustManager.instance}, null);
+			return ctx;
+		} catch (Exception ex) {
+			throw new RuntimeException(ex);
+		}
+	}
+
 	private static final class ClientContextHolder {
 		static final SSLContext context = create();
 
@@ -346,9 +374,10 @@ public class SecurityUtils {
 
 	// Used for testing
 	private static final class ServerContextHolder {
-		static final SSLContext context = create();
+		static final KeyManager[] keyManagers = createKeyManagers();
+		static final SSLContext context = createServerSslContext();
 
-		static SSLContext create() {
+		static KeyManager[] createKeyManagers() {
 			try {
 				KeyStore ks = KeyStore.getInstance(KeyStore.getDefaultType());
 				KeyManagerFactory kmf =
@@ -372,9 +401,7 @@ public class SecurityUtils {
 					kmf.init(ks, null);
 				}
 
-				SSLContext ctx = SSLContext.getInstance("TLS");
-				ctx.init(kmf.getKeyManagers(), new TrustManager[]{InsecureTrustManager.instance}, null);
-				return ctx;
+				return kmf.getKeyManagers();
 			} catch (Exception ex) {
 				throw new RuntimeException(ex);
 			}
@@ -0,0 +1,169 @@
+package me.aap.utils.security;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
+
+/**
+ * TLS session cache of an {@link javax.net.ssl.SSLContext}. The client sessions are cached by the
+ * peer host and port, that are passed to {@link javax.net.ssl.SSLContext#createSSLEngine(String, int)},
+ * so the engines, created for the same peer, resume the cached sessions instead of performing
+ * the full handshake. The server sessions are cached by the session id or ticket.
+ * <p>
+ * The size and ttl are the properties of the session context, i.e. they are shared by all the
+ * engines of the {@link javax.net.ssl.SSLContext}.
+ * <p>
+ * The completed handshakes are accounted by the channels. A handshake is a hit, if the session
+ * id has been negotiated by a previous handshake of the same context, i.e. the session has been
+ * found in the cache. Note, that some implementations assign a new id to the resumed TLS 1.3
+ * sessions, such handshakes are accounted as misses.
+ *
+ * @author Andrey Pavlenko
+ */
+public final class SslSessionCache {
+	private static final Map<SSLSessionContext, Stats> stats =
+			Collections.synchronizedMap(new WeakHashMap<>());
+	private final SSLSessionContext context;
+	private final Stats st;
+
+	private SslSessionCache(SSLSessionContext context) {
+		this.context = context;
+		st = getStats(context);
+	}
+
+	public static SslSessionCache get(SSLSessionContext context) {
+		return new SslSessionCache(context);
+	}
+
+	/**
+	 * The client session cache of {@link SecurityUtils#createClientSslEngine(String, int)}.
+	 */
+	public static SslSessionCache getClientCache() {
+		return get(SecurityUtils.getClientSessionContext());
+	}
+
+	/**
+	 * The server session cache of {@link SecurityUtils#createServerSslEngine()}.
+	 */
+	public static SslSessionCache getServerCache() {
+		return get(SecurityUtils.getServerSessionContext());
+	}
+
+	/**
+	 * Account the completed handshake in the cache of the session context.
+	 */
+	public static void handshakeCompleted(@Nullable SSLSession session) {
+		if (session == null) return;
+		SSLSessionContext ctx = session.getSessionContext();
+		if (ctx != null) getStats(ctx).handshakeCompleted(session.getId());
+	}
+
+	public SSLSessionContext getContext() {
+		return context;
+	}
+
+	/**
+	 * The maximum number of cached sessions, 0 means no limit.
+	 */
+	public int getSize() {
+		return context.getSessionCacheSize();
+	}
+
+	public SslSessionCache setSize(int size) {
+		context.setSessionCacheSize(size);
+		return this;
+	}
+
+	/**
+	 * The cached sessions time to live in seconds, 0 means no limit.
+	 */
+	public int getTtl() {
+		return context.getSessionTimeout();
+	}
+
+	public SslSessionCache setTtl(int ttl) {
+		context.setSessionTimeout(ttl);
+		return this;
+	}
+
+	/**
+	 * The number of the currently cached sessions.
+	 */
+	public int getCount() {
+		int n = 0;
+		for (Enumeration<byte[]> ids = context.getIds(); ids.hasMoreElements(); ids.nextElement()) n++;
+		return n;
+	}
+
+	public long getHits() {
+		synchronized (st) {
+			return st.hits;
+		}
+	}
+
+	public long getMisses() {
+		synchronized (st) {
+			return st.misses;
+		}
+	}
+
+	public double getHitRate() {
+		long h;
+		long total;
+
+		synchronized (st) {
+			h = st.hits;
+			total = h + st.misses;
+		}
+
+		return (total == 0) ? 0 : (double) h / total;
+	}
+
+	@NonNull
+	@Override
+	public String toString() {
+		return "SslSessionCache{size=" + getSize() + ", ttl=" + getTtl() + ", count=" + getCount() +
+				", hits=" + getHits() + ", misses=" + getMisses() + '}';
+	}
+
+	private static Stats getStats(SSLSessionContext context) {
+		synchronized (stats) {
+			Stats s = stats.get(context);
+			if (s == null) stats.put(context, s = new Stats());
+			return s;
+		}
+	}
+
+	/**
+	 * The statistics of a session context. Must not reference the context, which is a weak key.
+	 */
+	private static final class Stats {
+		private static final int MAX_IDS = 1024;
+		// The recently negotiated session ids
+		private final Map<ByteBuffer, Boolean> ids = new LinkedHashMap<ByteBuffer, Boolean>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<ByteBuffer, Boolean> eldest) {
+				return size() > MAX_IDS;
+			}
+		};
+		long hits;
+		long misses;
+
+		synchronized void handshakeCompleted(@Nullable byte[] id) {
+			if ((id != null) && (id.length != 0) && (ids.put(ByteBuffer.wrap(id), Boolean.TRUE) != null)) {
+				hits++;
+			} else {
+				misses++;
+			}
+		}
+	}
+}
@@ -0,0 +1,756 @@
+package me.aap.utils.vfs;
+
+import static me.aap.utils.async.Completed.completed;
+import static me.aap.utils.async.Completed.completedVoid;
+import static me.aap.utils.async.Completed.failed;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import me.aap.utils.async.Async;
+import me.aap.utils.async.FutureSupplier;
+import me.aap.utils.async.Promise;
+import me.aap.utils.async.RunnablePromise;
+import me.aap.utils.concurrent.ThreadPool;
+import me.aap.utils.io.AsyncInputStream;
+import me.aap.utils.io.AsyncOutputStream;
+import me.aap.utils.io.FileUtils;
+import me.aap.utils.io.IoUtils;
+import me.aap.utils.log.Log;
+import me.aap.utils.net.ByteBufferArraySupplier;
+import me.aap.utils.net.ByteBufferSupplier;
+import me.aap.utils.net.NetChannel;
+import me.aap.utils.resource.Rid;
+
+/**
+ * A cache of fixed size blocks of the remote files. The blocks are kept in memory and, optionally,
+ * spilled to the disk, when evicted from memory. The files, wrapped with {@link #wrap(VirtualFile)},
+ * read the data through the cache and read ahead the subsequent blocks, while the data is read
+ * sequentially. The read ahead window is doubled on each sequential block up to the maximum and
+ * is reset on seek. The disk I/O is performed by the disk executor, not by the thread, requesting
+ * the block, which is usually a network I/O thread.
+ * <p>
+ * The cache must be closed, when not used, to shut down the disk executor, owned by the cache.
+ *
+ * @author Andrey Pavlenko
+ */
+public class VfsBlockCache implements Closeable {
+	public static final int DEFAULT_BLOCK_SIZE = 256 * 1024;
+	private final int blockSize;
+	private final int maxMemBlocks;
+	private final int maxReadAhead;
+	@Nullable
+	private final File diskDir;
+	private final long maxDiskSize;
+	private final Executor diskExecutor;
+	@Nullable
+	private final ThreadPool ownExecutor;
+	private final Map<String, ByteBuffer> mem = new LinkedHashMap<>(16, 0.75f, true);
+	private final Map<String, DiskBlock> disk = new LinkedHashMap<>(16, 0.75f, true);
+	private final Map<String, FutureSupplier<ByteBuffer>> loading = new HashMap<>();
+	// The blocks, evicted from memory and being written to the disk
+	private final Map<String, ByteBuffer> spilling = new HashMap<>();
+	private long diskSize;
+	private int diskCounter;
+
+	/**
+	 * @param blockSize    the size of the block
+	 * @param maxMemBlocks the maximum number of blocks, kept in memory
+	 * @param maxReadAhead the maximum number of blocks to read ahead
+	 * @param diskDir      the directory, where the blocks are spilled, or null to keep the blocks
+	 *                     in memory only. The directory is cleared on creation.
+	 * @param maxDiskSize  the maximum total size of the blocks on the disk
+	 */
+	public VfsBlockCache(int blockSize, int maxMemBlocks, int maxReadAhead,
+											 @Nullable File diskDir, long maxDiskSize) {
+		this(blockSize, maxMemBlocks, maxReadAhead, diskDir, maxDiskSize, null);
+	}
+
+	/**
+	 * @param diskExecutor the executor of the disk reads and writes or null to use a single
+	 *                     thread pool, owned by the cache
+	 */
+	public VfsBlockCache(int blockSize, int maxMemBlocks, int maxReadAhead,
+											 @Nullable File diskDir, long maxDiskSize,
+											 @Nullable Executor diskExecutor) {
+		this.blockSize = blockSize;
+		this.maxMemBlocks = Math.max(1, maxMemBlocks);
+		this.maxReadAhead = Math.max(0, maxReadAhead);
+		this.maxDiskSize = maxDiskSize;
+
+		if (diskDir != null) {
+			try {
+				if (diskDir.exists()) FileUtils.delete(diskDir);
+				FileUtils.mkdirs(diskDir);
+			} catch (IOException ex) {
+				Log.e(ex, "Failed to create cache directory ", diskDir);
+				diskDir = null;
+			}
+		}
+
+		this.diskDir = diskDir;
+		this.ownExecutor = (diskExecutor != null) ? null : new ThreadPool(1);
+		this.diskExecutor = (diskExecutor != null) ? diskExecutor : ownExecutor;
+	}
+
+	/**
+	 * Creates a cache with 8MB of memory blocks and up to 256MB on the disk, under the application
+	 * cache directory.
+	 */
+	public static VfsBlockCache create(Context ctx) {
+		return new VfsBlockCache(DEFAULT_BLOCK_SIZE, 32, 8,
+				new File(ctx.getCacheDir(), "vfs-blocks"), 256L * 1024 * 1024);
+	}
+
+	public int getBlockSize() {
+		return blockSize;
+	}
+
+	/**
+	 * Returns the file, reading the data through the cache, or the same file, if it's local.
+	 */
+	public VirtualFile wrap(VirtualFile file) {
+		if (file.isLocalFile() || (file instanceof CachedFile)) return file;
+		return new CachedFile(file);
+	}
+
+	public void clear() {
+		List<DiskBlock> rm;
+
+		synchronized (this) {
+			mem.clear();
+			spilling.clear();
+			rm = new ArrayList<>(disk.values());
+			disk.clear();
+			diskSize = 0;
+		}
+
+		for (DiskBlock b : rm) b.delete();
+	}
+
+	/**
+	 * Clears the cache and shuts down the disk executor, if it's owned by the cache.
+	 */
+	@Override
+	public void close() {
+		clear();
+		if (ownExecutor != null) ownExecutor.shutdown();
+	}
+
+	/**
+	 * Returns the block from memory, disk or loads it from the file. The returned buffer
+	 * could be modified by the caller. Returns null if readAhead is true and the block is being
+	 * loaded or can not be read ahead at the moment.
+	 */
+	private FutureSupplier<ByteBuffer> getBlock(CachedFile file, String key, long idx,
+																							boolean readAhead) {
+		Promise<ByteBuffer> p;
+		DiskBlock db;
+
+		synchronized (this) {
+			ByteBuffer b = mem.get(key);
+			if (b == null) b = spilling.get(key);
+			if (b != null) return completed(b.duplicate());
+			FutureSupplier<ByteBuffer> f = loading.get(key);
+			if (f != null) return readAhead ? null : f.map(ByteBuffer::duplicate);
+			db = disk.remove(key);
+
+			if (db != null) {
+				diskSize -= db.length;
+			} else if (readAhead && !file.canReadAhead()) {
+				return null;
+			}
+
+			loading.put(key, p = new Promise<>());
+		}
+
+		FutureSupplier<ByteBuffer> f;
+
+		if (db != null) {
+			f = readBlock(db).then(b -> completed(b), ex -> {
+				Log.d(ex, "Failed to read cached block ", db.file);
+				return file.load(idx);
+			});
+		} else {
+			f = file.load(idx);
+		}
+
+		f.onCompletion((b, err) -> {
+			List<Map.Entry<String, ByteBuffer>> evicted = null;
+			boolean spill = (diskDir != null) && (maxDiskSize > 0);
+
+			synchronized (this) {
+				loading.remove(key);
+
+				if (err == null) {
+					b = b.asReadOnlyBuffer();
+					mem.put(key, b);
+
+					if (mem.size() > maxMemBlocks) {
+						evicted = new ArrayList<>(mem.size() - maxMemBlocks);
+
+						for (Iterator<Map.Entry<String, ByteBuffer>> it = mem.entrySet().iterator();
+								 mem.size() > maxMemBlocks; ) {
+							Map.Entry<String, ByteBuffer> e = it.next();
+							it.remove();
+							if (!spill || disk.containsKey(e.getKey())) continue;
+							spilling.put(e.getKey(), e.getValue());
+							evicted.add(e);
+						}
+					}
+				}
+			}
+
+			if (err != null) p.completeExceptionally(err);
+			else p.complete(b);
+			if ((evicted != null) && !evicted.isEmpty()) spill(evicted);
+		});
+
+		return p.map(ByteBuffer::duplicate);
+	}
+
+	private FutureSupplier<ByteBuffer> readBlock(DiskBlock db) {
+		RunnablePromise<ByteBuffer> read = RunnablePromise.create(() -> {
+			try {
+				return FileUtils.readBytes(db.file);
+			} finally {
+				db.delete();
+			}
+		});
+
+		try {
+			diskExecutor.execute(read);
+		} catch (Throwable ex) {
+			db.delete();
+			return failed(ex);
+		}
+
+		return read;
+	}
+
+	/**
+	 * Write the blocks to the disk asynchronously. While being written, the blocks are served from
+	 * the spilling map.
+	 */
+	private FutureSupplier<?> spill(List<Map.Entry<String, ByteBuffer>> blocks) {
+		RunnablePromise<Void> write = RunnablePromise.create(() -> {
+			for (Map.Entry<String, ByteBuffer> e : blocks) spill(e.getKey(), e.getValue());
+			return null;
+		});
+
+		try {
+			diskExecutor.execute(write);
+		} catch (Throwable ex) {
+			Log.d(ex, "Failed to spill cached blocks");
+
+			synchronized (this) {
+				for (Map.Entry<String, ByteBuffer> e : blocks) removeSpilling(e.getKey(), e.getValue());
+			}
+
+			return failed(ex);
+		}
+
+		return write;
+	}
+
+	private void spill(String key, ByteBuffer block) {
+		ByteBuffer b = block.duplicate();
+		int len = b.remaining();
+		File f;
+
+		synchronized (this) {
+			if ((len == 0) || (len > maxDiskSize) || (spilling.get(key) != block)) {
+				removeSpilling(key, block);
+				return;
+			}
+
+			f = new File(diskDir, Integer.toHexString(diskCounter++));
+		}
+
+		try (FileOutputStream out = new FileOutputStream(f)) {
+			while (b.hasRemaining()) out.getChannel().write(b);
+		} catch (IOException ex) {
+			Log.d(ex, "Failed to write cached block ", f);
+			//noinspection ResultOfMethodCallIgnored
+			f.delete();
+
+			synchronized (this) {
+				removeSpilling(key, block);
+			}
+
+			return;
+		}
+
+		List<DiskBlock> rm = new ArrayList<>();
+
+		synchronized (this) {
+			if (!removeSpilling(key, block)) {
+				// The cache has been cleared while writing
+				rm.add(new DiskBlock(f, len));
+			} else {
+				DiskBlock prev = disk.put(key, new DiskBlock(f, len));
+				diskSize += len;
+
+				if (prev != null) {
+					diskSize -= prev.length;
+					rm.add(prev);
+				}
+
+				for (Iterator<DiskBlock> it = disk.values().iterator();
+						 (diskSize > maxDiskSize) && it.hasNext(); ) {
+					DiskBlock db = it.next();
+					diskSize -= db.length;
+					it.remove();
+					rm.add(db);
+				}
+			}
+		}
+
+		for (DiskBlock db : rm) db.delete();
+	}
+
+	private boolean removeSpilling(String key, ByteBuffer block) {
+		if (spilling.get(key) != block) return false;
+		spilling.remove(key);
+		return true;
+	}
+
+	@NonNull
+	@Override
+	public synchronized String toString() {
+		return "VfsBlockCache{mem=" + mem.size() + ", disk=" + disk.size() + ", diskSize=" + diskSize
+				+ ", loading=" + loading.size() + '}';
+	}
+
+	private static final class DiskBlock {
+		final File file;
+		final int length;
+
+		DiskBlock(File file, int length) {
+			this.file = file;
+			this.length = length;
+		}
+
+		void delete() {
+			//noinspection ResultOfMethodCallIgnored
+			file.delete();
+		}
+	}
+
+	/**
+	 * Tracks the sequential access and issues the read ahead requests.
+	 */
+	private static final class ReadAhead {
+		long lastBlock = -2;
+		int window;
+	}
+
+	private final class CachedFile implements VirtualFile {
+		private final VirtualFile file;
+		private FutureSupplier<String> keyPrefix;
+		private volatile long length;
+		// The stream, the blocks are loaded from, positioned at the streamPos
+		private AsyncInputStream stream;
+		private long streamPos;
+		// The data at the streamPos, that has been read from the stream, but not used yet
+		private ByteBuffer pending;
+		private boolean busy;
+		// The read ahead request, deferred until the stream is released
+		private Runnable deferredReadAhead;
+		// The number of the open streams and transfers. The stream is closed, when not used.
+		private int users;
+
+		CachedFile(VirtualFile file) {
+			this.file = file;
+		}
+
+		@NonNull
+		@Override
+		public VirtualFileSystem getVirtualFileSystem() {
+			return file.getVirtualFileSystem();
+		}
+
+		@NonNull
+		@Override
+		public String getName() {
+			return file.getName();
+		}
+
+		@NonNull
+		@Override
+		public Rid getRid() {
+			return file.getRid();
+		}
+
+		@Override
+		public FutureSupplier<Long> getLastModified() {
+			return file.getLastModified();
+		}
+
+		@NonNull
+		@Override
+		public FutureSupplier<VirtualFolder> getParent() {
+			return file.getParent();
+		}
+
+		@NonNull
+		@Override
+		public FutureSupplier<Boolean> exists() {
+			return file.exists();
+		}
+
+		@Override
+		public boolean canDelete() {
+			return file.canDelete();
+		}
+
+		@NonNull
+		@Override
+		public FutureSupplier<Boolean> delete() {
+			return file.delete();
+		}
+
+		@Override
+		public FutureSupplier<Long> getLength() {
+			return file.getLength();
+		}
+
+		@Override
+		public FutureSupplier<? extends Info> getInfo() {
+			return file.getInfo();
+		}
+
+		@Override
+		public AsyncOutputStream getOutputStream() throws IOException {
+			return file.getOutputStream();
+		}
+
+		@Override
+		public int getInputBufferLen() {
+			return file.getInputBufferLen();
+		}
+
+		@Override
+		public AsyncInputStream getInputStream(long offset) {
+			ReadAhead ra = new ReadAhead();
+			acquire();
+
+			return new AsyncInputStream() {
+				long pos = offset;
+				boolean eos;
+				boolean closed;
+
+				@Override
+				public FutureSupplier<ByteBuffer> read(ByteBufferSupplier dst) {
+					if (eos) return completed(IoUtils.emptyByteBuffer());
+					long idx = pos / blockSize;
+					int off = (int) (pos % blockSize);
+
+					return getBlock(idx, ra).map(b -> {
+						ByteBuffer d = dst.getByteBuffer();
+						int start = d.position();
+						int n = Math.min(b.limit() - off, d.remaining());
+
+						if (n <= 0) {
+							eos = true;
+							d.limit(start);
+							return d;
+						}
+
+						b.position(off).limit(off + n);
+						d.put(b).limit(start + n).position(start);
+						pos += n;
+						return d;
+					});
+				}
+
+				@Override
+				public boolean hasRemaining() {
+					return !eos;
+				}
+
+				@Override
+				public FutureSupplier<Long> skip(long n) {
+					pos += n;
+					return completed(n);
+				}
+
+				@Override
+				public void close() {
+					if (closed) return;
+					closed = eos = true;
+					CachedFile.this.release();
+				}
+			};
+		}
+
+		/**
+		 * Sends the cached blocks directly, without copying.
+		 */
+		@Override
+		public FutureSupplier<Void> transferTo(NetChannel channel, long off, long len,
+																					 @Nullable ByteBufferArraySupplier header) {
+			ReadAhead ra = new ReadAhead();
+			long[] pos = {off};
+			long end = (len < 0) ? Long.MAX_VALUE : off + len;
+			ByteBufferArraySupplier[] hdr = {header};
+			acquire();
+
+			return Async.<Void>iterate(() -> {
+				long p = pos[0];
+				if (p >= end) return null;
+				long idx = p / blockSize;
+				int o = (int) (p % blockSize);
+
+				return getBlock(idx, ra).then(b -> {
+					int n = (int) Math.min(b.limit() - o, end - p);
+
+					if (n <= 0) {
+						pos[0] = end;
+						ByteBufferArraySupplier h = hdr[0];
+						return (h == null) ? completedVoid() : channel.write(h);
+					}
+
+					b.position(o).limit(o + n);
+					pos[0] = p + n;
+					ByteBufferArraySupplier h = hdr[0];
+					hdr[0] = null;
+					return (h == null) ? channel.write(b)
+							: channel.write(ByteBufferArraySupplier.wrap(h, () -> new ByteBuffer[]{b}));
+				});
+			}).onCompletion((r, f) -> release());
+		}
+
+		private FutureSupplier<ByteBuffer> getBlock(long idx, ReadAhead ra) {
+			long last = ra.lastBlock;
+			if (idx == last + 1) ra.window = (ra.window == 0) ? 1 : Math.min(ra.window * 2, maxReadAhead);
+			else if (idx != last) ra.window = 0;
+			ra.lastBlock = idx;
+
+			return getKeyPrefix().then(prefix -> {
+				FutureSupplier<ByteBuffer> f = VfsBlockCache.this.getBlock(this, prefix + idx, idx, false);
+
+				if ((idx != last) && (ra.window > 0)) {
+					long lastBlock = (length <= 0) ? 0 : (length - 1) / blockSize;
+					readAhead(prefix, idx + 1, Math.min(idx + ra.window, lastBlock));
+				}
+
+				return f;
+			});
+		}
+
+		/**
+		 * Load the blocks in the range [from, to] one by one. If the stream is used by the other
+		 * request, the read ahead is resumed, when the stream is released.
+		 */
+		private void readAhead(String prefix, long from, long to) {
+			for (; from <= to; from++) {
+				FutureSupplier<ByteBuffer> f = VfsBlockCache.this.getBlock(this, prefix + from, from, true);
+
+				if (f == null) {
+					if (deferReadAhead(prefix, from, to)) return;
+					continue;
+				}
+
+				if (f.isDone()) {
+					// Stop at the end of file
+					ByteBuffer b = f.peek();
+					if ((b == null) || (b.limit() < blockSize)) return;
+					continue;
+				}
+
+				long next = from + 1;
+				f.onSuccess(b -> {
+					if (b.limit() == blockSize) readAhead(prefix, next, to);
+				});
+				return;
+			}
+		}
+
+		/**
+		 * The key of a block consists of the resource id, the modification time and the length of
+		 * the file, so the modified files are not served from the cache.
+		 */
+		private synchronized FutureSupplier<String> getKeyPrefix() {
+			if (keyPrefix != null) return keyPrefix;
+			return keyPrefix = file.getLength().then(len -> file.getLastModified().map(time -> {
+				length = len;
+				return getRid().toString() + '\n' + Long.toHexString(time) + '-' + Long.toHexString(len) + '\n';
+			}));
+		}
+
+		/**
+		 * The blocks are read ahead only while the file is being read and the stream is not busy.
+		 */
+		synchronized boolean canReadAhead() {
+			return !busy && (users > 0);
+		}
+
+		private synchronized boolean deferReadAhead(String prefix, long from, long to) {
+			if (!busy || (users == 0)) return false;
+			deferredReadAhead = () -> readAhead(prefix, from, to);
+			return true;
+		}
+
+		/**
+		 * Load the block from the remote file. If the stream is not used by the other request,
+		 * it's reused, if positioned at the block start, or reopened at the block start. Otherwise,
+		 * a temporary stream is used.
+		 */
+		FutureSupplier<ByteBuffer> load(long idx) {
+			long off = idx * blockSize;
+			ByteBuffer block = ByteBuffer.allocate(blockSize);
+			ByteBuffer[] extra = new ByteBuffer[1];
+			AsyncInputStream in;
+			boolean shared;
+
+			try {
+				synchronized (this) {
+					if (busy) {
+						in = file.getInputStream(off);
+						shared = false;
+					} else {
+						in = stream;
+
+						if ((in == null) || (streamPos != off)) {
+							IoUtils.close(in);
+							stream = null;
+							pending = null;
+							in = stream = file.getInputStream(off);
+						} else if (pending != null) {
+							if (pending.remaining() > block.remaining()) {
+								// Keep the rest for the next block
+								int limit = pending.limit();
+								pending.limit(pending.position() + block.remaining());
+								block.put(pending);
+								pending.limit(limit);
+								extra[0] = pending;
+							} else {
+								block.put(pending);
+							}
+
+							pending = null;
+						}
+
+						busy = shared = true;
+					}
+				}
+			} catch (Throwable ex) {
+				return failed(ex);
+			}
+
+			AsyncInputStream s = in;
+			boolean[] eos = new boolean[1];
+
+			return Async.iterate(() -> {
+				if (eos[0] || !block.hasRemaining()) return null;
+				ByteBuffer d = block.duplicate();
+
+				return s.read(() -> d).map(r -> {
+					int n = r.remaining();
+
+					if (n == 0) {
+						eos[0] = true;
+					} else if (r == d) {
+						block.position(block.position() + n);
+					} else if (n <= block.remaining()) {
+						block.put(r);
+					} else {
+						// The stream returned more, than requested. Keep the rest for the next block.
+						int limit = r.limit();
+						r.limit(r.position() + block.remaining());
+						block.put(r);
+						r.limit(limit);
+						extra[0] = ByteBuffer.allocate(r.remaining()).put(r);
+						extra[0].flip();
+					}
+
+					return null;
+				});
+			}).then(v -> {
+				block.flip();
+				release(s, shared, off + block.limit(), extra[0], eos[0]);
+				return completed(block);
+			}, err -> {
+				release(s, shared, -1, null, true);
+				return failed(err);
+			});
+		}
+
+		private synchronized void acquire() {
+			users++;
+		}
+
+		private void release() {
+			AsyncInputStream in;
+
+			synchronized (this) {
+				if (--users != 0) return;
+				deferredReadAhead = null;
+				if (busy) return;
+				in = stream;
+				stream = null;
+			}
+
+			IoUtils.close(in);
+		}
+
+		private void release(@Nullable AsyncInputStream in, boolean shared, long pos,
+												 @Nullable ByteBuffer extra, boolean close) {
+			if (!shared) {
+				IoUtils.close(in);
+				return;
+			}
+
+			Runnable readAhead;
+
+			synchronized (this) {
+				busy = false;
+				readAhead = deferredReadAhead;
+				deferredReadAhead = null;
+
+				if (close || (users == 0)) {
+					IoUtils.close(in);
+					if ((stream == in) || (in == null)) stream = null;
+					pending = null;
+				} else {
+					streamPos = pos;
+					pending = extra;
+				}
+			}
+
+			if (readAhead != null) readAhead.run();
+		}
+
+		@Override
+		public int hashCode() {
+			return file.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return (obj instanceof CachedFile) && file.equals(((CachedFile) obj).file);
+		}
+
+		@NonNull
+		@Override
+		public String toString() {
+			return file.toString();
+		}
+	}
+}
@@ -1,19 +1,42 @@
 package me.aap.utils.vfs;
 
+import static java.nio.charset.StandardCharsets.US_ASCII;
 import static me.aap.utils.async.Completed.completedVoid;
+import static me.aap.utils.async.Completed.failed;
 import static me.aap.utils.net.http.HttpHeader.ACCEPT_RANGES;
 import static me.aap.utils.net.http.HttpHeader.CONNECTION;
 import static me.aap.utils.net.http.HttpHeader.CONTENT_LENGTH;
 import static me.aap.utils.net.http.HttpHeader.CONTENT_RANGE;
+import static me.aap.utils.net.http.HttpHeader.CONTENT_TYPE;
+import static me.aap.utils.net.http.HttpHeader.ETAG;
+import static me.aap.utils.net.http.HttpHeader.IF_MODIFIED_SINCE;
+import static me.aap.utils.net.http.HttpHeader.IF_NONE_MATCH;
+import static me.aap.utils.net.http.HttpHeader.IF_RANGE;
+import static me.aap.utils.net.http.HttpHeader.LAST_MODIFIED;
+import static me.aap.utils.net.http.HttpHeader.TRANSFER_ENCODING;
+import static me.aap.utils.net.http.HttpHeader.VARY;
 import static me.aap.utils.net.http.HttpResponseBuilder.supplier;
 import static me.aap.utils.net.http.HttpVersion.HTTP_1_1;
 
+import androidx.annotation.Nullable;
+
 import java.io.File;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
 
+import me.aap.utils.async.Async;
 import me.aap.utils.async.FutureSupplier;
+import me.aap.utils.io.AsyncInputStream;
+import me.aap.utils.io.FileUtils;
 import me.aap.utils.log.Log;
+import me.aap.utils.net.ByteBufferArraySupplier;
 import me.aap.utils.net.NetChannel;
+import me.aap.utils.net.http.HttpCompression;
+import me.aap.utils.net.http.HttpDate;
 import me.aap.utils.net.http.HttpError;
 import me.aap.utils.net.http.HttpError.Forbidden;
 import me.aap.utils.net.http.HttpError.NotFound;
@@ -34,10 +57,56 @@ import me.aap.utils.vfs.local.LocalFileSystem;
 public class VfsHttpHandler implements HttpRequestHandler {
 	public static final String HTTP_PATH = "/vfs";
 	public static final String HTTP_QUERY = "resource=";
+	private static final int META_CACHE_SIZE = 128;
+	private static final int MAX_RANGES = 32;
 	private final VfsManager mgr;
+	@Nullable
+	private final HttpCompression.Cache cache;
+	private final Map<Rid, FileMeta> metaCache = new LinkedHashMap<Rid, FileMeta>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Rid, FileMeta> eldest) {
+			return size() > META_CACHE_SIZE;
+		}
+	};
+	private volatile long metaCacheTtl = 10000;
+	@Nullable
+	private volatile VfsBlockCache blockCache;
 
 	public VfsHttpHandler(VfsManager mgr) {
+		this(mgr, new HttpCompression.Cache(2 * 1024 * 1024, 256 * 1024));
+	}
+
+	/**
+	 * @param cache the cache of compressed files or null to compress on each request
+	 */
+	public VfsHttpHandler(VfsManager mgr, @Nullable HttpCompression.Cache cache) {
 		this.mgr = mgr;
+		this.cache = cache;
+	}
+
+	/**
+	 * Set the cache of the remote file blocks or null to read the remote files directly.
+	 */
+	public void setBlockCache(@Nullable VfsBlockCache blockCache) {
+		this.blockCache = blockCache;
+		clearMetaCache();
+	}
+
+	/**
+	 * Set the time to live of the cached file metadata. The metadata is shared by the subsequent
+	 * requests of the same resource, e.g. range requests of a media player.
+	 *
+	 * @param ttl time to live in milliseconds or 0 to disable the cache
+	 */
+	public void setMetaCacheTtl(long ttl) {
+		metaCacheTtl = ttl;
+		if (ttl <= 0) clearMetaCache();
+	}
+
+	public void clearMetaCache() {
+		synchronized (metaCache) {
+			metaCache.clear();
+		}
 	}
 
 	@Override
@@ -49,10 +118,13 @@ public class VfsHttpHandler implements HttpRequestHandler {
 			return NotFound.instance.write(channel);
 		}
 
-		Range range = req.getRange();
-		HttpMethod method = req.getMethod();
-		HttpVersion version = req.getVersion();
-		boolean close = req.isConnectionClose();
+		Params p = new Params(req);
+		FileMeta meta = getCachedMeta(rid);
+
+		if (meta != null) {
+			handleRequest(channel, rid, meta, p);
+			return completedVoid();
+		}
 
 		mgr.getResource(rid).onCompletion((result, fail) -> {
 			if (fail != null) {
@@ -73,48 +145,318 @@ public class VfsHttpHandler implements HttpRequestHandler {
 					return;
 				}
 
-				long len = info.getLength();
+				file.getLastModified().onCompletion((time, e) -> {
+					if (e != null) Log.d(e, "Failed to get last modified time of ", file);
+					FileMeta m = new FileMeta(file, getFileForTransfer(file, info), info,
+							((e != null) || (time == null)) ? 0 : time);
+					cacheMeta(rid, m);
+					handleRequest(channel, rid, m, p);
+				});
+			});
+		});
+
+		return completedVoid();
+	}
+
+	private void handleRequest(NetChannel channel, Rid rid, FileMeta meta, Params p) {
+		VirtualFile file = meta.file;
+		VirtualFile.Info info = meta.info;
+		HttpVersion version = p.version;
+		boolean close = p.close;
+		Range range = p.range;
+		long len = info.getLength();
+		// The encoding is negotiated only if the request has no Range header
+		String enc = p.enc;
+		String type = ((enc != null) && (info.getContentEncoding() == null)
+				&& ((len < 0) || (len >= HttpCompression.MIN_LENGTH))) ? getContentType(file) : null;
+		if (!HttpCompression.isCompressible(type)) enc = null;
+		String etag = meta.getEtag(enc);
 
-				if ((len >= 0) && (range != null)) {
-					range.align(len);
+		if (isNotModified(meta, etag, p)) {
+			boolean vary = enc != null;
+			channel.write(supplier(b -> {
+				b.setStatus(version, "304 Not Modified");
+				addValidators(b, etag, meta.lastModifiedDate);
+				if (vary) b.addHeader(VARY);
+				if (close) b.addHeader(CONNECTION);
+				return b.build();
+			})).onCompletion((r, f) -> {
+				if ((f != null) || close) channel.close();
+			});
+			return;
+		}
 
-					if (!range.isSatisfiable(len)) {
-						HttpError.RangeNotSatisfiable.instance.write(channel);
-						return;
-					}
+		if ((range != null) && (p.ifRange != null) && !isRangeValid(meta, p.ifRange)) range = null;
+		List<Range> ranges = null;
+
+		if ((len >= 0) && (range != null)) {
+			if (range.getNext() != null) {
+				ranges = getSatisfiableRanges(range, len);
+
+				if (ranges == null) {
+					range = null;
+				} else if (ranges.isEmpty()) {
+					HttpError.RangeNotSatisfiable.instance.write(channel);
+					return;
+				} else if (ranges.size() == 1) {
+					range = ranges.get(0);
+					ranges = null;
 				}
+			} else {
+				range.align(len);
 
-				FutureSupplier<Void> reply;
-
-				if (method == HttpMethod.HEAD) {
-					reply = channel.write(supplier(b -> buildResponse(b, version, info, range, close)));
-				} else if (range != null) {
-					long start = range.getStart();
-					reply = getFileForTransfer(file, info).transferTo(channel, start,
-							range.getEnd() - start + 1,
-							supplier(b -> buildResponse(b, version, info, range, close)));
-				} else {
-					reply = getFileForTransfer(file, info).transferTo(channel, 0, len,
-							supplier(b -> buildResponse(b, version, info, null, close)));
+				if (!range.isSatisfiable(len)) {
+					HttpError.RangeNotSatisfiable.instance.write(channel);
+					return;
 				}
+			}
+		}
 
-				reply.onCompletion((r, f) -> {
-					if (f != null) {
-						Log.d(f, "Failed to send HTTP response - closing channel ", channel);
-						channel.close();
-					} else if (close) {
-						channel.close();
-					}
-				});
-			});
+		FutureSupplier<Void> reply;
+		Range r = range;
+
+		if (enc != null) {
+			reply = sendCompressed(channel, p, rid, meta, type, enc, etag);
+		} else if (ranges != null) {
+			reply = sendMultipart(channel, meta, p, ranges);
+		} else if (p.method == HttpMethod.HEAD) {
+			reply = channel.write(supplier(b -> buildResponse(b, version, meta, r, close)));
+		} else if (range != null) {
+			long start = range.getStart();
+			reply = meta.transferFile.transferTo(channel, start,
+					range.getEnd() - start + 1, supplier(b -> buildResponse(b, version, meta, r, close)));
+		} else {
+			reply = meta.transferFile.transferTo(channel, 0, len,
+					supplier(b -> buildResponse(b, version, meta, null, close)));
+		}
+
+		reply.onCompletion((v, f) -> {
+			if (f != null) {
+				Log.d(f, "Failed to send HTTP response - closing channel ", channel);
+				invalidateMeta(rid);
+				channel.close();
+			} else if (close) {
+				channel.close();
+			}
 		});
+	}
 
-		return completedVoid();
+	/**
+	 * Returns the aligned satisfiable ranges or null if the Range header should be ignored: too many
+	 * ranges or the ranges overlap so much, that the response would be larger than the whole file.
+	 */
+	@Nullable
+	private static List<Range> getSatisfiableRanges(Range range, long len) {
+		List<Range> ranges = new ArrayList<>();
+		long total = 0;
+
+		for (; range != null; range = range.getNext()) {
+			if (ranges.size() == MAX_RANGES) return null;
+			range.align(len);
+			if (!range.isSatisfiable(len)) continue;
+			ranges.add(range);
+			if ((total += range.getLength()) > len) return null;
+		}
+
+		return ranges;
+	}
+
+	/**
+	 * Send the multipart/byteranges response. Each part is transferred separately, with the part
+	 * header prepended to the data, so the zero-copy transfer is used for all the parts.
+	 */
+	private FutureSupplier<Void> sendMultipart(NetChannel channel, FileMeta meta, Params p,
+																						 List<Range> ranges) {
+		int count = ranges.size();
+		long len = meta.info.getLength();
+		String type = getContentType(meta.file);
+		String boundary = Long.toHexString(ThreadLocalRandom.current().nextLong() | Long.MIN_VALUE);
+		ByteBuffer[] parts = new ByteBuffer[count];
+		ByteBuffer end = ByteBuffer.wrap(("\r\n--" + boundary + "--\r\n").getBytes(US_ASCII));
+		long contentLen = end.remaining();
+
+		for (int i = 0; i < count; i++) {
+			Range r = ranges.get(i);
+			StringBuilder sb = new StringBuilder(128).append("\r\n--").append(boundary).append("\r\n");
+			if (type != null) sb.append(CONTENT_TYPE.getName()).append(": ").append(type).append("\r\n");
+			sb.append(CONTENT_RANGE.getName()).append(": bytes ").append(r.getStart()).append('-')
+					.append(r.getEnd()).append('/').append(len).append("\r\n\r\n");
+			parts[i] = ByteBuffer.wrap(sb.toString().getBytes(US_ASCII));
+			contentLen += parts[i].remaining() + r.getLength();
+		}
+
+		long length = contentLen;
+		ByteBufferArraySupplier header = supplier(b -> buildMultipartResponse(b, p.version, meta,
+				boundary, length, p.close));
+		if (p.method == HttpMethod.HEAD) return channel.write(header);
+
+		VirtualFile file = meta.transferFile;
+		int[] idx = new int[1];
+
+		return Async.iterate(() -> {
+			int i = idx[0]++;
+			if (i > count) return null;
+			if (i == count) return channel.write(end);
+			Range r = ranges.get(i);
+			ByteBuffer part = parts[i];
+			ByteBufferArraySupplier h = () -> new ByteBuffer[]{part};
+			return file.transferTo(channel, r.getStart(), r.getLength(),
+					(i == 0) ? ByteBufferArraySupplier.wrap(header, h) : h);
+		});
+	}
+
+	private static ByteBuffer[] buildMultipartResponse(HttpResponseBuilder b, HttpVersion version,
+																										 FileMeta meta, String boundary,
+																										 long contentLen, boolean close) {
+		b.setStatusPartial(version);
+		b.addHeader(CONTENT_TYPE, "multipart/byteranges; boundary=" + boundary);
+		b.addHeader(ACCEPT_RANGES);
+		b.addHeader(CONTENT_LENGTH, contentLen);
+		addValidators(b, meta);
+		if (close) b.addHeader(CONNECTION);
+		else if (version != HTTP_1_1) b.addHeader(CONNECTION, "Keep-Alive");
+		return b.build();
+	}
+
+	/**
+	 * If-None-Match takes precedence over If-Modified-Since, as required by RFC 7232.
+	 */
+	private static boolean isNotModified(FileMeta meta, @Nullable String etag, Params p) {
+		if ((etag == null) || ((p.method != HttpMethod.GET) && (p.method != HttpMethod.HEAD))) {
+			return false;
+		}
+
+		if (p.ifNoneMatch != null) return etagMatches(p.ifNoneMatch, etag);
+		if (p.ifModifiedSince == null) return false;
+		long since = HttpDate.parse(p.ifModifiedSince);
+		return (since >= 0) && ((meta.lastModified / 1000) <= (since / 1000));
+	}
+
+	/**
+	 * If-Range requires the strong comparison of the ETag or the exact match of the date.
+	 */
+	private static boolean isRangeValid(FileMeta meta, String ifRange) {
+		if (meta.etag == null) return false;
+		if (ifRange.startsWith("\"")) return ifRange.equals(meta.etag);
+		long time = HttpDate.parse(ifRange);
+		return (time >= 0) && ((meta.lastModified / 1000) == (time / 1000));
+	}
+
+	private static boolean etagMatches(String ifNoneMatch, String etag) {
+		for (String t : ifNoneMatch.split(",")) {
+			t = t.trim();
+			if (t.equals("*")) return true;
+			if (t.startsWith("W/")) t = t.substring(2);
+			if (t.equals(etag)) return true;
+		}
+
+		return false;
+	}
+
+	@Nullable
+	private FileMeta getCachedMeta(Rid rid) {
+		if (metaCacheTtl <= 0) return null;
+
+		synchronized (metaCache) {
+			FileMeta m = metaCache.get(rid);
+			if (m == null) return null;
+			if (m.expires > System.currentTimeMillis()) return m;
+			metaCache.remove(rid);
+			return null;
+		}
+	}
+
+	private void cacheMeta(Rid rid, FileMeta m) {
+		long ttl = metaCacheTtl;
+		if (ttl <= 0) return;
+		m.expires = System.currentTimeMillis() + ttl;
+
+		synchronized (metaCache) {
+			metaCache.put(rid, m);
+		}
+	}
+
+	private void invalidateMeta(Rid rid) {
+		synchronized (metaCache) {
+			metaCache.remove(rid);
+		}
+	}
+
+	/**
+	 * The HEAD response has the same headers, as the GET response: Content-Length if the compressed
+	 * body is cached, or the chunked Transfer-Encoding otherwise.
+	 */
+	private FutureSupplier<Void> sendCompressed(NetChannel channel, Params p, Rid rid, FileMeta meta,
+																							String type, String enc, @Nullable String etag) {
+		HttpVersion version = p.version;
+		boolean close = p.close;
+		HttpCompression.Cache cache = this.cache;
+		String key = ((cache == null) || (etag == null)) ? null : rid + "\n" + etag;
+		ByteBuffer cached = (key == null) ? null : cache.get(key);
+
+		if (p.method == HttpMethod.HEAD) {
+			return channel.write(supplier(b -> {
+				buildCompressedResponse(b, version, meta, type, enc, etag, close);
+				if (cached != null) b.addHeader(CONTENT_LENGTH, cached.remaining());
+				else b.addHeader(TRANSFER_ENCODING);
+				return b.build();
+			}));
+		}
+
+		if (cached != null) {
+			return channel.write(supplier(b -> {
+				buildCompressedResponse(b, version, meta, type, enc, etag, close);
+				return b.build(cached);
+			}));
+		}
+
+		AsyncInputStream body;
+
+		try {
+			body = HttpCompression.compress(meta.transferFile.getInputStream(), enc);
+		} catch (Throwable ex) {
+			return failed(ex);
+		}
+
+		if (key != null) body = cache.cache(key, body);
+		return HttpCompression.writeChunked(channel, supplier(b -> {
+			buildCompressedResponse(b, version, meta, type, enc, etag, close);
+			b.addHeader(TRANSFER_ENCODING);
+			return b.build();
+		}), body);
+	}
+
+	private void buildCompressedResponse(HttpResponseBuilder b, HttpVersion version, FileMeta meta,
+																			 String contentType, String contentEncoding,
+																			 @Nullable String etag, boolean close) {
+		buildCompressedResponse(b, version, contentType, contentEncoding, close);
+		addValidators(b, etag, meta.lastModifiedDate);
+	}
+
+	protected void buildCompressedResponse(HttpResponseBuilder b, HttpVersion version,
+																				 String contentType, String contentEncoding,
+																				 boolean close) {
+		b.setStatusOk(version);
+		b.addHeader(CONTENT_TYPE, contentType);
+		b.addHeader(HttpHeader.CONTENT_ENCODING, contentEncoding);
+		b.addHeader(VARY);
+		if (close) b.addHeader(CONNECTION);
+	}
+
+	/**
+	 * Returns the media type of the file, used to decide whether the file is worth compressing and
+	 * as the content type of the multipart/byteranges parts.
+	 */
+	@Nullable
+	protected String getContentType(VirtualFile f) {
+		return FileUtils.getMimeType(f.getName());
 	}
 
 	protected VirtualFile getFileForTransfer(VirtualFile f, VirtualFile.Info i) {
 		File local = i.getLocalFile();
-		return (local != null) ? LocalFileSystem.getInstance().getFile(local) : f;
+		if (local != null) return LocalFileSystem.getInstance().getFile(local);
+		VfsBlockCache bc = blockCache;
+		return (bc != null) ? bc.wrap(f) : f;
 	}
 
 	protected Rid getRid(HttpRequest req) {
@@ -125,12 +467,29 @@ public class VfsHttpHandler implements HttpRequestHandler {
 		return Rid.create(Rid.decode(q.subSequence(HTTP_QUERY.length(), q.length())));
 	}
 
+	/**
+	 * @deprecated The responses are built with the validators, override
+	 * {@link #buildResponse(HttpResponseBuilder, HttpVersion, VirtualFile.Info, Range, boolean, String, String)}
+	 * instead.
+	 */
+	@Deprecated
+	protected final ByteBuffer[] buildResponse(HttpResponseBuilder b, HttpVersion version,
+																						 VirtualFile.Info info, Range range, boolean close) {
+		return buildResponse(b, version, info, range, close, null, null);
+	}
+
+	/**
+	 * @param etag         the entity tag or null if unknown
+	 * @param lastModified the last modification date in the HTTP format or null if unknown
+	 */
 	protected ByteBuffer[] buildResponse(HttpResponseBuilder b, HttpVersion version,
-																			 VirtualFile.Info info, Range range, boolean close) {
+																			 VirtualFile.Info info, Range range, boolean close,
+																			 @Nullable String etag, @Nullable String lastModified) {
 		long len = info.getLength();
 
 		if (len < 0) {
 			b.setStatusOk(version);
+			addValidators(b, etag, lastModified);
 			if (close) b.addHeader(CONNECTION);
 			return build(b, info);
 		}
@@ -147,11 +506,27 @@ public class VfsHttpHandler implements HttpRequestHandler {
 
 		b.addHeader(ACCEPT_RANGES);
 		b.addHeader(CONTENT_LENGTH, contentLen);
+		addValidators(b, etag, lastModified);
 		if (close) b.addHeader(CONNECTION);
 		else if (version != HTTP_1_1) b.addHeader(CONNECTION, "Keep-Alive");
 		return build(b, info);
 	}
 
+	private ByteBuffer[] buildResponse(HttpResponseBuilder b, HttpVersion version, FileMeta meta,
+																		 Range range, boolean close) {
+		return buildResponse(b, version, meta.info, range, close, meta.etag, meta.lastModifiedDate);
+	}
+
+	private static void addValidators(HttpResponseBuilder b, FileMeta meta) {
+		addValidators(b, meta.etag, meta.lastModifiedDate);
+	}
+
+	private static void addValidators(HttpResponseBuilder b, @Nullable String etag,
+																		@Nullable String lastModified) {
+		if (etag != null) b.addHeader(ETAG, etag);
+		if (lastModified != null) b.addHeader(LAST_MODIFIED, lastModified);
+	}
+
 	private ByteBuffer[] build(HttpResponseBuilder b, VirtualFile.Info info) {
 		String enc = info.getContentEncoding();
 		if (enc == null) return b.build();
@@ -160,4 +535,68 @@ public class VfsHttpHandler implements HttpRequestHandler {
 		else b.addHeader(HttpHeader.CONTENT_ENCODING, enc);
 		return b.build();
 	}
+
+	private static final class Params {
+		final HttpMethod method;
+		final HttpVersion version;
+		final boolean close;
+		final Range range;
+		final String enc;
+		final String ifNoneMatch;
+		final String ifModifiedSince;
+		final String ifRange;
+
+		// The request buffer is reused, read everything before the asynchronous calls
+		Params(HttpRequest req) {
+			method = req.getMethod();
+			version = req.getVersion();
+			close = req.isConnectionClose();
+			range = req.getRange();
+			enc = (((method == HttpMethod.GET) || (method == HttpMethod.HEAD)) && (range == null)
+					&& (version == HTTP_1_1)) ? HttpCompression.negotiate(req) : null;
+			ifNoneMatch = str(req.getHeader(IF_NONE_MATCH));
+			ifModifiedSince = str(req.getHeader(IF_MODIFIED_SINCE));
+			ifRange = str(req.getHeader(IF_RANGE));
+		}
+
+		private static String str(CharSequence s) {
+			return (s == null) ? null : s.toString().trim();
+		}
+	}
+
+	private static final class FileMeta {
+		final VirtualFile file;
+		// The file to read the data from, shared by the requests while the metadata is cached
+		final VirtualFile transferFile;
+		final VirtualFile.Info info;
+		final long lastModified;
+		final String etag;
+		final String lastModifiedDate;
+		long expires;
+
+		FileMeta(VirtualFile file, VirtualFile transferFile, VirtualFile.Info info, long lastModified) {
+			this.file = file;
+			this.transferFile = transferFile;
+			this.info = info;
+			this.lastModified = lastModified;
+
+			if (lastModified > 0) {
+				etag = '"' + Long.toHexString(lastModified) + '-' + Long.toHexString(info.getLength()) + '"';
+				lastModifiedDate = HttpDate.format(lastModified);
+			} else {
+				etag = null;
+				lastModifiedDate = null;
+			}
+		}
+
+		/**
+		 * Each content coding is a different representation and must have a different strong ETag,
+		 * otherwise a cache could serve the compressed body to a client, that doesn't accept it.
+		 */
+		@Nullable
+		String getEtag(@Nullable String contentEncoding) {
+			if ((etag == null) || (contentEncoding == null)) return etag;
+			return etag.substring(0, etag.length() - 1) + '-' + contentEncoding + '"';
+		}
+	}
 }
@@ -0,0 +1,361 @@
+package me.aap.utils.vfs;
+
+import static me.aap.utils.async.Completed.completed;
+import static me.aap.utils.async.Completed.completedVoid;
+import static me.aap.utils.async.Completed.failed;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import me.aap.utils.async.FutureSupplier;
+import me.aap.utils.async.Promise;
+import me.aap.utils.function.CheckedFunction;
+import me.aap.utils.function.CheckedSupplier;
+import me.aap.utils.resource.Rid;
+
+/**
+ * Recursive copy, move, delete and size calculation of the resource trees. The children of
+ * a folder are processed in parallel, but the number of the concurrent calls to each backend
+ * (scheme, user, host and port) is limited. A copy is limited by the source-destination pair.
+ * The limit is only held for the duration of a single call, not while waiting for the children,
+ * so the deep trees do not exhaust it.
+ * <p>
+ * Moving is tried with {@link VirtualResource#renameTo(VirtualFolder, CharSequence)} first and
+ * falls back to copy and delete. The progress is reported as the number of processed resources
+ * of the discovered ones. The operation is stopped on the first failure or on cancellation.
+ *
+ * @author Andrey Pavlenko
+ */
+public class VfsTreeOp extends Promise<VfsTreeOp.Stats> {
+	public static final int DEFAULT_CONCURRENCY = 4;
+	private final int concurrency;
+	private final Map<String, Limiter> limiters = new HashMap<>();
+	private final Map<FutureSupplier<?>, Boolean> running = new IdentityHashMap<>();
+	private final Stats stats = new Stats();
+	private int discovered = 1;
+	private int processed;
+
+	private VfsTreeOp(int concurrency) {
+		this.concurrency = Math.max(1, concurrency);
+		onCompletion((r, err) -> {
+			if (err != null) cancelRunning();
+		});
+	}
+
+	public static VfsTreeOp size(VirtualResource res) {
+		return size(res, DEFAULT_CONCURRENCY);
+	}
+
+	public static VfsTreeOp size(VirtualResource res, int concurrency) {
+		VfsTreeOp op = new VfsTreeOp(concurrency);
+		return op.start(op.sizeTree(res));
+	}
+
+	public static VfsTreeOp delete(VirtualResource res) {
+		return delete(res, DEFAULT_CONCURRENCY);
+	}
+
+	public static VfsTreeOp delete(VirtualResource res, int concurrency) {
+		VfsTreeOp op = new VfsTreeOp(concurrency);
+		return op.start(op.deleteTree(res));
+	}
+
+	/**
+	 * Copy the resource to the specified folder, keeping the name.
+	 */
+	public static VfsTreeOp copy(VirtualResource src, VirtualFolder dst) {
+		return copy(src, dst, DEFAULT_CONCURRENCY);
+	}
+
+	public static VfsTreeOp copy(VirtualResource src, VirtualFolder dst, int concurrency) {
+		VfsTreeOp op = new VfsTreeOp(concurrency);
+		return op.start(op.copyTree(src, dst));
+	}
+
+	/**
+	 * Move the resource to the specified folder, keeping the name. The resources moved on the
+	 * server side are counted, but their content is not, i.e. the folder is counted as one.
+	 */
+	public static VfsTreeOp move(VirtualResource src, VirtualFolder dst) {
+		return move(src, dst, DEFAULT_CONCURRENCY);
+	}
+
+	public static VfsTreeOp move(VirtualResource src, VirtualFolder dst, int concurrency) {
+		VfsTreeOp op = new VfsTreeOp(concurrency);
+		return op.start(op.moveTree(src, dst));
+	}
+
+	/**
+	 * Returns the current statistics.
+	 */
+	@NonNull
+	public synchronized Stats getStats() {
+		return stats.copy();
+	}
+
+	private VfsTreeOp start(FutureSupplier<?> f) {
+		f.onCompletion((r, err) -> {
+			if (err != null) completeExceptionally(err);
+			else complete(getStats());
+		});
+		return this;
+	}
+
+	private FutureSupplier<?> sizeTree(VirtualResource res) {
+		if (res.isFile()) {
+			VirtualFile f = (VirtualFile) res;
+			return call(key(f), f::getLength).map(len -> {
+				done(1, 0, len);
+				return len;
+			});
+		}
+
+		return children((VirtualFolder) res, this::sizeTree).map(v -> done(0, 1, 0));
+	}
+
+	private FutureSupplier<?> deleteTree(VirtualResource res) {
+		if (res.isFile()) return call(key(res), res::delete).map(v -> done(1, 0, 0));
+		return children((VirtualFolder) res, this::deleteTree)
+				.then(v -> call(key(res), res::delete)).map(v -> done(0, 1, 0));
+	}
+
+	private FutureSupplier<?> copyTree(VirtualResource src, VirtualFolder dst) {
+		String key = key(src) + '>' + key(dst);
+		String name = src.getName();
+
+		if (src.isFile()) {
+			VirtualFile f = (VirtualFile) src;
+			return call(key, () -> dst.createFile(name).then(to -> f.copyTo(to)).then(v -> f.getLength()))
+					.map(len -> done(1, 0, len));
+		}
+
+		return call(key, () -> dst.createFolder(name))
+				.then(to -> children((VirtualFolder) src, c -> copyTree(c, to))).map(v -> done(0, 1, 0));
+	}
+
+	private FutureSupplier<?> moveTree(VirtualResource src, VirtualFolder dst) {
+		String name = src.getName();
+
+		return call(key(src), () -> src.renameTo(dst, name)).then(moved -> {
+			if (moved) return completed(done(src.isFile() ? 1 : 0, src.isFolder() ? 1 : 0, 0));
+			if (src.isFile()) return copyTree(src, dst).then(v -> call(key(src), src::delete)).map(v -> null);
+
+			String key = key(src) + '>' + key(dst);
+			return call(key, () -> dst.createFolder(name))
+					.then(to -> children((VirtualFolder) src, c -> moveTree(c, to)))
+					.then(v -> call(key(src), src::delete)).map(v -> done(0, 1, 0));
+		});
+	}
+
+	/**
+	 * Apply the operation to the children in parallel. The returned future is completed when all
+	 * the children are processed or on the first failure.
+	 */
+	private FutureSupplier<Void> children(VirtualFolder folder,
+																				CheckedFunction<VirtualResource, FutureSupplier<?>, Throwable> op) {
+		return call(key(folder), folder::getChildren).then(children -> {
+			int size = children.size();
+			if (size == 0) return completedVoid();
+
+			synchronized (this) {
+				discovered += size;
+			}
+
+			Promise<Void> p = new Promise<>();
+			AtomicInteger remain = new AtomicInteger(size);
+
+			for (VirtualResource c : children) {
+				FutureSupplier<?> f;
+
+				try {
+					f = op.apply(c);
+				} catch (Throwable ex) {
+					f = failed(ex);
+				}
+
+				f.onCompletion((r, err) -> {
+					if (err != null) p.completeExceptionally(err);
+					else if (remain.decrementAndGet() == 0) p.complete(null);
+				});
+
+				if (p.isDone()) break;
+			}
+
+			return p;
+		});
+	}
+
+	private <T> FutureSupplier<T> call(String key, CheckedSupplier<FutureSupplier<T>, Throwable> task) {
+		Limiter l;
+
+		synchronized (this) {
+			l = limiters.get(key);
+			if (l == null) limiters.put(key, l = new Limiter());
+		}
+
+		return l.call(task);
+	}
+
+	private Void done(int files, int folders, long bytes) {
+		int p;
+		int t;
+
+		synchronized (this) {
+			stats.files += files;
+			stats.folders += folders;
+			stats.bytes += bytes;
+			p = ++processed;
+			t = discovered;
+		}
+
+		setProgress(null, p, t);
+		return null;
+	}
+
+	private void cancelRunning() {
+		List<FutureSupplier<?>> list;
+
+		synchronized (this) {
+			list = new ArrayList<>(running.keySet());
+			running.clear();
+		}
+
+		for (FutureSupplier<?> f : list) {
+			f.cancel();
+		}
+	}
+
+	private static String key(VirtualResource res) {
+		Rid rid = res.getRid();
+		return rid.getScheme() + "://" + rid.getUserInfo() + '@' + rid.getHost() + ':' + rid.getPort();
+	}
+
+	private final class Limiter {
+		private final Deque<Runnable> queue = new ArrayDeque<>();
+		private int active;
+		// The number of the released slots, not yet passed to the queued tasks
+		private int released;
+		private boolean draining;
+
+		<T> FutureSupplier<T> call(CheckedSupplier<FutureSupplier<T>, Throwable> task) {
+			Promise<T> p = new Promise<>();
+			Runnable run = () -> run(task, p);
+
+			synchronized (VfsTreeOp.this) {
+				if (active == concurrency) {
+					queue.add(run);
+					return p;
+				}
+
+				active++;
+			}
+
+			run.run();
+			return p;
+		}
+
+		private <T> void run(CheckedSupplier<FutureSupplier<T>, Throwable> task, Promise<T> p) {
+			if (isDone()) {
+				p.cancel();
+				release();
+				return;
+			}
+
+			FutureSupplier<T> f;
+
+			try {
+				f = task.get();
+			} catch (Throwable ex) {
+				f = failed(ex);
+			}
+
+			synchronized (VfsTreeOp.this) {
+				if (!f.isDone()) running.put(f, Boolean.TRUE);
+			}
+
+			FutureSupplier<T> ff = f;
+			f.onCompletion((r, err) -> {
+				synchronized (VfsTreeOp.this) {
+					running.remove(ff);
+				}
+
+				release();
+				if (err != null) p.completeExceptionally(err);
+				else p.complete(r);
+			});
+		}
+
+		/**
+		 * Pass the slot to the next queued task. The tasks may complete synchronously and call
+		 * release() recursively, so the queue is drained in a loop by the outermost call.
+		 */
+		private void release() {
+			synchronized (VfsTreeOp.this) {
+				released++;
+				if (draining) return;
+				draining = true;
+			}
+
+			for (; ; ) {
+				Runnable next;
+
+				synchronized (VfsTreeOp.this) {
+					if (released == 0) {
+						draining = false;
+						return;
+					}
+
+					released--;
+					next = queue.poll();
+
+					if (next == null) {
+						active--;
+						continue;
+					}
+				}
+
+				next.run();
+			}
+		}
+	}
+
+	public static final class Stats {
+		long files;
+		long folders;
+		long bytes;
+
+		public long getFiles() {
+			return files;
+		}
+
+		public long getFolders() {
+			return folders;
+		}
+
+		public long getBytes() {
+			return bytes;
+		}
+
+		Stats copy() {
+			Stats s = new Stats();
+			s.files = files;
+			s.folders = folders;
+			s.bytes = bytes;
+			return s;
+		}
+
+		@NonNull
+		@Override
+		public String toString() {
+			return "files: " + files + ", folders: " + folders + ", bytes: " + bytes;
+		}
+	}
+}
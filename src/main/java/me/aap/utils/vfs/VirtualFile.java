@@ -11,12 +11,12 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 
+import me.aap.utils.app.App;
 import me.aap.utils.async.Async;
-import me.aap.utils.async.Completed;
 import me.aap.utils.async.FutureSupplier;
-import me.aap.utils.holder.BooleanHolder;
 import me.aap.utils.holder.Holder;
 import me.aap.utils.holder.LongHolder;
+import me.aap.utils.io.AsyncCopy;
 import me.aap.utils.io.AsyncInputStream;
 import me.aap.utils.io.AsyncOutputStream;
 import me.aap.utils.io.IoUtils;
@@ -51,28 +51,36 @@ public interface VirtualFile extends VirtualResource {
 
 	@NonNull
 	default FutureSupplier<Void> copyTo(VirtualFile to) {
+		return copyTo(to, AsyncCopy.DEFAULT_BUFFERS);
+	}
+
+	/**
+	 * Copy the content of this file to the specified file. The local files are copied with
+	 * the file channel transfer on the application executor, otherwise the next buffers are read,
+	 * while the previous ones are being written. The returned future reports the progress in bytes
+	 * and stops the copying when cancelled.
+	 *
+	 * @param buffers the number of buffers in flight
+	 */
+	@NonNull
+	default FutureSupplier<Void> copyTo(VirtualFile to, int buffers) {
+		File src = getLocalFile();
+		File dst = to.getLocalFile();
+
+		if ((src != null) && (dst != null)) {
+			App app = App.get();
+			return AsyncCopy.copy(src, dst, (app != null) ? app.getExecutor() : null);
+		}
+
 		AsyncInputStream in = null;
 		AsyncOutputStream out = null;
 
 		try {
-			AsyncInputStream is = in = getInputStream();
-			AsyncOutputStream os = out = to.getOutputStream();
-			BooleanHolder completed = new BooleanHolder();
-			ByteBuffer buf = ByteBuffer.allocate(Math.min(getInputBufferLen(), to.getOutputBufferLen()));
-
-			FutureSupplier<Void> rw = is.read(() -> buf).then(read -> {
-				if (read.hasRemaining()) {
-					buf.flip();
-					return os.write(buf);
-				} else {
-					completed.set(true);
-					return Completed.completedVoid();
-				}
-			});
-
-			FutureSupplier<Void> copy = rw.thenIterate(r -> completed.get() ? null : rw);
-			copy.onCompletion((r, f) -> IoUtils.close(is, os));
-			return copy;
+			in = getInputStream();
+			out = to.getOutputStream();
+			Long len = getLength().peek();
+			int bufLen = Math.min(getInputBufferLen(), to.getOutputBufferLen());
+			return AsyncCopy.copy(in, out, bufLen, buffers, (len == null) ? -1 : len);
 		} catch (Throwable ex) {
 			IoUtils.close(in, out);
 			return failed(ex);
@@ -8,6 +8,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
 
+import me.aap.utils.async.AsyncPublisher;
 import me.aap.utils.async.Completed;
 import me.aap.utils.async.FutureSupplier;
 import me.aap.utils.function.Function;
@@ -19,6 +20,13 @@ public interface VirtualFolder extends VirtualResource {
 
 	FutureSupplier<List<VirtualResource>> getChildren();
 
+	/**
+	 * Publish the children on demand. The children are listed on each subscription.
+	 */
+	default AsyncPublisher<VirtualResource> publishChildren() {
+		return s -> AsyncPublisher.<VirtualResource>from(getChildren()).subscribe(s);
+	}
+
 	default Filter filterChildren() {
 		return new BasicFilter(this);
 	}
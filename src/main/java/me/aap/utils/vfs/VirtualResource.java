@@ -76,6 +76,17 @@ public interface VirtualResource extends Comparable<VirtualResource> {
 		return failed(new UnsupportedOperationException());
 	}
 
+	/**
+	 * Move the resource to the specified folder on the server side, without copying the content.
+	 *
+	 * @return true if moved or false if the resource could not be moved this way, e.g. the folder
+	 * belongs to another server or the target already exists.
+	 */
+	@NonNull
+	default FutureSupplier<Boolean> renameTo(VirtualFolder folder, CharSequence name) {
+		return completed(false);
+	}
+
 	@Override
 	default int compareTo(@NonNull VirtualResource o) {
 		if (isFolder()) {
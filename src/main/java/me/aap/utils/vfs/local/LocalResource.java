@@ -109,6 +109,18 @@ abstract class LocalResource implements VirtualResource {
 		}
 	}
 
+	@NonNull
+	@Override
+	public FutureSupplier<Boolean> renameTo(VirtualFolder folder, CharSequence name) {
+		File dir = folder.getLocalFile();
+		if (dir == null) return completed(false);
+		File to = new File(dir, name.toString());
+		if (to.exists()) return completed(false);
+		if (isFile()) getVirtualFileSystem().closeCachedChannels(file, to);
+		// Fails, if the folder is on another file system
+		return completed(file.renameTo(to));
+	}
+
 	@Override
 	public FutureSupplier<Long> getLastModified() {
 		return Completed.completed(file.lastModified());
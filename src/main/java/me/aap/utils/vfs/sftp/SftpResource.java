@@ -1,8 +1,12 @@
 package me.aap.utils.vfs.sftp;
 
+import static me.aap.utils.async.Completed.completed;
+
 import androidx.annotation.NonNull;
 
+import com.jcraft.jsch.ChannelSftp;
 import com.jcraft.jsch.SftpATTRS;
+import com.jcraft.jsch.SftpException;
 
 import me.aap.utils.async.FutureSupplier;
 import me.aap.utils.vfs.NetResourceBase;
@@ -27,6 +31,28 @@ class SftpResource extends NetResourceBase<SftpRoot> {
 		return lstat().map(stat -> stat.isDir() == isFolder());
 	}
 
+	@NonNull
+	@Override
+	public FutureSupplier<Boolean> renameTo(VirtualFolder folder, CharSequence name) {
+		if (!(folder instanceof SftpResource)) return completed(false);
+		SftpResource dir = (SftpResource) folder;
+		if (!getRoot().equals(dir.getRoot())) return completed(false);
+		String p = dir.getPath();
+		String to = p.endsWith("/") ? p + name : p + '/' + name;
+
+		return getRoot().useChannel(ch -> {
+			try {
+				ch.lstat(to);
+				return false;
+			} catch (SftpException ex) {
+				if (ex.id != ChannelSftp.SSH_FX_NO_SUCH_FILE) throw ex;
+			}
+
+			ch.rename(getPath(), to);
+			return true;
+		});
+	}
+
 	@Override
 	protected FutureSupplier<Long> loadLastModified() {
 		return lstat().map(s -> s.getATime() * 1000L);
@@ -1,8 +1,16 @@
 package me.aap.utils.vfs.smb;
 
+import static me.aap.utils.async.Completed.completed;
+
 import androidx.annotation.NonNull;
 
+import com.hierynomus.msdtyp.AccessMask;
 import com.hierynomus.msfscc.fileinformation.FileAllInformation;
+import com.hierynomus.mssmb2.SMB2CreateDisposition;
+import com.hierynomus.mssmb2.SMB2ShareAccess;
+import com.hierynomus.smbj.share.DiskEntry;
+
+import java.util.EnumSet;
 
 import me.aap.utils.async.FutureSupplier;
 import me.aap.utils.vfs.NetResourceBase;
@@ -30,6 +38,26 @@ class SmbResource extends NetResourceBase<SmbRoot> {
 		);
 	}
 
+	@NonNull
+	@Override
+	public FutureSupplier<Boolean> renameTo(VirtualFolder folder, CharSequence name) {
+		if (!(folder instanceof SmbResource)) return completed(false);
+		SmbResource dir = (SmbResource) folder;
+		if (!getRoot().equals(dir.getRoot())) return completed(false);
+		String to = SmbFileSystem.smbPath(dir.getPath() + '/' + name, true);
+
+		return getRoot().useShare(s -> {
+			// The target may exist as a file or as a folder, regardless of the source type
+			if (s.fileExists(to) || s.folderExists(to)) return false;
+
+			try (DiskEntry e = s.open(smbPath(), EnumSet.of(AccessMask.DELETE, AccessMask.GENERIC_READ),
+					null, SMB2ShareAccess.ALL, SMB2CreateDisposition.FILE_OPEN, null)) {
+				e.rename(to, false);
+				return true;
+			}
+		});
+	}
+
 	@Override
 	protected FutureSupplier<Long> loadLastModified() {
 		return getRoot().useShare(s -> {
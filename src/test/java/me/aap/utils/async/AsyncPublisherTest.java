@@ -0,0 +1,227 @@
+package me.aap.utils.async;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.RepeatedTest;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import me.aap.utils.async.AsyncPublisher.Subscriber;
+import me.aap.utils.async.AsyncPublisher.Subscription;
+import me.aap.utils.concurrent.ThreadPool;
+import me.aap.utils.function.CheckedSupplier;
+import me.aap.utils.io.AsyncInputStream;
+import me.aap.utils.misc.TestUtils;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * @author Andrey Pavlenko
+ */
+public class AsyncPublisherTest extends Assertions {
+	private static ExecutorService exec;
+
+	@BeforeAll
+	public static void setUpClass() {
+		TestUtils.enableTestMode();
+		exec = new ThreadPool(4);
+	}
+
+	@AfterAll
+	public static void tearDownClass() {
+		exec.shutdown();
+	}
+
+	@Test
+	public void testOperators() throws Exception {
+		List<Integer> items = range(100);
+		assertEquals(items, AsyncPublisher.from(items).collect().get(1, SECONDS));
+		assertEquals(Arrays.asList(0, 4, 8), AsyncPublisher.from(range(5)).filter(i -> i % 2 == 0)
+				.map(i -> i * 2).collect().get(1, SECONDS));
+		assertEquals(Arrays.asList(Arrays.asList(0, 1, 2), Arrays.asList(3, 4, 5),
+				Collections.singletonList(6)), AsyncPublisher.from(range(7)).batch(3).collect().get(1, SECONDS));
+		assertEquals(items, AsyncPublisher.from(items).buffer(8).collect().get(1, SECONDS));
+		assertTrue(AsyncPublisher.empty().collect().get(1, SECONDS).isEmpty());
+
+		ExecutionException ex = assertThrows(ExecutionException.class, () -> AsyncPublisher.from(items)
+				.map(i -> {
+					if (i == 10) throw new IOException();
+					return i;
+				}).collect().get(1, SECONDS));
+		assertTrue(ex.getCause() instanceof IOException);
+	}
+
+	@Test
+	public void testDemand() {
+		AtomicInteger generated = new AtomicInteger();
+		List<Integer> received = new ArrayList<>();
+		Subscription[] sub = new Subscription[1];
+		AtomicBoolean completed = new AtomicBoolean();
+
+		AsyncPublisher.generate(() -> (generated.get() < 10)
+				? Completed.completed(generated.incrementAndGet()) : null, () -> completed.set(true))
+				.buffer(4).subscribe(new TestSubscriber<Integer>() {
+					@Override
+					public void onSubscribe(Subscription subscription) {
+						sub[0] = subscription;
+					}
+
+					@Override
+					public void onNext(Integer item) {
+						received.add(item);
+					}
+
+					@Override
+					public void onComplete() {
+						received.add(-1);
+					}
+				});
+
+		// The buffer prefetches 4 elements
+		assertEquals(4, generated.get());
+		assertTrue(received.isEmpty());
+		sub[0].request(1);
+		assertEquals(Collections.singletonList(1), received);
+		sub[0].request(2);
+		assertEquals(Arrays.asList(1, 2, 3), received);
+		assertTrue(generated.get() <= 7);
+		sub[0].request(100);
+		assertEquals(Arrays.asList(1, 2, 3, 4, 5, 6, 7, 8, 9, 10, -1), received);
+		assertTrue(completed.get());
+	}
+
+	@Test
+	public void testCancel() {
+		List<Promise<Integer>> pending = new ArrayList<>();
+		AtomicBoolean closed = new AtomicBoolean();
+		FutureSupplier<List<Integer>> f = AsyncPublisher.generate(() -> {
+			Promise<Integer> p = new Promise<>();
+			pending.add(p);
+			return p;
+		}, () -> closed.set(true)).collect();
+
+		pending.get(0).complete(1);
+		assertEquals(2, pending.size());
+		assertTrue(f.cancel());
+		assertTrue(pending.get(1).isCancelled());
+		assertTrue(closed.get());
+	}
+
+	@RepeatedTest(10)
+	public void testFlatMap() throws Exception {
+		AtomicInteger active = new AtomicInteger();
+		AtomicInteger maxActive = new AtomicInteger();
+
+		List<Integer> result = AsyncPublisher.from(range(50)).flatMap(i -> {
+			maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+			int[] n = new int[1];
+			return AsyncPublisher.generate(() -> {
+				if (n[0] == 3) {
+					active.decrementAndGet();
+					return null;
+				}
+
+				int v = i * 3 + n[0]++;
+				return async(() -> v);
+			}, null);
+		}, 4).collect().get(5, SECONDS);
+
+		assertTrue(maxActive.get() <= 4, () -> "Max active: " + maxActive.get());
+		Collections.sort(result);
+		assertEquals(range(150), result);
+	}
+
+	@Test
+	public void testForEach() throws Exception {
+		List<Promise<Void>> pending = new ArrayList<>();
+		AtomicInteger generated = new AtomicInteger();
+		FutureSupplier<Void> f = AsyncPublisher.generate(() -> (generated.get() < 3)
+				? Completed.completed(generated.incrementAndGet()) : null, null).forEach(i -> {
+			Promise<Void> p = new Promise<>();
+			pending.add(p);
+			return p;
+		});
+
+		for (int i = 0; i < 3; i++) {
+			assertEquals(i + 1, generated.get());
+			assertFalse(f.isDone());
+			pending.get(i).complete(null);
+		}
+
+		assertNull(f.get(1, SECONDS));
+	}
+
+	@Test
+	public void testAdapters() throws Exception {
+		AtomicInteger n = new AtomicInteger();
+		assertEquals(Arrays.asList(1, 2, 3), AsyncPublisher.iterate(Completed.completed(1),
+				prev -> (prev.peek() < 3) ? async(() -> n.incrementAndGet() + 1) : null)
+				.collect().get(1, SECONDS));
+
+		byte[] data = new byte[100000];
+		for (int i = 0; i < data.length; i++) data[i] = (byte) i;
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		AsyncInputStream.from(new ByteArrayInputStream(data)).asPublisher(4096).forEach(b -> {
+			out.write(b.array(), b.arrayOffset() + b.position(), b.remaining());
+			return Completed.completedVoid();
+		}).get(1, SECONDS);
+		assertArrayEquals(data, out.toByteArray());
+
+		AsyncPublisher<ByteBuffer> p = AsyncInputStream.from(new ByteArrayInputStream(data)).asPublisher(10);
+		p.collect();
+		ExecutionException ex = assertThrows(ExecutionException.class, () -> p.collect().get(1, SECONDS));
+		assertTrue(ex.getCause() instanceof IllegalStateException);
+	}
+
+	@Test
+	public void testFlow() throws Exception {
+		List<Integer> items = range(1000);
+		assertEquals(items, FlowAdapter.fromFlow(FlowAdapter.toFlow(AsyncPublisher.from(items)
+				.buffer(16))).collect().get(1, SECONDS));
+	}
+
+	private static List<Integer> range(int n) {
+		return IntStream.range(0, n).boxed().collect(Collectors.toList());
+	}
+
+	private static <T> FutureSupplier<T> async(CheckedSupplier<T, Throwable> task) {
+		RunnablePromise<T> p = RunnablePromise.create(task);
+		exec.execute(p);
+		return p;
+	}
+
+	private static class TestSubscriber<T> implements Subscriber<T> {
+
+		@Override
+		public void onSubscribe(Subscription subscription) {
+		}
+
+		@Override
+		public void onNext(T item) {
+		}
+
+		@Override
+		public void onError(Throwable fail) {
+			fail(fail);
+		}
+
+		@Override
+		public void onComplete() {
+		}
+	}
+}
@@ -0,0 +1,157 @@
+package me.aap.utils.async;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import me.aap.utils.misc.TestUtils;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * @author Andrey Pavlenko
+ */
+public class AsyncScopeTest extends Assertions {
+
+	@BeforeAll
+	public static void setUpClass() {
+		TestUtils.enableTestMode();
+	}
+
+	@Test
+	public void testParallelism() throws Exception {
+		AsyncScope scope = new AsyncScope(3);
+		List<Promise<Integer>> tasks = new ArrayList<>();
+		AtomicInteger sum = new AtomicInteger();
+
+		for (int i = 0; i < 10; i++) {
+			int n = i;
+			scope.spawn(() -> {
+				Promise<Integer> p = new Promise<>();
+				tasks.add(p);
+				return p;
+			}).onSuccess(v -> {
+				sum.addAndGet(v);
+				// Children may spawn new children
+				if (n == 0) scope.spawn(() -> Completed.completed(100)).onSuccess(sum::addAndGet);
+			});
+		}
+
+		scope.join();
+		assertEquals(3, scope.getInFlight());
+		assertEquals(7, scope.getQueued());
+		assertEquals(3, tasks.size());
+
+		for (int i = 0; i < tasks.size(); i++) {
+			assertFalse(scope.isDone());
+			tasks.get(i).complete(i);
+			assertTrue(scope.getInFlight() <= 3);
+		}
+
+		assertNull(scope.get(5, SECONDS));
+		assertEquals(145, sum.get());
+		assertEquals(0, scope.getInFlight());
+		assertEquals(0, scope.getQueued());
+	}
+
+	@Test
+	public void testFailure() {
+		AsyncScope scope = new AsyncScope(2);
+		Promise<Integer> running = new Promise<>();
+		Promise<Integer> failing = new Promise<>();
+		AtomicInteger started = new AtomicInteger();
+		FutureSupplier<Integer> r = scope.spawn(() -> running);
+		scope.spawn(() -> failing);
+		FutureSupplier<Integer> queued = scope.spawn(() -> {
+			started.incrementAndGet();
+			return Completed.completed(1);
+		});
+		scope.join();
+
+		failing.completeExceptionally(new IOException());
+		assertTrue(scope.isFailed());
+		assertTrue(scope.getFailure() instanceof IOException);
+		assertTrue(running.isCancelled());
+		assertTrue(r.isCancelled());
+		assertTrue(queued.isCancelled());
+		assertEquals(0, started.get());
+		assertEquals(0, scope.getInFlight());
+		assertEquals(0, scope.getQueued());
+		assertTrue(scope.spawn(() -> Completed.completed(1)).isCancelled());
+	}
+
+	@Test
+	public void testFailureWaitsForChildren() {
+		AsyncScope scope = new AsyncScope();
+		AtomicBoolean cancelled = new AtomicBoolean();
+		// Completed later, after the cancellation is requested
+		Promise<Integer> late = new Promise<Integer>() {
+			@Override
+			public boolean cancel(boolean mayInterruptIfRunning) {
+				cancelled.set(true);
+				return true;
+			}
+		};
+		Promise<Integer> failing = new Promise<>();
+		scope.add(late);
+		scope.spawn(() -> failing);
+		scope.join();
+
+		failing.completeExceptionally(new IOException());
+		assertTrue(cancelled.get());
+		assertFalse(scope.isDone());
+		assertTrue(scope.spawn(() -> Completed.completed(1)).isCancelled());
+
+		late.complete(1);
+		assertTrue(scope.isFailed());
+		assertTrue(scope.getFailure() instanceof IOException);
+	}
+
+	@Test
+	public void testCancel() {
+		AsyncScope scope = new AsyncScope(1);
+		AsyncScope child = scope.child(1);
+		Promise<Integer> p1 = new Promise<>();
+		Promise<Integer> p2 = new Promise<>();
+		FutureSupplier<Integer> added = scope.add(p1);
+		child.spawn(() -> p2);
+		FutureSupplier<Integer> queued = child.spawn(() -> p2);
+
+		// Cancellation of a single child does not affect the scope
+		assertTrue(queued.cancel());
+		assertFalse(child.isDone());
+		assertEquals(1, child.getInFlight());
+		assertEquals(0, child.getQueued());
+
+		assertTrue(scope.cancel());
+		assertTrue(added.isCancelled());
+		assertTrue(p1.isCancelled());
+		assertTrue(child.isCancelled());
+		assertTrue(p2.isCancelled());
+	}
+
+	@Test
+	public void testDeadline() throws Exception {
+		AsyncScope scope = new AsyncScope(2, 50);
+		Promise<Integer> p = new Promise<>();
+		scope.spawn(() -> p);
+		scope.join();
+
+		ExecutionException ex = assertThrows(ExecutionException.class, () -> scope.get(5, SECONDS));
+		assertTrue(ex.getCause() instanceof TimeoutException);
+		assertTrue(p.isCancelled());
+	}
+
+	@Test
+	public void testJoinEmpty() throws Exception {
+		assertNull(new AsyncScope().join().get(1, SECONDS));
+	}
+}
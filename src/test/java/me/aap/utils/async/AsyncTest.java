@@ -0,0 +1,140 @@
+package me.aap.utils.async;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.RepeatedTest;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import me.aap.utils.concurrent.ThreadPool;
+import me.aap.utils.function.CheckedSupplier;
+import me.aap.utils.misc.TestUtils;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * @author Andrey Pavlenko
+ */
+public class AsyncTest extends Assertions {
+	private static ExecutorService exec;
+
+	@BeforeAll
+	public static void setUpClass() {
+		TestUtils.enableTestMode();
+		exec = new ThreadPool(4);
+	}
+
+	@AfterAll
+	public static void tearDownClass() {
+		exec.shutdown();
+	}
+
+	@RepeatedTest(10)
+	public void testParallelMap() throws Exception {
+		List<Integer> items = IntStream.range(0, 1000).boxed().collect(Collectors.toList());
+		AtomicInteger inFlight = new AtomicInteger();
+		AtomicInteger maxInFlight = new AtomicInteger();
+
+		List<Integer> ordered = Async.parallelMap((Integer i) -> {
+			maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+
+			if (i % 3 == 0) {
+				inFlight.decrementAndGet();
+				return Completed.completed(i * 2);
+			}
+
+			return async(() -> {
+				inFlight.decrementAndGet();
+				return i * 2;
+			});
+		}, items, 8, true).get(5, SECONDS);
+
+		assertTrue(maxInFlight.get() <= 8);
+		assertEquals(items.size(), ordered.size());
+		for (int i = 0; i < items.size(); i++) assertEquals(i * 2, ordered.get(i).intValue());
+
+		List<Integer> unordered = Async.parallelMap((Integer i) -> async(() -> i), items, 4, false)
+				.get(5, SECONDS);
+		assertEquals(items.size(), unordered.size());
+		Collections.sort(unordered);
+		assertEquals(items, unordered);
+	}
+
+	@Test
+	public void testBackpressure() throws Exception {
+		List<Promise<Integer>> pending = new ArrayList<>();
+		AtomicInteger pulled = new AtomicInteger();
+		Iterator<Integer> it = new Iterator<Integer>() {
+			@Override
+			public boolean hasNext() {
+				return pulled.get() < 10;
+			}
+
+			@Override
+			public Integer next() {
+				return pulled.incrementAndGet();
+			}
+		};
+
+		FutureSupplier<Integer> sum = Async.reduce(i -> {
+			Promise<Integer> p = new Promise<>();
+			pending.add(p);
+			return p.map(v -> v + i);
+		}, it, 3, 0, Integer::sum);
+
+		assertEquals(3, pulled.get());
+
+		for (int i = 0; i < pending.size(); i++) {
+			assertFalse(sum.isDone());
+			assertTrue(pulled.get() <= i + 3);
+			pending.get(i).complete(0);
+		}
+
+		assertEquals(10, pending.size());
+		assertEquals(55, sum.get(1, SECONDS).intValue());
+	}
+
+	@Test
+	public void testParallelForEachFailure() {
+		Promise<Integer> running = new Promise<>();
+		Promise<Integer> failing = new Promise<>();
+		List<Promise<Integer>> promises = List.of(running, failing, new Promise<>());
+		AtomicInteger applied = new AtomicInteger();
+
+		FutureSupplier<Void> f = Async.parallelForEach(p -> {
+			applied.incrementAndGet();
+			return p;
+		}, promises, 2);
+
+		failing.completeExceptionally(new IOException());
+		ExecutionException ex = assertThrows(ExecutionException.class, () -> f.get(1, SECONDS));
+		assertTrue(ex.getCause() instanceof IOException);
+		assertTrue(running.isCancelled());
+		assertEquals(2, applied.get());
+	}
+
+	@Test
+	public void testSynchronous() throws Exception {
+		List<Integer> items = IntStream.range(0, 100000).boxed().collect(Collectors.toList());
+		assertEquals(Long.valueOf(4999950000L), Async.reduce((Integer i) -> Completed.completed((long) i),
+				items, 16, 0L, Long::sum).get(1, SECONDS));
+		assertNull(Async.parallelForEach(i -> null, items, 4).get(1, SECONDS));
+	}
+
+	private static <T> FutureSupplier<T> async(CheckedSupplier<T, Throwable> task) {
+		RunnablePromise<T> p = RunnablePromise.create(task);
+		exec.execute(p);
+		return p;
+	}
+}
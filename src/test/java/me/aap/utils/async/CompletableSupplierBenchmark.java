@@ -0,0 +1,109 @@
+package me.aap.utils.async;
+
+import static me.aap.utils.function.ResultConsumer.Cancel.isCancellation;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Locale;
+
+import me.aap.utils.function.CheckedFunction;
+import me.aap.utils.misc.TestUtils;
+
+/**
+ * Time and allocations per continuation chain of a pending future: then, map, then and
+ * onCompletion, like a network read followed by the parsing and the response writing.
+ * The fused stages are compared with the promise and lambda based implementation.
+ * Run with -Dbenchmark=true.
+ *
+ * @author Andrey Pavlenko
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+public class CompletableSupplierBenchmark extends Assertions {
+	private static final int ITERATIONS = 1_000_000;
+	private static final FutureSupplier<Integer> ONE = Completed.completed(1);
+	private int sum;
+
+	@BeforeAll
+	public static void setUpClass() {
+		TestUtils.enableTestMode();
+	}
+
+	@Test
+	public void benchmark() {
+		for (int n = 0; n < 5; n++) {
+			run("promise", this::promiseChain);
+			run("fused", this::fusedChain);
+		}
+	}
+
+	private void run(String name, Runnable chain) {
+		ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+		com.sun.management.ThreadMXBean smx = (mx instanceof com.sun.management.ThreadMXBean)
+				? (com.sun.management.ThreadMXBean) mx : null;
+		long tid = Thread.currentThread().getId();
+		long mem = (smx != null) ? smx.getThreadAllocatedBytes(tid) : 0;
+		long start = System.nanoTime();
+		sum = 0;
+
+		for (int i = 0; i < ITERATIONS; i++) {
+			chain.run();
+		}
+
+		long time = System.nanoTime() - start;
+		mem = (smx != null) ? smx.getThreadAllocatedBytes(tid) - mem : -1;
+		assertEquals(ITERATIONS * 2, sum);
+		System.out.printf(Locale.ROOT, "%-8s %6.1f ns/chain, %5d bytes/chain%n", name,
+				(double) time / ITERATIONS, (mem < 0) ? -1 : mem / ITERATIONS);
+	}
+
+	private void fusedChain() {
+		Promise<Integer> p = new Promise<>();
+		p.then(v -> ONE.map(o -> o + v)).map(v -> v + 1).then(Completed::completed)
+				.onCompletion((r, err) -> sum += r);
+		p.complete(0);
+	}
+
+	private void promiseChain() {
+		Promise<Integer> p = new Promise<>();
+		FutureSupplier<Integer> f = promiseThen(p, v -> ONE.map(o -> o + v));
+		f = ProxySupplier.create(f, v -> v + 1, ex -> {
+			throw ex;
+		});
+		promiseThen(f, Completed::completed).onCompletion((r, err) -> sum += r);
+		p.complete(0);
+	}
+
+	/**
+	 * The implementation of {@link FutureSupplier#then(CheckedFunction)} before the fused stages.
+	 */
+	private static <T, R> FutureSupplier<R> promiseThen(
+			FutureSupplier<T> src, CheckedFunction<? super T, FutureSupplier<R>, Throwable> then) {
+		var p = new Promise<R>() {
+			@Override
+			public boolean cancel(boolean mayInterruptIfRunning) {
+				return super.cancel(mayInterruptIfRunning) || src.cancel(mayInterruptIfRunning);
+			}
+		};
+
+		src.onCompletion((result, fail) -> {
+			if (fail == null) {
+				try {
+					then.apply(result).onCompletion(p::complete);
+				} catch (Throwable ex) {
+					p.completeExceptionally(ex);
+				}
+			} else if (isCancellation(fail)) {
+				p.cancel();
+			} else {
+				p.completeExceptionally(fail);
+			}
+		});
+
+		return p;
+	}
+}
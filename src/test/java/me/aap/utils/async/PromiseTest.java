@@ -4,6 +4,7 @@ import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.RepeatedTest;
+import org.junit.jupiter.api.Test;
 
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
@@ -80,6 +81,67 @@ public class PromiseTest extends Assertions {
 		}
 	}
 
+	@Test
+	public void testThenChain() throws Exception {
+		Promise<Integer> src = new Promise<>();
+		Promise<String> inner = new Promise<>();
+		AtomicInteger completions = new AtomicInteger();
+		FutureSupplier<String> f = src.then(v -> inner.map(s -> s + v)).map(s -> s + '!');
+		f.onCompletion((r, err) -> completions.incrementAndGet());
+		assertFalse(f.isDone());
+
+		exec.submit(() -> src.complete(1));
+		exec.submit(() -> inner.complete("a"));
+		assertEquals("a1!", f.get(5, SECONDS));
+		assertEquals(1, completions.get());
+
+		// Already completed
+		assertEquals("a2", Completed.completed(2).then(v -> inner.map(s -> s + v)).get());
+	}
+
+	@Test
+	public void testThenFailure() throws Exception {
+		Promise<Integer> src = new Promise<>();
+		FutureSupplier<Integer> f = src.then(v -> Completed.completed(v + 1));
+		FutureSupplier<Integer> r = src.then(v -> Completed.completed(v + 1),
+				err -> Completed.completed(-1));
+		FutureSupplier<Integer> thrown = new Promise<Integer>().then(v -> {
+			throw new IllegalStateException();
+		});
+		src.completeExceptionally(new IllegalArgumentException());
+
+		assertTrue(f.getFailure() instanceof IllegalArgumentException);
+		assertFalse(f.isCancelled());
+		assertEquals(-1, r.get().intValue());
+		assertFalse(thrown.isDone());
+	}
+
+	@Test
+	public void testThenCancel() {
+		Promise<Integer> src = new Promise<>();
+		FutureSupplier<Integer> f = src.then(Completed::completed);
+		FutureSupplier<Integer> m = src.map(v -> v + 1);
+		assertTrue(src.cancel());
+		assertTrue(f.isCancelled());
+		assertTrue(m.isCancelled());
+
+		src = new Promise<>();
+		f = src.then(Completed::completed);
+		m = src.map(v -> v + 1);
+		assertTrue(m.cancel());
+		assertTrue(m.isCancelled());
+		assertTrue(src.isCancelled());
+		assertTrue(f.isCancelled());
+
+		// The inner future is cancelled
+		src = new Promise<>();
+		Promise<Integer> inner = new Promise<>();
+		f = src.then(v -> inner);
+		src.complete(1);
+		inner.cancel();
+		assertTrue(f.isCancelled());
+	}
+
 	public FutureSupplier<Integer> progress(int iters) throws ExecutionException, InterruptedException, TimeoutException {
 		Promise<Integer> p = new Promise<>();
 		supplier = p.thenReplace(updater, this);
@@ -0,0 +1,162 @@
+package me.aap.utils.concurrent;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import me.aap.utils.async.Async;
+import me.aap.utils.async.Completed;
+import me.aap.utils.async.FutureSupplier;
+import me.aap.utils.async.Promise;
+import me.aap.utils.misc.TestUtils;
+
+/**
+ * @author Andrey Pavlenko
+ */
+public class TimerWheelTest extends Assertions {
+	private static final Random rnd = new Random();
+
+	@BeforeAll
+	static void setUpClass() {
+		TestUtils.enableTestMode();
+	}
+
+	@Test
+	public void testSchedule() throws Exception {
+		TimerWheel w = new TimerWheel("test", 2, 5);
+
+		try {
+			int n = 2000;
+			CountDownLatch latch = new CountDownLatch(n);
+			AtomicInteger early = new AtomicInteger();
+			AtomicLong maxLate = new AtomicLong();
+			Thread[] threads = new Thread[4];
+
+			for (int i = 0; i < threads.length; i++) {
+				threads[i] = new Thread(() -> {
+					for (int j = 0; j < n / threads.length; j++) {
+						long delay = rnd.nextInt(500);
+						long deadline = System.nanoTime() / 1000000 + delay;
+						w.schedule(() -> {
+							long now = System.nanoTime() / 1000000;
+							if (now < deadline) early.incrementAndGet();
+							maxLate.accumulateAndGet(now - deadline, Math::max);
+							latch.countDown();
+						}, delay);
+					}
+				});
+				threads[i].start();
+			}
+
+			for (Thread t : threads) t.join();
+			assertTrue(latch.await(5, SECONDS));
+			assertEquals(0, early.get());
+			assertTrue(maxLate.get() < 200, () -> "Too late: " + maxLate.get());
+			assertEquals(0, w.getPendingTimers());
+		} finally {
+			w.close();
+		}
+	}
+
+	@Test
+	public void testCascade() throws Exception {
+		TimerWheel w = new TimerWheel("test", 1, 1);
+
+		try {
+			long[] delays = {0, 1, 63, 64, 65, 300, 4095, 4500};
+			CountDownLatch latch = new CountDownLatch(delays.length);
+			List<Long> late = new ArrayList<>();
+
+			for (long d : delays) {
+				long deadline = System.nanoTime() / 1000000 + d;
+				w.schedule(() -> {
+					synchronized (late) {
+						late.add(System.nanoTime() / 1000000 - deadline);
+					}
+					latch.countDown();
+				}, d);
+			}
+
+			assertTrue(latch.await(10, SECONDS));
+
+			for (long l : late) {
+				assertTrue((l >= 0) && (l < 200), () -> "Late: " + late);
+			}
+		} finally {
+			w.close();
+		}
+	}
+
+	@Test
+	public void testCancel() throws Exception {
+		TimerWheel w = new TimerWheel("test", 2, 5);
+
+		try {
+			AtomicInteger fired = new AtomicInteger();
+			List<TimerWheel.Timer> timers = new ArrayList<>();
+
+			for (int i = 0; i < 1000; i++) {
+				timers.add(w.schedule(fired::incrementAndGet, 50 + rnd.nextInt(50)));
+			}
+
+			for (int i = 0; i < timers.size(); i += 2) {
+				assertTrue(timers.get(i).cancel());
+				assertFalse(timers.get(i).cancel());
+			}
+
+			assertEquals(500, w.getPendingTimers());
+			Thread.sleep(300);
+			assertEquals(500, fired.get());
+			assertEquals(0, w.getPendingTimers());
+			for (TimerWheel.Timer t : timers) assertTrue(t.isDone());
+		} finally {
+			w.close();
+		}
+	}
+
+	@Test
+	public void testTickLag() throws Exception {
+		TimerWheel w = new TimerWheel("test", 1, 10);
+
+		try {
+			CountDownLatch latch = new CountDownLatch(1);
+			// Stall the shard's thread
+			w.schedule(() -> {
+				try {
+					Thread.sleep(500);
+				} catch (InterruptedException ignore) {
+				}
+			}, 0);
+			w.schedule(latch::countDown, 50);
+			assertTrue(latch.await(5, SECONDS));
+			assertTrue(w.getMaxTickLag() >= 400, w::toString);
+		} finally {
+			w.close();
+		}
+	}
+
+	@Test
+	public void testFutureTimeout() throws Exception {
+		ExecutionException ex = assertThrows(ExecutionException.class,
+				() -> new Promise<>().timeout(20).get(5, SECONDS));
+		assertTrue(ex.getCause() instanceof TimeoutException);
+
+		Promise<Integer> p = new Promise<>();
+		FutureSupplier<Integer> t = p.timeout(5000);
+		p.complete(1);
+		assertEquals(1, t.get().intValue());
+
+		assertEquals(2, Async.schedule(() -> Completed.completed(2), 20).get(5, SECONDS).intValue());
+	}
+}
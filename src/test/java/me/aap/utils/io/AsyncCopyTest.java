@@ -0,0 +1,187 @@
+package me.aap.utils.io;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import me.aap.utils.async.FutureSupplier;
+import me.aap.utils.async.Promise;
+import me.aap.utils.misc.TestUtils;
+import me.aap.utils.net.ByteBufferSupplier;
+
+/**
+ * @author Andrey Pavlenko
+ */
+public class AsyncCopyTest extends Assertions {
+	private static final Random rnd = new Random();
+
+	@BeforeAll
+	static void setUpClass() {
+		TestUtils.enableTestMode();
+	}
+
+	@Test
+	public void testSyncCopy() throws Exception {
+		byte[] data = new byte[1024 * 1024 + 7];
+		rnd.nextBytes(data);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		AsyncCopy c = AsyncCopy.copy(AsyncInputStream.from(new ByteArrayInputStream(data), 16),
+				AsyncOutputStream.from(out), 16, 3, data.length);
+		c.get();
+		assertArrayEquals(data, out.toByteArray());
+		assertEquals(data.length, c.getCopied());
+	}
+
+	@Test
+	public void testPipelinedCopy() throws Exception {
+		ScheduledExecutorService exec = Executors.newScheduledThreadPool(2);
+
+		try {
+			byte[] data = new byte[100000];
+			rnd.nextBytes(data);
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			AtomicBoolean overlap = new AtomicBoolean();
+			AtomicInteger progress = new AtomicInteger();
+			SlowStreams s = new SlowStreams(exec, data, out, overlap);
+			AsyncCopy c = AsyncCopy.copy(s.in, s.out, 4096, 4, data.length);
+			c.onProgress((r, p, t) -> {
+				assertEquals(data.length, t);
+				progress.set(p);
+			});
+			c.get(10, TimeUnit.SECONDS);
+			assertArrayEquals(data, out.toByteArray());
+			assertEquals(data.length, progress.get());
+			assertTrue(overlap.get(), "Reads must overlap writes");
+			assertTrue(s.closed.get() >= 2);
+		} finally {
+			exec.shutdown();
+		}
+	}
+
+	@Test
+	public void testCancel() throws Exception {
+		ScheduledExecutorService exec = Executors.newScheduledThreadPool(2);
+
+		try {
+			byte[] data = new byte[10 * 1024 * 1024];
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			SlowStreams s = new SlowStreams(exec, data, out, new AtomicBoolean());
+			AsyncCopy c = AsyncCopy.copy(s.in, s.out, 4096, 4, data.length);
+			Thread.sleep(50);
+			assertTrue(c.cancel());
+			assertTrue(c.isCancelled());
+			Thread.sleep(50);
+			assertEquals(2, s.closed.get());
+			assertTrue(out.size() < data.length);
+		} finally {
+			exec.shutdown();
+		}
+	}
+
+	@Test
+	public void testFileCopy(@TempDir File tmp) throws Exception {
+		byte[] data = new byte[3 * 1024 * 1024 + 7];
+		rnd.nextBytes(data);
+		File src = new File(tmp, "src");
+		File dst = new File(tmp, "dir/dst");
+		Files.write(src.toPath(), data);
+		List<Runnable> tasks = new ArrayList<>();
+		AtomicInteger progress = new AtomicInteger();
+
+		FutureSupplier<Void> c = AsyncCopy.copy(src, dst, tasks::add);
+		c.onProgress((r, p, t) -> {
+			assertEquals(data.length, t);
+			progress.set(p);
+		});
+		assertFalse(c.isDone(), "The file must be copied by the executor");
+		assertEquals(1, tasks.size());
+		tasks.remove(0).run();
+		assertNull(c.get(1, TimeUnit.SECONDS));
+		assertEquals(data.length, progress.get());
+		assertArrayEquals(data, Files.readAllBytes(dst.toPath()));
+
+		// Cancelled after the first chunk
+		File dst2 = new File(tmp, "dst2");
+		FutureSupplier<Void> c2 = AsyncCopy.copy(src, dst2, tasks::add);
+		c2.onProgress((r, p, t) -> c2.cancel());
+		tasks.remove(0).run();
+		assertTrue(c2.isCancelled());
+		assertTrue(dst2.length() < data.length);
+	}
+
+	/**
+	 * The reads and writes are completed with a delay in the other thread.
+	 */
+	private static final class SlowStreams {
+		final AtomicInteger closed = new AtomicInteger();
+		final AsyncInputStream in;
+		final AsyncOutputStream out;
+		volatile boolean writing;
+
+		SlowStreams(ScheduledExecutorService exec, byte[] data, ByteArrayOutputStream dst,
+								AtomicBoolean overlap) {
+			in = new AsyncInputStream() {
+				int pos;
+
+				@Override
+				public FutureSupplier<ByteBuffer> read(ByteBufferSupplier dst) {
+					if (writing) overlap.set(true);
+					ByteBuffer b = dst.getByteBuffer();
+					int n = Math.min(data.length - pos, Math.min(b.remaining(), 1 + rnd.nextInt(5000)));
+					int start = b.position();
+					b.put(data, pos, n).limit(start + n).position(start);
+					pos += n;
+					Promise<ByteBuffer> p = new Promise<>();
+					exec.schedule(() -> p.complete(b), 1, TimeUnit.MILLISECONDS);
+					return p;
+				}
+
+				@Override
+				public void close() {
+					closed.incrementAndGet();
+				}
+			};
+			out = new AsyncOutputStream() {
+				@Override
+				public FutureSupplier<Void> write(ByteBuffer src) {
+					writing = true;
+					Promise<Void> p = new Promise<>();
+
+					exec.schedule(() -> {
+						byte[] a = new byte[src.remaining()];
+						src.get(a);
+
+						synchronized (dst) {
+							dst.write(a, 0, a.length);
+						}
+
+						writing = false;
+						p.complete(null);
+					}, 2, TimeUnit.MILLISECONDS);
+
+					return p;
+				}
+
+				@Override
+				public void close() {
+					closed.incrementAndGet();
+				}
+			};
+		}
+	}
+}
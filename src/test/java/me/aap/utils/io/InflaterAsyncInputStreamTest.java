@@ -0,0 +1,182 @@
+package me.aap.utils.io;
+
+import static me.aap.utils.async.Completed.completed;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import me.aap.utils.async.FutureSupplier;
+import me.aap.utils.misc.TestUtils;
+import me.aap.utils.net.ByteBufferSupplier;
+
+/**
+ * @author Andrey Pavlenko
+ */
+public class InflaterAsyncInputStreamTest extends Assertions {
+	private static final Random rnd = new Random();
+
+	@BeforeAll
+	static void setUpClass() {
+		TestUtils.enableTestMode();
+	}
+
+	@Test
+	public void testGzip() throws Exception {
+		byte[] data = data(100000);
+		byte[] gz = gzip(data);
+		assertArrayEquals(data, readAll(InflaterAsyncInputStream.gzip(new ChunkedStream(gz)), false));
+		assertArrayEquals(data, readAll(InflaterAsyncInputStream.gzip(new ChunkedStream(gz)), true));
+		assertArrayEquals(data, toArray(InflaterAsyncInputStream.inflate(ByteBuffer.wrap(gz), true, data.length)));
+		assertThrows(IOException.class, () -> InflaterAsyncInputStream.inflate(ByteBuffer.wrap(gz), true, data.length - 1));
+	}
+
+	@Test
+	public void testDeflate() throws Exception {
+		byte[] data = data(100000);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (DeflaterOutputStream d = new DeflaterOutputStream(out)) {
+			d.write(data);
+		}
+		byte[] z = out.toByteArray();
+		assertArrayEquals(data, readAll(InflaterAsyncInputStream.deflate(new ChunkedStream(z)), false));
+		assertArrayEquals(data, readAll(InflaterAsyncInputStream.deflate(new ChunkedStream(z)), true));
+		assertArrayEquals(data, toArray(InflaterAsyncInputStream.inflate(ByteBuffer.wrap(z), false, data.length)));
+	}
+
+	@Test
+	public void testConcatenatedMembers() throws Exception {
+		byte[] d1 = data(5000);
+		byte[] d2 = data(70000);
+		byte[] d3 = new byte[0];
+		byte[] gz = concat(gzip(d1), gzip(d2), gzip(d3), new byte[]{0, 0, 0});
+		byte[] data = concat(d1, d2, d3);
+		assertArrayEquals(data, readAll(InflaterAsyncInputStream.gzip(new ChunkedStream(gz)), false));
+		assertArrayEquals(data, readAll(InflaterAsyncInputStream.gzip(new ChunkedStream(gz)), true));
+		assertArrayEquals(data, toArray(InflaterAsyncInputStream.inflate(ByteBuffer.wrap(gz), true, data.length)));
+	}
+
+	@Test
+	public void testDeflaterRoundTrip() throws Exception {
+		byte[] data = data(100000);
+		AsyncInputStream gz = DeflaterAsyncInputStream.gzip(new ChunkedStream(data));
+		byte[] compressed = readAll(gz, true);
+		assertTrue(compressed.length < data.length);
+
+		try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+			MemOutputStream out = new MemOutputStream();
+			out.readFrom(in);
+			assertArrayEquals(data, out.trimBuffer());
+		}
+
+		AsyncInputStream z = DeflaterAsyncInputStream.deflate(new ChunkedStream(data));
+		AsyncInputStream in = InflaterAsyncInputStream.deflate(z);
+		assertArrayEquals(data, readAll(in, false));
+		gz = DeflaterAsyncInputStream.gzip(new ChunkedStream(new byte[0]));
+		assertArrayEquals(new byte[0], readAll(InflaterAsyncInputStream.gzip(gz), false));
+	}
+
+	@Test
+	public void testCorrupted() throws Exception {
+		byte[] gz = gzip(data(10000));
+		byte[] crc = gz.clone();
+		crc[crc.length - 8]++;
+		byte[] size = gz.clone();
+		size[size.length - 4]++;
+		byte[] truncated = new byte[gz.length - 3];
+		System.arraycopy(gz, 0, truncated, 0, truncated.length);
+
+		for (byte[] b : new byte[][]{crc, size, truncated}) {
+			assertThrows(Exception.class, () -> readAll(InflaterAsyncInputStream.gzip(new ChunkedStream(b)), false));
+			assertThrows(IOException.class, () -> InflaterAsyncInputStream.inflate(ByteBuffer.wrap(b), true, 100000));
+		}
+	}
+
+	private static byte[] readAll(AsyncInputStream in, boolean direct) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ByteBuffer buf = direct ? ByteBuffer.allocateDirect(1000) : ByteBuffer.allocate(1000);
+
+		try (in) {
+			for (; ; ) {
+				buf.clear().position(rnd.nextInt(10)).limit(buf.position() + 1 + rnd.nextInt(990));
+				int pos = buf.position();
+				ByteBuffer b = in.read(buf).get();
+				assertEquals(pos, b.position());
+				if (!b.hasRemaining()) break;
+				out.write(toArray(b));
+			}
+		}
+
+		return out.toByteArray();
+	}
+
+	private static byte[] data(int len) {
+		byte[] data = new byte[len];
+		// Compressible data
+		for (int i = 0; i < len; i++) data[i] = (byte) ('a' + rnd.nextInt(8));
+		return data;
+	}
+
+	private static byte[] gzip(byte[] data) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (GZIPOutputStream gz = new GZIPOutputStream(out)) {
+			gz.write(data);
+		}
+		return out.toByteArray();
+	}
+
+	private static byte[] concat(byte[]... arrays) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for (byte[] a : arrays) out.write(a, 0, a.length);
+		return out.toByteArray();
+	}
+
+	private static byte[] toArray(ByteBuffer b) {
+		byte[] a = new byte[b.remaining()];
+		b.get(a);
+		return a;
+	}
+
+	/**
+	 * Returns the data in random sized chunks, either in the supplied or in its own buffer.
+	 */
+	private static final class ChunkedStream implements AsyncInputStream {
+		private final byte[] data;
+		private int pos;
+
+		ChunkedStream(byte[] data) {
+			this.data = data;
+		}
+
+		@Override
+		public FutureSupplier<ByteBuffer> read(ByteBufferSupplier dst) {
+			int n = Math.min(data.length - pos, 1 + rnd.nextInt(3000));
+
+			if (rnd.nextBoolean()) {
+				ByteBuffer b = ByteBuffer.wrap(data, pos, n).slice();
+				pos += n;
+				return completed(b);
+			}
+
+			ByteBuffer b = dst.getByteBuffer();
+			int start = b.position();
+			n = Math.min(n, b.remaining());
+			b.put(data, pos, n).limit(start + n).position(start);
+			pos += n;
+			return completed(b);
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+}
@@ -0,0 +1,70 @@
+package me.aap.utils.net;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import me.aap.utils.misc.TestUtils;
+import me.aap.utils.net.ByteBufferPool.PooledBuffer;
+
+/**
+ * @author Andrey Pavlenko
+ */
+public class ByteBufferPoolTest extends Assertions {
+
+	@BeforeAll
+	public static void setUpClass() {
+		TestUtils.enableTestMode();
+	}
+
+	@Test
+	public void test() {
+		ByteBufferPool pool = new ByteBufferPool(1024, 8192, 16384);
+
+		PooledBuffer b1 = pool.allocate(1000);
+		ByteBuffer bb = b1.getByteBuffer();
+		assertTrue(bb.isDirect());
+		assertEquals(1024, bb.capacity());
+		assertEquals(1000, bb.limit());
+		assertEquals(1, pool.getMisses());
+		assertEquals(1024, pool.getBytesOutstanding());
+
+		b1.retain();
+		b1.release();
+		assertEquals(1024, pool.getBytesOutstanding());
+		b1.release();
+		assertEquals(0, pool.getBytesOutstanding());
+		assertThrows(IllegalStateException.class, b1::retain);
+
+		PooledBuffer b2 = pool.allocate(1024);
+		assertSame(b1, b2);
+		assertSame(bb, b2.getByteBuffer());
+		assertEquals(1, pool.getHits());
+		assertEquals(0, b2.getByteBuffer().position());
+		assertEquals(1024, b2.getByteBuffer().limit());
+
+		PooledBuffer b3 = pool.allocate(1025);
+		assertEquals(2048, b3.getByteBuffer().capacity());
+		PooledBuffer b4 = pool.allocate(10000);
+		assertEquals(10000, b4.getByteBuffer().capacity());
+		assertEquals(3, pool.getMisses());
+		assertEquals(1024 + 2048 + 10000, pool.getBytesOutstanding());
+
+		b2.release();
+		b3.release();
+		b4.release();
+		assertEquals(0, pool.getBytesOutstanding());
+		PooledBuffer b5 = pool.allocate(10000);
+		assertNotSame(b4, b5);
+		b5.release();
+
+		ByteBuffer src = ByteBuffer.wrap(new byte[]{1, 2, 3, 4});
+		src.position(1);
+		PooledBuffer copy = pool.copyOf(src);
+		assertEquals(1, src.position());
+		assertEquals(ByteBuffer.wrap(new byte[]{2, 3, 4}), copy.getByteBuffer());
+		copy.release();
+	}
+}
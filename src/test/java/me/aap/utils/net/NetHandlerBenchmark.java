@@ -0,0 +1,120 @@
+package me.aap.utils.net;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import me.aap.utils.concurrent.NetThreadPool;
+import me.aap.utils.misc.TestUtils;
+
+/**
+ * Round-trip latency of a loopback echo server with the executor and the inline I/O modes.
+ * Run with -Dbenchmark=true.
+ *
+ * @author Andrey Pavlenko
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+public class NetHandlerBenchmark extends Assertions {
+	private static final int CLIENTS = 16;
+	private static final int WARMUP = 1000;
+	private static final int ROUND_TRIPS = 10000;
+	private static final int MSG_SIZE = 64;
+	private static ExecutorService exec;
+
+	@BeforeAll
+	public static void setUpClass() {
+		TestUtils.enableTestMode();
+		exec = new NetThreadPool(Runtime.getRuntime().availableProcessors());
+	}
+
+	@AfterAll
+	public static void tearDownClass() {
+		exec.shutdown();
+	}
+
+	@Test
+	public void benchmark() throws Exception {
+		long[] executor = run(false);
+		long[] inline = run(true);
+		print("executor", executor);
+		print("inline", inline);
+	}
+
+	private static long[] run(boolean inlineIo) throws Exception {
+		NetHandler handler = NetHandler.create(o -> {
+			o.executor = exec;
+			o.inlineIo = inlineIo;
+		});
+
+		try {
+			NetServer server = handler.bind(o -> o.handler = NetHandlerBenchmark::echo).get();
+			SocketAddress addr = server.getBindAddress();
+			long[] times = new long[CLIENTS * ROUND_TRIPS];
+			Thread[] clients = new Thread[CLIENTS];
+			Throwable[] err = new Throwable[1];
+
+			for (int i = 0; i < CLIENTS; i++) {
+				int off = i * ROUND_TRIPS;
+				clients[i] = new Thread(() -> {
+					try {
+						NetChannel ch = handler.connect(o -> o.address = addr).get(10, TimeUnit.SECONDS);
+						for (int n = 0; n < WARMUP; n++) roundTrip(ch);
+						for (int n = 0; n < ROUND_TRIPS; n++) times[off + n] = roundTrip(ch);
+						ch.close();
+					} catch (Throwable ex) {
+						err[0] = ex;
+					}
+				});
+				clients[i].start();
+			}
+
+			for (Thread t : clients) {
+				t.join();
+			}
+
+			server.close();
+			assertNull(err[0]);
+			return times;
+		} finally {
+			handler.close();
+		}
+	}
+
+	private static void echo(NetChannel ch) {
+		ch.read().onCompletion((bb, err) -> {
+			if ((err != null) || !bb.hasRemaining()) ch.close();
+			else ch.write(bb).onSuccess(v -> echo(ch));
+		});
+	}
+
+	private static long roundTrip(NetChannel ch) throws Exception {
+		long start = System.nanoTime();
+		ch.write(ByteBuffer.allocate(MSG_SIZE)).get();
+
+		for (int received = 0; received < MSG_SIZE; ) {
+			ByteBuffer bb = ch.read().get();
+			assertTrue(bb.hasRemaining());
+			received += bb.remaining();
+		}
+
+		return System.nanoTime() - start;
+	}
+
+	private static void print(String mode, long[] times) {
+		Arrays.sort(times);
+		long sum = 0;
+		for (long t : times) sum += t;
+		System.out.printf(Locale.ROOT, "%-8s avg=%.1fus p50=%.1fus p99=%.1fus max=%.1fus%n", mode,
+				sum / 1000.0 / times.length, times[times.length / 2] / 1000.0,
+				times[(int) (times.length * 0.99)] / 1000.0, times[times.length - 1] / 1000.0);
+	}
+}
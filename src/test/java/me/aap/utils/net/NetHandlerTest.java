@@ -7,9 +7,15 @@ import org.junit.jupiter.api.RepeatedTest;
 import org.junit.jupiter.api.Test;
 
 import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
 import java.net.SocketAddress;
 import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
 import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Random;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
@@ -55,6 +61,82 @@ public class NetHandlerTest extends Assertions {
 
 	@RepeatedTest(10)
 	public void test() throws Exception {
+		test(handler);
+	}
+
+	@Test
+	public void testEventLoopGroup() throws Exception {
+		for (boolean leastLoaded : new boolean[]{false, true}) {
+			NetHandler h = NetHandler.create(o -> {
+				o.executor = exec;
+				o.selectors = 4;
+				o.leastLoaded = leastLoaded;
+			});
+
+			try {
+				test(h);
+			} finally {
+				h.close();
+			}
+		}
+	}
+
+	@Test
+	public void testInlineIo() throws Exception {
+		NetHandler h = NetHandler.create(o -> {
+			o.executor = exec;
+			o.inlineIo = true;
+		});
+
+		try {
+			test(h);
+		} finally {
+			h.close();
+		}
+	}
+
+	@Test
+	public void testWriteGather() throws Exception {
+		NetHandler h = NetHandler.create(o -> {
+			o.executor = exec;
+			o.writeGatherBuffers = 16;
+			o.writeGatherBytes = 64 * 1024;
+		});
+
+		try {
+			NetServer server = h.bind(o -> o.handler = ch -> {
+				Random rnd = ThreadLocalRandom.current();
+				FutureSupplier<Void> last = null;
+
+				for (int off = 0; off < data.length; ) {
+					int len = Math.min(rnd.nextInt(4096) + 1, data.length - off);
+					last = ch.write(ByteBuffer.wrap(data, off, len));
+					off += len;
+				}
+
+				if (last == null) ch.close();
+				else last.thenRun(ch::close);
+			}).get();
+
+			NetChannel ch = h.connect(o -> o.address = server.getBindAddress()).get();
+			MessageDigest md = sha1Digest();
+
+			ch.read().thenIterate(b -> {
+				ByteBuffer bb = b.get();
+				if (!bb.hasRemaining()) return null;
+				md.update(bb);
+				return ch.read();
+			}).get(20, TimeUnit.SECONDS);
+
+			ch.close();
+			server.close();
+			assertArrayEquals(checksum, md.digest());
+		} finally {
+			h.close();
+		}
+	}
+
+	private static void test(NetHandler handler) throws Exception {
 		int nclients = 100;
 		AtomicBoolean failed = new AtomicBoolean();
 
@@ -142,4 +224,124 @@ public class NetHandlerTest extends Assertions {
 			assertTrue(ex.getCause() instanceof TimeoutException);
 		}
 	}
+
+	@Test
+	public void testCloseWithPendingConnect() throws Exception {
+		NetHandler h = NetHandler.create(o -> o.executor = exec);
+
+		try (ServerSocket ss = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+			// The server never accepts, so the connections above the backlog remain pending
+			List<FutureSupplier<NetChannel>> connects = new ArrayList<>();
+
+			for (int i = 0; i < 12; i++) {
+				int timeout = (i % 2 == 0) ? 0 : 60;
+				connects.add(h.connect(o -> {
+					o.address = ss.getLocalSocketAddress();
+					o.connectTimeout = timeout;
+				}));
+			}
+
+			Thread.sleep(500);
+			boolean[] pending = new boolean[connects.size()];
+			for (int i = 0; i < pending.length; i++) pending[i] = !connects.get(i).isDone();
+			h.close();
+
+			// The last ones are pending both, with and without the timer
+			assertTrue(pending[pending.length - 2] && pending[pending.length - 1]);
+
+			for (int i = 0; i < pending.length; i++) {
+				if (!pending[i]) continue;
+				FutureSupplier<NetChannel> f = connects.get(i);
+
+				try {
+					// Connected just before close
+					assertFalse(f.get(5, TimeUnit.SECONDS).isOpen());
+					assertTrue(i < pending.length - 2);
+				} catch (ExecutionException ex) {
+					assertTrue(ex.getCause() instanceof ClosedChannelException, ex::toString);
+				}
+			}
+
+			// Connect after close must fail as well
+			assertThrows(ExecutionException.class, () -> h.connect(o ->
+					o.address = ss.getLocalSocketAddress()).get(5, TimeUnit.SECONDS));
+		} finally {
+			h.close();
+		}
+	}
+
+	@Test
+	public void testTimerWheel() throws Exception {
+		NetHandler h = NetHandler.create(o -> {
+			o.executor = exec;
+			o.selectors = 2;
+		});
+
+		try (ServerSocket ss = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+			long start = System.currentTimeMillis();
+			FutureSupplier<NetChannel> connect = pendingConnect(h, ss, 1);
+			ExecutionException ex = assertThrows(ExecutionException.class,
+					() -> connect.get(5, TimeUnit.SECONDS));
+			assertTrue(ex.getCause() instanceof TimeoutException, ex::toString);
+			assertTrue(System.currentTimeMillis() - start >= 1000);
+
+			NetServer server = h.bind(o -> o.handler = ch -> {
+			}).get();
+			List<FutureSupplier<ByteBuffer>> reads = new ArrayList<>();
+			start = System.currentTimeMillis();
+
+			// The timers are distributed between the loops and fire on the wheel ticks
+			for (int i = 0; i < 10; i++) {
+				int timeout = 1 + (i % 2);
+				NetChannel ch = h.connect(o -> {
+					o.address = server.getBindAddress();
+					o.readTimeout = timeout;
+				}).get(5, TimeUnit.SECONDS);
+				reads.add(ch.read());
+			}
+
+			for (FutureSupplier<ByteBuffer> r : reads) {
+				ex = assertThrows(ExecutionException.class, () -> r.get(5, TimeUnit.SECONDS));
+				assertTrue(ex.getCause() instanceof TimeoutException, ex::toString);
+			}
+
+			long time = System.currentTimeMillis() - start;
+			assertTrue((time >= 2000) && (time < 4000), () -> "Time: " + time);
+
+			// A completed operation cancels its timer
+			NetServer echo = h.bind(o -> o.handler = ch -> ch.read().then(ch::write)).get();
+			NetChannel ch = h.connect(o -> {
+				o.address = echo.getBindAddress();
+				o.readTimeout = 1;
+			}).get(5, TimeUnit.SECONDS);
+			ch.write(ByteBuffer.wrap(new byte[]{1})).get(5, TimeUnit.SECONDS);
+			assertEquals(1, ch.read().get(5, TimeUnit.SECONDS).remaining());
+			server.close();
+			echo.close();
+		} finally {
+			h.close();
+		}
+	}
+
+	/**
+	 * Fill the accept backlog of the server socket, that never accepts, until a connection
+	 * remains pending.
+	 */
+	private static FutureSupplier<NetChannel> pendingConnect(NetHandler h, ServerSocket ss,
+																													 int timeout) throws Exception {
+		for (int i = 0; i < 10; i++) {
+			FutureSupplier<NetChannel> f = h.connect(o -> {
+				o.address = ss.getLocalSocketAddress();
+				o.connectTimeout = timeout;
+			});
+
+			try {
+				f.get(300, TimeUnit.MILLISECONDS);
+			} catch (TimeoutException ex) {
+				return f;
+			}
+		}
+
+		throw new AssertionError("Failed to create a pending connection");
+	}
 }
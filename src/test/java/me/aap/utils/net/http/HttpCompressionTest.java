@@ -0,0 +1,61 @@
+package me.aap.utils.net.http;
+
+import static me.aap.utils.net.http.HttpCompression.DEFLATE;
+import static me.aap.utils.net.http.HttpCompression.GZIP;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+/**
+ * @author Andrey Pavlenko
+ */
+public class HttpCompressionTest extends Assertions {
+
+	@Test
+	public void testNegotiate() {
+		assertNull(HttpCompression.negotiate((CharSequence) null));
+		assertNull(HttpCompression.negotiate(""));
+		assertNull(HttpCompression.negotiate("identity"));
+		assertNull(HttpCompression.negotiate("br"));
+		assertEquals(GZIP, HttpCompression.negotiate("gzip"));
+		assertEquals(GZIP, HttpCompression.negotiate("gzip, deflate, br"));
+		assertEquals(GZIP, HttpCompression.negotiate("deflate, gzip"));
+		assertEquals(DEFLATE, HttpCompression.negotiate("deflate"));
+		assertEquals(DEFLATE, HttpCompression.negotiate("gzip;q=0.5, deflate"));
+		assertEquals(DEFLATE, HttpCompression.negotiate("gzip;q=0, *"));
+		assertEquals(GZIP, HttpCompression.negotiate("*"));
+		assertNull(HttpCompression.negotiate("gzip;q=0"));
+		assertNull(HttpCompression.negotiate("*;q=0"));
+	}
+
+	@Test
+	public void testIsCompressible() {
+		assertTrue(HttpCompression.isCompressible("text/html"));
+		assertTrue(HttpCompression.isCompressible("text/xml; charset=\"utf-8\""));
+		assertTrue(HttpCompression.isCompressible("application/json"));
+		assertTrue(HttpCompression.isCompressible("image/svg+xml"));
+		assertTrue(HttpCompression.isCompressible("Application/XML"));
+		assertFalse(HttpCompression.isCompressible(null));
+		assertFalse(HttpCompression.isCompressible("image/jpeg"));
+		assertFalse(HttpCompression.isCompressible("video/mp4"));
+		assertFalse(HttpCompression.isCompressible("audio/mpeg"));
+		assertFalse(HttpCompression.isCompressible("application/zip"));
+		assertFalse(HttpCompression.isCompressible("application/octet-stream"));
+	}
+
+	@Test
+	public void testCache() {
+		HttpCompression.Cache cache = new HttpCompression.Cache(100, 50);
+		cache.put("a", ByteBuffer.allocate(40));
+		cache.put("b", ByteBuffer.allocate(40));
+		cache.put("c", ByteBuffer.allocate(60));
+		assertNull(cache.get("c"));
+		assertNotNull(cache.get("a"));
+		cache.put("d", ByteBuffer.allocate(40));
+		assertNull(cache.get("b"));
+		assertEquals(40, cache.get("a").remaining());
+		assertEquals(40, cache.get("d").remaining());
+	}
+}
@@ -0,0 +1,32 @@
+package me.aap.utils.net.http;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import me.aap.utils.misc.TestUtils;
+
+/**
+ * @author Andrey Pavlenko
+ */
+public class HttpDateTest extends Assertions {
+
+	@BeforeAll
+	static void setUpClass() {
+		TestUtils.enableTestMode();
+	}
+
+	@Test
+	public void testFormatAndParse() {
+		assertEquals("Sun, 06 Nov 1994 08:49:37 GMT", HttpDate.format(784111777000L));
+		assertEquals(784111777000L, HttpDate.parse("Sun, 06 Nov 1994 08:49:37 GMT"));
+		assertEquals(784111777000L, HttpDate.parse(" Sun, 06 Nov 1994 08:49:37 GMT "));
+
+		long now = System.currentTimeMillis();
+		assertEquals(now / 1000 * 1000, HttpDate.parse(HttpDate.format(now)));
+
+		assertEquals(-1, HttpDate.parse(null));
+		assertEquals(-1, HttpDate.parse(""));
+		assertEquals(-1, HttpDate.parse("\"5f3a-1000\""));
+	}
+}
@@ -11,21 +11,32 @@ import org.junit.jupiter.params.provider.ValueSource;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.SocketAddress;
 import java.net.StandardSocketOptions;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Random;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.GZIPOutputStream;
+
+import javax.net.ssl.SSLEngine;
 
 import me.aap.utils.async.Async;
 import me.aap.utils.async.FutureSupplier;
 import me.aap.utils.async.Promise;
 import me.aap.utils.concurrent.NetThreadPool;
+import me.aap.utils.io.FileUtils;
 import me.aap.utils.io.MemOutputStream;
 import me.aap.utils.io.RandomAccessChannel;
 import me.aap.utils.log.Log;
@@ -33,7 +44,9 @@ import me.aap.utils.misc.TestUtils;
 import me.aap.utils.net.NetChannel;
 import me.aap.utils.net.NetHandler;
 import me.aap.utils.net.NetServer;
+import me.aap.utils.pref.BasicPreferenceStore;
 import me.aap.utils.security.SecurityUtils;
+import me.aap.utils.security.SslSessionCache;
 import me.aap.utils.vfs.VfsHttpHandler;
 import me.aap.utils.vfs.VfsManager;
 import me.aap.utils.vfs.local.LocalFileSystem;
@@ -46,6 +59,7 @@ import static me.aap.utils.io.IoUtils.emptyByteBufferArray;
 import static me.aap.utils.net.http.HttpHeader.ACCEPT_ENCODING;
 import static me.aap.utils.net.http.HttpHeader.ACCEPT_RANGES;
 import static me.aap.utils.net.http.HttpHeader.CONNECTION;
+import static me.aap.utils.net.http.HttpHeader.CONTENT_RANGE;
 import static me.aap.utils.net.http.HttpHeader.CONTENT_TYPE;
 import static me.aap.utils.net.http.HttpHeader.ETAG;
 import static me.aap.utils.net.http.HttpHeader.LOCATION;
@@ -274,6 +288,472 @@ public class HttpHandlerTest extends Assertions {
 		assertFalse(failed.get());
 	}
 
+	@Test
+	public void testHeaders() throws Exception {
+		byte[] req = ("GET /test?a=b HTTP/1.1\r\n" +
+				"Host: localhost:8080\r\n" +
+				"user-agent: Mozilla/5.0 (X11; Linux x86_64; rv:109.0) Gecko/20100101 Firefox/115.0\r\n" +
+				"X-Empty:\r\n" +
+				"X-Custom-Header-Name:  \tvalue:1\r\n" +
+				"Connection: Close\r\n\r\n").getBytes(US_ASCII);
+		Promise<String> headers = new Promise<>();
+		HttpConnectionHandler http = new HttpConnectionHandler();
+		http.addHandler("/test", (p, m, v) -> r -> {
+			headers.complete(r.getHeader(HttpHeader.HOST) + "|" + r.getHeader("User-Agent") + "|" +
+					r.getHeader("x-empty") + "|" + r.getHeader("X-CUSTOM-HEADER-NAME") + "|" +
+					r.getHeader("X-Custom") + "|" + r.getHeader("connection"));
+			r.getChannel().write(() -> ByteBuffer.wrap(CLOSE_RESP));
+			return completedVoid();
+		});
+		NetServer server = handler.bind(o -> o.handler = http).get();
+		int port = ((InetSocketAddress) server.getBindAddress()).getPort();
+
+		// Write the request in small pieces to split the header lines
+		handler.connect(o -> {
+			o.host = "localhost";
+			o.port = port;
+		}).then(ch -> {
+			AtomicInteger off = new AtomicInteger();
+			return Async.iterate(() -> {
+				int o = off.get();
+				if (o == req.length) return null;
+				int len = Math.min(7, req.length - o);
+				off.set(o + len);
+				return ch.write(ByteBuffer.wrap(req, o, len));
+			}).then(v -> headers).thenRun(ch::close);
+		}).get();
+
+		server.close();
+		assertEquals("localhost:8080|Mozilla/5.0 (X11; Linux x86_64; rv:109.0) Gecko/20100101 " +
+				"Firefox/115.0||value:1|null|Close", headers.get());
+	}
+
+	@Test
+	public void testSegmentedDownload() throws Exception {
+		byte[] data = new byte[3 * 1024 * 1024 + 123];
+		new Random().nextBytes(data);
+		Set<Long> starts = Collections.newSetFromMap(new ConcurrentHashMap<>());
+		HttpConnectionHandler http = new HttpConnectionHandler();
+		http.addHandler("/file", (p, m, v) -> rangeHandler(data, new AtomicReference<>("\"v1\""),
+				new AtomicInteger(), starts));
+		NetServer server = handler.bind(o -> o.handler = http).get();
+		int port = ((InetSocketAddress) server.getBindAddress()).getPort();
+		String url = "http://localhost:" + port + "/file";
+		File dir = Files.createTempDirectory("download").toFile();
+		File dst = new File(dir, "file");
+		File incomplete = new File(dir, "file.incomplete");
+		BasicPreferenceStore prefs = new BasicPreferenceStore();
+		HttpFileDownloader d = new HttpFileDownloader();
+		d.setNetHandler(handler);
+		d.setSegments(4);
+		d.setMinSegmentLength(512 * 1024);
+
+		try {
+			HttpFileDownloader.Status st = d.download(url, dst, prefs).get();
+			assertEquals(data.length, st.getLength());
+			assertEquals(data.length, st.bytesDownloaded());
+			assertArrayEquals(data, Files.readAllBytes(dst.toPath()));
+			assertEquals(4, starts.size());
+			assertNull(prefs.getStringPref(HttpFileDownloader.SEGMENTS));
+			assertFalse(incomplete.exists());
+
+			// Simulate an interrupted download: the first half of each segment is complete
+			long seg = (data.length + 3) / 4;
+			StringBuilder map = new StringBuilder().append(data.length);
+			byte[] partial = new byte[data.length];
+			Set<Long> resumed = new HashSet<>();
+
+			for (int i = 0; i < 4; i++) {
+				long start = i * seg;
+				long end = Math.min(data.length, start + seg);
+				long pos = start + (end - start) / 2;
+				System.arraycopy(data, (int) start, partial, (int) start, (int) (pos - start));
+				map.append(',').append(pos).append(',').append(end);
+				resumed.add(pos);
+			}
+
+			Files.write(incomplete.toPath(), partial);
+			prefs.applyStringPref(HttpFileDownloader.SEGMENTS, map.toString());
+			prefs.applyStringPref(HttpFileDownloader.SEGMENTS_VALIDATOR, "\"v1\"");
+			//noinspection ResultOfMethodCallIgnored
+			dst.delete();
+			starts.clear();
+
+			d.download(url, dst, prefs).get();
+			assertArrayEquals(data, Files.readAllBytes(dst.toPath()));
+			assertEquals(resumed, starts);
+			assertNull(prefs.getStringPref(HttpFileDownloader.SEGMENTS));
+		} finally {
+			server.close();
+			FileUtils.delete(dir);
+		}
+	}
+
+	@Test
+	public void testResumeDownload() throws Exception {
+		byte[] data = new byte[1024 * 1024];
+		new Random().nextBytes(data);
+		Set<Long> starts = Collections.newSetFromMap(new ConcurrentHashMap<>());
+		AtomicReference<String> etag = new AtomicReference<>("\"v1\"");
+		AtomicInteger truncate = new AtomicInteger(data.length / 3);
+		HttpConnectionHandler http = new HttpConnectionHandler();
+		http.addHandler("/file", (p, m, v) -> rangeHandler(data, etag, truncate, starts));
+		NetServer server = handler.bind(o -> o.handler = http).get();
+		int port = ((InetSocketAddress) server.getBindAddress()).getPort();
+		String url = "http://localhost:" + port + "/file";
+		File dir = Files.createTempDirectory("download").toFile();
+		File dst = new File(dir, "file");
+		File incomplete = new File(dir, "file.incomplete");
+		BasicPreferenceStore prefs = new BasicPreferenceStore();
+		HttpFileDownloader d = new HttpFileDownloader();
+		d.setNetHandler(handler);
+		d.setSegmentRetries(0);
+
+		try {
+			// The connection is closed after the first third of the file
+			assertThrows(Exception.class, () -> d.download(url, dst, prefs).get());
+			assertFalse(dst.exists());
+			assertTrue(incomplete.isFile());
+			assertEquals("\"v1\"", prefs.getStringPref(HttpFileDownloader.SEGMENTS_VALIDATOR));
+			assertEquals(Collections.singleton(0L), starts);
+
+			starts.clear();
+			d.download(url, dst, prefs).get();
+			assertArrayEquals(data, Files.readAllBytes(dst.toPath()));
+			assertEquals(1, starts.size());
+			assertTrue(starts.iterator().next() > 0);
+			assertNull(prefs.getStringPref(HttpFileDownloader.SEGMENTS));
+			assertFalse(incomplete.exists());
+
+			// The file is changed on the server after the partial download
+			//noinspection ResultOfMethodCallIgnored
+			dst.delete();
+			truncate.set(data.length / 2);
+			assertThrows(Exception.class, () -> d.download(url, dst, prefs).get());
+			etag.set("\"v2\"");
+			data[0]++;
+			starts.clear();
+			d.download(url, dst, prefs).get();
+			assertArrayEquals(data, Files.readAllBytes(dst.toPath()));
+			assertEquals(Collections.singleton(0L), starts);
+		} finally {
+			server.close();
+			FileUtils.delete(dir);
+		}
+	}
+
+	@Test
+	public void testSegmentedDownloadOptions() throws Exception {
+		byte[] data = new byte[3 * 1024 * 1024 + 123];
+		new Random().nextBytes(data);
+		Set<Long> starts = Collections.newSetFromMap(new ConcurrentHashMap<>());
+		AtomicInteger truncate = new AtomicInteger(100000);
+		AtomicInteger active = new AtomicInteger();
+		AtomicInteger maxActive = new AtomicInteger();
+		HttpRequestHandler rh = rangeHandler(data, new AtomicReference<>("\"v1\""), truncate, starts);
+		HttpConnectionHandler http = new HttpConnectionHandler();
+		http.addHandler("/file", (p, m, v) -> req -> {
+			maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+			return rh.handleRequest(req).onCompletion((r, f) -> active.decrementAndGet());
+		});
+		NetServer server = handler.bind(o -> o.handler = http).get();
+		int port = ((InetSocketAddress) server.getBindAddress()).getPort();
+		String url = "http://localhost:" + port + "/file";
+		File dir = Files.createTempDirectory("download").toFile();
+		File dst = new File(dir, "file");
+		File incomplete = new File(dir, "file.incomplete");
+		BasicPreferenceStore prefs = new BasicPreferenceStore();
+		HttpFileDownloader d = new HttpFileDownloader();
+		d.setNetHandler(handler);
+		d.setSegments(4);
+		d.setMinSegmentLength(512 * 1024);
+
+		try {
+			// Not resumable - the incomplete file is deleted
+			d.setResumable(false);
+			d.setSegmentRetries(0);
+			assertThrows(Exception.class, () -> d.download(url, dst, prefs).get());
+			assertFalse(dst.exists());
+			assertFalse(incomplete.exists());
+			assertNull(prefs.getStringPref(HttpFileDownloader.SEGMENTS));
+			assertNull(prefs.getStringPref(HttpFileDownloader.SEGMENTS_VALIDATOR));
+
+			// The failed segment is retried after the delay
+			d.setResumable(true);
+			d.setSegmentRetries(2);
+			d.setSegmentRetryDelay(300);
+			truncate.set(100000);
+			long start = System.currentTimeMillis();
+			d.download(url, dst, prefs).get();
+			assertTrue(System.currentTimeMillis() - start >= 300);
+			assertArrayEquals(data, Files.readAllBytes(dst.toPath()));
+			assertFalse(incomplete.exists());
+
+			// The downloads of the same file are serialized
+			//noinspection ResultOfMethodCallIgnored
+			dst.delete();
+			maxActive.set(0);
+			HttpFileDownloader d2 = new HttpFileDownloader();
+			d2.setNetHandler(handler);
+			d2.setSegments(4);
+			d2.setMinSegmentLength(512 * 1024);
+			FutureSupplier<HttpFileDownloader.Status> f1 = d.download(url, dst, prefs);
+			FutureSupplier<HttpFileDownloader.Status> f2 = d2.download(url, dst, new BasicPreferenceStore());
+			assertEquals(data.length, f1.get().getLength());
+			assertEquals(data.length, f2.get().getLength());
+			assertArrayEquals(data, Files.readAllBytes(dst.toPath()));
+			assertFalse(incomplete.exists());
+			assertTrue(maxActive.get() <= 4, () -> "Max active: " + maxActive.get());
+		} finally {
+			server.close();
+			FileUtils.delete(dir);
+		}
+	}
+
+	/**
+	 * Serve the data, supporting Range and If-Range. If truncate is not 0, the connection is closed
+	 * after sending the specified number of bytes.
+	 */
+	private static HttpRequestHandler rangeHandler(byte[] data, AtomicReference<String> etag,
+																								 AtomicInteger truncate, Set<Long> starts) {
+		return req -> {
+			Range range = req.getRange();
+			CharSequence ifRange = req.getHeader(HttpHeader.IF_RANGE);
+			String tag = etag.get();
+			if ((ifRange != null) && !tag.contentEquals(ifRange)) range = null;
+			HttpVersion version = req.getVersion();
+			NetChannel channel = req.getChannel();
+			int start = 0;
+			int end = data.length - 1;
+
+			if (range != null) {
+				range.align(data.length);
+				start = (int) range.getStart();
+				end = (int) range.getEnd();
+			}
+
+			int s = start;
+			int e = end;
+			boolean partial = range != null;
+			int limit = truncate.getAndSet(0);
+			starts.add((long) s);
+
+			FutureSupplier<Void> w = channel.write(HttpResponseBuilder.supplier(b -> {
+				if (partial) {
+					b.setStatusPartial(version);
+					b.addHeader(CONTENT_RANGE, "bytes " + s + '-' + e + '/' + data.length);
+				} else {
+					b.setStatusOk(version);
+				}
+
+				b.addHeader(ACCEPT_RANGES);
+				b.addHeader(ETAG, tag);
+				if (limit == 0) return b.build(ByteBuffer.wrap(data, s, e - s + 1));
+				b.addHeader(HttpHeader.CONTENT_LENGTH, e - s + 1);
+				ByteBuffer[] h = b.build();
+				ByteBuffer[] r = Arrays.copyOf(h, h.length + 1);
+				r[h.length] = ByteBuffer.wrap(data, s, Math.min(limit, e - s + 1));
+				return r;
+			}));
+
+			if (limit != 0) w.onCompletion((r, f) -> channel.close());
+			return w;
+		};
+	}
+
+	@Test
+	public void testSslSessionResumption() throws Exception {
+		SslSessionCache cache = SslSessionCache.getClientCache();
+		SslSessionCache serverCache = SslSessionCache.getServerCache();
+		long hits = cache.getHits();
+		long serverHits = serverCache.getHits();
+		// The resumed TLS 1.3 sessions get new ids
+		String[] protocols = {"TLSv1.2"};
+		byte[] req = ("GET /test HTTP/1.1\n" +
+				"Host: localhost\n" +
+				"Connection: Close\r\n\r\n").getBytes(US_ASCII);
+		HttpConnectionHandler http = new HttpConnectionHandler();
+		http.addHandler("/test", (p, m, v) -> r -> {
+			r.getChannel().write(() -> ByteBuffer.wrap(CLOSE_RESP));
+			return completedVoid();
+		});
+		NetServer server = handler.bind(o -> {
+			o.handler = http;
+			o.ssl = true;
+			o.sslEngine = () -> {
+				SSLEngine eng = SecurityUtils.createServerSslEngine();
+				eng.setEnabledProtocols(protocols);
+				return eng;
+			};
+		}).get();
+		int port = ((InetSocketAddress) server.getBindAddress()).getPort();
+		byte[][] ids = new byte[3][];
+
+		for (int i = 0; i < ids.length; i++) {
+			SSLEngine[] engine = new SSLEngine[1];
+			handler.connect(o -> {
+				o.host = "localhost";
+				o.port = port;
+				o.ssl = true;
+				o.sslEngine = (h, p) -> {
+					engine[0] = SecurityUtils.createClientSslEngine(h, p);
+					engine[0].setEnabledProtocols(protocols);
+					return engine[0];
+				};
+			}).then(ch -> {
+				ch.write(() -> ByteBuffer.wrap(req));
+				ByteBuffer resp = ByteBuffer.allocate(CLOSE_RESP.length);
+				return Async.iterate(() -> resp.hasRemaining() ? ch.read((bb, err) -> resp.put(bb)) : null)
+						.thenRun(ch::close);
+			}).get();
+			ids[i] = engine[0].getSession().getId();
+		}
+
+		server.close();
+		assertArrayEquals(ids[0], ids[1]);
+		assertArrayEquals(ids[0], ids[2]);
+		assertEquals(hits + 2, cache.getHits(), cache::toString);
+		assertEquals(serverHits + 2, serverCache.getHits(), serverCache::toString);
+
+		// The bind options do not affect the shared server cache
+		int serverSize = serverCache.getSize();
+		server = handler.bind(o -> {
+			o.handler = http;
+			o.ssl = true;
+			o.sslSessionCacheSize = serverSize + 1;
+		}).get();
+		server.close();
+		assertEquals(serverSize, serverCache.getSize());
+	}
+
+	@ParameterizedTest
+	@ValueSource(ints = {0, 4})
+	public void testConnectionPool(int maxPipelined) throws Exception {
+		int nreq = 200;
+		byte[] resp = ("HTTP/1.1 200 Ok\n" +
+				"Content-Length: 2\n\nOk").getBytes(US_ASCII);
+		Map<NetChannel, Boolean> channels = new ConcurrentHashMap<>();
+		HttpConnectionHandler http = new HttpConnectionHandler();
+		http.addHandler("/test", (p, m, v) -> r -> {
+			channels.put(r.getChannel(), true);
+			r.getChannel().write(() -> ByteBuffer.wrap(resp));
+			return completedVoid();
+		});
+		NetServer server = handler.bind(o -> o.handler = http).get();
+		int port = ((InetSocketAddress) server.getBindAddress()).getPort();
+		AtomicInteger counter = new AtomicInteger(nreq);
+		Promise<Void> done = new Promise<>();
+
+		for (int i = 0; i < nreq; i++) {
+			HttpConnection.connect(o -> {
+				o.handler = handler;
+				o.url("http://localhost:" + port + "/test");
+				o.maxConnections = 2;
+				o.maxPipelined = maxPipelined;
+			}, (r, err) -> {
+				if (err != null) {
+					done.completeExceptionally(err);
+					return completedVoid();
+				}
+
+				return r.skipPayload().onCompletion((v, fail) -> {
+					if (fail != null) done.completeExceptionally(fail);
+					else if (counter.decrementAndGet() == 0) done.complete(null);
+				});
+			});
+		}
+
+		done.get();
+		HttpConnectionPool pool = null;
+
+		for (HttpConnectionPool p : HttpConnectionPool.getPools()) {
+			if (p.getPort() == port) pool = p;
+		}
+
+		assertNotNull(pool);
+		assertTrue(channels.size() <= 2, () -> "Connections: " + channels.size());
+		for (int i = 0; (pool.getBusyLength() != 0) && (i < 100); i++) Thread.sleep(10);
+		assertEquals(0, pool.getBusyLength(), pool::toString);
+		assertEquals(pool.getLength(), pool.getIdleLength(), pool::toString);
+		assertEquals(0, pool.getQueueLength(), pool::toString);
+		pool.close();
+		server.close();
+	}
+
+	@ParameterizedTest
+	@ValueSource(strings = {"fixed", "chunked", "fixed,gzip", "chunked,gzip"})
+	public void testPayloadStream(String mode) throws Exception {
+		boolean chunked = mode.startsWith("chunked");
+		boolean gzip = mode.endsWith("gzip");
+		int nreq = 20;
+		Random rnd = new Random();
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 20000; i++) sb.append(rnd.nextInt(1000)).append(' ');
+		byte[] payload = sb.toString().getBytes(US_ASCII);
+		byte[] body = payload;
+
+		if (gzip) {
+			MemOutputStream mem = new MemOutputStream();
+			try (GZIPOutputStream gz = new GZIPOutputStream(mem)) {
+				gz.write(payload);
+			}
+			body = Arrays.copyOf(mem.getBuffer(), mem.getCount());
+		}
+
+		MemOutputStream resp = new MemOutputStream();
+		resp.write(("HTTP/1.1 200 Ok\r\n" + (gzip ? "Content-Encoding: gzip\r\n" : "") +
+				(chunked ? "Transfer-Encoding: chunked\r\n\r\n" :
+						"Content-Length: " + body.length + "\r\n\r\n")).getBytes(US_ASCII));
+
+		if (chunked) {
+			for (int off = 0; off < body.length; ) {
+				int len = Math.min(rnd.nextInt(5000) + 1, body.length - off);
+				resp.write((Integer.toHexString(len) + "\r\n").getBytes(US_ASCII));
+				resp.write(body, off, len);
+				resp.write("\r\n".getBytes(US_ASCII));
+				off += len;
+			}
+			resp.write("0\r\n\r\n".getBytes(US_ASCII));
+		} else {
+			resp.write(body);
+		}
+
+		byte[] respBytes = Arrays.copyOf(resp.getBuffer(), resp.getCount());
+		HttpConnectionHandler http = new HttpConnectionHandler();
+		http.addHandler("/test", (p, m, v) -> r -> {
+			r.getChannel().write(() -> ByteBuffer.wrap(respBytes));
+			return completedVoid();
+		});
+		NetServer server = handler.bind(o -> o.handler = http).get();
+		int port = ((InetSocketAddress) server.getBindAddress()).getPort();
+		AtomicInteger counter = new AtomicInteger(nreq);
+		Promise<Void> done = new Promise<>();
+
+		for (int i = 0; i < nreq; i++) {
+			HttpConnection.connect(o -> {
+				o.handler = handler;
+				o.url("http://localhost:" + port + "/test");
+				o.maxConnections = 1;
+				o.maxPipelined = 4;
+			}, (r, err) -> {
+				if (err != null) {
+					done.completeExceptionally(err);
+					return completedVoid();
+				}
+
+				return new MemOutputStream(16).readFrom(r.getPayloadStream()).onCompletion((out, fail) -> {
+					if (fail != null) done.completeExceptionally(fail);
+					else if (!Arrays.equals(payload, Arrays.copyOf(out.getBuffer(), out.getCount())))
+						done.completeExceptionally(new Exception("Invalid payload: " + out.getCount()));
+					else if (counter.decrementAndGet() == 0) done.complete(null);
+				});
+			});
+		}
+
+		done.get();
+		server.close();
+	}
+
 	@ParameterizedTest
 	@ValueSource(strings = {
 			"no-ssl,getPayload", "ssl,getPayload",
@@ -0,0 +1,144 @@
+package me.aap.utils.net.http;
+
+import androidx.annotation.Nullable;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.nio.ByteBuffer;
+import java.util.Locale;
+
+import me.aap.utils.async.FutureSupplier;
+import me.aap.utils.function.ProgressiveResultConsumer.Completion;
+import me.aap.utils.misc.TestUtils;
+import me.aap.utils.net.ByteBufferArraySupplier;
+import me.aap.utils.net.ByteBufferSupplier;
+import me.aap.utils.net.NetChannel;
+import me.aap.utils.net.NetHandler;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static me.aap.utils.async.Completed.completedNull;
+import static me.aap.utils.async.Completed.completedVoid;
+
+/**
+ * Request parsing throughput of a single thread on browser and DLNA request samples. The requests
+ * are parsed from an in-memory buffer, so the result is the number of requests per second per core.
+ * Run with -Dbenchmark=true.
+ *
+ * @author Andrey Pavlenko
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+public class HttpHeaderBenchmark extends Assertions {
+	private static final int BATCH = 8;
+	private static final int ITERATIONS = 200_000;
+	private static final String BROWSER = "GET /vfs?resource=http%3A%2F%2Fexample.com%2Fimage.png HTTP/1.1\r\n" +
+			"Host: 192.168.1.5:8080\r\n" +
+			"Connection: keep-alive\r\n" +
+			"sec-ch-ua: \"Chromium\";v=\"116\", \"Not)A;Brand\";v=\"24\", \"Google Chrome\";v=\"116\"\r\n" +
+			"sec-ch-ua-mobile: ?0\r\n" +
+			"User-Agent: Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) " +
+			"Chrome/116.0.0.0 Safari/537.36\r\n" +
+			"sec-ch-ua-platform: \"Windows\"\r\n" +
+			"Accept: image/avif,image/webp,image/apng,image/svg+xml,image/*,*/*;q=0.8\r\n" +
+			"Sec-Fetch-Site: same-origin\r\n" +
+			"Sec-Fetch-Mode: no-cors\r\n" +
+			"Sec-Fetch-Dest: image\r\n" +
+			"Referer: http://192.168.1.5:8080/index.html\r\n" +
+			"Accept-Encoding: gzip, deflate, br\r\n" +
+			"Accept-Language: en-US,en;q=0.9\r\n" +
+			"If-None-Match: \"1693573920000-1048576\"\r\n\r\n";
+	private static final String DLNA = "GET /vfs?resource=file%3A%2F%2F%2Fstorage%2Fmovie.mkv HTTP/1.1\r\n" +
+			"HOST: 192.168.1.5:8080\r\n" +
+			"USER-AGENT: Linux/4.4.3, UPnP/1.0, DLNADOC/1.50 SEC_HHP_[TV] Samsung/1.0\r\n" +
+			"getcontentFeatures.dlna.org: 1\r\n" +
+			"transferMode.dlna.org: Streaming\r\n" +
+			"Range: bytes=0-\r\n" +
+			"CONNECTION: keep-alive\r\n\r\n";
+	private static final String DLNA_HEAD = "HEAD /vfs?resource=file%3A%2F%2F%2Fstorage%2Fsong.flac HTTP/1.1\r\n" +
+			"Host: 192.168.1.5:8080\r\n" +
+			"User-Agent: VLC/3.0.18 LibVLC/3.0.18\r\n" +
+			"getcontentFeatures.dlna.org: 1\r\n" +
+			"Accept: */*\r\n\r\n";
+
+	private static final String[][] SAMPLES = {{"browser", BROWSER}, {"dlna", DLNA}, {"dlna-head", DLNA_HEAD}};
+
+	@BeforeAll
+	public static void setUpClass() {
+		TestUtils.enableTestMode();
+	}
+
+	@Test
+	public void benchmark() {
+		for (int n = 0; n < 3; n++) {
+			for (String[] sample : SAMPLES) {
+				print(sample[0] + " heap", sample[1], run(sample[1], false));
+				print(sample[0] + " direct", sample[1], run(sample[1], true));
+			}
+		}
+	}
+
+	private static long run(String sample, boolean direct) {
+		byte[] req = sample.getBytes(US_ASCII);
+		ByteBuffer buf = direct ? ByteBuffer.allocateDirect(req.length * BATCH)
+				: ByteBuffer.allocate(req.length * BATCH);
+		for (int i = 0; i < BATCH; i++) buf.put(req);
+		int[] count = new int[1];
+		HttpConnectionHandler http = new HttpConnectionHandler();
+		http.addHandler("/vfs", (p, m, v) -> r -> {
+			if (r.getHeader(HttpHeader.HOST) != null) count[0]++;
+			return completedVoid();
+		});
+		Channel ch = new Channel();
+		long start = System.nanoTime();
+
+		for (int i = 0; i < ITERATIONS; i++) {
+			buf.position(0);
+			http.read(ch, buf, null);
+		}
+
+		long time = System.nanoTime() - start;
+		assertEquals(ITERATIONS * BATCH, count[0]);
+		return time;
+	}
+
+	private static void print(String mode, String sample, long time) {
+		long n = (long) ITERATIONS * BATCH;
+		System.out.printf(Locale.ROOT, "%-16s %4d bytes: %.1f ms, %.0f requests/s%n", mode,
+				sample.length(), time / 1000000.0, n * 1000000000.0 / time);
+	}
+
+	private static final class Channel implements NetChannel {
+
+		@Override
+		public NetHandler getHandler() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public FutureSupplier<ByteBuffer> read(ByteBufferSupplier supplier,
+																					 @Nullable Completion<ByteBuffer> consumer) {
+			return completedNull();
+		}
+
+		@Override
+		public FutureSupplier<Void> write(ByteBufferArraySupplier supplier,
+																			@Nullable Completion<Void> consumer) {
+			return completedVoid();
+		}
+
+		@Override
+		public boolean isOpen() {
+			return true;
+		}
+
+		@Override
+		public void close() {
+		}
+
+		@Override
+		public void setCloseListener(CloseListener listener) {
+		}
+	}
+}
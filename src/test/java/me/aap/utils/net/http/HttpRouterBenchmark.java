@@ -0,0 +1,84 @@
+package me.aap.utils.net.http;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+import me.aap.utils.misc.TestUtils;
+
+/**
+ * Route lookups across thousands of routes, compared to the exact path hash map lookups.
+ * Run with -Dbenchmark=true.
+ *
+ * @author Andrey Pavlenko
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+public class HttpRouterBenchmark extends Assertions {
+	private static final int ROUTES = 5000;
+	private static final int LOOKUPS = 2_000_000;
+
+	@BeforeAll
+	public static void setUpClass() {
+		TestUtils.enableTestMode();
+	}
+
+	@Test
+	public void benchmark() {
+		HttpRouter<Integer> router = new HttpRouter<>();
+		Map<CharSequence, Integer> map = new HashMap<>();
+		String[] paths = new String[ROUTES];
+		String[] paramPaths = new String[ROUTES];
+
+		for (int i = 0; i < ROUTES; i++) {
+			String p = "/api/v" + (i % 3) + "/service" + (i / 10) + "/method" + i;
+			paths[i] = p;
+			paramPaths[i] = p + "/items/" + i;
+			router.add(null, p, i);
+			router.add(HttpMethod.GET, p + "/items/{id}", i);
+			map.put(p, i);
+		}
+
+		Random rnd = new Random(0);
+		int[] idx = new int[LOOKUPS];
+		for (int i = 0; i < LOOKUPS; i++) idx[i] = rnd.nextInt(ROUTES);
+
+		for (int n = 0; n < 3; n++) {
+			print("map", run(() -> {
+				long sum = 0;
+				for (int i : idx) sum += map.get(paths[i]);
+				return sum;
+			}));
+			print("static", run(() -> {
+				long sum = 0;
+				for (int i : idx) sum += router.find(paths[i], HttpMethod.GET).getValue();
+				return sum;
+			}));
+			print("param", run(() -> {
+				long sum = 0;
+				for (int i : idx) sum += router.find(paramPaths[i], HttpMethod.GET).getValue();
+				return sum;
+			}));
+		}
+	}
+
+	private static long run(Lookups l) {
+		long start = System.nanoTime();
+		assertTrue(l.run() >= 0);
+		return System.nanoTime() - start;
+	}
+
+	private static void print(String mode, long time) {
+		System.out.printf(Locale.ROOT, "%-6s %d lookups in %.1f ms, %.1f ns/lookup%n", mode, LOOKUPS,
+				time / 1000000.0, (double) time / LOOKUPS);
+	}
+
+	private interface Lookups {
+		long run();
+	}
+}
@@ -0,0 +1,119 @@
+package me.aap.utils.net.http;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import me.aap.utils.misc.TestUtils;
+
+/**
+ * @author Andrey Pavlenko
+ */
+public class HttpRouterTest extends Assertions {
+
+	@BeforeAll
+	public static void setUpClass() {
+		TestUtils.enableTestMode();
+	}
+
+	@Test
+	public void testStatic() {
+		HttpRouter<String> r = new HttpRouter<>();
+		r.add(null, "/", "root");
+		r.add(null, "/test", "test");
+		r.add(null, "/team", "team");
+		r.add(null, "/te", "te");
+		assertEquals("root", find(r, "/", null));
+		assertEquals("test", find(r, "/test", null));
+		assertEquals("team", find(r, "/team", null));
+		assertEquals("te", find(r, "/te", null));
+		assertNull(find(r, "/t", null));
+		assertNull(find(r, "/tests", null));
+		assertNull(find(r, "", null));
+		assertSame(r.find("/test", null), r.find(new StringBuilder("/test"), HttpMethod.GET));
+		assertEquals("te", r.remove(null, "/te"));
+		assertNull(find(r, "/te", null));
+		assertEquals("test", find(r, "/test", null));
+	}
+
+	@Test
+	public void testParams() {
+		HttpRouter<String> r = new HttpRouter<>();
+		r.add(null, "/users/{id}", "user");
+		r.add(null, "/users/me", "me");
+		r.add(null, "/users/{id}/files/{name}", "file");
+		r.add(null, "/users/{user}/files/*path", "path");
+
+		HttpRouter.Match<String> m = r.find("/users/42", null);
+		assertNotNull(m);
+		assertEquals("user", m.getValue());
+		assertEquals("42", m.getParam("id").toString());
+		assertEquals("me", find(r, "/users/me", null));
+		assertNull(r.find("/users/", null));
+
+		m = r.find("/users/42/files/a.txt", null);
+		assertNotNull(m);
+		assertEquals("file", m.getValue());
+		assertEquals(2, m.getParamCount());
+		assertEquals("42", m.getParam(0).toString());
+		assertEquals("a.txt", m.getParam("name").toString());
+
+		m = r.find("/users/42/files/a/b/c.txt", null);
+		assertNotNull(m);
+		assertEquals("path", m.getValue());
+		assertEquals("42", m.getParam("user").toString());
+		assertEquals("a/b/c.txt", m.getParam("path").toString());
+
+		m = r.find("/users/me/files/x", null);
+		assertNotNull(m);
+		assertEquals("file", m.getValue());
+		assertEquals("me", m.getParam("id").toString());
+	}
+
+	@Test
+	public void testWildcard() {
+		HttpRouter<String> r = new HttpRouter<>();
+		r.add(null, "/static/*", "static");
+		r.add(null, "/static/index.html", "index");
+		r.add(null, "*", "any");
+		assertEquals("index", find(r, "/static/index.html", null));
+		HttpRouter.Match<String> m = r.find("/static/css/main.css", null);
+		assertNotNull(m);
+		assertEquals("static", m.getValue());
+		assertEquals("css/main.css", m.getParam("*").toString());
+		assertEquals("", r.find("/static/", null).getParam(0).toString());
+		assertEquals("any", find(r, "/other", null));
+		assertEquals("any", find(r, "/static", null));
+	}
+
+	@Test
+	public void testMethods() {
+		HttpRouter<String> r = new HttpRouter<>();
+		r.add(HttpMethod.GET, "/data/{id}", "get");
+		r.add(HttpMethod.POST, "/data/{id}", "post");
+		r.add(null, "/data/{id}", "any");
+		assertEquals("get", find(r, "/data/1", HttpMethod.GET));
+		assertEquals("post", find(r, "/data/1", HttpMethod.POST));
+		assertEquals("any", find(r, "/data/1", HttpMethod.HEAD));
+		assertEquals("any", find(r, "/data/1", null));
+		assertEquals("get", r.add(HttpMethod.GET, "/data/{id}", "get2"));
+		assertEquals("get2", find(r, "/data/1", HttpMethod.GET));
+		assertEquals("any", r.remove(null, "/data/{id}"));
+		assertNull(find(r, "/data/1", HttpMethod.HEAD));
+	}
+
+	@Test
+	public void testInvalidPattern() {
+		HttpRouter<String> r = new HttpRouter<>();
+		assertThrows(IllegalArgumentException.class, () -> r.add(null, "/a/{id", ""));
+		assertThrows(IllegalArgumentException.class, () -> r.add(null, "/a/{}", ""));
+		assertThrows(IllegalArgumentException.class, () -> r.add(null, "/a/{id}.txt", ""));
+		assertThrows(IllegalArgumentException.class, () -> r.add(null, "/a/*/b", ""));
+		assertEquals(0, r.size());
+	}
+
+	private static String find(HttpRouter<String> r, CharSequence path, HttpMethod method) {
+		HttpRouter.Match<String> m = r.find(path, method);
+		return (m == null) ? null : m.getValue();
+	}
+}
@@ -0,0 +1,49 @@
+package me.aap.utils.net.http;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+/**
+ * @author Andrey Pavlenko
+ */
+public class HttpUtilsTest extends Assertions {
+
+	@ParameterizedTest
+	@ValueSource(strings = {"heap,be", "heap,le", "direct,be", "direct,le"})
+	public void testIndexOf(String mode) {
+		Random rnd = new Random(0);
+		byte[] alphabet = {'a', ':', ' ', '\r', '\n', (byte) 0x80, (byte) 0xFF, 0, 1};
+
+		for (int n = 0; n < 1000; n++) {
+			int len = rnd.nextInt(40);
+			ByteBuffer buf = mode.startsWith("heap") ? ByteBuffer.allocate(len) : ByteBuffer.allocateDirect(len);
+			buf.order(mode.endsWith("be") ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+			for (int i = 0; i < len; i++) buf.put(alphabet[rnd.nextInt(alphabet.length)]);
+			int start = (len == 0) ? 0 : rnd.nextInt(len);
+			int end = start + rnd.nextInt(len - start + 1);
+
+			for (byte b : alphabet) {
+				assertEquals(indexOf(buf, start, end, b), HttpUtils.indexOf(buf, start, end, b));
+			}
+
+			int eol = Math.min(idx(indexOf(buf, start, end, (byte) '\r')), idx(indexOf(buf, start, end, (byte) '\n')));
+			assertEquals((eol == Integer.MAX_VALUE) ? -1 : eol, HttpUtils.indexOfEol(buf, start, end));
+		}
+	}
+
+	private static int indexOf(ByteBuffer buf, int start, int end, byte b) {
+		for (; start < end; start++) {
+			if (buf.get(start) == b) return start;
+		}
+		return -1;
+	}
+
+	private static int idx(int i) {
+		return (i == -1) ? Integer.MAX_VALUE : i;
+	}
+}
@@ -0,0 +1,138 @@
+package me.aap.utils.net.http;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import me.aap.utils.async.FutureSupplier;
+import me.aap.utils.async.Promise;
+import me.aap.utils.concurrent.NetThreadPool;
+import me.aap.utils.misc.TestUtils;
+import me.aap.utils.net.NetHandler;
+import me.aap.utils.net.NetServer;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+/**
+ * Bulk transfer throughput of HTTP and HTTPS over loopback. The response body is sent as
+ * a sequence of small writes to exercise the write batching. Run with -Dbenchmark=true.
+ *
+ * @author Andrey Pavlenko
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+public class HttpsBenchmark extends Assertions {
+	private static final int CLIENTS = 4;
+	private static final int REQUESTS = 10;
+	private static final int CHUNK_SIZE = 4096;
+	private static final int CHUNKS = 2048;
+	private static final byte[] CHUNK = new byte[CHUNK_SIZE];
+	private static final byte[] HEADER = ("HTTP/1.1 200 OK\r\nContent-Length: " +
+			((long) CHUNK_SIZE * CHUNKS) + "\r\n\r\n").getBytes(US_ASCII);
+	private static ExecutorService exec;
+
+	@BeforeAll
+	public static void setUpClass() {
+		TestUtils.enableTestMode();
+		exec = new NetThreadPool(Runtime.getRuntime().availableProcessors());
+	}
+
+	@AfterAll
+	public static void tearDownClass() {
+		exec.shutdown();
+	}
+
+	@Test
+	public void benchmark() throws Exception {
+		print("http", run(false));
+		print("https", run(true));
+	}
+
+	private static long run(boolean ssl) throws Exception {
+		NetHandler handler = NetHandler.create(o -> o.executor = exec);
+
+		try {
+			HttpConnectionHandler http = new HttpConnectionHandler();
+			http.addHandler("/bulk", (p, m, v) -> HttpsBenchmark::bulk);
+			NetServer server = handler.bind(o -> {
+				o.handler = http;
+				o.ssl = ssl;
+			}).get();
+			int port = ((InetSocketAddress) server.getBindAddress()).getPort();
+			String url = (ssl ? "https" : "http") + "://localhost:" + port + "/bulk";
+			Thread[] clients = new Thread[CLIENTS];
+			Throwable[] err = new Throwable[1];
+			long start = System.nanoTime();
+
+			for (int i = 0; i < CLIENTS; i++) {
+				clients[i] = new Thread(() -> {
+					try {
+						for (int n = 0; n < REQUESTS; n++) {
+							download(handler, url);
+						}
+					} catch (Throwable ex) {
+						err[0] = ex;
+					}
+				});
+				clients[i].start();
+			}
+
+			for (Thread t : clients) {
+				t.join();
+			}
+
+			long time = System.nanoTime() - start;
+			server.close();
+			assertNull(err[0]);
+			return time;
+		} finally {
+			handler.close();
+		}
+	}
+
+	private static FutureSupplier<?> bulk(HttpRequest req) {
+		FutureSupplier<Void> last = req.getChannel().write(ByteBuffer.wrap(HEADER));
+
+		for (int i = 0; i < CHUNKS; i++) {
+			last = req.getChannel().write(ByteBuffer.wrap(CHUNK));
+		}
+
+		return last;
+	}
+
+	private static void download(NetHandler handler, String url) throws Exception {
+		Promise<Void> p = new Promise<>();
+
+		HttpConnection.connect(o -> {
+			o.handler = handler;
+			o.url(url);
+			o.acceptEncoding = null;
+		}, (resp, err) -> {
+			if (err != null) {
+				p.completeExceptionally(err);
+				return p;
+			}
+
+			assertEquals((long) CHUNK_SIZE * CHUNKS, resp.getContentLength());
+			return resp.skipPayload().onCompletion((v, fail) -> {
+				if (fail != null) p.completeExceptionally(fail);
+				else p.complete(null);
+			});
+		});
+
+		p.get(60, TimeUnit.SECONDS);
+	}
+
+	private static void print(String mode, long time) {
+		double mb = (double) CLIENTS * REQUESTS * CHUNK_SIZE * CHUNKS / (1024 * 1024);
+		System.out.printf(Locale.ROOT, "%-6s %.1f MB in %.1f ms, %.1f MB/s%n", mode, mb,
+				time / 1000000.0, mb * 1000000000.0 / time);
+	}
+}
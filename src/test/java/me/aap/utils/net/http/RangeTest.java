@@ -0,0 +1,58 @@
+package me.aap.utils.net.http;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+/**
+ * @author Andrey Pavlenko
+ */
+public class RangeTest extends Assertions {
+
+	@Test
+	public void testParse() {
+		Range r = parse("bytes=0-499\r\n");
+		assertEquals(0, r.getStart());
+		assertEquals(499, r.getEnd());
+		assertNull(r.getNext());
+
+		r = parse("bytes=100-\r\n");
+		r.align(1000);
+		assertEquals(100, r.getStart());
+		assertEquals(999, r.getEnd());
+		assertNull(r.getNext());
+	}
+
+	@Test
+	public void testParseMulti() {
+		Range r = parse("bytes=0-99, 200-299 ,500-\r\nHost: localhost\r\n");
+		assertEquals(0, r.getStart());
+		assertEquals(99, r.getEnd());
+		r = r.getNext();
+		assertNotNull(r);
+		assertEquals(200, r.getStart());
+		assertEquals(299, r.getEnd());
+		r = r.getNext();
+		assertNotNull(r);
+		assertEquals(500, r.getStart());
+		r.align(1000);
+		assertEquals(999, r.getEnd());
+		assertNull(r.getNext());
+	}
+
+	@Test
+	public void testParseInvalid() {
+		assertFalse(parse("bytes=0-99,x-5\r\n").isSatisfiable(1000));
+		assertFalse(parse("bytes=0-99,,\r\n").isSatisfiable(1000));
+		assertFalse(parse("items=0-99\r\n").isSatisfiable(1000));
+		assertFalse(parse("bytes=100\r\n").isSatisfiable(1000));
+	}
+
+	private static Range parse(String s) {
+		byte[] b = s.getBytes(US_ASCII);
+		return Range.parse(ByteBuffer.wrap(b), 0, b.length);
+	}
+}
@@ -0,0 +1,281 @@
+package me.aap.utils.vfs;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static me.aap.utils.async.Completed.completed;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executor;
+
+import me.aap.utils.async.FutureSupplier;
+import me.aap.utils.async.RunnablePromise;
+import me.aap.utils.concurrent.ThreadPool;
+import me.aap.utils.io.AsyncInputStream;
+import me.aap.utils.misc.TestUtils;
+import me.aap.utils.net.ByteBufferSupplier;
+import me.aap.utils.resource.Rid;
+
+/**
+ * @author Andrey Pavlenko
+ */
+public class VfsBlockCacheTest extends Assertions {
+	private static final Random rnd = new Random();
+	private static final int BLOCK = 64 * 1024;
+
+	@BeforeAll
+	static void setUpClass() {
+		TestUtils.enableTestMode();
+	}
+
+	@Test
+	public void testSequentialAndRepeatedReads(@TempDir File tmp) throws Exception {
+		byte[] data = new byte[16 * BLOCK + 123];
+		rnd.nextBytes(data);
+		RemoteFile remote = new RemoteFile(data);
+		VfsBlockCache cache = new VfsBlockCache(BLOCK, 4, 4, new File(tmp, "blocks"), 1024 * 1024 * 1024);
+		VirtualFile file = cache.wrap(remote);
+		assertSame(file, cache.wrap(file));
+
+		assertArrayEquals(data, read(file, 0, data.length));
+		assertEquals(1, remote.opened, "The stream must be reused for the sequential blocks");
+		assertEquals(data.length, remote.read);
+
+		// Served from memory and disk
+		assertRange(data, file, 100000, 300000);
+		assertRange(data, file, data.length - 1000, 1000);
+		assertRange(data, file, 0, data.length);
+		assertEquals(1, remote.opened);
+		assertEquals(data.length, remote.read);
+		assertEquals(0, read(file, data.length, 100).length);
+	}
+
+	@Test
+	public void testMemoryOnly() throws Exception {
+		byte[] data = new byte[8 * BLOCK];
+		rnd.nextBytes(data);
+		RemoteFile remote = new RemoteFile(data);
+		VfsBlockCache cache = new VfsBlockCache(BLOCK, 4, 2, null, 0);
+		VirtualFile file = cache.wrap(remote);
+
+		assertRange(data, file, 7 * BLOCK + 10, 100);
+		assertEquals(1, remote.opened);
+		assertRange(data, file, 7 * BLOCK, BLOCK);
+		assertEquals(1, remote.opened);
+
+		// Seek back, the block is reloaded with the new stream
+		assertRange(data, file, 10, BLOCK);
+		assertEquals(2, remote.opened);
+		assertArrayEquals(data, read(file, 0, data.length));
+	}
+
+	@Test
+	public void testDiskExecutor(@TempDir File tmp) throws Exception {
+		byte[] data = new byte[4 * BLOCK];
+		rnd.nextBytes(data);
+		RemoteFile remote = new RemoteFile(data);
+		List<Runnable> tasks = new ArrayList<>();
+		VfsBlockCache cache = new VfsBlockCache(BLOCK, 2, 0, new File(tmp, "blocks"),
+				1024 * 1024 * 1024, tasks::add);
+		VirtualFile file = cache.wrap(remote);
+
+		assertArrayEquals(data, read(file, 0, data.length));
+		assertFalse(tasks.isEmpty(), "The evicted blocks must be written by the executor");
+		// Served from memory, while being written
+		assertRange(data, file, 0, BLOCK);
+		assertEquals(data.length, remote.read);
+		runAll(tasks);
+
+		try (AsyncInputStream in = file.getInputStream(0)) {
+			FutureSupplier<ByteBuffer> f = in.read(() -> ByteBuffer.allocate(BLOCK));
+			assertFalse(f.isDone(), "The block must be read from the disk by the executor");
+			runAll(tasks);
+			assertTrue(f.isDone());
+			ByteBuffer b = f.get();
+			byte[] a = new byte[b.remaining()];
+			b.get(a);
+			assertArrayEquals(Arrays.copyOf(data, BLOCK), a);
+		}
+
+		assertEquals(data.length, remote.read);
+		assertEquals(1, remote.opened);
+	}
+
+	@Test
+	public void testLargeReads() throws Exception {
+		byte[] data = new byte[8 * BLOCK + 10];
+		rnd.nextBytes(data);
+		// The stream returns more data, than the block size
+		RemoteFile remote = new RemoteFile(data, 3 * BLOCK);
+		VfsBlockCache cache = new VfsBlockCache(BLOCK, 16, 0, null, 0);
+		VirtualFile file = cache.wrap(remote);
+
+		assertArrayEquals(data, read(file, 0, data.length));
+		assertEquals(1, remote.opened);
+		assertEquals(data.length, remote.read);
+	}
+
+	@Test
+	public void testAsyncReadAhead() throws Exception {
+		byte[] data = new byte[8 * BLOCK];
+		rnd.nextBytes(data);
+		ThreadPool exec = new ThreadPool(1);
+
+		try (VfsBlockCache cache = new VfsBlockCache(BLOCK, 16, 4, null, 0)) {
+			// The stream completes the reads asynchronously
+			RemoteFile remote = new RemoteFile(data, 10000, exec);
+			VirtualFile file = cache.wrap(remote);
+
+			try (AsyncInputStream in = file.getInputStream(0)) {
+				for (int i = 0; i < 3; i++) {
+					ByteBuffer b = in.read(() -> ByteBuffer.allocate(BLOCK)).get(5, SECONDS);
+					assertEquals(BLOCK, b.remaining());
+				}
+
+				// The blocks 3 and 4 are read ahead
+				for (long end = System.currentTimeMillis() + 5000; remote.read < 5 * BLOCK; ) {
+					assertTrue(System.currentTimeMillis() < end, () -> "Read ahead: " + remote.read);
+					Thread.sleep(10);
+				}
+
+				for (int i = 3; i < 5; i++) {
+					ByteBuffer b = in.read(() -> ByteBuffer.allocate(BLOCK)).get(5, SECONDS);
+					byte[] a = new byte[b.remaining()];
+					b.get(a);
+					assertArrayEquals(Arrays.copyOfRange(data, i * BLOCK, (i + 1) * BLOCK), a);
+				}
+			}
+
+			assertEquals(1, remote.opened);
+		} finally {
+			exec.shutdown();
+		}
+	}
+
+	private static void runAll(List<Runnable> tasks) {
+		while (!tasks.isEmpty()) tasks.remove(0).run();
+	}
+
+	private static void assertRange(byte[] data, VirtualFile f, int off, int len) throws Exception {
+		byte[] expected = new byte[len];
+		System.arraycopy(data, off, expected, 0, len);
+		assertArrayEquals(expected, read(f, off, len));
+	}
+
+	private static byte[] read(VirtualFile f, long off, int len) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+		try (AsyncInputStream in = f.getInputStream(off)) {
+			while (out.size() < len) {
+				ByteBuffer buf = ByteBuffer.allocate(Math.min(1 + rnd.nextInt(BLOCK), len - out.size()));
+				ByteBuffer b = in.read(buf).get();
+				if (!b.hasRemaining()) break;
+				byte[] a = new byte[b.remaining()];
+				b.get(a);
+				out.write(a);
+			}
+		}
+
+		return out.toByteArray();
+	}
+
+	private static final class RemoteFile implements VirtualFile {
+		private final byte[] data;
+		private final int maxRead;
+		@Nullable
+		private final Executor exec;
+		volatile int opened;
+		volatile long read;
+
+		RemoteFile(byte[] data) {
+			this(data, 10000);
+		}
+
+		RemoteFile(byte[] data, int maxRead) {
+			this(data, maxRead, null);
+		}
+
+		RemoteFile(byte[] data, int maxRead, @Nullable Executor exec) {
+			this.data = data;
+			this.maxRead = maxRead;
+			this.exec = exec;
+		}
+
+		@NonNull
+		@Override
+		public VirtualFileSystem getVirtualFileSystem() {
+			throw new UnsupportedOperationException();
+		}
+
+		@NonNull
+		@Override
+		public String getName() {
+			return "file";
+		}
+
+		@NonNull
+		@Override
+		public Rid getRid() {
+			return Rid.create("smb://host/share/file");
+		}
+
+		@Override
+		public FutureSupplier<Long> getLength() {
+			return completed((long) data.length);
+		}
+
+		@Override
+		public AsyncInputStream getInputStream(long offset) {
+			opened++;
+
+			return new AsyncInputStream() {
+				int pos = (int) Math.min(offset, data.length);
+
+				@Override
+				public FutureSupplier<ByteBuffer> read(ByteBufferSupplier dst) {
+					if (exec == null) return completed(readNow(dst));
+					RunnablePromise<ByteBuffer> p = RunnablePromise.create(() -> {
+						Thread.sleep(2);
+						return readNow(dst);
+					});
+					exec.execute(p);
+					return p;
+				}
+
+				private ByteBuffer readNow(ByteBufferSupplier dst) {
+					int n = Math.min(data.length - pos, 1 + rnd.nextInt(maxRead));
+					ByteBuffer b;
+
+					if (rnd.nextBoolean()) {
+						b = ByteBuffer.wrap(data, pos, n).slice();
+					} else {
+						b = dst.getByteBuffer();
+						int start = b.position();
+						n = Math.min(n, b.remaining());
+						b.put(data, pos, n).limit(start + n).position(start);
+					}
+
+					pos += n;
+					read += n;
+					return b;
+				}
+
+				@Override
+				public void close() {
+				}
+			};
+		}
+	}
+}
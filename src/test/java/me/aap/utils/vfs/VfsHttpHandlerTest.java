@@ -0,0 +1,431 @@
+package me.aap.utils.vfs;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+import androidx.annotation.Nullable;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import me.aap.utils.async.FutureSupplier;
+import me.aap.utils.concurrent.NetThreadPool;
+import me.aap.utils.misc.TestUtils;
+import me.aap.utils.net.NetHandler;
+import me.aap.utils.net.NetServer;
+import me.aap.utils.net.http.HttpConnectionHandler;
+import me.aap.utils.net.http.HttpDate;
+import me.aap.utils.resource.Rid;
+import me.aap.utils.vfs.local.LocalFileSystem;
+
+/**
+ * @author Andrey Pavlenko
+ */
+public class VfsHttpHandlerTest extends Assertions {
+	private static ExecutorService exec;
+	private static NetHandler handler;
+	private final AtomicInteger lookups = new AtomicInteger();
+	private VfsHttpHandler vfsHandler;
+	private NetServer server;
+
+	@BeforeAll
+	public static void setUpClass() throws IOException {
+		TestUtils.enableTestMode();
+		exec = new NetThreadPool(4);
+		handler = NetHandler.create(o -> o.executor = exec);
+	}
+
+	@AfterAll
+	public static void tearDownClass() {
+		handler.close();
+		exec.shutdown();
+	}
+
+	@BeforeEach
+	public void setUp() throws Exception {
+		VfsManager mgr = new VfsManager(LocalFileSystem.getInstance()) {
+			@Override
+			public FutureSupplier<VirtualResource> getResource(Rid rid) {
+				lookups.incrementAndGet();
+				return super.getResource(rid);
+			}
+		};
+		vfsHandler = new VfsHttpHandler(mgr) {
+			@Override
+			protected String getContentType(VirtualFile f) {
+				return f.getName().endsWith(".txt") ? "text/plain" : "application/octet-stream";
+			}
+		};
+		HttpConnectionHandler http = new HttpConnectionHandler();
+		http.addHandler(VfsHttpHandler.HTTP_PATH, (path, method, version) -> vfsHandler);
+		server = handler.bind(o -> {
+			o.host = "127.0.0.1";
+			o.handler = http;
+		}).get();
+	}
+
+	@AfterEach
+	public void tearDown() {
+		server.close();
+	}
+
+	@Test
+	public void testConditionalRequests(@TempDir File tmp) throws Exception {
+		byte[] data = randomBytes(10000);
+		File f = new File(tmp, "data.bin");
+		Files.write(f.toPath(), data);
+		String uri = uri(f);
+
+		Response r = request("GET", uri);
+		assertEquals(200, r.status);
+		assertArrayEquals(data, r.body);
+		String etag = r.header("ETag");
+		String lastModified = r.header("Last-Modified");
+		assertNotNull(etag);
+		assertNotNull(lastModified);
+		assertEquals(f.lastModified() / 1000, HttpDate.parse(lastModified) / 1000);
+
+		r = request("GET", uri, "If-None-Match: " + etag);
+		assertEquals(304, r.status);
+		assertEquals(etag, r.header("ETag"));
+		assertEquals(0, r.body.length);
+		r = request("HEAD", uri, "If-None-Match: \"other\", W/" + etag);
+		assertEquals(304, r.status);
+		r = request("GET", uri, "If-None-Match: \"other\"");
+		assertEquals(200, r.status);
+		assertArrayEquals(data, r.body);
+
+		r = request("GET", uri, "If-Modified-Since: " + lastModified);
+		assertEquals(304, r.status);
+		assertEquals(0, r.body.length);
+		r = request("GET", uri, "If-Modified-Since: " + HttpDate.format(f.lastModified() - 10000));
+		assertEquals(200, r.status);
+		// If-None-Match takes precedence
+		r = request("GET", uri, "If-None-Match: \"other\"", "If-Modified-Since: " + lastModified);
+		assertEquals(200, r.status);
+
+		r = request("GET", uri, "Range: bytes=100-199", "If-Range: " + etag);
+		assertEquals(206, r.status);
+		assertEquals("bytes 100-199/" + data.length, r.header("Content-Range"));
+		assertArrayEquals(Arrays.copyOfRange(data, 100, 200), r.body);
+		r = request("GET", uri, "Range: bytes=100-199", "If-Range: " + lastModified);
+		assertEquals(206, r.status);
+		r = request("GET", uri, "Range: bytes=100-199", "If-Range: \"other\"");
+		assertEquals(200, r.status);
+		assertNull(r.header("Content-Range"));
+		assertArrayEquals(data, r.body);
+		// The weak comparison is not allowed
+		r = request("GET", uri, "Range: bytes=100-199", "If-Range: W/" + etag);
+		assertEquals(200, r.status);
+	}
+
+	@Test
+	public void testCompressedEtag(@TempDir File tmp) throws Exception {
+		File f = new File(tmp, "data.txt");
+		Files.write(f.toPath(), text(10000));
+		String uri = uri(f);
+
+		String identity = request("GET", uri).header("ETag");
+		String gzip = request("GET", uri, "Accept-Encoding: gzip").header("ETag");
+		String deflate = request("GET", uri, "Accept-Encoding: deflate").header("ETag");
+		assertEquals(identity.substring(0, identity.length() - 1) + "-gzip\"", gzip);
+		assertEquals(identity.substring(0, identity.length() - 1) + "-deflate\"", deflate);
+
+		Response r = request("GET", uri, "Accept-Encoding: gzip", "If-None-Match: " + gzip);
+		assertEquals(304, r.status);
+		assertEquals(gzip, r.header("ETag"));
+		assertEquals("Accept-Encoding", r.header("Vary"));
+		assertEquals(200, request("GET", uri, "Accept-Encoding: gzip", "If-None-Match: " + identity).status);
+		assertEquals(200, request("GET", uri, "Accept-Encoding: deflate", "If-None-Match: " + gzip).status);
+		assertEquals(200, request("GET", uri, "If-None-Match: " + gzip).status);
+		assertEquals(304, request("GET", uri, "If-None-Match: " + identity).status);
+		// The range requests are not compressed
+		assertEquals(206, request("GET", uri, "Accept-Encoding: gzip", "Range: bytes=0-9",
+				"If-Range: " + identity).status);
+	}
+
+	@ParameterizedTest
+	@ValueSource(strings = {"gzip", "deflate", "identity"})
+	public void testCompressedResponse(String enc, @TempDir File tmp) throws Exception {
+		byte[] data = text(50000);
+		File f = new File(tmp, "data.txt");
+		Files.write(f.toPath(), data);
+		String uri = uri(f);
+		String ae = "Accept-Encoding: " + enc;
+
+		if (enc.equals("identity")) {
+			for (String method : new String[]{"HEAD", "GET"}) {
+				Response r = request(method, uri, ae);
+				assertEquals(200, r.status);
+				assertNull(r.header("Content-Encoding"));
+				assertNull(r.header("Transfer-Encoding"));
+				assertEquals(String.valueOf(data.length), r.header("Content-Length"));
+				assertArrayEquals(method.equals("GET") ? data : new byte[0], r.body);
+			}
+			return;
+		}
+
+		// Not cached yet - the chunked encoding
+		Response r = request("HEAD", uri, ae);
+		assertEquals(200, r.status);
+		assertEquals(enc, r.header("Content-Encoding"));
+		assertEquals("chunked", r.header("Transfer-Encoding"));
+		assertEquals("Accept-Encoding", r.header("Vary"));
+		assertNull(r.header("Content-Length"));
+		assertEquals(0, r.body.length);
+
+		r = request("GET", uri, ae);
+		assertEquals(200, r.status);
+		assertEquals(enc, r.header("Content-Encoding"));
+		assertEquals("chunked", r.header("Transfer-Encoding"));
+		assertEquals("Accept-Encoding", r.header("Vary"));
+		assertNull(r.header("Content-Length"));
+		byte[] compressed = dechunk(r.body);
+		assertTrue(compressed.length < data.length);
+		assertArrayEquals(data, decompress(compressed, enc));
+
+		// Served from the cache of compressed bodies
+		r = request("GET", uri, ae);
+		assertEquals(200, r.status);
+		assertEquals(enc, r.header("Content-Encoding"));
+		assertNull(r.header("Transfer-Encoding"));
+		assertEquals(String.valueOf(r.body.length), r.header("Content-Length"));
+		assertArrayEquals(compressed, r.body);
+
+		r = request("HEAD", uri, ae);
+		assertEquals(200, r.status);
+		assertEquals(enc, r.header("Content-Encoding"));
+		assertEquals(String.valueOf(compressed.length), r.header("Content-Length"));
+		assertEquals(0, r.body.length);
+	}
+
+	@Test
+	public void testMultipartRanges(@TempDir File tmp) throws Exception {
+		byte[] data = randomBytes(10000);
+		File f = new File(tmp, "data.bin");
+		Files.write(f.toPath(), data);
+		String uri = uri(f);
+
+		Response r = request("GET", uri, "Range: bytes=0-1,5-7");
+		assertEquals(206, r.status);
+		assertNull(r.header("Content-Range"));
+		String type = r.header("Content-Type");
+		assertNotNull(type);
+		assertTrue(type.startsWith("multipart/byteranges; boundary="), type);
+		String boundary = type.substring(type.indexOf('=') + 1);
+		assertEquals(String.valueOf(r.body.length), r.header("Content-Length"),
+				"Content-Length must be equal to the number of bytes sent");
+
+		String[] ranges = {"0-1", "5-7"};
+		byte[][] expected = {Arrays.copyOfRange(data, 0, 2), Arrays.copyOfRange(data, 5, 8)};
+		byte[] delim = ("\r\n--" + boundary).getBytes(US_ASCII);
+		byte[] eoh = "\r\n\r\n".getBytes(US_ASCII);
+		int off = 0;
+
+		for (int i = 0; i < ranges.length; i++) {
+			assertEquals(off, indexOf(r.body, delim, off));
+			off += delim.length;
+			int end = indexOf(r.body, eoh, off);
+			assertTrue(end > off);
+			String[] headers = new String(r.body, off, end - off, US_ASCII).split("\r\n");
+			assertEquals(Arrays.asList("", "Content-Type: application/octet-stream",
+					"Content-Range: bytes " + ranges[i] + '/' + data.length), Arrays.asList(headers));
+			off = end + eoh.length;
+			assertArrayEquals(expected[i], Arrays.copyOfRange(r.body, off, off + expected[i].length));
+			off += expected[i].length;
+		}
+
+		assertEquals("\r\n--" + boundary + "--\r\n",
+				new String(r.body, off, r.body.length - off, US_ASCII));
+
+		// The same headers without the body
+		Response head = request("HEAD", uri, "Range: bytes=0-1,5-7");
+		assertEquals(206, head.status);
+		assertEquals(r.header("Content-Length"), head.header("Content-Length"));
+		assertTrue(head.header("Content-Type").startsWith("multipart/byteranges; boundary="));
+		assertEquals(r.header("ETag"), head.header("ETag"));
+		assertEquals(0, head.body.length);
+
+		// A single satisfiable range is sent without multipart
+		r = request("GET", uri, "Range: bytes=5-7,20000-");
+		assertEquals(206, r.status);
+		assertEquals("bytes 5-7/" + data.length, r.header("Content-Range"));
+		assertArrayEquals(expected[1], r.body);
+		assertEquals(416, request("GET", uri, "Range: bytes=20000-,30000-30001").status);
+	}
+
+	@Test
+	public void testMetaCache(@TempDir File tmp) throws Exception {
+		byte[] data = randomBytes(2000);
+		File f = new File(tmp, "data.bin");
+		Files.write(f.toPath(), data);
+		String uri = uri(f);
+
+		String etag = request("GET", uri).header("ETag");
+		assertEquals(304, request("GET", uri, "If-None-Match: " + etag).status);
+		assertEquals(206, request("GET", uri, "Range: bytes=0-9").status);
+		assertEquals(1, lookups.get(), "The metadata must be shared by the requests");
+
+		// The cached metadata is used until expired
+		assertTrue(f.setLastModified(f.lastModified() - 60000));
+		assertEquals(etag, request("GET", uri).header("ETag"));
+		assertEquals(1, lookups.get());
+
+		vfsHandler.setMetaCacheTtl(0);
+		String etag2 = request("GET", uri).header("ETag");
+		assertNotEquals(etag, etag2);
+		assertEquals(200, request("GET", uri, "If-None-Match: " + etag).status);
+		assertEquals(3, lookups.get());
+
+		vfsHandler.setMetaCacheTtl(10000);
+		request("GET", uri);
+		request("GET", uri);
+		assertEquals(4, lookups.get());
+		vfsHandler.clearMetaCache();
+		request("GET", uri);
+		assertEquals(5, lookups.get());
+	}
+
+	private static String uri(File f) {
+		return VfsHttpHandler.HTTP_PATH + '?' + VfsHttpHandler.HTTP_QUERY
+				+ Rid.encode("file://" + f.getAbsolutePath());
+	}
+
+	private static byte[] randomBytes(int len) {
+		byte[] data = new byte[len];
+		new Random().nextBytes(data);
+		return data;
+	}
+
+	private static byte[] text(int words) {
+		StringBuilder sb = new StringBuilder();
+		Random rnd = new Random();
+		for (int i = 0; i < words; i++) sb.append(rnd.nextInt(1000)).append(' ');
+		return sb.toString().getBytes(US_ASCII);
+	}
+
+	/**
+	 * Decode the chunked body, checking the framing.
+	 */
+	private static byte[] dechunk(byte[] body) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] crlf = "\r\n".getBytes(US_ASCII);
+
+		for (int off = 0; ; ) {
+			int eol = indexOf(body, crlf, off);
+			assertTrue(eol > off, "Invalid chunk size");
+			int len = Integer.parseInt(new String(body, off, eol - off, US_ASCII), 16);
+			off = eol + 2;
+
+			if (len == 0) {
+				assertEquals(off + 2, body.length, "Unexpected data after the last chunk");
+				assertEquals(indexOf(body, crlf, off), off);
+				return out.toByteArray();
+			}
+
+			assertTrue(off + len + 2 <= body.length, "Truncated chunk");
+			out.write(body, off, len);
+			off += len;
+			assertEquals(off, indexOf(body, crlf, off), "Chunk is not terminated with CRLF");
+			off += 2;
+		}
+	}
+
+	private static byte[] decompress(byte[] data, String enc) throws IOException {
+		ByteArrayInputStream bin = new ByteArrayInputStream(data);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+		try (InputStream in = enc.equals("gzip") ? new GZIPInputStream(bin) : new InflaterInputStream(bin)) {
+			byte[] buf = new byte[8192];
+			for (int n = in.read(buf); n != -1; n = in.read(buf)) out.write(buf, 0, n);
+		}
+
+		return out.toByteArray();
+	}
+
+	/**
+	 * Send the request with Connection: close and read the response until the end of stream, so the
+	 * body is exactly what has been sent by the server.
+	 */
+	private Response request(String method, String uri, String... headers) throws IOException {
+		InetSocketAddress addr = (InetSocketAddress) server.getBindAddress();
+
+		try (Socket s = new Socket(addr.getAddress(), addr.getPort())) {
+			s.setSoTimeout(10000);
+			StringBuilder sb = new StringBuilder(256).append(method).append(' ').append(uri)
+					.append(" HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n");
+			for (String h : headers) sb.append(h).append("\r\n");
+			OutputStream out = s.getOutputStream();
+			out.write(sb.append("\r\n").toString().getBytes(US_ASCII));
+			out.flush();
+
+			ByteArrayOutputStream resp = new ByteArrayOutputStream();
+			InputStream in = s.getInputStream();
+			byte[] buf = new byte[8192];
+			for (int n = in.read(buf); n != -1; n = in.read(buf)) resp.write(buf, 0, n);
+			return new Response(resp.toByteArray());
+		}
+	}
+
+	private static final class Response {
+		final int status;
+		final Map<String, String> headers = new HashMap<>();
+		final byte[] body;
+
+		Response(byte[] resp) {
+			int end = indexOf(resp, "\r\n\r\n".getBytes(US_ASCII), 0);
+			assertTrue(end > 0, "Incomplete response");
+			String[] lines = new String(resp, 0, end, US_ASCII).split("\r\n");
+			status = Integer.parseInt(lines[0].split(" ")[1]);
+
+			for (int i = 1; i < lines.length; i++) {
+				int idx = lines[i].indexOf(':');
+				assertNull(headers.put(lines[i].substring(0, idx).trim().toLowerCase(Locale.ROOT),
+						lines[i].substring(idx + 1).trim()), "Duplicate header");
+			}
+
+			body = Arrays.copyOfRange(resp, end + 4, resp.length);
+		}
+
+		@Nullable
+		String header(String name) {
+			return headers.get(name.toLowerCase(Locale.ROOT));
+		}
+	}
+
+	private static int indexOf(byte[] a, byte[] b, int from) {
+		next:
+		for (int i = from, n = a.length - b.length; i <= n; i++) {
+			for (int j = 0; j < b.length; j++) {
+				if (a[i + j] != b[j]) continue next;
+			}
+			return i;
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,389 @@
+package me.aap.utils.vfs;
+
+import static me.aap.utils.async.Completed.completed;
+import static me.aap.utils.async.Completed.failed;
+
+import androidx.annotation.NonNull;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import me.aap.utils.async.FutureSupplier;
+import me.aap.utils.async.Promise;
+import me.aap.utils.function.CheckedSupplier;
+import me.aap.utils.io.AsyncInputStream;
+import me.aap.utils.io.AsyncOutputStream;
+import me.aap.utils.misc.TestUtils;
+import me.aap.utils.resource.Rid;
+
+/**
+ * @author Andrey Pavlenko
+ */
+public class VfsTreeOpTest extends Assertions {
+	private static final Random rnd = new Random();
+	private static ScheduledExecutorService exec;
+
+	@BeforeAll
+	static void setUpClass() {
+		TestUtils.enableTestMode();
+		exec = Executors.newScheduledThreadPool(8);
+	}
+
+	@AfterAll
+	static void tearDownClass() {
+		exec.shutdown();
+	}
+
+	@Test
+	public void testCopyAndSize() throws Exception {
+		Backend a = new Backend("a");
+		Backend b = new Backend("b");
+		MemFolder src = a.root.folder("src");
+		long len = fill(src, 3);
+
+		VfsTreeOp.Stats s = VfsTreeOp.size(src, 2).get(10, TimeUnit.SECONDS);
+		assertEquals(len, s.getBytes());
+		assertEquals(40, s.getFolders());
+		assertEquals(120, s.getFiles());
+		assertTrue(a.max.get() <= 2);
+
+		AtomicInteger progress = new AtomicInteger();
+		AtomicInteger total = new AtomicInteger();
+		VfsTreeOp op = VfsTreeOp.copy(src, b.root, 3);
+		op.onProgress((r, p, t) -> {
+			progress.set(p);
+			total.set(t);
+		});
+		s = op.get(10, TimeUnit.SECONDS);
+		assertEquals(len, s.getBytes());
+		assertEquals(40, s.getFolders());
+		assertEquals(120, s.getFiles());
+		assertEquals(160, progress.get());
+		assertEquals(160, total.get());
+		assertTreeEquals(src, (MemFolder) b.root.children.get("src"));
+		assertTrue(b.max.get() <= 3);
+		assertTrue(b.max.get() > 1, "The children must be processed in parallel");
+	}
+
+	@Test
+	public void testMove() throws Exception {
+		Backend a = new Backend("a");
+		Backend b = new Backend("b");
+		MemFolder src = a.root.folder("src");
+		fill(src, 2);
+		Backend c = new Backend("c");
+		VfsTreeOp.copy(src, c.root).get(10, TimeUnit.SECONDS);
+
+		// Renamed on the server side
+		MemFolder dst = a.root.folder("dst");
+		VfsTreeOp.Stats s = VfsTreeOp.move(src, dst).get(10, TimeUnit.SECONDS);
+		assertEquals(1, s.getFolders());
+		assertEquals(0, s.getFiles());
+		assertFalse(a.root.children.containsKey("src"));
+		assertSame(src, dst.children.get("src"));
+
+		// Copied and deleted
+		s = VfsTreeOp.move(src, b.root).get(10, TimeUnit.SECONDS);
+		assertEquals(13, s.getFolders());
+		assertEquals(39, s.getFiles());
+		assertFalse(dst.children.containsKey("src"));
+		assertTreeEquals((MemFolder) c.root.children.get("src"), (MemFolder) b.root.children.get("src"));
+	}
+
+	@Test
+	public void testDelete() throws Exception {
+		Backend a = new Backend("a");
+		MemFolder src = a.root.folder("src");
+		fill(src, 2);
+		VfsTreeOp.Stats s = VfsTreeOp.delete(src).get(10, TimeUnit.SECONDS);
+		assertEquals(13, s.getFolders());
+		assertEquals(39, s.getFiles());
+		assertTrue(a.root.children.isEmpty());
+		assertTrue(a.max.get() <= VfsTreeOp.DEFAULT_CONCURRENCY);
+	}
+
+	@Test
+	public void testFailure() throws Exception {
+		Backend a = new Backend("a");
+		MemFolder src = a.root.folder("src");
+		fill(src, 3);
+		((MemFolder) src.children.get("folder1")).file("bad", null);
+		VfsTreeOp op = VfsTreeOp.size(src, 2);
+		ExecutionException ex = assertThrows(ExecutionException.class, () -> op.get(10, TimeUnit.SECONDS));
+		assertTrue(ex.getCause() instanceof IOException);
+		Thread.sleep(100);
+		assertEquals(0, a.active.get(), "The running tasks must be stopped");
+	}
+
+	@Test
+	public void testSynchronousCompletion() throws Exception {
+		int n = 20000;
+		Backend a = new Backend("a", true);
+		MemFolder src = a.root.folder("src");
+		for (int i = 0; i < n; i++) src.file("file" + i, new byte[1]);
+
+		// The first child is blocked, so the rest are queued and then completed synchronously
+		a.gate(1);
+		VfsTreeOp op = VfsTreeOp.size(src, 1);
+		assertFalse(op.isDone());
+		a.gate.complete(null);
+		VfsTreeOp.Stats s = op.get(10, TimeUnit.SECONDS);
+		assertEquals(n, s.getFiles());
+		assertEquals(n, s.getBytes());
+
+		a.gate(1);
+		VfsTreeOp delete = VfsTreeOp.delete(src, 1);
+		assertFalse(delete.isDone());
+		// The queued calls are cancelled synchronously
+		assertTrue(delete.cancel());
+		assertTrue(delete.isCancelled());
+		assertEquals(n, src.children.size());
+	}
+
+	private static long fill(MemFolder f, int depth) {
+		long len = 0;
+
+		for (int i = 0; i < 3; i++) {
+			byte[] data = new byte[rnd.nextInt(10000)];
+			rnd.nextBytes(data);
+			f.file("file" + i, data);
+			len += data.length;
+		}
+
+		if (depth > 0) {
+			for (int i = 0; i < 3; i++) {
+				len += fill(f.folder("folder" + i), depth - 1);
+			}
+		}
+
+		return len;
+	}
+
+	private static void assertTreeEquals(MemFolder expected, MemFolder actual) {
+		assertNotNull(actual);
+		assertEquals(expected.children.keySet(), actual.children.keySet());
+
+		for (Map.Entry<String, VirtualResource> e : expected.children.entrySet()) {
+			VirtualResource r = actual.children.get(e.getKey());
+
+			if (e.getValue() instanceof MemFile) {
+				assertArrayEquals(((MemFile) e.getValue()).data, ((MemFile) r).data);
+			} else {
+				assertTreeEquals((MemFolder) e.getValue(), (MemFolder) r);
+			}
+		}
+	}
+
+	/**
+	 * Completes the calls with a delay, or synchronously, and tracks the number of the concurrent
+	 * calls. The call with the gate index waits for the gate.
+	 */
+	private static final class Backend {
+		final AtomicInteger active = new AtomicInteger();
+		final AtomicInteger max = new AtomicInteger();
+		final AtomicInteger calls = new AtomicInteger();
+		final String host;
+		final boolean sync;
+		final MemFolder root;
+		volatile int gateIdx = -1;
+		volatile Promise<Void> gate;
+
+		Backend(String host) {
+			this(host, false);
+		}
+
+		Backend(String host, boolean sync) {
+			this.host = host;
+			this.sync = sync;
+			root = new MemFolder(this, null, "");
+		}
+
+		void gate(int idx) {
+			calls.set(0);
+			gate = new Promise<>();
+			gateIdx = idx;
+		}
+
+		<T> FutureSupplier<T> call(CheckedSupplier<T, Throwable> task) {
+			if (calls.getAndIncrement() == gateIdx) return gate.then(v -> call(task));
+			max.accumulateAndGet(active.incrementAndGet(), Math::max);
+
+			if (sync) {
+				active.decrementAndGet();
+
+				try {
+					return completed(task.get());
+				} catch (Throwable ex) {
+					return failed(ex);
+				}
+			}
+
+			Promise<T> p = new Promise<>();
+			exec.schedule(() -> {
+				active.decrementAndGet();
+
+				try {
+					p.complete(task.get());
+				} catch (Throwable ex) {
+					p.completeExceptionally(ex);
+				}
+			}, 1 + rnd.nextInt(3), TimeUnit.MILLISECONDS);
+			return p;
+		}
+	}
+
+	private static abstract class MemResource implements VirtualResource {
+		final Backend backend;
+		MemFolder parent;
+		String name;
+
+		MemResource(Backend backend, MemFolder parent, String name) {
+			this.backend = backend;
+			this.parent = parent;
+			this.name = name;
+		}
+
+		@NonNull
+		@Override
+		public VirtualFileSystem getVirtualFileSystem() {
+			throw new UnsupportedOperationException();
+		}
+
+		@NonNull
+		@Override
+		public String getName() {
+			return name;
+		}
+
+		@NonNull
+		@Override
+		public Rid getRid() {
+			return Rid.create("mem://" + backend.host + "/" + name);
+		}
+
+		@NonNull
+		@Override
+		public FutureSupplier<Boolean> delete() {
+			return backend.call(() -> {
+				synchronized (backend) {
+					return parent.children.remove(name) != null;
+				}
+			});
+		}
+
+		@NonNull
+		@Override
+		public FutureSupplier<Boolean> renameTo(VirtualFolder folder, CharSequence name) {
+			if (!(folder instanceof MemFolder) || (((MemFolder) folder).backend != backend)) {
+				return completed(false);
+			}
+
+			return backend.call(() -> {
+				synchronized (backend) {
+					MemFolder f = (MemFolder) folder;
+					if (f.children.containsKey(name.toString())) return false;
+					parent.children.remove(this.name);
+					f.children.put(this.name = name.toString(), this);
+					parent = f;
+					return true;
+				}
+			});
+		}
+	}
+
+	private static final class MemFolder extends MemResource implements VirtualFolder {
+		final Map<String, VirtualResource> children = new TreeMap<>();
+
+		MemFolder(Backend backend, MemFolder parent, String name) {
+			super(backend, parent, name);
+		}
+
+		MemFolder folder(String name) {
+			MemFolder f = new MemFolder(backend, this, name);
+			children.put(name, f);
+			return f;
+		}
+
+		void file(String name, byte[] data) {
+			children.put(name, new MemFile(backend, this, name, data));
+		}
+
+		@Override
+		public FutureSupplier<List<VirtualResource>> getChildren() {
+			return backend.call(() -> {
+				synchronized (backend) {
+					return new ArrayList<>(children.values());
+				}
+			});
+		}
+
+		@Override
+		public FutureSupplier<VirtualFile> createFile(CharSequence name) {
+			return backend.call(() -> {
+				synchronized (backend) {
+					MemFile f = new MemFile(backend, this, name.toString(), new byte[0]);
+					children.put(f.name, f);
+					return f;
+				}
+			});
+		}
+
+		@Override
+		public FutureSupplier<VirtualFolder> createFolder(CharSequence name) {
+			return backend.call(() -> {
+				synchronized (backend) {
+					return folder(name.toString());
+				}
+			});
+		}
+	}
+
+	private static final class MemFile extends MemResource implements VirtualFile {
+		byte[] data;
+
+		MemFile(Backend backend, MemFolder parent, String name, byte[] data) {
+			super(backend, parent, name);
+			this.data = data;
+		}
+
+		@Override
+		public FutureSupplier<Long> getLength() {
+			return backend.call(() -> {
+				if (data == null) throw new IOException("Failed to get length");
+				return (long) data.length;
+			});
+		}
+
+		@Override
+		public AsyncInputStream getInputStream(long offset) {
+			return AsyncInputStream.from(new ByteArrayInputStream(data, (int) offset, data.length), 1024);
+		}
+
+		@Override
+		public AsyncOutputStream getOutputStream() {
+			return AsyncOutputStream.from(new ByteArrayOutputStream() {
+				@Override
+				public void close() {
+					data = Arrays.copyOf(buf, count);
+				}
+			});
+		}
+	}
+}